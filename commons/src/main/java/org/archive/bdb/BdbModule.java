@@ -63,6 +63,8 @@ import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseNotFoundException;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
 import com.sleepycat.je.util.DbBackup;
 
 /**
@@ -249,6 +251,32 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.useHardLinkCheckpoints = useHardLinkCheckpoints;
     }
     
+    /**
+     * Maximum number of objects each object cache (queues, servers, hosts,
+     * ...) holds in memory, beyond those in use. If neither this nor
+     * objectCacheMaxBytes is set (the default), objects are held by soft
+     * references until the garbage collector needs the memory.
+     */
+    protected long objectCacheMaxEntries = 0;
+    public long getObjectCacheMaxEntries() {
+        return objectCacheMaxEntries;
+    }
+    public void setObjectCacheMaxEntries(long objectCacheMaxEntries) {
+        this.objectCacheMaxEntries = objectCacheMaxEntries;
+    }
+
+    /**
+     * Maximum estimated bytes of objects each object cache holds in memory,
+     * beyond those in use; objects are weighed by their serialized size.
+     */
+    protected long objectCacheMaxBytes = 0;
+    public long getObjectCacheMaxBytes() {
+        return objectCacheMaxBytes;
+    }
+    public void setObjectCacheMaxBytes(long objectCacheMaxBytes) {
+        this.objectCacheMaxBytes = objectCacheMaxBytes;
+    }
+
     private transient EnhancedEnvironment bdbEnvironment;
         
     private transient StoredClassCatalog classCatalog;
@@ -465,6 +493,8 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             }
         }
         ObjectIdentityBdbManualCache<V> oic = new ObjectIdentityBdbManualCache<V>();
+        oic.setMaxMemoryEntries(getObjectCacheMaxEntries());
+        oic.setMaxMemoryBytes(getObjectCacheMaxBytes());
         oic.initialize(bdbEnvironment, dbName, valueClass, classCatalog);
         oiCaches.put(dbName, oic);
         return oic;
@@ -707,6 +737,16 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         }
     }
     
+    /**
+     * Statistics of the environment, such as cache fetches and misses.
+     * 
+     * @param config whether to gather fast statistics only, and whether to
+     * clear them
+     */
+    public EnvironmentStats getEnvironmentStats(StatsConfig config) {
+        return bdbEnvironment.getStats(config);
+    }
+
     public Database getDatabase(String name) {
         DatabasePlusConfig dpc = databases.get(name);
         if (dpc == null) {
@@ -81,6 +81,26 @@ public class KeyedProperties extends ConcurrentSkipListMap<String,Object> {
         return super.get(key);
     }
 
+    /**
+     * Whether the given overlay map holds a value for any property reached
+     * by one of this map's external paths.
+     * 
+     * @param overlay overlay map, keyed by full property path; may be null
+     * @return true if the overlay overrides anything here
+     */
+    public boolean isOverriddenBy(Map<String,Object> overlay) {
+        if (overlay == null || externalPaths.isEmpty()) {
+            return false;
+        }
+        for (String fullpath : overlay.keySet()) {
+            int lastDot = fullpath.lastIndexOf(".");
+            if (lastDot > 0 && externalPaths.contains(fullpath.substring(0, lastDot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Compose the complete keys (externalPath + local key name) to use
      * for checking for contextual overrides. 
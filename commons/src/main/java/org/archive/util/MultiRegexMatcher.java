@@ -0,0 +1,1215 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Tests a string against a list of {@link Pattern}s at once, in time linear
+ * in the length of the string however the patterns are written.
+ *
+ * <p>The patterns are combined into one nondeterministic automaton, which
+ * is run as a lazily built DFA, so there is no backtracking. This supports
+ * the regular subset of {@link Pattern} syntax: literals and escapes, the
+ * usual character classes (without unions or intersections), {@code .},
+ * groups, alternation, greedy and reluctant quantifiers, the
+ * {@code i s m d} flags (inline or compiled in), and {@code ^}, {@code $},
+ * {@code \A}, {@code \z}, {@code \Z} at the very start or end of the
+ * pattern. Patterns using anything else (backreferences, lookaround,
+ * possessive quantifiers, word boundaries, Unicode properties and case,
+ * ...) are kept as-is and matched with {@link java.util.regex}, as are
+ * inputs containing surrogate characters, where the two differ on what a
+ * character is.
+ *
+ * <p>Instances are immutable apart from the shared DFA cache, and safe for
+ * concurrent use.
+ */
+public class MultiRegexMatcher {
+    private static final Logger logger =
+        Logger.getLogger(MultiRegexMatcher.class.getName());
+
+    /** Matches one pattern with java.util.regex, for unsupported patterns. */
+    public interface Fallback {
+        boolean matches(Pattern pattern, CharSequence input);
+    }
+
+    public static final Fallback MATCHES = (p, s) -> p.matcher(s).matches();
+    public static final Fallback FIND = (p, s) -> p.matcher(s).find();
+
+    /** most NFA states allowed per pattern, after expanding counted repeats */
+    protected static final int MAX_PATTERN_STATES = 10000;
+    /** most DFA states cached per automaton; further ones are not kept */
+    protected static final int MAX_DFA_STATES = 10000;
+
+    /** most matchers kept by each of the caches below */
+    protected static final int MAX_CACHED = 1000;
+    protected static final Map<String, MultiRegexMatcher> REGEX_CACHE =
+            new ConcurrentHashMap<String, MultiRegexMatcher>();
+    protected static final Map<List<Pattern>, MultiRegexMatcher> PATTERNS_CACHE =
+            new ConcurrentHashMap<List<Pattern>, MultiRegexMatcher>();
+
+    protected final Pattern[] patterns;
+    /** pattern index of each automaton match id */
+    protected final int[] compiledIndexes;
+    /** indexes of patterns matched with java.util.regex */
+    protected final int[] fallbackIndexes;
+    /** whole-input matching */
+    protected final Automaton full;
+    /** substring matching, for compiled patterns without anchors */
+    protected final Automaton search;
+    /** pattern indexes searchable by the search automaton */
+    protected final BitSet searchable;
+
+    protected MultiRegexMatcher(List<Pattern> patternList) {
+        this.patterns = patternList.toArray(new Pattern[0]);
+        List<Node> nodes = new ArrayList<Node>();
+        List<Node> searchNodes = new ArrayList<Node>();
+        List<Integer> compiled = new ArrayList<Integer>();
+        List<Integer> searchIds = new ArrayList<Integer>();
+        List<Integer> fallback = new ArrayList<Integer>();
+        searchable = new BitSet();
+        for (int i = 0; i < patterns.length; i++) {
+            try {
+                Parser parser = new Parser(patterns[i].pattern(), patterns[i].flags());
+                Node node = parser.parse();
+                if (node.size() > MAX_PATTERN_STATES) {
+                    throw new Unsupported("too many states");
+                }
+                nodes.add(node);
+                compiled.add(i);
+                if (!parser.anchored) {
+                    searchNodes.add(node);
+                    searchIds.add(i);
+                    searchable.set(i);
+                }
+            } catch (Unsupported e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("matching '" + patterns[i].pattern()
+                            + "' with java.util.regex: " + e.getMessage());
+                }
+                fallback.add(i);
+            }
+        }
+        this.compiledIndexes = toArray(compiled);
+        this.fallbackIndexes = toArray(fallback);
+        this.full = nodes.isEmpty() ? null
+                : new Automaton(nodes, false, this.compiledIndexes);
+        this.search = searchNodes.isEmpty() ? null
+                : new Automaton(searchNodes, true, toArray(searchIds));
+    }
+
+    public static MultiRegexMatcher compile(List<Pattern> patterns) {
+        return new MultiRegexMatcher(patterns);
+    }
+
+    public static MultiRegexMatcher compile(Pattern pattern) {
+        return new MultiRegexMatcher(Arrays.asList(pattern));
+    }
+
+    /**
+     * Get a (cached) matcher for a single regex string, compiled as by
+     * {@link TextUtils#getMatcher(String, CharSequence)}.
+     */
+    public static MultiRegexMatcher forRegex(String regex) {
+        MultiRegexMatcher m = REGEX_CACHE.get(regex);
+        if (m == null) {
+            m = compile(Pattern.compile(regex));
+            if (REGEX_CACHE.size() >= MAX_CACHED) {
+                REGEX_CACHE.clear();
+            }
+            REGEX_CACHE.put(regex, m);
+        }
+        return m;
+    }
+
+    /**
+     * Get a (cached) matcher for a list of patterns. Lists are compared by
+     * the identity of their patterns, so a list changed since it was last
+     * seen gets a fresh matcher.
+     */
+    public static MultiRegexMatcher forPatterns(List<Pattern> patterns) {
+        MultiRegexMatcher m = PATTERNS_CACHE.get(patterns);
+        if (m == null) {
+            List<Pattern> snapshot = Collections.unmodifiableList(
+                    new ArrayList<Pattern>(patterns));
+            m = compile(snapshot);
+            if (PATTERNS_CACHE.size() >= MAX_CACHED) {
+                PATTERNS_CACHE.clear();
+            }
+            PATTERNS_CACHE.put(snapshot, m);
+        }
+        return m;
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * @return whether pattern i is run by the automaton (rather than by
+     * java.util.regex) for inputs without surrogate characters
+     */
+    public boolean isCompiled(int i) {
+        return Arrays.binarySearch(compiledIndexes, i) >= 0;
+    }
+
+    /**
+     * Whether any pattern matches the whole input.
+     */
+    public boolean matchesAny(CharSequence input) {
+        return matchesAny(input, MATCHES);
+    }
+
+    public boolean matchesAny(CharSequence input, Fallback fallback) {
+        BitSet matched = full == null ? new BitSet() : full.run(input, false);
+        if (matched == null) {
+            return anyFallback(input, fallback, allIndexes());
+        }
+        if (!matched.isEmpty()) {
+            return true;
+        }
+        return anyFallback(input, fallback, fallbackIndexes);
+    }
+
+    /**
+     * Whether every pattern matches the whole input (false if there are no
+     * patterns).
+     */
+    public boolean matchesAll(CharSequence input) {
+        return matchesAll(input, MATCHES);
+    }
+
+    public boolean matchesAll(CharSequence input, Fallback fallback) {
+        if (patterns.length == 0) {
+            return false;
+        }
+        BitSet matched = full == null ? new BitSet() : full.run(input, false);
+        if (matched == null) {
+            return allFallback(input, fallback, allIndexes());
+        }
+        if (matched.cardinality() < compiledIndexes.length) {
+            return false;
+        }
+        return allFallback(input, fallback, fallbackIndexes);
+    }
+
+    /**
+     * Whether any pattern matches some substring of the input, as by
+     * {@link java.util.regex.Matcher#find()}.
+     */
+    public boolean findsAny(CharSequence input) {
+        int[] others = otherThanSearchable();
+        if (search != null) {
+            BitSet found = search.run(input, true);
+            if (found == null) {
+                return anyFallback(input, FIND, allIndexes());
+            }
+            if (!found.isEmpty()) {
+                return true;
+            }
+        }
+        return anyFallback(input, FIND, others);
+    }
+
+    protected boolean anyFallback(CharSequence input, Fallback fallback, int[] indexes) {
+        for (int i : indexes) {
+            if (fallback.matches(patterns[i], input)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean allFallback(CharSequence input, Fallback fallback, int[] indexes) {
+        for (int i : indexes) {
+            if (!fallback.matches(patterns[i], input)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected int[] allIndexes() {
+        int[] all = new int[patterns.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    protected int[] otherThanSearchable() {
+        int[] others = new int[patterns.length - searchable.cardinality()];
+        int n = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            if (!searchable.get(i)) {
+                others[n++] = i;
+            }
+        }
+        return others;
+    }
+
+    protected static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+
+    //
+    // Parsing
+    //
+
+    protected static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+        public Unsupported(String message) {
+            super(message);
+        }
+    }
+
+    /** Regex syntax tree. */
+    protected abstract static class Node {
+        /** NFA states this node compiles to */
+        abstract long size();
+    }
+
+    protected static class CharNode extends Node {
+        final CharSet set;
+        CharNode(CharSet set) {
+            this.set = set;
+        }
+        long size() {
+            return 1;
+        }
+    }
+
+    protected static class Concat extends Node {
+        final List<Node> items = new ArrayList<Node>();
+        long size() {
+            long n = 0;
+            for (Node item : items) {
+                n += item.size();
+            }
+            return n;
+        }
+    }
+
+    protected static class Alt extends Node {
+        final List<Node> items = new ArrayList<Node>();
+        long size() {
+            long n = items.size();
+            for (Node item : items) {
+                n += item.size();
+            }
+            return n;
+        }
+    }
+
+    protected static class Repeat extends Node {
+        final Node body;
+        final int min;
+        final int max; // -1 for unbounded
+        Repeat(Node body, int min, int max) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+        }
+        long size() {
+            long copies = (max < 0) ? Math.max(min, 1) : max;
+            // capped so nested repeats can't overflow
+            return Math.min((body.size() + 1) * copies + 1, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of Pattern syntax.
+     * Anything else throws {@link Unsupported}.
+     */
+    protected static class Parser {
+        static final int UNSUPPORTED_FLAGS = Pattern.COMMENTS | Pattern.UNICODE_CASE
+                | Pattern.CANON_EQ | Pattern.UNICODE_CHARACTER_CLASS;
+
+        final String p;
+        int pos = 0;
+        int flags;
+        /** whether the pattern had an edge anchor (only ok for whole matches) */
+        boolean anchored = false;
+        int depth = 0;
+        boolean atomSeen = false;
+        /** whether a ^ or $ anchor was dropped */
+        boolean lineAnchor = false;
+        /** whether MULTILINE is set anywhere */
+        boolean multiline = false;
+
+        Parser(String pattern, int flags) {
+            this.p = pattern;
+            this.flags = flags;
+        }
+
+        Node parse() throws Unsupported {
+            if ((flags & UNSUPPORTED_FLAGS) != 0) {
+                throw new Unsupported("flags " + flags);
+            }
+            for (int i = 0; i < p.length(); i++) {
+                if (Character.isSurrogate(p.charAt(i))) {
+                    throw new Unsupported("supplementary characters");
+                }
+            }
+            if ((flags & Pattern.LITERAL) != 0) {
+                Concat c = new Concat();
+                for (int i = 0; i < p.length(); i++) {
+                    c.items.add(literal(p.charAt(i)));
+                }
+                return c;
+            }
+            multiline = (flags & Pattern.MULTILINE) != 0;
+            boolean startAnchor = false;
+            if (p.startsWith("^")) {
+                startAnchor = true;
+                lineAnchor = true;
+                pos = 1;
+            } else if (p.startsWith("\\A")) {
+                startAnchor = true;
+                pos = 2;
+            }
+            Node node = parseAlternation();
+            if (pos < p.length()) {
+                throw new Unsupported("unexpected '" + p.charAt(pos) + "' at " + pos);
+            }
+            if (lineAnchor && multiline) {
+                // multiline ^ never matches at the end of input
+                throw new Unsupported("multiline anchors");
+            }
+            anchored |= startAnchor;
+            return node;
+        }
+
+        boolean more() {
+            return pos < p.length();
+        }
+
+        char peek() {
+            return p.charAt(pos);
+        }
+
+        boolean isCaseInsensitive() {
+            return (flags & Pattern.CASE_INSENSITIVE) != 0;
+        }
+
+        Node parseAlternation() throws Unsupported {
+            Alt alt = new Alt();
+            alt.items.add(parseConcat());
+            while (more() && peek() == '|') {
+                pos++;
+                alt.items.add(parseConcat());
+            }
+            return alt.items.size() == 1 ? alt.items.get(0) : alt;
+        }
+
+        Node parseConcat() throws Unsupported {
+            Concat concat = new Concat();
+            while (more() && peek() != '|' && peek() != ')') {
+                if (endAnchorAt(pos)) {
+                    // only at the very end of the pattern
+                    lineAnchor |= p.endsWith("$");
+                    pos = p.length();
+                    anchored = true;
+                    break;
+                }
+                Node atom = parseAtom();
+                if (atom == null) {
+                    continue; // flag group
+                }
+                atomSeen = true;
+                concat.items.add(parseQuantifiers(atom));
+            }
+            return concat.items.size() == 1 ? concat.items.get(0) : concat;
+        }
+
+        boolean endAnchorAt(int at) {
+            String rest = p.substring(at);
+            return rest.equals("$") || rest.equals("\\z") || rest.equals("\\Z");
+        }
+
+        Node parseQuantifiers(Node atom) throws Unsupported {
+            if (!more()) {
+                return atom;
+            }
+            int min, max;
+            char c = peek();
+            if (c == '*') {
+                min = 0; max = -1; pos++;
+            } else if (c == '+') {
+                min = 1; max = -1; pos++;
+            } else if (c == '?') {
+                min = 0; max = 1; pos++;
+            } else if (c == '{') {
+                int close = p.indexOf('}', pos);
+                if (close < 0) {
+                    throw new Unsupported("bad repetition");
+                }
+                String spec = p.substring(pos + 1, close);
+                try {
+                    int comma = spec.indexOf(',');
+                    if (comma < 0) {
+                        min = max = Integer.parseInt(spec);
+                    } else {
+                        min = Integer.parseInt(spec.substring(0, comma));
+                        String m = spec.substring(comma + 1);
+                        max = m.isEmpty() ? -1 : Integer.parseInt(m);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new Unsupported("bad repetition");
+                }
+                if (min < 0 || (max >= 0 && max < min) || min > MAX_PATTERN_STATES
+                        || max > MAX_PATTERN_STATES) {
+                    throw new Unsupported("bad repetition");
+                }
+                pos = close + 1;
+            } else {
+                return atom;
+            }
+            if (more() && peek() == '?') {
+                pos++; // reluctant: same set of whole matches
+            } else if (more() && peek() == '+') {
+                throw new Unsupported("possessive quantifier");
+            }
+            if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{')) {
+                throw new Unsupported("stacked quantifiers");
+            }
+            return new Repeat(atom, min, max);
+        }
+
+        /** @return the atom, or null for a flag-only group */
+        Node parseAtom() throws Unsupported {
+            char c = p.charAt(pos++);
+            switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return new CharNode(parseClass());
+            case '.':
+                if ((flags & Pattern.DOTALL) != 0) {
+                    return new CharNode(CharSet.ALL);
+                } else if ((flags & Pattern.UNIX_LINES) != 0) {
+                    return new CharNode(CharSet.of('\n').negate());
+                }
+                return new CharNode(CharSet.LINE_TERMINATORS.negate());
+            case '\\':
+                return parseEscape();
+            case '^':
+            case '$':
+                throw new Unsupported("inner anchor");
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw new Unsupported("dangling quantifier");
+            default:
+                return literal(c);
+            }
+        }
+
+        Node parseGroup() throws Unsupported {
+            int savedFlags = flags;
+            if (more() && peek() == '?') {
+                pos++;
+                if (!more()) {
+                    throw new Unsupported("bad group");
+                }
+                char c = peek();
+                if (c == ':') {
+                    pos++;
+                } else if (c == '<' && pos + 1 < p.length()
+                        && Character.isLetter(p.charAt(pos + 1))) {
+                    // named capturing group
+                    int close = p.indexOf('>', pos);
+                    if (close < 0) {
+                        throw new Unsupported("bad group name");
+                    }
+                    pos = close + 1;
+                } else {
+                    boolean on = true;
+                    int newFlags = flags;
+                    while (more() && peek() != ')' && peek() != ':') {
+                        char f = p.charAt(pos++);
+                        int bit;
+                        switch (f) {
+                        case '-': on = false; continue;
+                        case 'i': bit = Pattern.CASE_INSENSITIVE; break;
+                        case 's': bit = Pattern.DOTALL; break;
+                        case 'm': bit = Pattern.MULTILINE; multiline = true; break;
+                        case 'd': bit = Pattern.UNIX_LINES; break;
+                        default:
+                            // lookaround, atomic groups, unicode/comments flags
+                            throw new Unsupported("group construct (?" + f);
+                        }
+                        newFlags = on ? (newFlags | bit) : (newFlags & ~bit);
+                    }
+                    if (!more()) {
+                        throw new Unsupported("bad group");
+                    }
+                    if (p.charAt(pos++) == ')') {
+                        if (depth == 0 && atomSeen) {
+                            // Pattern.flags() reports top-level inline flags
+                            // along with compiled ones, so what applied before
+                            // this point can't be told
+                            throw new Unsupported("top-level flags after start");
+                        }
+                        // applies to the rest of the enclosing group
+                        flags = newFlags;
+                        return null;
+                    }
+                    flags = newFlags;
+                }
+            }
+            depth++;
+            Node body = parseAlternation();
+            depth--;
+            if (!more() || peek() != ')') {
+                throw new Unsupported("unclosed group");
+            }
+            pos++;
+            flags = savedFlags;
+            return body;
+        }
+
+        Node parseEscape() throws Unsupported {
+            if (!more()) {
+                throw new Unsupported("trailing backslash");
+            }
+            char c = peek();
+            if (c == 'Q') {
+                pos++;
+                int end = p.indexOf("\\E", pos);
+                String quoted = end < 0 ? p.substring(pos) : p.substring(pos, end);
+                pos = end < 0 ? p.length() : end + 2;
+                if (more() && "*+?{".indexOf(peek()) >= 0) {
+                    // applies to the last quoted char only
+                    throw new Unsupported("quantified \\Q..\\E");
+                }
+                Concat concat = new Concat();
+                for (int i = 0; i < quoted.length(); i++) {
+                    concat.items.add(literal(quoted.charAt(i)));
+                }
+                return concat;
+            }
+            CharSet predefined = parsePredefined();
+            if (predefined != null) {
+                return new CharNode(predefined);
+            }
+            return literal(parseEscapedChar());
+        }
+
+        /** \d \D \s \S \w \W \h \H \v \V, or null (consuming nothing) */
+        CharSet parsePredefined() {
+            CharSet set;
+            switch (peek()) {
+            case 'd': case 'D': set = CharSet.DIGIT; break;
+            case 's': case 'S': set = CharSet.SPACE; break;
+            case 'w': case 'W': set = CharSet.WORD; break;
+            case 'h': case 'H': set = CharSet.HORIZONTAL_SPACE; break;
+            case 'v': case 'V': set = CharSet.VERTICAL_SPACE; break;
+            default: return null;
+            }
+            char c = p.charAt(pos++);
+            return Character.isUpperCase(c) ? set.negate() : set;
+        }
+
+        char parseEscapedChar() throws Unsupported {
+            char c = p.charAt(pos++);
+            switch (c) {
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return '\u0007';
+            case 'e': return '\u001B';
+            case '0': {
+                int value = 0;
+                int digits = 0;
+                int maxDigits = (more() && peek() <= '3') ? 3 : 2;
+                while (more() && digits < maxDigits && peek() >= '0' && peek() <= '7') {
+                    value = value * 8 + (p.charAt(pos++) - '0');
+                    digits++;
+                }
+                if (digits == 0) {
+                    throw new Unsupported("bad octal escape");
+                }
+                return (char) value;
+            }
+            case 'x': {
+                if (more() && peek() == '{') {
+                    int close = p.indexOf('}', pos);
+                    int value = hex(pos + 1, close);
+                    if (value > 0xFFFF || Character.isSurrogate((char) value)) {
+                        throw new Unsupported("supplementary characters");
+                    }
+                    pos = close + 1;
+                    return (char) value;
+                }
+                int value = hex(pos, pos + 2);
+                pos += 2;
+                return (char) value;
+            }
+            case 'u': {
+                int value = hex(pos, pos + 4);
+                pos += 4;
+                if (Character.isSurrogate((char) value)) {
+                    throw new Unsupported("supplementary characters");
+                }
+                return (char) value;
+            }
+            case 'c':
+                if (!more()) {
+                    throw new Unsupported("bad control escape");
+                }
+                return (char) (p.charAt(pos++) ^ 64);
+            default:
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                        || (c >= '0' && c <= '9')) {
+                    // backreferences, boundaries, \p{..}, \R, \X, \G, ...
+                    throw new Unsupported("escape \\" + c);
+                }
+                return c;
+            }
+        }
+
+        int hex(int start, int end) throws Unsupported {
+            if (start < 0 || end > p.length() || end <= start) {
+                throw new Unsupported("bad hex escape");
+            }
+            try {
+                return Integer.parseInt(p.substring(start, end), 16);
+            } catch (NumberFormatException e) {
+                throw new Unsupported("bad hex escape");
+            }
+        }
+
+        /** Parse a character class, after the opening '['. */
+        CharSet parseClass() throws Unsupported {
+            boolean negated = false;
+            if (more() && peek() == '^') {
+                negated = true;
+                pos++;
+            }
+            if (more() && peek() == ']') {
+                throw new Unsupported("']' first in class");
+            }
+            CharSet set = CharSet.EMPTY;
+            int pending = -1; // last single char, a possible range start
+            while (true) {
+                if (!more()) {
+                    throw new Unsupported("unclosed class");
+                }
+                char c = p.charAt(pos++);
+                if (c == ']') {
+                    break;
+                }
+                if (c == '[' || (c == '&' && more() && peek() == '&')) {
+                    throw new Unsupported("class union or intersection");
+                }
+                if (c == '-' && pending >= 0 && more() && peek() != ']') {
+                    // range
+                    char hi;
+                    char d = p.charAt(pos++);
+                    if (d == '\\') {
+                        if (!more() || parsePredefinedPeek()) {
+                            throw new Unsupported("bad range");
+                        }
+                        if (peek() == 'Q') {
+                            throw new Unsupported("\\Q in class");
+                        }
+                        hi = parseEscapedChar();
+                    } else if (d == '[') {
+                        throw new Unsupported("class union");
+                    } else {
+                        hi = d;
+                    }
+                    if (hi < pending) {
+                        throw new Unsupported("bad range");
+                    }
+                    set = set.union(CharSet.range((char) pending, hi));
+                    pending = -1;
+                    continue;
+                }
+                if (c == '-' && pending < 0 && more() && peek() != ']'
+                        && set != CharSet.EMPTY) {
+                    // after a predefined class; ambiguous, leave to java
+                    throw new Unsupported("'-' after class");
+                }
+                if (c == '\\') {
+                    if (!more()) {
+                        throw new Unsupported("trailing backslash");
+                    }
+                    if (peek() == 'Q' || peek() == 'E') {
+                        throw new Unsupported("\\Q in class");
+                    }
+                    CharSet predefined = parsePredefined();
+                    if (predefined != null) {
+                        set = set.union(predefined);
+                        pending = -1;
+                        continue;
+                    }
+                    c = parseEscapedChar();
+                }
+                set = set.union(CharSet.of(c));
+                pending = c;
+            }
+            if (isCaseInsensitive()) {
+                set = set.withAsciiCaseVariants();
+            }
+            return negated ? set.negate() : set;
+        }
+
+        boolean parsePredefinedPeek() {
+            switch (peek()) {
+            case 'd': case 'D': case 's': case 'S': case 'w': case 'W':
+            case 'h': case 'H': case 'v': case 'V':
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        Node literal(char c) {
+            CharSet set = CharSet.of(c);
+            if (isCaseInsensitive()) {
+                set = set.withAsciiCaseVariants();
+            }
+            return new CharNode(set);
+        }
+    }
+
+    /**
+     * Immutable set of chars, as sorted disjoint inclusive ranges.
+     */
+    protected static class CharSet {
+        static final CharSet EMPTY = new CharSet(new int[0]);
+        static final CharSet ALL = new CharSet(new int[] {0, 0xFFFF});
+        static final CharSet DIGIT = new CharSet(new int[] {'0', '9'});
+        static final CharSet SPACE = new CharSet(new int[] {'\t', '\r', ' ', ' '});
+        static final CharSet WORD = new CharSet(new int[] {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+        static final CharSet HORIZONTAL_SPACE = new CharSet(new int[] {'\t', '\t', ' ', ' ',
+                0xA0, 0xA0, 0x1680, 0x1680, 0x180e, 0x180e, 0x2000, 0x200a,
+                0x202f, 0x202f, 0x205f, 0x205f, 0x3000, 0x3000});
+        static final CharSet VERTICAL_SPACE = new CharSet(new int[] {'\n', '\r',
+                0x85, 0x85, 0x2028, 0x2029});
+        static final CharSet LINE_TERMINATORS = new CharSet(new int[] {'\n', '\n',
+                '\r', '\r', 0x85, 0x85, 0x2028, 0x2029});
+
+        final int[] ranges;
+
+        CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(char c) {
+            return new CharSet(new int[] {c, c});
+        }
+
+        static CharSet range(char lo, char hi) {
+            return new CharSet(new int[] {lo, hi});
+        }
+
+        boolean contains(int c) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c >= ranges[i] && c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CharSet union(CharSet other) {
+            BitSet bits = toBits();
+            bits.or(other.toBits());
+            return fromBits(bits);
+        }
+
+        CharSet negate() {
+            BitSet bits = toBits();
+            bits.flip(0, 0x10000);
+            return fromBits(bits);
+        }
+
+        /** Add the other case of every ASCII letter, as Pattern does for CASE_INSENSITIVE. */
+        CharSet withAsciiCaseVariants() {
+            BitSet bits = toBits();
+            for (char c = 'a'; c <= 'z'; c++) {
+                char u = Character.toUpperCase(c);
+                if (bits.get(c) || bits.get(u)) {
+                    bits.set(c);
+                    bits.set(u);
+                }
+            }
+            return fromBits(bits);
+        }
+
+        BitSet toBits() {
+            BitSet bits = new BitSet(0x10000);
+            for (int i = 0; i < ranges.length; i += 2) {
+                bits.set(ranges[i], ranges[i + 1] + 1);
+            }
+            return bits;
+        }
+
+        static CharSet fromBits(BitSet bits) {
+            List<Integer> r = new ArrayList<Integer>();
+            int start = bits.nextSetBit(0);
+            while (start >= 0 && start < 0x10000) {
+                int end = bits.nextClearBit(start);
+                r.add(start);
+                r.add(Math.min(end, 0x10000) - 1);
+                start = bits.nextSetBit(end);
+            }
+            return new CharSet(toArray(r));
+        }
+    }
+
+    //
+    // Automaton
+    //
+
+    /**
+     * Thompson NFA over all patterns, simulated through a lazily built,
+     * bounded DFA cache.
+     */
+    protected static class Automaton {
+        static final int CHAR = 0, SPLIT = 1, MATCH = 2;
+
+        // NFA states
+        int[] kind = new int[64];
+        int[] out = new int[64];
+        int[] out1 = new int[64];
+        /** CHAR: index of its class set; MATCH: match id */
+        int[] arg = new int[64];
+        int count = 0;
+        List<BitSet> stateClasses = new ArrayList<BitSet>();
+        final int start;
+        final int[] matchIdToPattern;
+
+        // alphabet partition: class of char c is the index of the last
+        // boundary <= c
+        final int[] boundaries;
+        final byte[] asciiClass = new byte[128];
+
+        final ConcurrentHashMap<StateKey, DState> dstates =
+                new ConcurrentHashMap<StateKey, DState>();
+        final DState initial;
+
+        /**
+         * @param ids pattern index of each node
+         * @param unanchored whether to match substrings rather than whole inputs
+         */
+        Automaton(List<Node> nodes, boolean unanchored, int[] ids) {
+            // partition the alphabet by every set's boundaries
+            TreeSet<Integer> bounds = new TreeSet<Integer>();
+            bounds.add(0);
+            List<CharSet> sets = new ArrayList<CharSet>();
+            for (Node n : nodes) {
+                collectSets(n, sets);
+            }
+            if (unanchored) {
+                sets.add(CharSet.ALL);
+            }
+            for (CharSet s : sets) {
+                for (int i = 0; i < s.ranges.length; i += 2) {
+                    bounds.add(s.ranges[i]);
+                    if (s.ranges[i + 1] + 1 <= 0xFFFF) {
+                        bounds.add(s.ranges[i + 1] + 1);
+                    }
+                }
+            }
+            boundaries = new int[bounds.size()];
+            int b = 0;
+            for (int bound : bounds) {
+                boundaries[b++] = bound;
+            }
+            for (int c = 0; c < 128; c++) {
+                asciiClass[c] = (byte) Math.min(127, classOfSearch(c));
+            }
+
+            matchIdToPattern = new int[nodes.size()];
+            int[] starts = new int[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                matchIdToPattern[i] = ids[i];
+                int match = newState(MATCH, -1, -1, i);
+                starts[i] = compile(nodes.get(i), match);
+            }
+            // alternation of all pattern starts
+            int s = starts[starts.length - 1];
+            for (int i = starts.length - 2; i >= 0; i--) {
+                s = newState(SPLIT, starts[i], s, -1);
+            }
+            if (unanchored) {
+                // any prefix: loop -> (any char -> loop) | patterns
+                int loop = newState(SPLIT, -1, s, -1);
+                int any = newCharState(CharSet.ALL, loop);
+                out[loop] = any;
+                s = loop;
+            }
+            start = s;
+            initial = intern(closure(new int[] {start}));
+        }
+
+        int numClasses() {
+            return boundaries.length;
+        }
+
+        int classOfSearch(int c) {
+            int i = Arrays.binarySearch(boundaries, c);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        int classOf(char c) {
+            if (c < 128 && boundaries.length < 128) {
+                return asciiClass[c];
+            }
+            return classOfSearch(c);
+        }
+
+        void collectSets(Node n, List<CharSet> sets) {
+            if (n instanceof CharNode) {
+                sets.add(((CharNode) n).set);
+            } else if (n instanceof Concat) {
+                for (Node item : ((Concat) n).items) {
+                    collectSets(item, sets);
+                }
+            } else if (n instanceof Alt) {
+                for (Node item : ((Alt) n).items) {
+                    collectSets(item, sets);
+                }
+            } else if (n instanceof Repeat) {
+                collectSets(((Repeat) n).body, sets);
+            }
+        }
+
+        int newState(int k, int o, int o1, int a) {
+            if (count == kind.length) {
+                int n = count * 2;
+                kind = Arrays.copyOf(kind, n);
+                out = Arrays.copyOf(out, n);
+                out1 = Arrays.copyOf(out1, n);
+                arg = Arrays.copyOf(arg, n);
+            }
+            kind[count] = k;
+            out[count] = o;
+            out1[count] = o1;
+            arg[count] = a;
+            return count++;
+        }
+
+        int newCharState(CharSet set, int next) {
+            BitSet classes = new BitSet(boundaries.length);
+            for (int c = 0; c < boundaries.length; c++) {
+                if (set.contains(boundaries[c])) {
+                    classes.set(c);
+                }
+            }
+            stateClasses.add(classes);
+            return newState(CHAR, next, -1, stateClasses.size() - 1);
+        }
+
+        /** Compile node so that it continues at state next; returns its start. */
+        int compile(Node n, int next) {
+            if (n instanceof CharNode) {
+                return newCharState(((CharNode) n).set, next);
+            } else if (n instanceof Concat) {
+                List<Node> items = ((Concat) n).items;
+                int s = next;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    s = compile(items.get(i), s);
+                }
+                return s;
+            } else if (n instanceof Alt) {
+                List<Node> items = ((Alt) n).items;
+                int s = compile(items.get(items.size() - 1), next);
+                for (int i = items.size() - 2; i >= 0; i--) {
+                    s = newState(SPLIT, compile(items.get(i), next), s, -1);
+                }
+                return s;
+            } else if (n instanceof Repeat) {
+                Repeat r = (Repeat) n;
+                int s = next;
+                if (r.max < 0) {
+                    // body* : loop -> body -> loop | next
+                    int loop = newState(SPLIT, -1, next, -1);
+                    int body = compile(r.body, loop); // may grow out[]
+                    out[loop] = body;
+                    s = loop;
+                } else {
+                    // (body (body ...)?)? for the optional copies
+                    for (int i = r.min; i < r.max; i++) {
+                        s = newState(SPLIT, compile(r.body, s), next, -1);
+                    }
+                }
+                for (int i = 0; i < r.min; i++) {
+                    s = compile(r.body, s);
+                }
+                return s;
+            }
+            throw new IllegalStateException("unknown node " + n);
+        }
+
+        /** sorted CHAR and MATCH states reachable through splits */
+        int[] closure(int[] seeds) {
+            BitSet seen = new BitSet(count);
+            BitSet result = new BitSet(count);
+            int[] stack = new int[count + seeds.length];
+            int sp = 0;
+            for (int s : seeds) {
+                stack[sp++] = s;
+            }
+            while (sp > 0) {
+                int s = stack[--sp];
+                if (seen.get(s)) {
+                    continue;
+                }
+                seen.set(s);
+                if (kind[s] == SPLIT) {
+                    if (sp + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[sp++] = out1[s];
+                    stack[sp++] = out[s];
+                } else {
+                    result.set(s);
+                }
+            }
+            return result.stream().toArray();
+        }
+
+        DState intern(int[] states) {
+            StateKey key = new StateKey(states);
+            DState d = dstates.get(key);
+            if (d == null) {
+                d = new DState(this, states);
+                if (dstates.size() < MAX_DFA_STATES) {
+                    DState prior = dstates.putIfAbsent(key, d);
+                    if (prior != null) {
+                        d = prior;
+                    }
+                } else {
+                    d = new DState(this, states, false);
+                }
+            }
+            return d;
+        }
+
+        DState step(DState d, int cls) {
+            DState next = d.next == null ? null : d.next[cls];
+            if (next != null) {
+                return next;
+            }
+            int[] seeds = new int[d.states.length];
+            int n = 0;
+            for (int s : d.states) {
+                if (kind[s] == CHAR && stateClasses.get(arg[s]).get(cls)) {
+                    seeds[n++] = out[s];
+                }
+            }
+            next = intern(closure(Arrays.copyOf(seeds, n)));
+            if (d.next != null) {
+                d.next[cls] = next; // benign race: DState fields are final
+            }
+            return next;
+        }
+
+        /**
+         * @return pattern indexes of the patterns matching the whole input
+         * (or, if searching, some substring), or null if the input contains
+         * surrogates and has to be matched by java.util.regex instead
+         */
+        BitSet run(CharSequence input, boolean searching) {
+            DState d = initial;
+            int len = input.length();
+            for (int i = 0; i < len; i++) {
+                if (searching && d.matches.length > 0) {
+                    break;
+                }
+                if (d.states.length == 0) {
+                    return new BitSet(); // dead
+                }
+                char c = input.charAt(i);
+                if (Character.isSurrogate(c)) {
+                    return null;
+                }
+                d = step(d, classOf(c));
+            }
+            BitSet result = new BitSet();
+            for (int id : d.matches) {
+                result.set(matchIdToPattern[id]);
+            }
+            return result;
+        }
+    }
+
+    protected static class StateKey {
+        final int[] states;
+        final int hash;
+        StateKey(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(states, ((StateKey) o).states);
+        }
+    }
+
+    protected static class DState {
+        final int[] states;
+        /** match ids accepted in this state */
+        final int[] matches;
+        /** cached transitions by char class; null if this state isn't cached */
+        final DState[] next;
+
+        DState(Automaton a, int[] states) {
+            this(a, states, true);
+        }
+
+        DState(Automaton a, int[] states, boolean cached) {
+            this.states = states;
+            int n = 0;
+            int[] m = new int[states.length];
+            for (int s : states) {
+                if (a.kind[s] == Automaton.MATCH) {
+                    m[n++] = a.arg[s];
+                }
+            }
+            this.matches = Arrays.copyOf(m, n);
+            this.next = cached ? new DState[a.numClasses()] : null;
+        }
+    }
+}
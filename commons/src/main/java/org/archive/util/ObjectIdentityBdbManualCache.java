@@ -21,26 +21,30 @@ package org.archive.util;
 
 import java.io.Closeable;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.bdb.KryoBinding;
 
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.collections.StoredIterator;
 import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.Environment;
 
@@ -52,8 +56,16 @@ import com.sleepycat.je.Environment;
  * return the exact same object (avoiding redundant creation or disagreement
  * about canonical object state). 
  * <p>
- * The backing disk is only guaranteed to be up-to-date after a flush 
- * of all dirty values to disk, as can be forced by sync().
+ * If {@link #setMaxMemoryEntries(long)} or {@link #setMaxMemoryBytes(long)}
+ * is set, objects are instead held by a bounded {@link WindowTinyLfuCache},
+ * with only weak references beyond it: so memory use doesn't depend on
+ * GC pressure, but objects still referenced elsewhere keep their identity.
+ * <p>
+ * Dirty values are written to disk by a background flusher thread, once
+ * they have been dirty for {@link #getMaxDirtyAgeMs()} or when there are
+ * more than {@link #getMaxDirtyItems()}. The backing disk is only
+ * guaranteed to be up-to-date after a flush of all dirty values to disk,
+ * as can be forced by sync().
  * <p>
  * 
  * <p>
@@ -77,12 +89,78 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
     /** in-memory map of new/recent/still-referenced-elsewhere instances */
     protected transient ConcurrentMap<String,V> memMap;
 
+    /** bounded strong references into memMap, if limits are configured */
+    protected transient WindowTinyLfuCache<String,V> memTier;
+
     /** The Collection view of the BDB JE database used for this instance. */
     protected transient StoredSortedMap<String, V> diskMap;
 
-    protected transient ConcurrentMap<String,V> dirtyItems;
-    
+    protected transient EntryBinding<V> valueBinding;
+
+    /** a value awaiting write-back, and since when */
+    protected static class DirtyItem<V> {
+        final V value;
+        final long since;
+        DirtyItem(V value, long since) {
+            this.value = value;
+            this.since = since;
+        }
+    }
+
+    protected transient ConcurrentMap<String,DirtyItem<V>> dirtyItems;
+
+    protected transient Flusher flusher;
+
     protected AtomicLong count;
+
+    /**
+     * Maximum number of objects to hold in memory (beyond those still
+     * referenced elsewhere). 0 (the default) means no limit by count;
+     * if neither this nor maxMemoryBytes is set, objects are held by soft
+     * references. Must be set before {@link #initialize}.
+     */
+    protected long maxMemoryEntries = 0;
+    public long getMaxMemoryEntries() {
+        return maxMemoryEntries;
+    }
+    public void setMaxMemoryEntries(long maxMemoryEntries) {
+        this.maxMemoryEntries = maxMemoryEntries;
+    }
+
+    /**
+     * Maximum estimated bytes of objects to hold in memory, each object's
+     * size being estimated by its serialized size when it is loaded or
+     * created. 0 (the default) means no limit by size. Must be set before
+     * {@link #initialize}.
+     */
+    protected long maxMemoryBytes = 0;
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+    public void setMaxMemoryBytes(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /** Dirty values are written back after at most this long. */
+    protected long maxDirtyAgeMs = 5 * 60 * 1000;
+    public long getMaxDirtyAgeMs() {
+        return maxDirtyAgeMs;
+    }
+    public void setMaxDirtyAgeMs(long maxDirtyAgeMs) {
+        this.maxDirtyAgeMs = maxDirtyAgeMs;
+    }
+
+    /**
+     * When more values than this are dirty, the oldest are written back;
+     * at twice this many, threads dirtying more write back themselves.
+     */
+    protected int maxDirtyItems = 10000;
+    public int getMaxDirtyItems() {
+        return maxDirtyItems;
+    }
+    public void setMaxDirtyItems(int maxDirtyItems) {
+        this.maxDirtyItems = maxDirtyItems;
+    }
     
     //
     // USAGE STATS
@@ -97,8 +175,8 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
     private AtomicLong supplierUsed = new AtomicLong(0);
     /** count of {@link #sync()} use */
     transient private AtomicLong useStatsSyncUsed = new AtomicLong(0);
-    /** Count of times Supplier was used for new object */
-    private AtomicLong evictions = new AtomicLong(0);
+    /** Count of dirty values written to disk */
+    private AtomicLong writeBacks = new AtomicLong(0);
 
     /**
      * Constructor. You must call
@@ -109,18 +187,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
      */
     public ObjectIdentityBdbManualCache() {
         super();
-        dirtyItems = CacheBuilder.newBuilder()
-                .maximumSize(10000)
-                .expireAfterWrite(5, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<String, V>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<String, V> stringVRemovalNotification) {
-                        evictions.incrementAndGet();
-                        diskMap.put(stringVRemovalNotification.getKey(), stringVRemovalNotification.getValue());
-                    }
-                })
-                .<String, V>build()
-                .asMap();
+        dirtyItems = new ConcurrentHashMap<String,DirtyItem<V>>();
     }
     
     /**
@@ -137,18 +204,110 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
             final Class valueClass, final StoredClassCatalog classCatalog)
     throws DatabaseException {
         // TODO: tune capacity for actual threads, expected size of key caches?
-        this.memMap = CacheBuilder.newBuilder()
+        CacheBuilder<Object,Object> builder = CacheBuilder.newBuilder()
                 .concurrencyLevel(64)
-                .initialCapacity(8192)
-                .softValues()
-                .<String, V>build()
-                .asMap();
+                .initialCapacity(8192);
+        if (maxMemoryEntries > 0 || maxMemoryBytes > 0) {
+            this.memMap = builder.weakValues().<String, V>build().asMap();
+            this.memTier = new WindowTinyLfuCache<String,V>(
+                    maxMemoryEntries, maxMemoryBytes, this::estimateBytes);
+        } else {
+            this.memMap = builder.softValues().<String, V>build().asMap();
+        }
         this.db = openDatabase(env, dbName);
         this.diskMap = createDiskMap(this.db, classCatalog, valueClass);
-        // keep a record of items that must be persisted; auto-persist if 
-        // unchanged after 5 minutes, or more than 10K would collect
-
         this.count = new AtomicLong(diskMap.size());
+        startFlusher();
+    }
+
+    /**
+     * Thread writing back dirty values, in the background of whatever
+     * thread dirtied them. Checks every second, or when signalled through
+     * dirtyItems. Holds the cache weakly, so an unclosed cache can still
+     * be collected; and is never interrupted, as BDB JE treats an
+     * interrupted write as fatal to the environment.
+     */
+    protected static class Flusher extends Thread {
+        protected final WeakReference<ObjectIdentityBdbManualCache<?>> cacheRef;
+        protected final Object signal;
+        protected volatile boolean stopped = false;
+
+        Flusher(ObjectIdentityBdbManualCache<?> cache) {
+            super("ObjectIdentityBdbManualCache flusher " + cache.getDatabaseName());
+            this.cacheRef = new WeakReference<ObjectIdentityBdbManualCache<?>>(cache);
+            this.signal = cache.dirtyItems;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    synchronized (signal) {
+                        signal.wait(1000);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ObjectIdentityBdbManualCache<?> cache = cacheRef.get();
+                if (cache == null) {
+                    return;
+                }
+                try {
+                    cache.flushDirty(false);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "problem writing back "
+                            + cache.getDatabaseName(), e);
+                }
+            }
+        }
+    }
+
+    protected void startFlusher() {
+        flusher = new Flusher(this);
+        flusher.start();
+    }
+
+    /**
+     * Write back dirty values: all of them if 'all', otherwise those
+     * dirty longer than maxDirtyAgeMs, and then the oldest while there are
+     * more than maxDirtyItems.
+     */
+    protected synchronized void flushDirty(boolean all) {
+        if (db == null) {
+            return;
+        }
+        List<Entry<String,DirtyItem<V>>> entries =
+            new ArrayList<Entry<String,DirtyItem<V>>>(dirtyItems.entrySet());
+        if (!all) {
+            entries.sort((a, b) -> Long.compare(a.getValue().since, b.getValue().since));
+        }
+        long cutoff = System.currentTimeMillis() - maxDirtyAgeMs;
+        int excess = entries.size() - maxDirtyItems;
+        for (Entry<String,DirtyItem<V>> entry : entries) {
+            if (!all && entry.getValue().since > cutoff && excess <= 0) {
+                break;
+            }
+            writeBack(entry.getKey(), entry.getValue());
+            excess--;
+        }
+    }
+
+    protected void writeBack(String key, DirtyItem<V> item) {
+        // a value dirtied again from here on is re-added, and written again
+        if (dirtyItems.remove(key, item)) {
+            diskMap.put(key, item.value);
+            writeBacks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Estimated memory use of a value: its serialized size.
+     */
+    protected long estimateBytes(V value) {
+        DatabaseEntry entry = new DatabaseEntry();
+        valueBinding.objectToEntry(value, entry);
+        return entry.getSize();
     }
 
     @SuppressWarnings("unchecked")
@@ -165,6 +324,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
 //                      new RecyclingSerialBinding<V>(classCatalog, valueClass),
 //                  }, valueClass);
         }
+        this.valueBinding = valueBinding;
         return new StoredSortedMap<String,V>(database, keyBinding, valueBinding, true);
     }
 
@@ -181,6 +341,10 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
      * @see org.archive.util.ObjectIdentityCache#close()
      */
     public synchronized void close() {
+        if (flusher != null) {
+            flusher.stopped = true;
+            flusher = null;
+        }
         // Close out my bdb db.
         if (this.db != null) {
             try {
@@ -222,6 +386,9 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
         if(val != null) {
             // the concurrent garden path: in memory and valid
             cacheHit.incrementAndGet();
+            if (memTier != null) {
+                memTier.access(key, val);
+            }
             val.setIdentityCache(this); 
             return val;
         }
@@ -254,6 +421,9 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
         if(prevVal != null) {
             val = prevVal; 
         }
+        if (memTier != null) {
+            memTier.access(key, val);
+        }
         val.setIdentityCache(this); 
         return val; 
     }
@@ -264,6 +434,27 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
     public Set<String> keySet() {
         return diskMap.keySet();
     }
+
+    /**
+     * Walks the database in key order with a single cursor, preferring the
+     * live instance of any object in memory (which may be newer than the
+     * stored one), and neither counting nor caching the stored objects.
+     *
+     * @see org.archive.util.ObjectIdentityCache#forEachValue(java.util.function.Consumer)
+     */
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        Iterator<Entry<String,V>> iter = diskMap.entrySet().iterator();
+        try {
+            while (iter.hasNext()) {
+                Entry<String,V> entry = iter.next();
+                V val = memMap.get(entry.getKey());
+                action.accept(val != null ? val : entry.getValue());
+            }
+        } finally {
+            StoredIterator.close(iter);
+        }
+    }
     
     /**
      * Summary to log, if at FINE level
@@ -299,9 +490,19 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
           .append(memMap.size())
           .append(" dirtyItems=")
           .append(dirtyItems.size())
-          .append(" evictions=")
-          .append(evictions.get())
-          .append(" syncs=")
+          .append(" writeBacks=")
+          .append(writeBacks.get());
+        if (memTier != null) {
+            sb.append(" tierItems=")
+              .append(memTier.size())
+              .append(" tierBytes=")
+              .append(maxMemoryBytes > 0 ? memTier.weight() : -1)
+              .append(" evictions=")
+              .append(memTier.getEvictions())
+              .append(" rejections=")
+              .append(memTier.getRejections());
+        }
+        sb.append(" syncs=")
           .append(useStatsSyncUsed.get());
         return sb.toString();
     }
@@ -343,12 +544,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
                 ", mem " + this.memMap.size());
         }
         
-        Iterator<Entry<String, V>> iter = dirtyItems.entrySet().iterator();
-        while(iter.hasNext()) {
-            Entry<String, V> entry = iter.next(); 
-            iter.remove();
-            diskMap.put(entry.getKey(), entry.getValue());
-        }
+        flushDirty(true);
         
         try {
             this.db.sync();
@@ -370,13 +566,19 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
        V val = memMap.get(key);
        if(val==null) {
            logger.severe("dirty key not in memory should be impossible");
+           return;
+       }
+       DirtyItem<V> item = new DirtyItem<V>(val, System.currentTimeMillis());
+       if (dirtyItems.putIfAbsent(key, item) == null) {
+           int dirty = dirtyItems.size();
+           if (dirty > 2 * maxDirtyItems) {
+               // flusher falling behind
+               writeBack(key, item);
+           } else if (dirty > maxDirtyItems) {
+               synchronized (dirtyItems) {
+                   dirtyItems.notify();
+               }
+           }
        }
-       dirtyItems.put(key,val); 
     }
-
-    /*@Override
-    public void onRemoval(RemovalNotification<String, V> stringVRemovalNotification) {
-        evictions.incrementAndGet();
-        diskMap.put(stringVRemovalNotification.getKey(), stringVRemovalNotification.getValue());
-    }*/
 }
@@ -21,6 +21,7 @@ package org.archive.util;
 
 import java.io.Closeable;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * An object cache for create-once-by-name-and-then-reuse objects. 
@@ -65,4 +66,16 @@ public interface ObjectIdentityCache<V extends IdentityCacheable> extends Closea
 
     /** set of all keys */ 
     public abstract Set<String> keySet();
+
+    /** pass every object to the action, in one pass over the persistent
+     * backend (if any), without retaining objects not already in memory
+     * -- but action should not mutate object state */
+    public default void forEachValue(Consumer<? super V> action) {
+        for (String key : keySet()) {
+            V val = get(key);
+            if (val != null) {
+                action.accept(val);
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ package org.archive.util;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Trivial all-in-memory object cache, using a single internal
@@ -76,6 +77,11 @@ implements ObjectIdentityCache<V> {
         return map.keySet();
     }
 
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        map.values().forEach(action);
+    }
+
     public void sync() {
         // do nothing
     }
@@ -101,7 +101,102 @@ public class UriUtils {
     protected static final String NAIVE_LIKELY_URI_PATTERN = "[^<>]*[\\./][^<>]*";
     
     public static boolean isPossibleUri(CharSequence candidate) {
-        return TextUtils.matches(NAIVE_LIKELY_URI_PATTERN, candidate);
+        return isNaiveLikelyUri(candidate);
+    }
+
+    /**
+     * Equivalent to matching {@link #NAIVE_LIKELY_URI_PATTERN}, in one pass
+     * and without a regex.
+     */
+    protected static boolean isNaiveLikelyUri(CharSequence candidate) {
+        boolean sawDotOrSlash = false;
+        for (int i = 0; i < candidate.length(); i++) {
+            char c = candidate.charAt(i);
+            if (c == '<' || c == '>') {
+                return false;
+            }
+            if (c == '.' || c == '/') {
+                sawDotOrSlash = true;
+            }
+        }
+        return sawDotOrSlash;
+    }
+
+    /**
+     * Equivalent to matching
+     * {@code (?i)https?://[^<>\s/]+\.[^<>\s/]+(?:/[^<>\s]*)?} when
+     * {@code absolute} is true, or {@code //[^<>\s/]+\.[^<>\s/]+(?:/[^<>\s]*)?}
+     * when false, in one pass and without a regex.
+     */
+    protected static boolean isLikelyAbsoluteUri(CharSequence candidate, boolean absolute) {
+        int i;
+        if (absolute) {
+            if (!startsWithIgnoreCase(candidate, "http")) {
+                return false;
+            }
+            i = 4;
+            if (i < candidate.length() && (candidate.charAt(i) == 's' || candidate.charAt(i) == 'S')) {
+                i++;
+            }
+            if (i >= candidate.length() || candidate.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+        } else {
+            i = 0;
+        }
+        if (i + 1 >= candidate.length() || candidate.charAt(i) != '/'
+                || candidate.charAt(i + 1) != '/') {
+            return false;
+        }
+        i += 2;
+
+        // host: no '<', '>', whitespace or '/', with an interior '.'
+        int hostStart = i;
+        for (; i < candidate.length() && candidate.charAt(i) != '/'; i++) {
+            char c = candidate.charAt(i);
+            if (c == '<' || c == '>' || isRegexWhitespace(c)) {
+                return false;
+            }
+        }
+        int hostEnd = i;
+        boolean interiorDot = false;
+        for (int j = hostStart + 1; j < hostEnd - 1; j++) {
+            if (candidate.charAt(j) == '.') {
+                interiorDot = true;
+                break;
+            }
+        }
+        if (!interiorDot) {
+            return false;
+        }
+
+        // optional path: no '<', '>' or whitespace
+        for (; i < candidate.length(); i++) {
+            char c = candidate.charAt(i);
+            if (c == '<' || c == '>' || isRegexWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence candidate, String prefix) {
+        if (candidate.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(candidate.charAt(i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Same set of characters as the regex class {@code \s}. */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+                || c == '\f' || c == '\r';
     }
     
     /**
@@ -412,17 +507,17 @@ public class UriUtils {
     
     public static boolean isVeryLikelyUri(CharSequence candidate) {
         // must have a . or /
-        if (!TextUtils.matches(NAIVE_LIKELY_URI_PATTERN, candidate)) {
+        if (!isNaiveLikelyUri(candidate)) {
             return false;
         }
         
         // absolute uri
-        if (TextUtils.matches("^(?i)https?://[^<>\\s/]+\\.[^<>\\s/]+(?:/[^<>\\s]*)?", candidate)) {
+        if (isLikelyAbsoluteUri(candidate, true)) {
             return true;
         }
         
         // "protocol-relative" uri
-        if (TextUtils.matches("^//[^<>\\s/]+\\.[^<>\\s/]+(?:/[^<>\\s]*)?", candidate)) {
+        if (isLikelyAbsoluteUri(candidate, false)) {
             return true;
         }
         
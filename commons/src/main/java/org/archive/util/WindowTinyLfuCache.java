@@ -0,0 +1,356 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded cache, by entry count and/or total weight, using the W-TinyLFU
+ * policy: new entries go into a small LRU window; entries leaving the window
+ * are only admitted to the main segmented-LRU area if they have been
+ * requested more often, according to a compact decaying frequency sketch,
+ * than the entry they would displace. A scan of many once-used keys
+ * therefore churns only the window and doesn't flush the frequently used
+ * entries.
+ *
+ * <p>Lookups are lock-free. Recording a hit on a present entry is skipped
+ * if another thread holds the policy lock, so hot keys don't serialize
+ * their readers; adding entries always takes the lock.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class WindowTinyLfuCache<K,V> {
+    /** share of capacity for the admission window */
+    protected static final double WINDOW_FRACTION = 0.01;
+    /** share of the main area for entries that were hit while there */
+    protected static final double PROTECTED_FRACTION = 0.8;
+
+    protected static final byte WINDOW = 0;
+    protected static final byte PROBATION = 1;
+    protected static final byte PROTECTED = 2;
+
+    protected static class Node<K,V> {
+        final K key;
+        V value;
+        long weight;
+        byte segment;
+        Node<K,V> prev;
+        Node<K,V> next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** doubly-linked LRU list, least recently used first */
+    protected static class Segment<K,V> {
+        final Node<K,V> head = new Node<K,V>(null, null, 0);
+        long count;
+        long weight;
+
+        Segment() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node<K,V> first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addLast(Node<K,V> node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            count++;
+            weight += node.weight;
+        }
+
+        void remove(Node<K,V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            count--;
+            weight -= node.weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, halved every 10 * width
+     * increments so that past popularity fades.
+     */
+    protected static class FrequencySketch {
+        protected static final int ROWS = 4;
+        protected static final int[] SEEDS = {
+            0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+        protected final byte[] table;
+        protected final int mask;
+        protected final int sampleSize;
+        protected int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit(
+                    (int) Math.max(16, Math.min(expectedEntries, 1 << 22)) * 2 - 1);
+            table = new byte[width * ROWS];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        protected int index(int hash, int row) {
+            int h = (hash + SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+            h ^= h >>> 15;
+            return row * (mask + 1) + (h & mask);
+        }
+
+        protected static int spread(Object key) {
+            int h = key.hashCode() * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+
+        void increment(Object key) {
+            int hash = spread(key);
+            for (int row = 0; row < ROWS; row++) {
+                int i = index(hash, row);
+                if (table[i] < 15) {
+                    table[i]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key);
+            int min = 15;
+            for (int row = 0; row < ROWS; row++) {
+                min = Math.min(min, table[index(hash, row)]);
+            }
+            return min;
+        }
+    }
+
+    protected final long maxEntries;
+    protected final long maxWeight;
+    protected final ToLongFunction<? super V> weigher;
+
+    protected final ConcurrentHashMap<K,Node<K,V>> nodes =
+        new ConcurrentHashMap<K,Node<K,V>>();
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Segment<K,V> window = new Segment<K,V>();
+    protected final Segment<K,V> probation = new Segment<K,V>();
+    protected final Segment<K,V> protectedSegment = new Segment<K,V>();
+    protected final FrequencySketch sketch;
+
+    protected final AtomicLong evictions = new AtomicLong(0);
+    protected final AtomicLong rejections = new AtomicLong(0);
+    protected final AtomicLong skippedAccesses = new AtomicLong(0);
+
+    /**
+     * @param maxEntries maximum number of entries, or 0 for no count limit
+     * @param maxWeight maximum total weight, or 0 for no weight limit
+     * @param weigher weight of a value; only used when maxWeight is set
+     */
+    public WindowTinyLfuCache(long maxEntries, long maxWeight,
+            ToLongFunction<? super V> weigher) {
+        if (maxEntries <= 0 && maxWeight <= 0) {
+            throw new IllegalArgumentException("no entry or weight limit");
+        }
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxWeight = Math.max(0, maxWeight);
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(maxEntries > 0
+                ? maxEntries : maxWeight / 1024);
+    }
+
+    public V get(K key) {
+        Node<K,V> node = nodes.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Record a request for the key, adding the value if the key isn't
+     * present (subject to the admission policy).
+     */
+    public void access(K key, V value) {
+        Node<K,V> node = nodes.get(key);
+        long weight = 1;
+        if (node != null) {
+            if (!lock.tryLock()) {
+                skippedAccesses.incrementAndGet();
+                return;
+            }
+        } else {
+            // weigh outside the lock; weighers may be slow
+            if (maxWeight > 0) {
+                weight = weigher.applyAsLong(value);
+            }
+            lock.lock();
+        }
+        try {
+            sketch.increment(key);
+            Node<K,V> present = node;
+            node = nodes.get(key);
+            if (node == null) {
+                if (present != null && maxWeight > 0) {
+                    // evicted since the unlocked check
+                    weight = weigher.applyAsLong(value);
+                }
+                node = new Node<K,V>(key, value, weight);
+                nodes.put(key, node);
+                node.segment = WINDOW;
+                window.addLast(node);
+                evictFromWindow();
+            } else {
+                onHit(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void onHit(Node<K,V> node) {
+        switch (node.segment) {
+        case WINDOW:
+            window.remove(node);
+            window.addLast(node);
+            break;
+        case PROBATION:
+            probation.remove(node);
+            node.segment = PROTECTED;
+            protectedSegment.addLast(node);
+            while (exceeds(protectedSegment.count, protectedSegment.weight,
+                    (1 - WINDOW_FRACTION) * PROTECTED_FRACTION)) {
+                Node<K,V> demoted = protectedSegment.first();
+                protectedSegment.remove(demoted);
+                demoted.segment = PROBATION;
+                probation.addLast(demoted);
+            }
+            break;
+        default:
+            protectedSegment.remove(node);
+            protectedSegment.addLast(node);
+        }
+    }
+
+    protected void evictFromWindow() {
+        while (exceeds(window.count, window.weight, WINDOW_FRACTION)) {
+            Node<K,V> candidate = window.first();
+            window.remove(candidate);
+            admitToMain(candidate);
+        }
+    }
+
+    /**
+     * Move a candidate from the window into probation, making room by
+     * evicting main-area entries that are less frequently requested; or
+     * drop the candidate if it is the less popular.
+     */
+    protected void admitToMain(Node<K,V> candidate) {
+        if (exceeds(1, candidate.weight, 1 - WINDOW_FRACTION)) {
+            // would displace everything
+            nodes.remove(candidate.key);
+            rejections.incrementAndGet();
+            return;
+        }
+        while (exceeds(probation.count + protectedSegment.count + 1,
+                probation.weight + protectedSegment.weight + candidate.weight,
+                1 - WINDOW_FRACTION)) {
+            Node<K,V> victim = probation.first();
+            Segment<K,V> victimSegment = probation;
+            if (victim == null) {
+                victim = protectedSegment.first();
+                victimSegment = protectedSegment;
+            }
+            if (victim == null
+                    || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                nodes.remove(candidate.key);
+                rejections.incrementAndGet();
+                return;
+            }
+            victimSegment.remove(victim);
+            nodes.remove(victim.key);
+            evictions.incrementAndGet();
+        }
+        candidate.segment = PROBATION;
+        probation.addLast(candidate);
+    }
+
+    protected boolean exceeds(long count, long weight, double fraction) {
+        return (maxEntries > 0 && count > Math.max(1, (long) (maxEntries * fraction)))
+                || (maxWeight > 0 && weight > Math.max(1, (long) (maxWeight * fraction)));
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            clear(window);
+            clear(probation);
+            clear(protectedSegment);
+            nodes.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void clear(Segment<K,V> segment) {
+        for (Node<K,V> node = segment.first(); node != null; node = segment.first()) {
+            segment.remove(node);
+        }
+    }
+
+    public long size() {
+        return nodes.size();
+    }
+
+    public long weight() {
+        lock.lock();
+        try {
+            return window.weight + probation.weight + protectedSegment.weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return count of entries dropped from the main area for better candidates */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return count of window entries not admitted to the main area */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /** @return count of hits not recorded because of lock contention */
+    public long getSkippedAccesses() {
+        return skippedAccesses.get();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link MultiRegexMatcher} against java.util.regex on generated
+ * patterns and inputs.
+ */
+public class MultiRegexMatcherTest {
+
+    static final String[] ATOMS = {
+        "a", "b", "A", "x", "-", "_", "0", ".", "\\.", "\\d", "\\D", "\\s",
+        "\\S", "\\w", "\\W", "\\h", "\\v", "\\n", "\\t", "\\x41", "\\u00e9",
+        "\\0141", "\\cJ", "\\Qa.b\\E", "[ab]", "[^ab]", "[a-c]", "[A-Z_]",
+        "[-a]", "[a-]", "[^\\w]", "[\\s\\d]", "[X-c]", "[.]", "\\$", "\\^",
+        "\\/", "\u00e9", "\u2028", "\u00a0",
+    };
+    /** atoms only java.util.regex handles */
+    static final String[] OTHER_ATOMS = {
+        "\\b", "(?=a)", "\\1", "\\p{L}", "[a[b]]", "[a&&b]", "a*+",
+    };
+    static final String[] QUANTIFIERS = {
+        "", "", "", "*", "+", "?", "{2}", "{1,3}", "{0,}", "*?", "+?", "??",
+        "{2,}?", "{0}",
+    };
+    static final String[] INPUT_PARTS = {
+        "a", "b", "A", "B", "x", "X", "c", "C", "-", "_", "0", "9", ".", " ",
+        "\n", "\r", "\t", "\u0085", "\u2028", "\u00e9", "\u00c9", "$", "^",
+        "/", "\ud83d\ude00", "a.b", "y",
+    };
+
+    protected static String randomRegex(Random random, int depth) {
+        StringBuilder sb = new StringBuilder();
+        int items = 1 + random.nextInt(4);
+        for (int i = 0; i < items; i++) {
+            int kind = random.nextInt(10);
+            if (depth > 0 && kind < 2) {
+                String[] opens = {"(", "(?:", "(?i:", "(?<g>", "(?s)(", "(?-i:", "((?i)"};
+                sb.append(opens[random.nextInt(opens.length)])
+                    .append(randomRegex(random, depth - 1));
+                if (random.nextInt(3) == 0) {
+                    sb.append('|').append(randomRegex(random, depth - 1));
+                }
+                sb.append(')');
+            } else if (kind == 2 && (depth < 2 || i == 0)) {
+                String[] flags = {"(?i)", "(?s)", "(?-i)", "(?m)", "(?d)", "(?x)"};
+                sb.append(flags[random.nextInt(flags.length)]);
+                continue;
+            } else if (kind == 3 && random.nextInt(4) == 0) {
+                sb.append(OTHER_ATOMS[random.nextInt(OTHER_ATOMS.length)]);
+            } else {
+                sb.append(ATOMS[random.nextInt(ATOMS.length)]);
+            }
+            sb.append(QUANTIFIERS[random.nextInt(QUANTIFIERS.length)]);
+        }
+        if (random.nextInt(4) == 0) {
+            sb.append('|').append(randomRegex(random, depth - 1));
+        }
+        return sb.toString();
+    }
+
+    protected static String randomAnchors(Random random, String regex) {
+        switch (random.nextInt(12)) {
+        case 0: return "^" + regex;
+        case 1: return regex + "$";
+        case 2: return "\\A" + regex + "\\z";
+        case 3: return regex + "\\Z";
+        default: return regex;
+        }
+    }
+
+    protected static Pattern randomPattern(Random random) {
+        int[] flags = {0, 0, 0, Pattern.CASE_INSENSITIVE, Pattern.DOTALL,
+                Pattern.MULTILINE, Pattern.UNIX_LINES, Pattern.LITERAL,
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE};
+        while (true) {
+            try {
+                return Pattern.compile(randomAnchors(random, randomRegex(random, 2)),
+                        flags[random.nextInt(flags.length)]);
+            } catch (PatternSyntaxException e) {
+                // try another
+            }
+        }
+    }
+
+    protected static String randomInput(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = random.nextInt(10); n > 0; n--) {
+            sb.append(INPUT_PARTS[random.nextInt(INPUT_PARTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    protected static List<Integer> flags(List<Pattern> patterns) {
+        List<Integer> flags = new ArrayList<Integer>();
+        for (Pattern p : patterns) {
+            flags.add(p.flags());
+        }
+        return flags;
+    }
+
+    @Test
+    public void testMatchesLikeJavaRegex() {
+        Random random = new Random(31);
+        int compiled = 0;
+        int total = 0;
+        for (int i = 0; i < 2000; i++) {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            for (int n = 1 + random.nextInt(4); n > 0; n--) {
+                patterns.add(randomPattern(random));
+            }
+            MultiRegexMatcher matcher = MultiRegexMatcher.compile(patterns);
+            for (int p = 0; p < patterns.size(); p++) {
+                total++;
+                compiled += matcher.isCompiled(p) ? 1 : 0;
+            }
+            for (int j = 0; j < 20; j++) {
+                String input = randomInput(random);
+                boolean any = false;
+                boolean all = true;
+                boolean found = false;
+                for (Pattern p : patterns) {
+                    boolean m = p.matcher(input).matches();
+                    any |= m;
+                    all &= m;
+                    found |= p.matcher(input).find();
+                }
+                String context = patterns + " " + flags(patterns) + " on '" + input + "'";
+                assertEquals(any, matcher.matchesAny(input), context);
+                assertEquals(all, matcher.matchesAll(input), context);
+                assertEquals(found, matcher.findsAny(input), context);
+            }
+        }
+        // most generated patterns must exercise the automaton
+        assertTrue(compiled > total / 2, compiled + " of " + total);
+    }
+
+    @Test
+    public void testFallbacks() {
+        MultiRegexMatcher matcher = MultiRegexMatcher.compile(Arrays.asList(
+                Pattern.compile("a+b"), Pattern.compile("(a)\\1"),
+                Pattern.compile("\\bfoo")));
+        assertTrue(matcher.isCompiled(0));
+        assertFalse(matcher.isCompiled(1));
+        assertFalse(matcher.isCompiled(2));
+        assertTrue(matcher.matchesAny("aab"));
+        assertTrue(matcher.matchesAny("aa"));
+        assertTrue(matcher.findsAny("x foo"));
+        assertFalse(matcher.matchesAll("aab"));
+        assertFalse(matcher.matchesAny("aa", (p, s) -> false));
+        assertFalse(MultiRegexMatcher.compile(new ArrayList<Pattern>()).matchesAll(""));
+        assertFalse(MultiRegexMatcher.compile(new ArrayList<Pattern>()).matchesAny(""));
+    }
+
+    @Test
+    public void testCatastrophicPatternIsLinear() {
+        MultiRegexMatcher matcher = MultiRegexMatcher.compile(
+                Pattern.compile("((x+x+)+)y"));
+        assertTrue(matcher.isCompiled(0));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append('x');
+        }
+        assertFalse(matcher.matchesAny(sb));
+        assertFalse(matcher.findsAny(sb));
+        assertTrue(matcher.matchesAny(sb.append('y')));
+    }
+
+    @Test
+    public void testLargeCountedRepeatFallsBack() {
+        Pattern p = Pattern.compile("(a{1000}){1000}");
+        MultiRegexMatcher matcher = MultiRegexMatcher.compile(p);
+        assertFalse(matcher.isCompiled(0));
+        assertFalse(matcher.matchesAny("aaa"));
+    }
+}
@@ -21,8 +21,10 @@ package org.archive.util;
 import java.io.File;
 import java.lang.ref.SoftReference;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -141,6 +143,26 @@ public class ObjectIdentityBdbManualCacheTest {
         }
     }
     
+    @Test
+    public void testForEachValue() {
+        for (int i = 0; i < 3; i++) {
+            String key = "key" + i;
+            this.cache.getOrUse(key,
+                new Supplier<IdentityCacheableWrapper<HashMap<String,String>>>(
+                    new IdentityCacheableWrapper<HashMap<String,String>>(
+                        key, new HashMap<String,String>())));
+        }
+        // changed in memory, not yet written back
+        IdentityCacheableWrapper<HashMap<String,String>> live = this.cache.get("key1");
+        live.get().put("k", "v");
+        final List<IdentityCacheableWrapper<HashMap<String,String>>> seen = new ArrayList<>();
+        this.cache.forEachValue(seen::add);
+        assertEquals(3, seen.size());
+        assertEquals("key0", seen.get(0).getKey());
+        assertTrue(live == seen.get(1));
+        assertEquals("key2", seen.get(2).getKey());
+    }
+
     /**
      * Test that in scarce memory conditions, the memory map is 
      * expunged of otherwise unreferenced entries as expected.
@@ -179,6 +201,48 @@ public class ObjectIdentityBdbManualCacheTest {
         assertEquals(0, cache.memMap.size(), "memMap not cleared");
     }
 
+    @Test
+    public void testBoundedMemoryTier() throws Exception {
+        ObjectIdentityBdbManualCache<IdentityCacheableWrapper<AtomicInteger>> bounded =
+            new ObjectIdentityBdbManualCache<>();
+        bounded.setMaxMemoryEntries(100);
+        bounded.setMaxDirtyItems(10);
+        bounded.initialize(env, "boundedCache", IdentityCacheableWrapper.class,
+                env.getClassCatalog());
+        try {
+            IdentityCacheableWrapper<AtomicInteger> held = null;
+            for (int i = 0; i < 1000; i++) {
+                String key = "" + i;
+                IdentityCacheableWrapper<AtomicInteger> wrap = bounded.getOrUse(key,
+                        new Supplier<IdentityCacheableWrapper<AtomicInteger>>(
+                            new IdentityCacheableWrapper<AtomicInteger>(key, new AtomicInteger(0))));
+                wrap.get().incrementAndGet();
+                wrap.makeDirty();
+                if (i == 0) {
+                    held = wrap;
+                }
+            }
+            // still referenced, so still the same object
+            assertSame(held, bounded.get("0"));
+            held = null;
+            assertTrue(bounded.memTier.size() <= 100);
+
+            // dirty values beyond the limit were written back without a sync
+            for (int tries = 0; bounded.dirtyItems.size() > 10 && tries < 50; tries++) {
+                Thread.sleep(100);
+            }
+            assertTrue(bounded.dirtyItems.size() <= 10, bounded.composeCacheSummary());
+            System.gc();
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(1, bounded.get("" + i).get().get(), "key " + i);
+            }
+            assertTrue(bounded.composeCacheSummary().contains(" evictions="),
+                    bounded.composeCacheSummary());
+        } finally {
+            bounded.close();
+        }
+    }
+
     /**
      * Temporarily exhaust memory, forcing weak/soft references to
      * be broken.
@@ -225,6 +225,28 @@ public class UriUtilsTest {
         tryAll(startsOrEndsWithPlusFalsePositives, false);
     }
 
+    protected static final String[] scannerCandidates = new String[] {
+        "", ".", "/", "<a.b>", "word", "a.b", "http://example.com/",
+        "HTTPS://Example.COM/path?q=1#f", "http://example.com", "https://a.b",
+        "http://.com/", "http://com./", "http://a..b/", "http://a./b.c",
+        "http://ex ample.com/", "http://example.com/a b", "http://example.com/<",
+        "http:/example.com/", "httpx://example.com/", "http//example.com",
+        "//example.com/x", "//example", "///example.com", "//a.b\t", "ftp://a.b/",
+        "https:", "http://", "//", "http://a.b/c\u000Bd", "Http://a.b",
+        "httpS://a.b.c/d/e.f", "http://a/b.c",
+    };
+    @Test
+    public void testScannersMatchRegexes() {
+        for (String candidate : scannerCandidates) {
+            assertEquals(TextUtils.matches(UriUtils.NAIVE_LIKELY_URI_PATTERN, candidate),
+                    UriUtils.isNaiveLikelyUri(candidate), candidate);
+            assertEquals(TextUtils.matches("^(?i)https?://[^<>\\s/]+\\.[^<>\\s/]+(?:/[^<>\\s]*)?", candidate),
+                    UriUtils.isLikelyAbsoluteUri(candidate, true), candidate);
+            assertEquals(TextUtils.matches("^//[^<>\\s/]+\\.[^<>\\s/]+(?:/[^<>\\s]*)?", candidate),
+                    UriUtils.isLikelyAbsoluteUri(candidate, false), candidate);
+        }
+    }
+
     /**
      * Test that all supplied candidates give the expected result, for each of 
      * the 'legacy' (H1) likely-URI-tests
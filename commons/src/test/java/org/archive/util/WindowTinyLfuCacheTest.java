@@ -0,0 +1,76 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class WindowTinyLfuCacheTest {
+
+    @Test
+    public void testBoundedByCount() {
+        WindowTinyLfuCache<Integer,String> cache =
+            new WindowTinyLfuCache<Integer,String>(100, 0, null);
+        for (int i = 0; i < 10000; i++) {
+            cache.access(i % 1000, "v" + i);
+            assertTrue(cache.size() <= 100, "size " + cache.size());
+        }
+        assertEquals(100, cache.size());
+        assertTrue(cache.getEvictions() + cache.getRejections() >= 1000 - 100);
+    }
+
+    @Test
+    public void testBoundedByWeight() {
+        WindowTinyLfuCache<Integer,String> cache =
+            new WindowTinyLfuCache<Integer,String>(0, 1000, String::length);
+        for (int i = 0; i < 5000; i++) {
+            cache.access(i, "x".repeat(1 + i % 20));
+            assertTrue(cache.weight() <= 1000, "weight " + cache.weight());
+        }
+        // larger than the whole cache: never held
+        cache.access(-1, "x".repeat(2000));
+        assertEquals(null, cache.get(-1));
+    }
+
+    @Test
+    public void testScanResistance() {
+        WindowTinyLfuCache<Integer,String> cache =
+            new WindowTinyLfuCache<Integer,String>(1000, 0, null);
+        // a hot set, requested repeatedly
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 500; i++) {
+                cache.access(i, "hot" + i);
+            }
+        }
+        // a long scan of keys requested once each, while the hot set is
+        // still requested, but too rarely for an LRU of this size to keep
+        for (int i = 1000; i < 100000; i++) {
+            cache.access(i, "cold" + i);
+            if (i % 10 == 0) {
+                cache.access(i / 10 % 500, "hot");
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            assertNotNull(cache.get(i), "hot key " + i + " evicted by scan");
+        }
+    }
+}
@@ -18,7 +18,6 @@
  */
 package org.archive.modules.postprocessor;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
 import org.apache.commons.collections.Closure;
@@ -29,7 +28,6 @@ import org.archive.crawler.io.UriProcessingFormatter;
 import org.archive.modules.AMQPProducerProcessor;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.net.ServerCache;
-import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
@@ -92,12 +90,7 @@ public class AMQPCrawlLogFeed extends AMQPProducerProcessor implements Lifecycle
 
     @Override
     protected byte[] buildMessage(CrawlURI curi) {
-        JSONObject jo = CrawlLogJsonBuilder.buildJson(curi, getExtraFields(), getServerCache());
-        try {
-            return jo.toString().getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+        return CrawlLogJsonBuilder.buildJsonBytes(curi, getExtraFields(), getServerCache());
     }
 
     @Override
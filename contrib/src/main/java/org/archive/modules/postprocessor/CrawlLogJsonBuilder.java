@@ -4,6 +4,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.lang3.StringUtils;
+import org.archive.crawler.io.CrawlLogEncoder;
 import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.net.CrawlHost;
@@ -72,4 +73,14 @@ public class CrawlLogJsonBuilder {
         return jo;
     }
 
+    /**
+     * @return the same record as {@link #buildJson(CrawlURI, Map, ServerCache)}
+     * (though with fields in a fixed order), as UTF-8 encoded json, written
+     * without building a {@link JSONObject}
+     */
+    public static byte[] buildJsonBytes(CrawlURI curi, Map<String,String> extraFields, ServerCache serverCache) {
+        CrawlLogEncoder encoder = CrawlLogEncoder.get();
+        encoder.encodeJson(curi, System.currentTimeMillis(), extraFields, serverCache);
+        return encoder.toUtf8();
+    }
 }
@@ -18,10 +18,9 @@
  */
 package org.archive.modules.postprocessor;
 
+import java.io.File;
 import java.net.MalformedURLException;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -115,20 +114,40 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
         return (String) kp.get("rethinkUrl");
     }
 
+
+    /**
+     * File where rows not yet written to trough are saved at the end of the
+     * crawl, to be written when it is resumed. If not set, such rows are
+     * logged and dropped.
+     */
+    public void setSpillFile(String spillFile) {
+        kp.put("spillFile", spillFile);
+    }
+    public String getSpillFile() {
+        return (String) kp.get("spillFile");
+    }
+
     protected TroughClient troughClient = null;
 
     protected TroughClient troughClient() throws MalformedURLException {
         if (troughClient == null) {
             troughClient = new TroughClient(getRethinkUrl(), 60 * 60);
+            troughClient.setMaxBatchRows(BATCH_MAX_SIZE);
+            troughClient.setFlushIntervalMs(BATCH_MAX_TIME_MS);
+            if (getSpillFile() != null) {
+                troughClient.setSpillFile(new File(getSpillFile()));
+            }
             troughClient.start();
         }
         return troughClient;
     }
 
-    protected List<Object[]> crawledBatch = new ArrayList<Object[]>();
-    protected long crawledBatchLastTime = System.currentTimeMillis();
-    protected List<Object[]> uncrawledBatch = new ArrayList<Object[]>();
-    protected long uncrawledBatchLastTime = System.currentTimeMillis();
+    protected static final String CRAWLED_INSERT_SQL = "insert into crawled_url ("
+            + "timestamp, status_code, size, payload_size, url, hop_path, is_seed_redirect, "
+            + "via, mimetype, content_digest, seed, is_duplicate, warc_filename, "
+            + "warc_offset, warc_content_bytes, host)";
+    protected static final String UNCRAWLED_INSERT_SQL =
+            "insert into uncrawled_url (timestamp, url, hop_path, status_code, via, seed, host)";
 
     protected Frontier frontier;
     public Frontier getFrontier() {
@@ -163,10 +182,6 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
         if (!isRunning) {
             return;
         }
-        if (!crawledBatch.isEmpty()) {
-            postCrawledBatch();
-        }
-
         if (frontier instanceof BdbFrontier) {
             Closure closure = new Closure() {
                 public void execute(Object o) {
@@ -184,6 +199,11 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
             logger.warning("frontier is not a BdbFrontier, cannot dump queued urls to trough feed");
         }
 
+        if (troughClient != null) {
+            // writes everything queued, crawled and uncrawled
+            troughClient.stop();
+        }
+
         // String rateStr = String.format("%1.1f", 0.01 * stats.errors / stats.total);
         // logger.info("final error count: " + stats.errors + "/" + stats.total + " (" + rateStr + "%)");
         super.stop();
@@ -223,13 +243,7 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
                     serverCache.getHostFor(curi.getUURI()).getHostName(),
             };
 
-            synchronized (crawledBatch) {
-                crawledBatch.add(values);
-            }
-
-            if (crawledBatch.size() >= BATCH_MAX_SIZE || System.currentTimeMillis() - crawledBatchLastTime > BATCH_MAX_TIME_MS) {
-                postCrawledBatch();
-            }
+            writeBehind(CRAWLED_INSERT_SQL, values, curi);
         } else {
             Object[] values = new Object[] {
                     new Date(),
@@ -241,73 +255,19 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
                     serverCache.getHostFor(curi.getUURI()).getHostName(),
             };
 
-            synchronized (uncrawledBatch) {
-                uncrawledBatch.add(values);
-            }
-
-            if (uncrawledBatch.size() >= BATCH_MAX_SIZE || System.currentTimeMillis() - uncrawledBatchLastTime > BATCH_MAX_TIME_MS) {
-                postUncrawledBatch();
-            }
-        }
-    }
-
-    protected void postCrawledBatch() {
-        logger.info("posting batch of " + crawledBatch.size() + " crawled urls trough segment " + getSegmentId());
-        synchronized (crawledBatch) {
-            if (!crawledBatch.isEmpty()) {
-                StringBuffer sqlTmpl = new StringBuffer();
-                sqlTmpl.append("insert into crawled_url ("
-                        + "timestamp, status_code, size, payload_size, url, hop_path, is_seed_redirect, "
-                        + "via, mimetype, content_digest, seed, is_duplicate, warc_filename, "
-                        + "warc_offset, warc_content_bytes, host)  values "
-                        + "(%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s)");
-                for (int i = 1; i < crawledBatch.size(); i++) {
-                    sqlTmpl.append(", (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s)");
-                }
-
-                Object[] flattenedValues = new Object[16 * crawledBatch.size()];
-                for (int i = 0; i < crawledBatch.size(); i++) {
-                    System.arraycopy(crawledBatch.get(i), 0, flattenedValues, 16 * i, 16);
-                }
-
-                try {
-                    troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "problem posting batch of " + crawledBatch.size() + " crawled urls to trough segment " + getSegmentId(), e);
-                }
-
-                crawledBatchLastTime = System.currentTimeMillis();
-                crawledBatch.clear();
-            }
+            writeBehind(UNCRAWLED_INSERT_SQL, values, curi);
         }
     }
-    protected void postUncrawledBatch() {
-        logger.info("posting batch of " + uncrawledBatch.size() + " uncrawled urls trough segment " + getSegmentId());
-        synchronized (uncrawledBatch) {
-            if (!uncrawledBatch.isEmpty()) {
-                StringBuffer sqlTmpl = new StringBuffer();
-                sqlTmpl.append(
-                        "insert into uncrawled_url (timestamp, url, hop_path, status_code, via, seed, host)"
-                                + " values (%s, %s, %s, %s, %s, %s, %s)");
 
-                for (int i = 1; i < uncrawledBatch.size(); i++) {
-                    sqlTmpl.append(", (%s, %s, %s, %s, %s, %s, %s)");
-                }
-
-                Object[] flattenedValues = new Object[7 * uncrawledBatch.size()];
-                for (int i = 0; i < uncrawledBatch.size(); i++) {
-                    System.arraycopy(uncrawledBatch.get(i), 0, flattenedValues, 7 * i, 7);
-                }
-
-                try {
-                    troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "problem posting batch of " + uncrawledBatch.size() + " uncrawled urls to trough segment " + getSegmentId(), e);
-                }
-
-                uncrawledBatchLastTime = System.currentTimeMillis();
-                uncrawledBatch.clear();
-            }
+    /**
+     * Queue the row to be posted in a batch by the trough client's writer
+     * thread, which retries on failure.
+     */
+    protected void writeBehind(String insertSql, Object[] values, CrawlURI curi) throws InterruptedException {
+        try {
+            troughClient().writeBehind(getSegmentId(), "default", insertSql, values);
+        } catch (MalformedURLException e) {
+            logger.log(Level.WARNING, "problem queuing " + curi + " for trough segment " + getSegmentId(), e);
         }
     }
 }
@@ -4,6 +4,7 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_D
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_URL;
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_RECORD_ID;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
@@ -65,11 +66,27 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
         return (String) kp.get("rethinkUrl");
     }
 
+
+    /**
+     * File where rows not yet written to trough are saved at the end of the
+     * crawl, to be written when it is resumed. If not set, such rows are
+     * logged and dropped.
+     */
+    public void setSpillFile(String spillFile) {
+        kp.put("spillFile", spillFile);
+    }
+    public String getSpillFile() {
+        return (String) kp.get("spillFile");
+    }
+
     protected TroughClient troughClient = null;
 
     protected TroughClient troughClient() throws MalformedURLException {
         if (troughClient == null) {
             troughClient = new TroughClient(getRethinkUrl(), 60 * 60);
+            if (getSpillFile() != null) {
+                troughClient.setSpillFile(new File(getSpillFile()));
+            }
             troughClient.start();
         }
         return troughClient;
@@ -145,8 +162,8 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
         }
     }
 
-    protected static final String WRITE_SQL_TMPL = 
-            "insert or ignore into dedup (digest_key, url, date, id) values (%s, %s, %s, %s);";
+    protected static final String INSERT_SQL =
+            "insert or ignore into dedup (digest_key, url, date, id)";
 
     @Override
     public void store(CrawlURI curi) {
@@ -161,7 +178,7 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
             Object date = hist.get(A_ORIGINAL_DATE);
             Object recordId = hist.get(A_WARC_RECORD_ID);
             Object[] values = new Object[] { digestKey, url, date, recordId };
-            troughClient().write(getSegmentId(), WRITE_SQL_TMPL, values, SCHEMA_ID);
+            troughClient().writeBehind(getSegmentId(), SCHEMA_ID, INSERT_SQL, values);
         } catch (Exception e) {
             logger.log(Level.WARNING, "problem writing dedup info to trough segment " + getSegmentId() + " for url " + curi, e);
 
@@ -31,7 +31,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.HeaderElement;
@@ -55,6 +61,9 @@ import org.archive.modules.recrawl.RecrawlAttributeConstants;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.DateUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import static java.lang.System.Logger.Level.ERROR;
 
 /**
@@ -66,6 +75,11 @@ import static java.lang.System.Logger.Level.ERROR;
  * CDX lines for archive.org, since 1999-01-01 00:00:00.
  * </p>
  * <p>As index is updated in a separate batch processing job, there's no "Store" counterpart.</p>
+ * <p>Lookups can be made ahead of time with {@link #prefetch(String)}, typically by a
+ * {@link WbmPersistPrefetcher} as URIs are scheduled, so that ToeThreads find
+ * the result waiting instead of making the query themselves. Prefetch queries are taken
+ * from a bounded queue in batches by {@link #getPrefetchThreads()} threads, and the results,
+ * including URIs with no history, are kept in bounded caches until used or expired.</p>
  * @author Kenji Nagahashi.
  */
 public class WbmPersistLoadProcessor extends Processor {
@@ -279,6 +293,116 @@ public class WbmPersistLoadProcessor extends Processor {
         return cumulativeFetchTime.get();
     }
 
+    private int prefetchThreads = 4;
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+    /**
+     * number of threads making prefetch queries. they share the connection pool
+     * limited by {@link #setMaxConnections(int)} with ToeThreads.
+     */
+    public void setPrefetchThreads(int prefetchThreads) {
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    private int prefetchBatchSize = 20;
+    public int getPrefetchBatchSize() {
+        return prefetchBatchSize;
+    }
+    /**
+     * maximum number of queued prefetch queries a thread takes at once.
+     */
+    public void setPrefetchBatchSize(int prefetchBatchSize) {
+        this.prefetchBatchSize = prefetchBatchSize;
+    }
+
+    private int maxPrefetchQueued = 10000;
+    public int getMaxPrefetchQueued() {
+        return maxPrefetchQueued;
+    }
+    /**
+     * maximum number of prefetch queries waiting for a thread. further
+     * prefetch requests are dropped (and queried when processed).
+     */
+    public void setMaxPrefetchQueued(int maxPrefetchQueued) {
+        this.maxPrefetchQueued = maxPrefetchQueued;
+    }
+
+    private int prefetchCacheSize = 100000;
+    public int getPrefetchCacheSize() {
+        return prefetchCacheSize;
+    }
+    /**
+     * maximum number of prefetched results kept, for URIs with history and
+     * (separately) for URIs without.
+     */
+    public void setPrefetchCacheSize(int prefetchCacheSize) {
+        this.prefetchCacheSize = prefetchCacheSize;
+    }
+
+    private long prefetchExpirySecs = 3600;
+    public long getPrefetchExpirySecs() {
+        return prefetchExpirySecs;
+    }
+    /**
+     * seconds a prefetched result is kept if not used.
+     */
+    public void setPrefetchExpirySecs(long prefetchExpirySecs) {
+        this.prefetchExpirySecs = prefetchExpirySecs;
+    }
+
+    /** marks URIs known to have no history */
+    protected static final Map<String, Object> NO_HISTORY = Collections.emptyMap();
+
+    private Cache<String, Map<String, Object>> prefetched;
+    private Cache<String, Boolean> noHistory;
+    private volatile BlockingQueue<String> prefetchQueue;
+    private Thread[] prefetchWorkers;
+    private final ConcurrentHashMap<String, CompletableFuture<Map<String, Object>>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<Map<String, Object>>>();
+
+    private AtomicLong prefetchCount = new AtomicLong();
+    /**
+     * number of prefetch queries made.
+     */
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+    private AtomicLong prefetchBatches = new AtomicLong();
+    /**
+     * number of batches of prefetch queries taken from the queue.
+     */
+    public long getPrefetchBatches() {
+        return prefetchBatches.get();
+    }
+    private AtomicLong cumulativePrefetchTime = new AtomicLong();
+    /**
+     * total milliseconds spent in prefetch queries, across all prefetch threads.
+     */
+    public long getCumulativePrefetchTime() {
+        return cumulativePrefetchTime.get();
+    }
+    private AtomicLong prefetchHitCount = new AtomicLong();
+    /**
+     * number of times processing found a prefetched result (with or without history).
+     */
+    public long getPrefetchHitCount() {
+        return prefetchHitCount.get();
+    }
+    private AtomicLong prefetchDroppedCount = new AtomicLong();
+    /**
+     * number of prefetch requests dropped because the queue was full.
+     */
+    public long getPrefetchDroppedCount() {
+        return prefetchDroppedCount.get();
+    }
+    /**
+     * number of prefetch queries queued or in progress.
+     */
+    public int getPrefetchInFlight() {
+        return inFlight.size();
+    }
+
     public void setHttpClient(HttpClient client) {
         this.client = client;
     }
@@ -434,26 +558,184 @@ public class WbmPersistLoadProcessor extends Processor {
         return entity.getContent();
     }
     
-    @Override
-    protected ProcessResult innerProcessResult(CrawlURI curi) throws InterruptedException {
-        InputStream is;
-        try {
-            is = getCDX(curi.toString());
-        } catch (IOException ex) {
-            log.log(ERROR, ex.getMessage());
-            errorCount.incrementAndGet();
-            return ProcessResult.PROCEED;
-        }
-        Map<String, Object> info = null;
+    /**
+     * query recrawl info for {@code uri}.
+     * @return recrawl info, or null if there is none (or the response could not be parsed).
+     */
+    protected Map<String, Object> lookup(String uri) throws InterruptedException, IOException {
+        InputStream is = getCDX(uri);
         try {
-            info = getLastCrawl(is);
+            return getLastCrawl(is);
         } catch (IOException ex) {
             log.log(ERROR, "error parsing response", ex);
+            return null;
         } finally {
-            if (is != null)
-                ArchiveUtils.closeQuietly(is);
+            ArchiveUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * queue a lookup of recrawl info for {@code uri}, for use when it is processed.
+     * does nothing if a result is already cached or being looked up.
+     * @param uri URI, as given by {@link CrawlURI#toString()}
+     */
+    public void prefetch(String uri) {
+        BlockingQueue<String> queue = prefetchQueue;
+        if (queue == null) {
+            queue = startPrefetching();
+        }
+        if (prefetched.getIfPresent(uri) != null || noHistory.getIfPresent(uri) != null) {
+            return;
+        }
+        if (inFlight.putIfAbsent(uri, new CompletableFuture<Map<String, Object>>()) != null) {
+            return;
+        }
+        if (!queue.offer(uri)) {
+            completeInFlight(uri, null);
+            prefetchDroppedCount.incrementAndGet();
+        }
+    }
+
+    protected synchronized BlockingQueue<String> startPrefetching() {
+        if (prefetchQueue != null) {
+            return prefetchQueue;
+        }
+        prefetched = CacheBuilder.newBuilder().maximumSize(prefetchCacheSize)
+                .expireAfterWrite(prefetchExpirySecs, TimeUnit.SECONDS)
+                .<String, Map<String, Object>>build();
+        noHistory = CacheBuilder.newBuilder().maximumSize(prefetchCacheSize)
+                .expireAfterWrite(prefetchExpirySecs, TimeUnit.SECONDS)
+                .<String, Boolean>build();
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(maxPrefetchQueued);
+        prefetchWorkers = new Thread[prefetchThreads];
+        for (int i = 0; i < prefetchWorkers.length; i++) {
+            prefetchWorkers[i] = new Thread(() -> prefetchLoop(queue),
+                    "WbmPersistLoadProcessor-prefetch-" + i);
+            prefetchWorkers[i].setDaemon(true);
+            prefetchWorkers[i].start();
+        }
+        // published last: processing uses the caches once this is set
+        prefetchQueue = queue;
+        return queue;
+    }
+
+    protected void prefetchLoop(BlockingQueue<String> queue) {
+        List<String> batch = new ArrayList<String>(prefetchBatchSize);
+        try {
+            while (true) {
+                batch.clear();
+                batch.add(queue.take());
+                queue.drainTo(batch, prefetchBatchSize - 1);
+                prefetchBatches.incrementAndGet();
+                for (int i = 0; i < batch.size(); i++) {
+                    String uri = batch.get(i);
+                    Map<String, Object> info = null;
+                    long t0 = System.currentTimeMillis();
+                    try {
+                        info = lookup(uri);
+                        if (info != null) {
+                            prefetched.put(uri, info);
+                        } else {
+                            noHistory.put(uri, Boolean.TRUE);
+                        }
+                    } catch (IOException ex) {
+                        // not cached; queried again when processed
+                        log.log(ERROR, ex.getMessage());
+                    } catch (InterruptedException ex) {
+                        // release this and the rest of the batch
+                        for (String u : batch.subList(i, batch.size())) {
+                            completeInFlight(u, null);
+                        }
+                        throw ex;
+                    }
+                    cumulativePrefetchTime.addAndGet(System.currentTimeMillis() - t0);
+                    prefetchCount.incrementAndGet();
+                    completeInFlight(uri, info);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // stopping
+        }
+    }
+
+    protected void completeInFlight(String uri, Map<String, Object> info) {
+        CompletableFuture<Map<String, Object>> future = inFlight.remove(uri);
+        if (future != null) {
+            future.complete(info);
+        }
+    }
+
+    /**
+     * take the prefetched result for {@code uri}, waiting for an in-progress
+     * prefetch query if there is one.
+     * @return recrawl info, {@link #NO_HISTORY}, or null if not prefetched.
+     */
+    protected Map<String, Object> takePrefetched(String uri) throws InterruptedException {
+        CompletableFuture<Map<String, Object>> future = inFlight.get(uri);
+        if (future != null) {
+            try {
+                future.get(socketTimeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException ex) {
+                // queried again
+            }
+        }
+        Map<String, Object> info = prefetched.asMap().remove(uri);
+        if (info == null && noHistory.getIfPresent(uri) != null) {
+            info = NO_HISTORY;
         }
         if (info != null) {
+            prefetchHitCount.incrementAndGet();
+        }
+        return info;
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        if (prefetchWorkers != null) {
+            for (Thread worker : prefetchWorkers) {
+                worker.interrupt();
+            }
+            prefetchWorkers = null;
+            prefetchQueue = null;
+            for (String uri : inFlight.keySet()) {
+                completeInFlight(uri, null);
+            }
+        }
+    }
+
+    @Override
+    public String report() {
+        StringBuilder ret = new StringBuilder(super.report());
+        ret.append("  " + getLoadedCount() + " loaded, " + getMissedCount() + " missed, "
+                + getErrorCount() + " errors\n");
+        if (prefetchQueue != null) {
+            long count = getPrefetchCount();
+            ret.append("  " + count + " prefetched in " + getPrefetchBatches() + " batches ("
+                    + (count == 0 ? 0 : getCumulativePrefetchTime() / count) + "ms average), "
+                    + getPrefetchInFlight() + " in flight, " + getPrefetchHitCount() + " used, "
+                    + getPrefetchDroppedCount() + " dropped\n");
+        }
+        return ret.toString();
+    }
+
+    @Override
+    protected ProcessResult innerProcessResult(CrawlURI curi) throws InterruptedException {
+        final String uri = curi.toString();
+        Map<String, Object> info = null;
+        if (prefetchQueue != null) {
+            info = takePrefetched(uri);
+        }
+        if (info == null) {
+            try {
+                info = lookup(uri);
+            } catch (IOException ex) {
+                log.log(ERROR, ex.getMessage());
+                errorCount.incrementAndGet();
+                return ProcessResult.PROCEED;
+            }
+        }
+        if (info != null && info != NO_HISTORY) {
             Map<String, Object> history = FetchHistoryHelper.getFetchHistory(curi,
                     (Long)info.get(FetchHistoryHelper.A_TIMESTAMP), historyLength);
             if (history != null)
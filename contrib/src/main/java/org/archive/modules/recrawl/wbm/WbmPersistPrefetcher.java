@@ -0,0 +1,55 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.recrawl.wbm;
+
+import org.archive.crawler.event.CrawlURIScheduledEvent;
+import org.archive.modules.CrawlURI;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Asks a {@link WbmPersistLoadProcessor} to look up recrawl info for each URI
+ * the frontier schedules, so the lookup is usually done by the time the URI
+ * is fetched. It listens for {@link CrawlURIScheduledEvent}s, which come after
+ * the frontier's already-seen check and scoping, so duplicate and out-of-scope
+ * URIs are not looked up. Declare it as a top-level bean:
+ * <pre>
+ * &lt;bean id="wbmPrefetcher" class="org.archive.modules.recrawl.wbm.WbmPersistPrefetcher"&gt;
+ *   &lt;property name="loadProcessor" ref="wbmPersistLoadProcessor"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ */
+public class WbmPersistPrefetcher implements ApplicationListener<CrawlURIScheduledEvent> {
+
+    private WbmPersistLoadProcessor loadProcessor;
+    public WbmPersistLoadProcessor getLoadProcessor() {
+        return loadProcessor;
+    }
+    public void setLoadProcessor(WbmPersistLoadProcessor loadProcessor) {
+        this.loadProcessor = loadProcessor;
+    }
+
+    @Override
+    public void onApplicationEvent(CrawlURIScheduledEvent event) {
+        CrawlURI curi = event.getCrawlURI();
+        if (loadProcessor != null && loadProcessor.getEnabled()
+                && loadProcessor.shouldProcess(curi)) {
+            loadProcessor.prefetch(curi.toString());
+        }
+    }
+}
@@ -1,18 +1,34 @@
 package org.archive.trough;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -68,6 +84,118 @@ public class TroughClient {
     protected Integer promotionInterval;
     protected Thread promotrix;
 
+    /**
+     * Rows queued by {@link #writeBehind(String, String, String, Object[])}
+     * for one segment, schema and insert statement, oldest first. Only the
+     * writer thread removes rows, or touches the retry state.
+     */
+    protected static class WriteGroup {
+        final String segmentId;
+        final String schemaId;
+        final String insertSql;
+        final ArrayDeque<String> rows = new ArrayDeque<String>();
+        /** consecutive failed attempts to write the oldest batch */
+        int failures = 0;
+        /** when the oldest batch may next be tried, after a failure */
+        long retryAt = 0;
+        WriteGroup(String segmentId, String schemaId, String insertSql) {
+            this.segmentId = segmentId;
+            this.schemaId = schemaId;
+            this.insertSql = insertSql;
+        }
+    }
+
+    protected final ReentrantLock writeLock = new ReentrantLock();
+    protected final Condition writeWanted = writeLock.newCondition();
+    protected final Condition writeRoom = writeLock.newCondition();
+    protected final Map<List<String>,WriteGroup> writeGroups = new LinkedHashMap<List<String>,WriteGroup>();
+    protected long queuedChars = 0;
+    protected long queuedRows = 0;
+    protected Thread writer;
+    protected boolean writerStopping = false;
+
+    protected AtomicLong writtenRows = new AtomicLong();
+    protected AtomicLong writeFailures = new AtomicLong();
+
+    protected int maxBatchRows = 400;
+    public int getMaxBatchRows() {
+        return maxBatchRows;
+    }
+    /**
+     * Maximum number of queued rows sent in one multi-row insert. A group
+     * reaching this size is written without waiting for the flush interval.
+     */
+    public void setMaxBatchRows(int maxBatchRows) {
+        this.maxBatchRows = maxBatchRows;
+    }
+
+    protected long flushIntervalMs = 5000;
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+    /**
+     * Maximum time queued rows wait before being written.
+     */
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    protected long maxQueuedChars = 32 * 1024 * 1024;
+    public long getMaxQueuedChars() {
+        return maxQueuedChars;
+    }
+    /**
+     * Bound on the sql text of queued rows. Callers of
+     * {@link #writeBehind(String, String, String, Object[])} wait while it
+     * is exceeded, for example while trough is unreachable.
+     */
+    public void setMaxQueuedChars(long maxQueuedChars) {
+        this.maxQueuedChars = maxQueuedChars;
+    }
+
+    protected long maxRetryDelayMs = 5 * 60 * 1000;
+    public long getMaxRetryDelayMs() {
+        return maxRetryDelayMs;
+    }
+    /**
+     * Maximum wait before retrying a failed write; the wait starts at one
+     * second and doubles with each consecutive failure. Only the group of
+     * the failed write waits; others go on being written.
+     */
+    public void setMaxRetryDelayMs(long maxRetryDelayMs) {
+        this.maxRetryDelayMs = maxRetryDelayMs;
+    }
+
+    protected int maxWriteRetries = 10;
+    public int getMaxWriteRetries() {
+        return maxWriteRetries;
+    }
+    /**
+     * Number of times a batch that failed to write is retried before it is
+     * set aside, added to the spill file to be tried again when writing
+     * behind next starts. Batches that fail in a way retrying cannot fix,
+     * such as bad sql, are set aside at once, in the spill file with
+     * ".rejected" appended. Without a spill file, such batches are logged
+     * and dropped.
+     */
+    public void setMaxWriteRetries(int maxWriteRetries) {
+        this.maxWriteRetries = maxWriteRetries;
+    }
+
+    protected File spillFile;
+    public File getSpillFile() {
+        return spillFile;
+    }
+    /**
+     * File where queued rows not yet written are saved by {@link #stop()},
+     * or once their write has been retried too often, and read back from
+     * when writing behind next starts. If not set, such rows are logged and
+     * dropped.
+     */
+    public void setSpillFile(File spillFile) {
+        this.spillFile = spillFile;
+    }
+
     public class TroughException extends IOException {
         private static final long serialVersionUID = 1L;
         public TroughException(String msg) {
@@ -88,6 +216,24 @@ public class TroughClient {
         }
     }
 
+    /** An unexpected http response from trough. */
+    public class TroughResponseException extends TroughException {
+        private static final long serialVersionUID = 1L;
+        protected int responseCode;
+        protected String responsePayload;
+        public TroughResponseException(String msg, int responseCode, String responsePayload) {
+            super(msg);
+            this.responseCode = responseCode;
+            this.responsePayload = responsePayload;
+        }
+        public int getResponseCode() {
+            return responseCode;
+        }
+        public String getResponsePayload() {
+            return responsePayload;
+        }
+    }
+
     protected class Promotrix implements Runnable {
         @Override
         public void run() {
@@ -247,6 +393,14 @@ public class TroughClient {
     }
 
     public void start() {
+        if (spillFile != null && spillFile.exists()) {
+            writeLock.lock();
+            try {
+                startWriter();
+            } finally {
+                writeLock.unlock();
+            }
+        }
         if (promotionInterval != null) {
             promotrix = new Thread(new Promotrix(), "TroughClient-promotrix");
             promotrix.setDaemon(true);
@@ -254,7 +408,12 @@ public class TroughClient {
         }
     }
 
+    /**
+     * Writes queued rows (at most one attempt each), then saves any left to
+     * the {@link #setSpillFile(File)}, and stops the promoter thread.
+     */
     public void stop() {
+        stopWriter();
         if (promotrix != null) {
             promotrix.interrupt();
             try {
@@ -363,20 +522,398 @@ public class TroughClient {
     }
 
     public void write(String segmentId, String sqlTmpl, Object[] values, String schemaId) throws IOException {
-        String url = writeUrl(segmentId, schemaId);
-
         String[] sqlValues = new String[values.length];
         for (int i = 0; i < values.length; i++) {
             sqlValues[i] = sqlValue(values[i]);
         }
         String sql = String.format(sqlTmpl, (Object[]) sqlValues);
+        writeSql(segmentId, sql, schemaId);
+    }
+
+    /**
+     * Queue a row to be written by a background thread, in a multi-row
+     * insert with other rows for the same segment and statement. Only waits
+     * if {@link #getMaxQueuedChars()} is exceeded.
+     * 
+     * @param insertSql insert statement up to the values, for example
+     *          {@code "insert into t (a, b)"}
+     * @param values the row's column values
+     */
+    public void writeBehind(String segmentId, String schemaId, String insertSql, Object[] values) throws InterruptedException {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append(", ");
+            }
+            row.append(sqlValue(values[i]));
+        }
+        row.append(")");
+
+        writeLock.lockInterruptibly();
+        try {
+            startWriter();
+            while (queuedChars > 0 && queuedChars + row.length() > maxQueuedChars && writer != null) {
+                writeRoom.await();
+            }
+            if (enqueue(segmentId, schemaId, insertSql, row.toString()) >= maxBatchRows) {
+                writeWanted.signal();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** @return size of the row's group; call with writeLock held */
+    protected int enqueue(String segmentId, String schemaId, String insertSql, String row) {
+        List<String> key = Arrays.asList(segmentId, schemaId, insertSql);
+        WriteGroup group = writeGroups.get(key);
+        if (group == null) {
+            group = new WriteGroup(segmentId, schemaId, insertSql);
+            writeGroups.put(key, group);
+        }
+        group.rows.add(row);
+        queuedChars += row.length();
+        queuedRows++;
+        return group.rows.size();
+    }
+
+    /** @return number of rows queued and not yet written */
+    public long getQueuedRows() {
+        writeLock.lock();
+        try {
+            return queuedRows;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** @return number of queued rows written */
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    /** @return number of failed attempts to write queued rows */
+    public long getWriteFailures() {
+        return writeFailures.get();
+    }
+
+    /** call with writeLock held */
+    protected void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writerStopping = false;
+        unspill();
+        writer = new Thread(this::writeQueued, "TroughClient-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    protected void stopWriter() {
+        Thread stopping;
+        writeLock.lock();
+        try {
+            stopping = writer;
+            writerStopping = true;
+            writeWanted.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        if (stopping != null) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeLock.lock();
+        try {
+            writer = null;
+            // release any callers waiting for room
+            writeRoom.signalAll();
+            if (queuedRows > 0) {
+                spill();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Body of the writer thread: writes each group's queued rows whenever
+     * one fills a batch or the flush interval passes. A group whose write
+     * fails backs off until its retry is due, or has the batch set aside
+     * (see {@link #setMaxWriteRetries(int)}), while the other groups carry
+     * on. Makes one last attempt at everything when stopping.
+     */
+    protected void writeQueued() {
+        while (true) {
+            boolean stopping;
+            List<WriteGroup> groups = new ArrayList<WriteGroup>();
+            writeLock.lock();
+            try {
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                for (WriteGroup group : writeGroups.values()) {
+                    if (group.retryAt > System.currentTimeMillis()) {
+                        deadline = Math.min(deadline, group.retryAt);
+                    }
+                }
+                while (!writerStopping && !hasFullBatch()
+                        && System.currentTimeMillis() < deadline) {
+                    writeWanted.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                }
+                stopping = writerStopping;
+                groups.addAll(writeGroups.values());
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                writeLock.unlock();
+            }
+
+            for (WriteGroup group : groups) {
+                if (!stopping && group.retryAt > System.currentTimeMillis()) {
+                    continue;
+                }
+                writeGroup(group);
+            }
+            if (stopping) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a group's queued rows, batch by batch, until none are left or
+     * a write fails and is to be retried later.
+     */
+    protected void writeGroup(WriteGroup group) {
+        while (true) {
+            List<String> batch = new ArrayList<String>();
+            writeLock.lock();
+            try {
+                Iterator<String> rows = group.rows.iterator();
+                while (rows.hasNext() && batch.size() < maxBatchRows) {
+                    batch.add(rows.next());
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                writeSql(group.segmentId, group.insertSql + " values "
+                        + String.join(", ", batch) + ";", group.schemaId);
+            } catch (Exception e) {
+                writeFailures.incrementAndGet();
+                if (!isRetryable(e)) {
+                    logger.log(Level.SEVERE, "problem writing " + batch.size()
+                            + " rows to trough segment " + group.segmentId
+                            + "; not retrying", e);
+                    setAside(group, batch, rejectFile());
+                    continue;
+                }
+                if (group.failures >= maxWriteRetries) {
+                    logger.log(Level.SEVERE, "problem writing " + batch.size()
+                            + " rows to trough segment " + group.segmentId
+                            + "; gave up after " + group.failures + " retries", e);
+                    setAside(group, batch, spillFile);
+                    continue;
+                }
+                group.failures++;
+                long delayMs = Math.min(maxRetryDelayMs,
+                        1000L << Math.min(group.failures - 1, 30));
+                group.retryAt = System.currentTimeMillis() + delayMs;
+                logger.log(Level.WARNING, "problem writing " + batch.size()
+                        + " rows to trough segment " + group.segmentId
+                        + "; will retry in " + delayMs + "ms", e);
+                return;
+            }
+            writtenRows.addAndGet(batch.size());
+            group.failures = 0;
+            group.retryAt = 0;
+            dequeue(group, batch);
+        }
+    }
+
+    /**
+     * Fragments of sqlite error messages, relayed by trough, that retrying
+     * the same sql will not fix.
+     */
+    protected static final List<String> SQL_ERRORS = Arrays.asList(
+            "syntax error", "no such table", "no such column",
+            "has no column named", "constraint failed");
+
+    /**
+     * @return whether a failed write might succeed if tried again: not if
+     * trough refused the request, or reported an sql error other than, say,
+     * the database being locked
+     */
+    protected boolean isRetryable(Exception e) {
+        if (!(e instanceof TroughResponseException)) {
+            return true;
+        }
+        TroughResponseException tre = (TroughResponseException) e;
+        if (tre.getResponseCode() >= 400 && tre.getResponseCode() < 500) {
+            return false;
+        }
+        String payload = String.valueOf(tre.getResponsePayload());
+        for (String sqlError : SQL_ERRORS) {
+            if (payload.contains(sqlError)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Remove a written or set-aside batch from the head of its group. */
+    protected void dequeue(WriteGroup group, List<String> batch) {
+        writeLock.lock();
+        try {
+            for (String row : batch) {
+                group.rows.remove();
+                queuedChars -= row.length();
+            }
+            queuedRows -= batch.size();
+            writeRoom.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** @return file where batches that cannot be written are saved */
+    protected File rejectFile() {
+        return spillFile == null ? null : new File(spillFile.getPath() + ".rejected");
+    }
+
+    /**
+     * Take a batch that could not be written out of the queue, saving it to
+     * the given file in the format of {@link #spill()}, or dropping it if
+     * there is none.
+     */
+    protected void setAside(WriteGroup group, List<String> batch, File file) {
+        writeLock.lock();
+        try {
+            if (file == null) {
+                logger.warning("dropping " + batch.size() + " rows not written to trough segment "
+                        + group.segmentId + " (no spill file configured)");
+            } else {
+                try {
+                    appendRows(file, group, batch);
+                    logger.info("saved " + batch.size() + " rows not written to trough segment "
+                            + group.segmentId + " to " + file);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "problem saving " + batch.size() + " rows not written to trough segment "
+                            + group.segmentId + " to " + file, e);
+                }
+            }
+            group.failures = 0;
+            group.retryAt = 0;
+            dequeue(group, batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** call with writeLock held */
+    protected boolean hasFullBatch() {
+        long now = System.currentTimeMillis();
+        for (WriteGroup group : writeGroups.values()) {
+            if (group.rows.size() >= maxBatchRows && group.retryAt <= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Save queued rows to the spill file, after any batches set aside there
+     * already; call with writeLock held.
+     */
+    protected void spill() {
+        if (spillFile == null) {
+            logger.warning("dropping " + queuedRows + " rows not written to trough (no spill file configured)");
+        } else {
+            try {
+                for (WriteGroup group : writeGroups.values()) {
+                    appendRows(spillFile, group, group.rows);
+                }
+                logger.info("saved " + queuedRows + " rows not written to trough to " + spillFile);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "problem saving " + queuedRows + " rows not written to trough to " + spillFile, e);
+            }
+        }
+        writeGroups.clear();
+        queuedChars = 0;
+        queuedRows = 0;
+    }
+
+    /**
+     * Append a group's rows to a file, one json object per line.
+     */
+    @SuppressWarnings("unchecked")
+    protected void appendRows(File file, WriteGroup group, Collection<String> rows) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String row : rows) {
+                JSONObject json = new JSONObject();
+                json.put("segment", group.segmentId);
+                json.put("schema", group.schemaId);
+                json.put("insert", group.insertSql);
+                json.put("row", row);
+                out.write(json.toJSONString());
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Queue rows saved by {@link #spill()}; call with writeLock held. The
+     * file is deleted only once all of it has been read. If it cannot be,
+     * none of its rows are queued and it is renamed aside, out of the way of
+     * the next spill, to be looked at by hand.
+     */
+    protected void unspill() {
+        if (spillFile == null || !spillFile.exists()) {
+            return;
+        }
+        List<JSONObject> saved = new ArrayList<JSONObject>();
+        try (BufferedReader in = Files.newBufferedReader(spillFile.toPath(), StandardCharsets.UTF_8)) {
+            JSONParser parser = new JSONParser();
+            String line;
+            while ((line = in.readLine()) != null) {
+                saved.add((JSONObject) parser.parse(line));
+            }
+        } catch (IOException | ParseException e) {
+            File bad = new File(spillFile.getPath() + "." + ArchiveUtils.get14DigitDate() + ".bad");
+            logger.log(Level.SEVERE, "problem reading rows to write to trough from " + spillFile
+                    + "; none queued, keeping it as " + bad, e);
+            if (!spillFile.renameTo(bad)) {
+                logger.severe("could not rename " + spillFile + " to " + bad
+                        + "; its rows will be lost on the next spill");
+            }
+            return;
+        }
+        for (JSONObject json : saved) {
+            enqueue((String) json.get("segment"), (String) json.get("schema"),
+                    (String) json.get("insert"), (String) json.get("row"));
+        }
+        logger.info("queued " + saved.size() + " rows to write to trough from " + spillFile);
+        if (!spillFile.delete()) {
+            logger.warning("could not delete " + spillFile);
+        }
+    }
+
+    protected void writeSql(String segmentId, String sql, String schemaId) throws IOException {
+        String url = writeUrl(segmentId, schemaId);
 
         try {
             HttpURLConnection connection = httpRequest("POST", url, "application/sql", sql, TEN_MINUTES_MS);
             if (connection.getResponseCode() != 200) {
-                throw new TroughException("unexpected response " + connection.getResponseCode() + " "
-                        + connection.getResponseMessage() + ": " + responsePayload(connection)
-                        + " from " + url + " to query: " + sql);
+                String payload = responsePayload(connection);
+                throw new TroughResponseException("unexpected response " + connection.getResponseCode() + " "
+                        + connection.getResponseMessage() + ": " + payload
+                        + " from " + url + " to query: " + sql, connection.getResponseCode(), payload);
             }            
             if (!dirtySegments.contains(segmentId)) {
                 synchronized (dirtySegments) {
@@ -414,8 +951,9 @@ public class TroughClient {
 
         HttpURLConnection connection = httpRequest("POST", provisionUrl, JSON_MIMETYPE, payload.toJSONString(), TEN_MINUTES_MS);
         if (connection.getResponseCode() != 200) {
-            throw new TroughException("received " + connection.getResponseCode() + ": " + responsePayload(connection)
-            + " in response to POST " + provisionUrl + " with data " + payload);
+            String responsePayload = responsePayload(connection);
+            throw new TroughResponseException("received " + connection.getResponseCode() + ": " + responsePayload
+            + " in response to POST " + provisionUrl + " with data " + payload, connection.getResponseCode(), responsePayload);
         }
 
         JSONObject result;
@@ -0,0 +1,123 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.postprocessor;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.archive.crawler.io.UriProcessingFormatter;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.CrawlURI.FetchType;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.net.ServerCache;
+import org.archive.net.UURIFactory;
+
+/**
+ * Measures the bytes allocated, and the time taken, per crawl log record
+ * formatted as a crawl.log line and as a json crawl log feed message.
+ *
+ * <p>Usage: {@code BenchmarkCrawlLogEncoding [records] [reps]}
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkCrawlLogEncoding {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkCrawlLogEncoding()).instanceMain(args);
+    }
+
+    protected static CrawlURI crawlUri(int i) throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example" + (i % 100) + ".com/path/to/page" + i + ".html?q=" + i),
+                "LLLE", UURIFactory.getInstance("http://www.example" + (i % 100) + ".com/"), LinkContext.NAVLINK_MISC);
+        curi.setFetchType(FetchType.HTTP_GET);
+        curi.setFetchStatus(200);
+        curi.setContentSize(12345 + i);
+        curi.setContentType("text/html; charset=utf-8");
+        curi.setThreadNumber(i % 50);
+        curi.setFetchBeginTime(1500000000000l + i);
+        curi.setFetchCompletedTime(1500000000000l + i + 321);
+        curi.setContentDigest("sha1", new byte[20]);
+        curi.setSourceTag("http://www.example" + (i % 100) + ".com/");
+        curi.getAnnotations().add("duplicate:digest");
+        curi.getAnnotations().add("3t");
+        curi.getExtraInfo().put("warcFilename", "WEB-20170101000000000-00001.warc.gz");
+        curi.getExtraInfo().put("warcFileOffset", 123456789l + i);
+        curi.getExtraInfo().put("contentSize", 12345 + i);
+        return curi;
+    }
+
+    protected long threadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    protected long sink;
+
+    protected void run(String name, List<CrawlURI> curis, int reps, Consumer<CrawlURI> encoding) {
+        for (int r = 0; r < reps; r++) {
+            long startBytes = threadAllocatedBytes();
+            long startTime = System.nanoTime();
+            for (CrawlURI curi : curis) {
+                encoding.accept(curi);
+            }
+            long time = System.nanoTime() - startTime;
+            long bytes = threadAllocatedBytes() - startBytes;
+            System.out.printf("%-12s %8.0f bytes/record  %10.0f records/s%n", name,
+                    bytes / (double) curis.size(), curis.size() / (time / 1e9));
+        }
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int records = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int reps = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        for (int i = 0; i < records; i++) {
+            curis.add(crawlUri(i));
+        }
+        ServerCache serverCache = new DefaultServerCache();
+        Map<String,String> extraFields = Map.of("crawl", "benchmark");
+        System.out.println("records=" + records + " reps=" + reps);
+
+        UriProcessingFormatter formatter = new UriProcessingFormatter(true);
+        run("crawl.log", curis, reps, curi -> {
+            LogRecord record = new LogRecord(Level.INFO, null);
+            record.setParameters(new Object[] {curi});
+            sink += formatter.format(record).length();
+        });
+        run("JSONObject", curis, reps, curi -> {
+            sink += CrawlLogJsonBuilder.buildJson(curi, extraFields, serverCache)
+                    .toString().getBytes(StandardCharsets.UTF_8).length;
+        });
+        run("json bytes", curis, reps, curi -> {
+            sink += CrawlLogJsonBuilder.buildJsonBytes(curi, extraFields, serverCache).length;
+        });
+        System.out.println(sink);
+    }
+}
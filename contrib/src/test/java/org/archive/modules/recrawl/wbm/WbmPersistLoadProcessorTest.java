@@ -1,6 +1,8 @@
 package org.archive.modules.recrawl.wbm;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.Inet4Address;
@@ -14,21 +16,32 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import com.sun.net.httpserver.HttpServer;
+import org.archive.bdb.BdbModule;
+import org.archive.crawler.event.CrawlURIScheduledEvent;
+import org.archive.crawler.frontier.BdbFrontier;
+import org.archive.crawler.prefetch.FrontierPreparer;
+import org.archive.crawler.spring.SheetOverlaysManager;
+import org.archive.crawler.util.BdbUriUniqFilter;
 import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.recrawl.FetchHistoryHelper;
 import org.archive.modules.recrawl.FetchHistoryProcessor;
+import org.archive.modules.fetcher.DefaultServerCache;
 import org.archive.modules.recrawl.RecrawlAttributeConstants;
 import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
 import org.archive.util.Base32;
 import org.archive.util.DateUtils;
 
 import com.google.common.util.concurrent.ExecutionList;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.support.StaticApplicationContext;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -141,6 +154,139 @@ public class WbmPersistLoadProcessorTest {
     server.stop(0);
   }
 
+  @Test
+  public void testPrefetch() throws Exception {
+    String TEST_RESPONSE = "org,archive)/ 20121101155310 http://archive.org/ text/html 200 " +
+        "GHN5VKF3TBKNSEZTASOM23BJRTKFFNJK - - 6908 982548871 " +
+        "google.es-20121101-155506/IA-FOC-google.es-20121101073708-00001.warc.gz\n";
+    AtomicInteger requests = new AtomicInteger();
+    String localhost = Inet4Address.getLoopbackAddress().getHostAddress();
+    var server = HttpServer.create(new InetSocketAddress(localhost, 0), 0);
+    server.createContext("/web/timemap/cdx", (httpExchange) -> {
+      requests.incrementAndGet();
+      // history only for /hit... urls
+      byte[] response = httpExchange.getRequestURI().getQuery().contains("/hit")
+          ? TEST_RESPONSE.getBytes(StandardCharsets.UTF_8) : new byte[0];
+      httpExchange.sendResponseHeaders(200, response.length > 0 ? response.length : -1);
+      httpExchange.getResponseBody().write(response);
+      httpExchange.close();
+    });
+    server.setExecutor(Executors.newFixedThreadPool(4));
+    server.start();
+    try {
+      WbmPersistLoadProcessor t = new WbmPersistLoadProcessor();
+      t.setQueryURL("http://" + localhost + ":" + server.getAddress().getPort() + "/web/timemap/cdx?url=$u&limit=-1");
+      t.setPrefetchBatchSize(3);
+      WbmPersistPrefetcher prefetcher = new WbmPersistPrefetcher();
+      prefetcher.setLoadProcessor(t);
+
+      for (int i = 0; i < 10; i++) {
+        prefetcher.onApplicationEvent(new CrawlURIScheduledEvent(this,
+            new CrawlURI(UURIFactory.getInstance("http://archive.org/hit" + i))));
+        prefetcher.onApplicationEvent(new CrawlURIScheduledEvent(this,
+            new CrawlURI(UURIFactory.getInstance("http://archive.org/miss" + i))));
+      }
+      // already in flight or cached
+      t.prefetch("http://archive.org/hit0");
+      long deadline = System.currentTimeMillis() + 10000;
+      while (t.getPrefetchInFlight() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(0, t.getPrefetchInFlight());
+      assertEquals(20, t.getPrefetchCount());
+      assertEquals(20, requests.get());
+      assertTrue(t.getPrefetchBatches() <= 20);
+
+      for (int i = 0; i < 10; i++) {
+        CrawlURI hit = new CrawlURI(UURIFactory.getInstance("http://archive.org/hit" + i));
+        t.innerProcessResult(hit);
+        assertEquals("sha1:GHN5VKF3TBKNSEZTASOM23BJRTKFFNJK",
+            getFetchHistory(hit, 0).get(RecrawlAttributeConstants.A_CONTENT_DIGEST));
+        CrawlURI miss = new CrawlURI(UURIFactory.getInstance("http://archive.org/miss" + i));
+        t.innerProcessResult(miss);
+        assertNull(miss.getFetchHistory());
+      }
+      // all answered from the prefetch caches
+      assertEquals(20, requests.get());
+      assertEquals(20, t.getPrefetchHitCount());
+      assertEquals(10, t.getLoadedCount());
+      assertEquals(10, t.getMissedCount());
+
+      // not prefetched: queried when processed
+      t.innerProcessResult(new CrawlURI(UURIFactory.getInstance("http://archive.org/hit-other")));
+      assertEquals(21, requests.get());
+      assertEquals(11, t.getLoadedCount());
+      t.stop();
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /** a frontier whose queues can be set up without starting it */
+  static class OpenBdbFrontier extends BdbFrontier {
+    @Override
+    public void initInternalQueues() throws IOException {
+      super.initInternalQueues();
+    }
+  }
+
+  @Test
+  public void testNoPrefetchForDuplicate(@TempDir File dir) throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    String localhost = Inet4Address.getLoopbackAddress().getHostAddress();
+    var server = HttpServer.create(new InetSocketAddress(localhost, 0), 0);
+    server.createContext("/web/timemap/cdx", (httpExchange) -> {
+      requests.incrementAndGet();
+      httpExchange.sendResponseHeaders(200, -1);
+      httpExchange.close();
+    });
+    server.start();
+    BdbModule bdb = new BdbModule();
+    OpenBdbFrontier frontier = new OpenBdbFrontier();
+    WbmPersistLoadProcessor t = new WbmPersistLoadProcessor();
+    try {
+      t.setQueryURL("http://" + localhost + ":" + server.getAddress().getPort() + "/web/timemap/cdx?url=$u&limit=-1");
+      // keep no results, so only the frontier's already-seen check can
+      // spare the second lookup
+      t.setPrefetchCacheSize(0);
+      WbmPersistPrefetcher prefetcher = new WbmPersistPrefetcher();
+      prefetcher.setLoadProcessor(t);
+
+      bdb.setDir(new ConfigPath("bdb", new File(dir, "bdb").getAbsolutePath()));
+      bdb.start();
+      BdbUriUniqFilter uuf = new BdbUriUniqFilter();
+      uuf.setBdbModule(bdb);
+      uuf.start();
+      frontier.setBdbModule(bdb);
+      frontier.setServerCache(new DefaultServerCache());
+      frontier.setSheetOverlaysManager(new SheetOverlaysManager());
+      frontier.setFrontierPreparer(new FrontierPreparer());
+      frontier.setUriUniqFilter(uuf);
+      StaticApplicationContext appCtx = new StaticApplicationContext();
+      appCtx.addApplicationListener(prefetcher);
+      appCtx.refresh();
+      frontier.setApplicationContext(appCtx);
+      uuf.setDestination(frontier);
+      frontier.initInternalQueues();
+
+      for (String uri : new String[] {"http://archive.org/a", "http://archive.org/a", "http://archive.org/b"}) {
+        frontier.schedule(new CrawlURI(UURIFactory.getInstance(uri)));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (t.getPrefetchInFlight() > 0 && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+      }
+      assertEquals(0, t.getPrefetchInFlight());
+      assertEquals(2, t.getPrefetchCount());
+      assertEquals(2, requests.get());
+    } finally {
+      t.stop();
+      frontier.close();
+      bdb.close();
+      server.stop(0);
+    }
+  }
+
   // DISABLED: this relies on wwwb-dedup.us.archive.org which is intermittently returning 503
   public void xtestInnerProcessResultSingleShotWithRealServer() throws Exception {
     WbmPersistLoadProcessor t = new WbmPersistLoadProcessor();
@@ -0,0 +1,236 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.trough;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class TroughClientTest {
+
+    @TempDir
+    Path tempDir;
+
+    protected HttpServer server;
+    protected List<String> posted = new CopyOnWriteArrayList<String>();
+    /** number of requests still to fail */
+    protected AtomicInteger failures = new AtomicInteger();
+    /** segments whose writes always fail, with the error trough gives */
+    protected Map<String,String> failingSegments = new ConcurrentHashMap<String,String>();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            String sql = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String segmentId = exchange.getRequestURI().getPath().substring(1);
+            String error = failingSegments.get(segmentId);
+            if (error == null && failures.getAndDecrement() > 0) {
+                error = "database is locked";
+            }
+            if (error != null) {
+                byte[] body = ("500 Server Error: " + error).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(500, body.length);
+                exchange.getResponseBody().write(body);
+            } else {
+                posted.add(sql);
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    protected TroughClient client() throws IOException {
+        String url = "http://localhost:" + server.getAddress().getPort() + "/";
+        return new TroughClient("rethinkdb://localhost/trough_configuration", null) {
+            @Override
+            protected String writeUrl(String segmentId, String schemaId) {
+                return url + segmentId;
+            }
+        };
+    }
+
+    @Test
+    public void testWriteBehindCoalesces() throws Exception {
+        TroughClient client = client();
+        client.setMaxBatchRows(3);
+        client.setFlushIntervalMs(60000);
+        for (int i = 0; i < 7; i++) {
+            client.writeBehind("seg1", "default", "insert into t (a, b)", new Object[] {i, "x" + i});
+        }
+        client.writeBehind("seg2", "default", "insert into t (a, b)", new Object[] {7, null});
+        client.stop();
+
+        assertEquals(8, client.getWrittenRows());
+        assertEquals(0, client.getQueuedRows());
+        assertTrue(posted.contains("insert into t (a, b) values (0, 'x0'), (1, 'x1'), (2, 'x2');"), posted.toString());
+        assertTrue(posted.contains("insert into t (a, b) values (3, 'x3'), (4, 'x4'), (5, 'x5');"), posted.toString());
+        assertTrue(posted.contains("insert into t (a, b) values (6, 'x6');"), posted.toString());
+        assertTrue(posted.contains("insert into t (a, b) values (7, null);"), posted.toString());
+        assertEquals(4, posted.size());
+    }
+
+    @Test
+    public void testWriteBehindRetries() throws Exception {
+        TroughClient client = client();
+        client.setFlushIntervalMs(10);
+        failures.set(2);
+        client.writeBehind("seg1", "default", "insert into t (a)", new Object[] {1});
+        for (int i = 0; i < 100 && client.getWrittenRows() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, client.getWrittenRows());
+        assertEquals(2, client.getWriteFailures());
+        assertEquals(List.of("insert into t (a) values (1);"), posted);
+        client.stop();
+    }
+
+    @Test
+    public void testFailingGroupDoesNotBlockOthers() throws Exception {
+        TroughClient client = client();
+        client.setFlushIntervalMs(10);
+        failingSegments.put("seg1", "database is locked");
+        client.writeBehind("seg1", "default", "insert into t (a)", new Object[] {1});
+        client.writeBehind("seg2", "default", "insert into t (a)", new Object[] {2});
+        waitFor(() -> client.getWrittenRows() == 1);
+        client.writeBehind("seg2", "default", "insert into t (a)", new Object[] {3});
+        waitFor(() -> client.getWrittenRows() == 2);
+        assertEquals(List.of("insert into t (a) values (2);", "insert into t (a) values (3);"), posted);
+        assertEquals(1, client.getQueuedRows());
+        client.stop();
+    }
+
+    @Test
+    public void testNonRetryableSetAside() throws Exception {
+        File spillFile = new File(tempDir.toFile(), "trough-spill.jsonl");
+        TroughClient client = client();
+        client.setSpillFile(spillFile);
+        client.setFlushIntervalMs(10);
+        failingSegments.put("seg1", "no such table: t");
+        client.writeBehind("seg1", "default", "insert into t (a)", new Object[] {1});
+        client.writeBehind("seg2", "default", "insert into t (a)", new Object[] {2});
+        waitFor(() -> client.getQueuedRows() == 0);
+        assertEquals(1, client.getWriteFailures());
+        assertEquals(1, client.getWrittenRows());
+        client.stop();
+
+        assertFalse(spillFile.exists());
+        List<String> rejected = Files.readAllLines(new File(spillFile.getPath() + ".rejected").toPath());
+        assertEquals(1, rejected.size());
+        assertTrue(rejected.get(0).contains("\"segment\":\"seg1\""), rejected.get(0));
+        assertTrue(rejected.get(0).contains("\"row\":\"(1)\""), rejected.get(0));
+    }
+
+    @Test
+    public void testRetriesCapped() throws Exception {
+        File spillFile = new File(tempDir.toFile(), "trough-spill.jsonl");
+        TroughClient client = client();
+        client.setSpillFile(spillFile);
+        client.setFlushIntervalMs(10);
+        client.setMaxWriteRetries(1);
+        failingSegments.put("seg1", "database is locked");
+        client.writeBehind("seg1", "default", "insert into t (a)", new Object[] {1});
+        waitFor(() -> client.getQueuedRows() == 0);
+        assertEquals(2, client.getWriteFailures());
+        assertTrue(spillFile.exists());
+        client.stop();
+
+        failingSegments.clear();
+        TroughClient again = client();
+        again.setSpillFile(spillFile);
+        again.start();
+        assertEquals(1, again.getQueuedRows());
+        again.stop();
+        assertEquals(List.of("insert into t (a) values (1);"), posted);
+    }
+
+    protected void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        File spillFile = new File(tempDir.toFile(), "trough-spill.jsonl");
+        TroughClient client = client();
+        client.setSpillFile(spillFile);
+        failures.set(Integer.MAX_VALUE);
+        client.writeBehind("seg1", "default", "insert into t (a)", new Object[] {"it's\nmultiline"});
+        client.writeBehind("seg1", "default", "insert into t (a)", new Object[] {2});
+        client.stop();
+        assertEquals(0, client.getWrittenRows());
+        assertTrue(spillFile.exists());
+
+        failures.set(0);
+        client = client();
+        client.setSpillFile(spillFile);
+        client.start();
+        assertFalse(spillFile.exists());
+        assertEquals(2, client.getQueuedRows());
+        client.stop();
+        assertEquals(List.of("insert into t (a) values ('it''s\nmultiline'), (2);"), posted);
+    }
+
+    @Test
+    public void testUnreadableSpillKept() throws Exception {
+        File spillFile = new File(tempDir.toFile(), "trough-spill.jsonl");
+        Files.write(spillFile.toPath(), List.of(
+                "{\"segment\":\"seg1\",\"schema\":\"default\",\"insert\":\"insert into t (a)\",\"row\":\"(1)\"}",
+                "{\"segment\":\"seg1\",\"sch"), StandardCharsets.UTF_8);
+        TroughClient client = client();
+        client.setSpillFile(spillFile);
+        client.start();
+        assertEquals(0, client.getQueuedRows());
+        assertFalse(spillFile.exists());
+        File[] kept = tempDir.toFile().listFiles((dir, name) -> name.endsWith(".bad"));
+        assertEquals(1, kept.length);
+        assertEquals(2, Files.readAllLines(kept[0].toPath()).size());
+        client.stop();
+        assertEquals(0, client.getWrittenRows());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.event;
+
+import org.archive.modules.CrawlURI;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the frontier when it queues a URI that passed its
+ * already-seen check, with the URI's overlay settings in effect. Not
+ * published for URIs put back in their queue, such as for a retry.
+ */
+public class CrawlURIScheduledEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+    protected CrawlURI curi;
+
+    public CrawlURIScheduledEvent(Object source, CrawlURI curi) {
+        super(source);
+        this.curi = curi;
+    }
+
+    public CrawlURI getCrawlURI() {
+        return this.curi;
+    }
+}
@@ -191,6 +191,22 @@ implements Serializable,
         }
     }
     
+    /**
+     * Whether to run each ToeThread's work on a virtual thread rather than a
+     * platform thread, so that many more fetches can be in progress at once
+     * without an OS thread (and stack) per fetch. Requires a Java 21 or later
+     * runtime; ignored with a warning otherwise. Takes effect when the pool
+     * is created at crawl launch. Note each ToeThread still reserves its
+     * recorder buffers, see {@link #setRecorderInBufferBytes(int)}.
+     */
+    protected boolean useVirtualToeThreads = false;
+    public boolean getUseVirtualToeThreads() {
+        return useVirtualToeThreads;
+    }
+    public void setUseVirtualToeThreads(boolean useVirtualToeThreads) {
+        this.useVirtualToeThreads = useVirtualToeThreads;
+    }
+
     /** whether to keep running (without pause or finish) when frontier is empty */
     protected boolean runWhileEmpty = false; 
     public boolean getRunWhileEmpty() {
@@ -20,11 +20,16 @@
 package org.archive.crawler.framework;
 
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.archive.crawler.reporting.AlertThreadGroup;
@@ -38,6 +43,10 @@ import org.archive.util.Reporter;
  * number, keeping track of their state and (not necessarily safely)
  * killing hung threads.
  *
+ * <p>If the controller asks for virtual threads (and the runtime offers
+ * them), each ToeThread runs on its own virtual thread instead; those are
+ * not members of this group, so the pool tracks them itself.
+ *
  * @author Gordon Mohr
  * @author Kristinn Sigurdsson
  *
@@ -47,9 +56,15 @@ public class ToePool extends ThreadGroup implements Reporter {
     /** run worker thread slightly lower than usual */
     public static int DEFAULT_TOE_PRIORITY = Thread.NORM_PRIORITY - 1;
     
+    private static final Logger logger =
+        Logger.getLogger(ToePool.class.getName());
+
     protected CrawlController controller;
     protected int nextSerialNumber = 1;
     protected int targetSize = 0; 
+    protected boolean useVirtualThreads = false;
+    /** toes running on virtual threads, invisible to ThreadGroup enumeration */
+    protected Set<ToeThread> virtualToes = ConcurrentHashMap.newKeySet();
 
     /**
      * Constructor. Creates a pool of ToeThreads. 
@@ -60,13 +75,46 @@ public class ToePool extends ThreadGroup implements Reporter {
         super(atg, "ToeThreads");        
         this.controller = c;
         setDaemon(true);
+        if (c.getUseVirtualToeThreads()) {
+            if (newVirtualThread("probe", () -> {}) != null) {
+                useVirtualThreads = true;
+            } else {
+                logger.log(Level.WARNING, "virtual threads not supported by this "
+                        + "Java runtime (" + System.getProperty("java.version")
+                        + "); using platform ToeThreads");
+            }
+        }
+    }
+
+    /**
+     * Create an unstarted virtual thread, via reflection as the crawler is
+     * still built for Java 17.
+     *
+     * @return the thread, or null if the runtime lacks virtual threads
+     */
+    protected static Thread newVirtualThread(String name, Runnable task) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+            return (Thread) builderClass.getMethod("unstarted", Runnable.class)
+                    .invoke(builder, task);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return useVirtualThreads;
     }
     
     public void cleanup() {
     	// force all Toes waiting on queues, etc to proceed
         Thread[] toes = getToes();
         for(Thread toe : toes) {
-            if(toe!=null) {
+            if(toe instanceof ToeThread) {
+                ((ToeThread) toe).getWorker().interrupt();
+            } else if(toe!=null) {
                 toe.interrupt();
             }
         }
@@ -108,7 +156,14 @@ public class ToePool extends ThreadGroup implements Reporter {
     private Thread[] getToes() {
         Thread[] toes = new Thread[activeCount()+10];
         this.enumerate(toes);
-        return toes;
+        if (virtualToes.isEmpty()) {
+            return toes;
+        }
+        virtualToes.removeIf(toe -> !toe.isWorkerAlive());
+        ToeThread[] virtual = virtualToes.toArray(new ToeThread[0]);
+        Thread[] all = Arrays.copyOf(toes, toes.length + virtual.length);
+        System.arraycopy(virtual, 0, all, toes.length, virtual.length);
+        return all;
     }
 
     /**
@@ -178,6 +233,14 @@ public class ToePool extends ThreadGroup implements Reporter {
     private synchronized void startNewThread() {
         ToeThread newThread = new ToeThread(this, nextSerialNumber++);
         newThread.setPriority(DEFAULT_TOE_PRIORITY);
+        if (useVirtualThreads) {
+            Thread worker = newVirtualThread(newThread.getName(), newThread);
+            if (worker != null) {
+                newThread.startOn(worker);
+                virtualToes.add(newThread);
+                return;
+            }
+        }
         newThread.start();
     }
 
@@ -199,7 +262,8 @@ public class ToePool extends ThreadGroup implements Reporter {
         writer.print(" Job being crawled: "
                 + this.controller.getMetadata().getJobName() + "\n");
         writer.print(" Number of toe threads in pool: " + getToeCount() + " ("
-                + getActiveToeCount() + " active)\n\n");
+                + getActiveToeCount() + " active"
+                + (useVirtualThreads ? ", on virtual threads" : "") + ")\n\n");
         
         Thread[] toes = this.getToes();
         synchronized (toes) {
@@ -338,7 +402,11 @@ public class ToePool extends ThreadGroup implements Reporter {
     
     private static boolean isAllAlive(Thread[] threads) {
         for (Thread t: threads) {
-            if ((t != null) && (!t.isAlive())) {
+            if (t instanceof ToeThread) {
+                if (!((ToeThread) t).isWorkerAlive()) {
+                    return false;
+                }
+            } else if ((t != null) && (!t.isAlive())) {
                 return false;
             }
         }
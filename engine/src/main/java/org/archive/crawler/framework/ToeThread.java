@@ -31,9 +31,11 @@ import java.lang.management.ThreadMXBean;
 import java.net.InetAddress;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.crawler.reporting.AlertThreadGroup;
 import org.archive.io.SinkHandlerLogThread;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
@@ -53,6 +55,12 @@ import com.sleepycat.util.RuntimeExceptionWrapper;
  * One "worker thread"; asks for CrawlURIs, processes them,
  * repeats unless told otherwise.
  *
+ * <p>Usually the ToeThread itself is the running thread. When the
+ * {@link ToePool} uses virtual threads, the ToeThread is never started;
+ * instead its {@link #run()} executes on a separate virtual "worker" thread
+ * (see {@link #getWorker()}), while this object keeps serving as the
+ * toe's identity for reports and the web UI.
+ *
  * @author Gordon Mohr
  */
 public class ToeThread extends Thread
@@ -94,6 +102,19 @@ implements Reporter, ProgressStatisticsReporter,
     // indicator that a thread is now surplus based on current desired
     // count; it should wrap up cleanly
     private volatile boolean shouldRetire = false;
+
+    /** thread actually running this toe: this, or a virtual thread */
+    private volatile Thread worker = this;
+
+    /** group receiving alerts when running on a virtual worker */
+    private AlertThreadGroup alertThreadGroup;
+
+    /**
+     * Guards the handoff of currentCuri against {@link #kill()}. A lock
+     * rather than a monitor, as the frontier calls made while holding it
+     * may block, which would pin a virtual worker's carrier thread.
+     */
+    private final ReentrantLock curiLock = new ReentrantLock();
     
     /**
      * Create a ToeThread
@@ -107,6 +128,9 @@ implements Reporter, ProgressStatisticsReporter,
         coreName="ToeThread #" + sn + ": ";
         controller = g.getController();
         serialNumber = sn;
+        if (g.getParent() instanceof AlertThreadGroup) {
+            alertThreadGroup = (AlertThreadGroup) g.getParent();
+        }
         setPriority(DEFAULT_PRIORITY);
         int outBufferSize = controller.getRecorderOutBufferBytes();
         int inBufferSize = controller.getRecorderInBufferBytes();
@@ -122,6 +146,9 @@ implements Reporter, ProgressStatisticsReporter,
         String name = controller.getMetadata().getJobName();
         logger.fine(getName()+" started for order '"+name+"'");
         Recorder.setHttpRecorder(httpRecorder); 
+        if (worker != this) {
+            AlertThreadGroup.bindCurrentThread(alertThreadGroup, this);
+        }
         
         try {
             while ( true ) {
@@ -131,12 +158,15 @@ implements Reporter, ProgressStatisticsReporter,
 
                 CrawlURI curi = controller.getFrontier().next();
 
-                synchronized(this) {
+                curiLock.lock();
+                try {
                     setCurrentCuri(curi);
                     ArchiveUtils.continueCheck();
                     currentCuri.setThreadNumber(this.serialNumber);
                     lastStartTime = System.currentTimeMillis();
                     currentCuri.setRecorder(httpRecorder);
+                } finally {
+                    curiLock.unlock();
                 }
                 
                 try {
@@ -180,10 +210,13 @@ implements Reporter, ProgressStatisticsReporter,
                 setStep(Step.ABOUT_TO_RETURN_URI, null);
                 ArchiveUtils.continueCheck();
 
-                synchronized(this) {
+                curiLock.lock();
+                try {
                     controller.getFrontier().finished(currentCuri);
                     controller.getFrontier().endDisposition();
                     setCurrentCuri(null);
+                } finally {
+                    curiLock.unlock();
                 }
                 curi = null;
                 
@@ -202,7 +235,8 @@ implements Reporter, ProgressStatisticsReporter,
         } catch (OutOfMemoryError err) {
             seriousError(err);
         } finally {
-            synchronized (this) {
+            curiLock.lock();
+            try {
                 if (currentCuri != null) {
                     logger.log(Level.WARNING,"Leaving with unfinished CrawlURI " + getName() +
                             " - attempting to finish");
@@ -210,8 +244,13 @@ implements Reporter, ProgressStatisticsReporter,
                     controller.getFrontier().finished(currentCuri);
                     setCurrentCuri(null);
                 }
+            } finally {
+                curiLock.unlock();
             }
             controller.getFrontier().endDisposition();
+            if (worker != this) {
+                AlertThreadGroup.unbindCurrentThread();
+            }
         }
 
         setCurrentCuri(null);
@@ -229,14 +268,41 @@ implements Reporter, ProgressStatisticsReporter,
      * @param curi
      */
     private void setCurrentCuri(CrawlURI curi) {
-        if(curi==null) {
-            setName(coreName);
-        } else {
-            setName(coreName+curi);
+        String name = (curi == null) ? coreName : coreName + curi;
+        setName(name);
+        Thread w = worker;
+        if (w != this) {
+            w.setName(name);
         }
         currentCuri = curi;
     }
 
+    /**
+     * Run this toe on the given (virtual) worker thread instead of starting
+     * this thread itself.
+     *
+     * @param virtualWorker unstarted thread whose task is this toe
+     */
+    protected void startOn(Thread virtualWorker) {
+        this.worker = virtualWorker;
+        virtualWorker.start();
+    }
+
+    /**
+     * @return the thread running this toe's work: this thread, or the
+     * virtual thread it was started on
+     */
+    public Thread getWorker() {
+        return worker;
+    }
+
+    /**
+     * @return whether the thread running this toe's work is alive
+     */
+    public boolean isWorkerAlive() {
+        return worker.isAlive();
+    }
+
     /**
      * @param s
      */
@@ -348,12 +414,15 @@ implements Reporter, ProgressStatisticsReporter,
      * established.
      */
     protected void kill(){
-        this.interrupt();
-        synchronized(this) {
+        worker.interrupt();
+        curiLock.lock();
+        try {
             if (currentCuri!=null) {
                 currentCuri.setFetchStatus(S_PROCESSING_THREAD_KILLED);
                 controller.getFrontier().finished(currentCuri);
              }
+        } finally {
+            curiLock.unlock();
         }
     }
 
@@ -372,7 +441,8 @@ implements Reporter, ProgressStatisticsReporter,
      */
     public boolean isActive() {
         // if alive and not waiting in/for frontier.next(), we're 'active'
-        return this.isAlive() && (currentCuri != null) && !isInterrupted();
+        Thread w = worker;
+        return w.isAlive() && (currentCuri != null) && !w.isInterrupted();
     }
     
     /**
@@ -455,7 +525,7 @@ implements Reporter, ProgressStatisticsReporter,
         pw.print(ArchiveUtils.formatMillisecondsToConventional(System.currentTimeMillis()-atStepSince));
         pw.println();
 
-        reportThread(this, pw);
+        reportThread(worker, pw);
         pw.print("]");
         pw.println();
         
@@ -468,11 +538,12 @@ implements Reporter, ProgressStatisticsReporter,
      */
     static public void reportThread(Thread t, PrintWriter pw) {
         ThreadMXBean tmxb = ManagementFactory.getThreadMXBean();
+        // not available for virtual threads
         ThreadInfo info = tmxb.getThreadInfo(t.getId());
         pw.print("Java Thread State: ");
-        pw.println(info.getThreadState());
+        pw.println(info != null ? info.getThreadState() : t.getState());
         pw.print("Blocked/Waiting On: ");
-        if (info.getLockOwnerId() >= 0) {
+        if (info != null && info.getLockOwnerId() >= 0) {
             pw.print(info.getLockName());
             pw.print(" which is owned by ");
             pw.print(info.getLockOwnerName());
@@ -966,6 +966,14 @@ public abstract class AbstractFrontier
         return lineCount;
     }
     
+    /**
+     * Progress of the latest recovery-log import, if any.
+     */
+    protected volatile FrontierJournal.RecoveryProgress recoveryProgress = null;
+    public FrontierJournal.RecoveryProgress getRecoveryProgress() {
+        return recoveryProgress;
+    }
+
     /* (non-Javadoc)
      * @see org.archive.crawler.framework.Frontier#importURIs(java.util.Map)
      */
@@ -980,7 +988,8 @@ public abstract class AbstractFrontier
             throw ioe;
         }
         if("recoveryLog".equals(params.optString("format"))) {
-            FrontierJournal.importRecoverLog(params, this);
+            recoveryProgress = new FrontierJournal.RecoveryProgress();
+            FrontierJournal.importRecoverLog(params, this, recoveryProgress);
             return;
         }
         // otherwise, do a 'simple' import
@@ -52,6 +52,9 @@ import org.json.JSONObject;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.sleepycat.bind.tuple.IntegerBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseException;
 
@@ -103,6 +106,45 @@ implements Checkpointable, BeanNameAware {
         this.dumpPendingAtClose = dumpPendingAtClose;
     }
 
+    /**
+     * Whether to key each new queue's pending URIs by a small integer
+     * queue id, assigned from a persistent classKey-to-id dictionary,
+     * rather than by the queue's full classKey. Every pending URI then has
+     * a fixed 16-byte key, which keeps the pending-URIs database's internal
+     * nodes small when classKeys are long. May be changed when resuming
+     * from a checkpoint: existing queues switch to the chosen form of key
+     * when next empty.
+     */
+    protected boolean compactQueueKeys = false;
+    public boolean getCompactQueueKeys() {
+        return compactQueueKeys;
+    }
+    public void setCompactQueueKeys(boolean compactQueueKeys) {
+        this.compactQueueKeys = compactQueueKeys;
+    }
+
+    /** classKey to integer queue id, for {@link #getCompactQueueKeys()} */
+    protected StoredSortedMap<String,Integer> queueIds;
+    protected int nextQueueId;
+
+    /**
+     * Return the integer queue id for the given classKey, assigning the
+     * next unused id if it has none.
+     * 
+     * @param classKey queue classKey
+     * @return queue id
+     */
+    protected int queueIdFor(String classKey) {
+        synchronized (queueIds) {
+            Integer id = queueIds.get(classKey);
+            if (id == null) {
+                id = nextQueueId++;
+                queueIds.put(classKey, id);
+            }
+            return id;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueuesByPrecedence()
      */
@@ -354,6 +396,16 @@ implements Checkpointable, BeanNameAware {
         
         // initialize master map in which other queues live
         this.pendingUris = createMultipleWorkQueues();
+
+        // queue id dictionary; created if absent even when resuming, so
+        // compactQueueKeys may be enabled for a crawl begun without it
+        BdbModule.BdbConfig idsConfig = new BdbModule.BdbConfig();
+        idsConfig.setAllowCreate(true);
+        Database idsDb = bdb.openDatabase("queueIds", idsConfig, recycle);
+        this.queueIds = new StoredSortedMap<String,Integer>(idsDb,
+                new StringBinding(), new IntegerBinding(), true);
+        // ids are assigned densely from zero
+        this.nextQueueId = (int) idsDb.count();
     }
 
 
@@ -23,6 +23,9 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -53,7 +56,9 @@ import com.sleepycat.util.RuntimeExceptionWrapper;
  * this to act as a collection of independent queues.
  * 
  * <p>
- * For how the bdb keys are made, see {@link #calculateInsertKey(CrawlURI)}.
+ * For how the bdb keys are made, see {@link #calculateInsertKey(CrawlURI)}
+ * and, for queues identified by an integer queue id rather than their
+ * classKey, {@link #calculateOriginKey(int)}.
  * 
  * <p>
  * TODO: refactor, improve naming.
@@ -66,6 +71,16 @@ public class BdbMultipleWorkQueues {
 
     private static final Logger LOGGER = Logger.getLogger(BdbMultipleWorkQueues.class.getName());
 
+    /**
+     * First byte of compact (queue id) keys. Never the first byte of a
+     * UTF-8 encoded classKey, so compact and classKey-prefixed keys can
+     * share the one database.
+     */
+    protected static final byte COMPACT_KEY_MARKER = (byte) 0xFF;
+
+    /** length of a compact origin key; items' keys add 8 ordering bytes */
+    protected static final int COMPACT_ORIGIN_LENGTH = 8;
+
     /** Database holding all pending URIs, grouped in virtual queues */
     private Database pendingUrisDB = null;
 
@@ -245,6 +260,22 @@ public class BdbMultipleWorkQueues {
      */
     public CrawlURI get(DatabaseEntry headKey)
             throws DatabaseException {
+        return get(headKey, Collections.<DatabaseEntry>emptyList());
+    }
+
+    /**
+     * Get the first item in the queue beginning at headKey whose key is
+     * not one of skipKeys (as when some items are already out for
+     * crawling).
+     * 
+     * @param headKey key of the queue's cap entry; on return, the key of
+     * the item found
+     * @param skipKeys keys of items to pass over
+     * @return CrawlURI, or null if none
+     * @throws DatabaseException
+     */
+    public CrawlURI get(DatabaseEntry headKey, Collection<DatabaseEntry> skipKeys)
+            throws DatabaseException {
         DatabaseEntry result = new DatabaseEntry();
 
         // From Linda Lee of sleepycat:
@@ -255,7 +286,7 @@ public class BdbMultipleWorkQueues {
         // non-null. The other possible status return is
         // OperationStatus.NOTFOUND, in which case no data record matched
         // the criteria. "
-        OperationStatus status = getNextNearestItem(headKey, result);
+        OperationStatus status = getNextNearestItem(headKey, result, skipKeys);
         CrawlURI retVal = null;
         if (status != OperationStatus.SUCCESS) {
             LOGGER.severe("See '1219854 NPE je-2.0 "
@@ -290,7 +321,8 @@ public class BdbMultipleWorkQueues {
     }
 
     protected OperationStatus getNextNearestItem(DatabaseEntry headKey,
-            DatabaseEntry result) throws DatabaseException {
+            DatabaseEntry result, Collection<DatabaseEntry> skipKeys)
+            throws DatabaseException {
         Cursor cursor = null;
         OperationStatus status;
         Thread.interrupted();
@@ -312,6 +344,10 @@ public class BdbMultipleWorkQueues {
             }
             // get next item (real first item of queue)
             status = cursor.getNext(headKey, result, null);
+            while (status == OperationStatus.SUCCESS
+                    && containsKey(skipKeys, headKey)) {
+                status = cursor.getNext(headKey, result, null);
+            }
         } finally {
             if (cursor != null) {
                 cursor.close();
@@ -320,6 +356,16 @@ public class BdbMultipleWorkQueues {
         return status;
     }
 
+    protected static boolean containsKey(Collection<DatabaseEntry> keys,
+            DatabaseEntry key) {
+        for (DatabaseEntry k : keys) {
+            if (Arrays.equals(k.getData(), key.getData())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Put the given CrawlURI in at the appropriate place.
      * 
@@ -328,9 +374,25 @@ public class BdbMultipleWorkQueues {
      */
     public void put(CrawlURI curi, boolean overwriteIfPresent)
             throws DatabaseException {
+        put(curi, overwriteIfPresent, null);
+    }
+
+    /**
+     * Put the given CrawlURI in at the appropriate place in the queue
+     * with the given origin key.
+     * 
+     * @param curi
+     * @param origin origin key of the CrawlURI's queue, or null to
+     *            derive it from the CrawlURI's classKey
+     * @throws DatabaseException
+     */
+    public void put(CrawlURI curi, boolean overwriteIfPresent, byte[] origin)
+            throws DatabaseException {
         DatabaseEntry insertKey = (DatabaseEntry) curi.getHolderKey();
         if (insertKey == null) {
-            insertKey = calculateInsertKey(curi);
+            insertKey = (origin == null)
+                    ? calculateInsertKey(curi)
+                    : calculateInsertKey(origin, curi);
             curi.setHolderKey(insertKey);
         }
         DatabaseEntry value = new DatabaseEntry();
@@ -404,6 +466,42 @@ public class BdbMultipleWorkQueues {
         return keyData;
     }
 
+    /**
+     * Calculate the compact 'origin' key for the virtual queue with the
+     * given integer queue id: a marker byte, 3 reserved zero bytes, then
+     * the 4-byte id. Items in the queue then have fixed-length 16-byte
+     * keys, however long the queue's classKey.
+     * 
+     * @param queueId non-negative queue id
+     * @return a byte array key
+     */
+    protected static byte[] calculateOriginKey(int queueId) {
+        byte[] keyData = new byte[COMPACT_ORIGIN_LENGTH];
+        keyData[0] = COMPACT_KEY_MARKER;
+        keyData[4] = (byte) (queueId >>> 24);
+        keyData[5] = (byte) (queueId >>> 16);
+        keyData[6] = (byte) (queueId >>> 8);
+        keyData[7] = (byte) queueId;
+        return keyData;
+    }
+
+    /**
+     * @return true if the given key is an origin or item key made from
+     *         an integer queue id
+     */
+    protected static boolean isCompactKey(byte[] key) {
+        return key.length >= COMPACT_ORIGIN_LENGTH
+                && key[0] == COMPACT_KEY_MARKER;
+    }
+
+    /**
+     * @return the queue id of the given compact key
+     */
+    protected static int compactKeyQueueId(byte[] key) {
+        return ((key[4] & 0xFF) << 24) | ((key[5] & 0xFF) << 16)
+                | ((key[6] & 0xFF) << 8) | (key[7] & 0xFF);
+    }
+
     /**
      * Calculate the insertKey that places a CrawlURI in the
      * desired spot. First bytes are always classKey (usu. host)
@@ -432,6 +530,27 @@ public class BdbMultipleWorkQueues {
         byte[] keyData = new byte[len + 9];
         System.arraycopy(classKeyBytes, 0, keyData, 0, len);
         keyData[len] = 0;
+        fillOrderingBytes(curi, keyData, len + 1);
+        return new DatabaseEntry(keyData);
+    }
+
+    /**
+     * Calculate the insertKey that places a CrawlURI in the desired spot
+     * of the queue with the given origin key: the origin, then the same 8
+     * ordering bytes as {@link #calculateInsertKey(CrawlURI)}.
+     * 
+     * @param origin origin key of the CrawlURI's queue
+     * @param curi
+     * @return a DatabaseEntry key for the CrawlURI
+     */
+    protected static DatabaseEntry calculateInsertKey(byte[] origin, CrawlURI curi) {
+        byte[] keyData = new byte[origin.length + 8];
+        System.arraycopy(origin, 0, keyData, 0, origin.length);
+        fillOrderingBytes(curi, keyData, origin.length);
+        return new DatabaseEntry(keyData);
+    }
+
+    protected static void fillOrderingBytes(CrawlURI curi, byte[] keyData, int offset) {
         long ordinalPlus = curi.getOrdinal() & 0x0000FFFFFFFFFFFFL;
         ordinalPlus = ((long) curi.getSchedulingDirective() << 56) | ordinalPlus;
         long rawPrecedence = curi.getPrecedence();
@@ -442,15 +561,20 @@ public class BdbMultipleWorkQueues {
         }
         long precedence = Math.min(rawPrecedence, 127);
         ordinalPlus = (((precedence) & 0xFFL) << 48) | ordinalPlus;
-        ArchiveUtils.longIntoByteArray(ordinalPlus, keyData, len + 1);
-        return new DatabaseEntry(keyData);
+        ArchiveUtils.longIntoByteArray(ordinalPlus, keyData, offset);
     }
 
     protected static String insertKeyToString(DatabaseEntry holderKey) {
         StringBuilder result = new StringBuilder();
         byte[] data = holderKey.getData();
-        int p = findFirstZero(data);
-        result.append(new String(data, 0, p));
+        int p;
+        if (isCompactKey(data)) {
+            result.append('#').append(compactKeyQueueId(data));
+            p = COMPACT_ORIGIN_LENGTH - 1;
+        } else {
+            p = findFirstZero(data);
+            result.append(new String(data, 0, p));
+        }
 
         java.io.ByteArrayInputStream binp = new java.io.ByteArrayInputStream(data, p + 1, data.length);
         java.io.DataInputStream dinp = new java.io.DataInputStream(binp);
@@ -569,6 +693,21 @@ public class BdbMultipleWorkQueues {
         }
     }
 
+    /**
+     * Remove the 'cap' entry at the given origin key, of a queue that is
+     * now empty and will no longer use the key.
+     * 
+     * @param origin key at which the cap was inserted
+     */
+    public void removeCap(byte[] origin) {
+        Thread.interrupted();
+        try {
+            pendingUrisDB.delete(null, new DatabaseEntry(origin));
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Utility method to perform action for all pending CrawlURI instances.
      * 
@@ -21,7 +21,10 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,7 +52,8 @@ implements Serializable {
 
     /**
      * All items in this queue have this same 'origin'
-     * prefix to their keys.
+     * prefix to their keys: either the classKey itself or, with
+     * {@link BdbFrontier#getCompactQueueKeys()}, the queue's integer id.
      */
     private byte[] origin;
 
@@ -60,7 +64,9 @@ implements Serializable {
      */
     public BdbWorkQueue(String classKey, BdbFrontier frontier) {
         super(classKey);
-        this.origin = BdbMultipleWorkQueues.calculateOriginKey(classKey);
+        this.origin = frontier.getCompactQueueKeys()
+                ? BdbMultipleWorkQueues.calculateOriginKey(frontier.queueIdFor(classKey))
+                : BdbMultipleWorkQueues.calculateOriginKey(classKey);
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine(getPrefixClassKey(this.origin) + " " + classKey);
         }
@@ -94,14 +100,23 @@ implements Serializable {
 
     protected CrawlURI peekItem(final WorkQueueFrontier frontier)
     throws IOException {
+        return peekItemExcluding(frontier, Collections.<CrawlURI>emptyList());
+    }
+
+    protected CrawlURI peekItemExcluding(final WorkQueueFrontier frontier,
+            List<CrawlURI> excluded) throws IOException {
         final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
             .getWorkQueues();
+        List<DatabaseEntry> skipKeys = new ArrayList<DatabaseEntry>(excluded.size());
+        for (CrawlURI item : excluded) {
+            skipKeys.add((DatabaseEntry) item.getHolderKey());
+        }
         DatabaseEntry key = new DatabaseEntry(origin);
         CrawlURI curi = null;
         int tries = 1;
         while(true) {
             try {
-                curi = queues.get(key);
+                curi = queues.get(key, skipKeys);
             } catch (DatabaseException e) {
                 LOGGER.log(Level.SEVERE,"peekItem failure; retrying",e);
             }
@@ -142,7 +157,10 @@ implements Serializable {
         try {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
-            queues.put(curi, overwriteIfPresent);
+            if (getCount() == 0) {
+                migrateOrigin((BdbFrontier) frontier);
+            }
+            queues.put(curi, overwriteIfPresent, origin);
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("Inserted into " + getPrefixClassKey(this.origin) +
                     " (count " + Long.toString(getCount())+ "): " +
@@ -153,12 +171,38 @@ implements Serializable {
         }
     }
     
+    /**
+     * Move an empty queue whose keys are of the other form than the
+     * frontier's current choice -- as when a crawl is resumed from a
+     * checkpoint with {@link BdbFrontier#getCompactQueueKeys()} changed --
+     * to the current form. Queues with items keep their keys until they
+     * next empty.
+     */
+    protected void migrateOrigin(BdbFrontier frontier) {
+        if (frontier.getCompactQueueKeys() == BdbMultipleWorkQueues.isCompactKey(origin)) {
+            return;
+        }
+        byte[] newOrigin = frontier.getCompactQueueKeys()
+                ? BdbMultipleWorkQueues.calculateOriginKey(frontier.queueIdFor(classKey))
+                : BdbMultipleWorkQueues.calculateOriginKey(classKey);
+        frontier.getWorkQueues().addCap(newOrigin);
+        frontier.getWorkQueues().removeCap(origin);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("queue " + classKey + " keys moved from "
+                    + getPrefixClassKey(origin) + " to " + getPrefixClassKey(newOrigin));
+        }
+        origin = newOrigin;
+    }
+
     /**
      * @param byteArray Byte array to get hex string of.
      * @return Hex string of passed in byte array (Used logging
      * key-prefixes).
      */
     protected static String getPrefixClassKey(final byte [] byteArray) {
+        if (BdbMultipleWorkQueues.isCompactKey(byteArray)) {
+            return "#" + BdbMultipleWorkQueues.compactKeyQueueId(byteArray);
+        }
         int zeroIndex = 0;
         while(byteArray[zeroIndex]!=0) {
             zeroIndex++;
@@ -33,6 +33,12 @@ class DelayedWorkQueue implements Delayed, Serializable {
 
     public String classKey;
     public long wakeTime;
+
+    /**
+     * Whether this holds back just one more slot of a queue with URIs
+     * out for crawling, rather than the whole queue.
+     */
+    public boolean slot;
     
     /**
      * Reference to the WorkQueue, perhaps saving a deserialization
@@ -73,6 +79,14 @@ class DelayedWorkQueue implements Delayed, Serializable {
     public void setWakeTime(long time) {
         this.wakeTime = time;
     }
+
+    public boolean isSlot() {
+        return slot;
+    }
+
+    public void setSlot(boolean slot) {
+        this.slot = slot;
+    }
     
     public int compareTo(Delayed obj) {
         if (this == obj) {
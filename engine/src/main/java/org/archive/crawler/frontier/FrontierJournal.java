@@ -22,7 +22,23 @@ import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,6 +83,9 @@ public class FrontierJournal extends CrawlerJournal {
     // continues in background
     private static final long ENOUGH_TO_START_CRAWLING = 100000;
 
+    // lines handed to a parsing thread at once during recovery
+    private static final int RECOVERY_BATCH_LINES = 1000;
+
     /**
      * Create a new recovery journal at the given location
      * 
@@ -115,6 +134,59 @@ public class FrontierJournal extends CrawlerJournal {
     }
 
     
+    /**
+     * Progress of a recovery-log import, for the frontier report.
+     */
+    public static class RecoveryProgress {
+        protected volatile String phase = "starting";
+        protected volatile long phaseStartTime = System.currentTimeMillis();
+        protected final AtomicLong phaseLines = new AtomicLong();
+        protected volatile long totalLines = -1;
+        protected volatile long phaseEndTime = 0;
+
+        protected void startPhase(String phase) {
+            phaseLines.set(0);
+            phaseStartTime = System.currentTimeMillis();
+            phaseEndTime = 0;
+            this.phase = phase;
+        }
+
+        protected void finish() {
+            phaseEndTime = System.currentTimeMillis();
+            phase = "finished";
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        /** @return lines read in the current phase */
+        public long getLines() {
+            return phaseLines.get();
+        }
+
+        /** @return lines in the log, or -1 if not yet known */
+        public long getTotalLines() {
+            return totalLines;
+        }
+
+        public double getLinesPerSecond() {
+            long end = phaseEndTime > 0 ? phaseEndTime : System.currentTimeMillis();
+            return phaseLines.get() * 1000.0 / Math.max(1, end - phaseStartTime);
+        }
+
+        public Map<String,Object> toMap() {
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            map.put("phase", getPhase());
+            map.put("lines", getLines());
+            if (getTotalLines() >= 0) {
+                map.put("totalLines", getTotalLines());
+            }
+            map.put("linesPerSecond", (long) getLinesPerSecond());
+            return map;
+        }
+    }
+
     /**
      * Utility method for scanning a recovery journal and applying it to
      * a Frontier.
@@ -127,6 +199,25 @@ public class FrontierJournal extends CrawlerJournal {
      */
     public static void importRecoverLog(final JSONObject params, final Frontier frontier)
     throws IOException {
+        importRecoverLog(params, frontier, new RecoveryProgress());
+    }
+
+    /**
+     * Utility method for scanning a recovery journal and applying it to
+     * a Frontier, updating the given progress as it goes.
+     * 
+     * <p>Each pass over the log runs as a pipeline: a reader thread
+     * decompresses the log ahead of "recoveryThreads" threads (by default,
+     * one per processor) that parse lines and apply the scope, while the
+     * lines' URIs are applied to the frontier in log order.
+     * 
+     * @param params JSONObject of import parameters; see Frontier.importURIS()
+     * @param frontier
+     * @param progress progress to update
+     * @throws IOException
+     */
+    public static void importRecoverLog(final JSONObject params, final Frontier frontier,
+            final RecoveryProgress progress) throws IOException {
         String path = params.optString("path");
         if (path == null) {
             throw new IllegalArgumentException("Passed source file is null.");
@@ -136,8 +227,10 @@ public class FrontierJournal extends CrawlerJournal {
         
         // first, fill alreadyIncluded with successes (and possibly failures),
         // and count the total lines
-        final int lines =
-            importCompletionInfoFromLog(source, frontier, params);
+        progress.startPhase("completion info");
+        final long lines =
+            importCompletionInfoFromLog(source, frontier, params, progress);
+        progress.totalLines = lines;
         
         LOGGER.info("finished completion state; recovering queues from " +
             source);
@@ -146,10 +239,11 @@ public class FrontierJournal extends CrawlerJournal {
         // registered as finished. Do this in a separate thread that signals
         // this thread once ENOUGH_TO_START_CRAWLING URIs have been queued. 
         final CountDownLatch recoveredEnough = new CountDownLatch(1);
+        progress.startPhase("queues");
         new Thread(new Runnable() {
             public void run() {
                 importQueuesFromLog(source, frontier, params, lines, 
-                        recoveredEnough);
+                        recoveredEnough, progress);
             }
         }, "queuesRecoveryThread").start();
         
@@ -169,63 +263,43 @@ public class FrontierJournal extends CrawlerJournal {
      * @return number of lines in recovery log (for reference)
      * @throws IOException
      */
-    private static int importCompletionInfoFromLog(File source, 
-            Frontier frontier, JSONObject params) throws IOException {
+    private static long importCompletionInfoFromLog(File source, 
+            final Frontier frontier, JSONObject params, RecoveryProgress progress)
+            throws IOException {
         // Scan log for 'Fs' (+maybe 'Ff') lines: add as 'alreadyIncluded'
-        boolean includeSuccesses = !params.isNull("includeSuccesses");
-        boolean includeFailures = !params.isNull("includeFailures");
-        boolean includeScheduleds = !params.isNull("includeScheduleds");
+        Set<String> lineTypes = new HashSet<String>();
+        if (!params.isNull("includeSuccesses")) {
+            lineTypes.add(F_SUCCESS);
+        }
+        if (!params.isNull("includeFailures")) {
+            lineTypes.add(F_FAILURE);
+        }
+        if (!params.isNull("includeScheduleds")) {
+            lineTypes.add(F_ADD);
+        }
         boolean scopeIncludes = !params.isNull("scopeIncludes");
         
         DecideRule scope = (scopeIncludes) ? frontier.getScope() : null;
-        FrontierJournal newJournal = frontier.getFrontierJournal();
+        final FrontierJournal newJournal = frontier.getFrontierJournal();
         
-        BufferedReader br = ArchiveUtils.getBufferedReader(source);
-        String read;
-        int lines = 0; 
-        try {
-            while ((read = br.readLine())!=null) {
-                lines++;
-                if(read.length()<4) {
-                    continue;
-                }
-                String lineType = read.substring(0, 3);
-                if(includeSuccesses && F_SUCCESS.equals(lineType) 
-                        || includeFailures && F_FAILURE.equals(lineType) 
-                        || includeScheduleds && F_ADD.equals(lineType)) {
-                    try {
-                        CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                        if(scope!=null) {
-                            //TODO:SPRINGY
-///                            caUri.setStateProvider(controller.getSheetManager());
-                            // skip out-of-scope URIs if so configured
-                            if(!scope.accepts(caUri)) {
-                                continue;
-                            }
-                        }
-                        frontier.considerIncluded(caUri);
-                        if (newJournal != null) {
-                            // write same line as read
-                            newJournal.writeLine(read);
-                        }
-                    } catch (URIException e) {
-                        LOGGER.log(Level.WARNING,"bad hopsViaString: "+read.substring(3),e);
-                    }
-                }
-                if((lines%PROGRESS_INTERVAL)==0) {
-                    // every 1 million lines, print progress
-                    LOGGER.info(
-                            "at line " + lines 
-                            + " alreadyIncluded count = " +
-                            frontier.discoveredUriCount());
+        return replayLog(source, lineTypes, scope, recoveryThreads(params), progress,
+                new BiConsumer<String,CrawlURI>() {
+            public void accept(String read, CrawlURI caUri) {
+                frontier.considerIncluded(caUri);
+                if (newJournal != null) {
+                    // write same line as read
+                    newJournal.writeLine(read);
                 }
             }
-        } catch (EOFException e) {
-            // expected in some uncleanly-closed recovery logs; ignore
-        } finally {
-            br.close();
-        }
-        return lines;
+        }, new Runnable() {
+            public void run() {
+                LOGGER.info(
+                        "at line " + progress.getLines()
+                        + " alreadyIncluded count = " +
+                        frontier.discoveredUriCount()
+                        + " (" + (long) progress.getLinesPerSecond() + " lines/sec)");
+            }
+        });
     }
 
     /**
@@ -236,91 +310,214 @@ public class FrontierJournal extends CrawlerJournal {
      * @param params Map of options to apply
      * @param enough latch signalling 'enough' URIs queued to begin crawling
      */
-    private static void importQueuesFromLog(File source, Frontier frontier,
-            JSONObject params, int lines, CountDownLatch enough) {
-        BufferedReader br;
-        String read;
+    private static void importQueuesFromLog(File source, final Frontier frontier,
+            JSONObject params, final long lines, final CountDownLatch enough,
+            final RecoveryProgress progress) {
+        final long queuedAtStart = frontier.queuedUriCount();
         
-        long queuedAtStart = frontier.queuedUriCount();
-        long queuedDuringRecovery = 0;
-        int qLines = 0;
-        
-        boolean scheduleSuccesses = !params.isNull("scheduleSuccesses");
-        boolean scheduleFailures = !params.isNull("scheduleFailures");
-        boolean scheduleScheduleds = !params.isNull("scheduleScheduleds");
+        Set<String> lineTypes = new HashSet<String>();
+        if (!params.isNull("scheduleSuccesses")) {
+            lineTypes.add(F_SUCCESS);
+        }
+        if (!params.isNull("scheduleFailures")) {
+            lineTypes.add(F_FAILURE);
+        }
+        if (!params.isNull("scheduleScheduleds")) {
+            lineTypes.add(F_ADD);
+        }
         boolean scopeScheduleds = !params.isNull("scopeScheduleds");
-        boolean forceRevisit = !params.isNull("forceRevisit");
+        final boolean forceRevisit = !params.isNull("forceRevisit");
         
         DecideRule scope = (scopeScheduleds) ? frontier.getScope() : null;
         
+        long qLines = 0;
         try {
             // Scan log for all 'F+' lines: if not alreadyIncluded, schedule for
             // visitation
-            br = ArchiveUtils.getBufferedReader(source);
-            try {
-                while ((read = br.readLine())!=null) {
-                    qLines++;
-                    if(read.length()<4) {
-                        continue;
-                    }
-                    String lineType = read.substring(0, 3);
-                    if(scheduleSuccesses && F_SUCCESS.equals(lineType) 
-                            || scheduleFailures && F_FAILURE.equals(lineType) 
-                            || scheduleScheduleds && F_ADD.equals(lineType)) {
+            qLines = replayLog(source, lineTypes, scope, recoveryThreads(params), progress,
+                    new BiConsumer<String,CrawlURI>() {
+                public void accept(String read, CrawlURI caUri) {
+                    try {
+                        caUri.setForceFetch(forceRevisit);
                         
-                        try {
-                            CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                            
-                            //TODO:SPRINGY
-//                            caUri.setStateProvider(controller.getSheetManager());
-                            if(scope!=null) {
-                                // skip out-of-scope URIs if so configured
-                                if(!scope.accepts(caUri)) {
-                                    continue;
-                                }
-                            }
-                            
-                            caUri.setForceFetch(forceRevisit);
-                            
-                            frontier.schedule(caUri);
-                            
-                            queuedDuringRecovery =
-                                frontier.queuedUriCount() - queuedAtStart;
-                            if(((queuedDuringRecovery + 1) %
-                                    ENOUGH_TO_START_CRAWLING) == 0) {
-                                enough.countDown();
-                            }
-                        } catch (URIException e) {
-                            LOGGER.log(Level.WARNING, "bad URI during " +
-                                "log-recovery of queue contents ",e);
-                            // and continue...
-                        } catch (RuntimeException e) {
-                            LOGGER.log(Level.SEVERE, "exception during " +
-                                    "log-recovery of queue contents ",e);
-                            // and continue, though this may be risky
-                            // if the exception wasn't a trivial NPE 
-                            // or wrapped interrupted-exception...
+                        frontier.schedule(caUri);
+                        
+                        long queuedDuringRecovery =
+                            frontier.queuedUriCount() - queuedAtStart;
+                        if(((queuedDuringRecovery + 1) %
+                                ENOUGH_TO_START_CRAWLING) == 0) {
+                            enough.countDown();
                         }
-                    }
-                    if((qLines%PROGRESS_INTERVAL)==0) {
-                        // every 1 million lines, print progress
-                        LOGGER.info(
-                                "through line " 
-                                + qLines + "/" + lines 
-                                + " queued count = " +
-                                frontier.queuedUriCount());
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "exception during " +
+                                "log-recovery of queue contents ",e);
+                        // and continue, though this may be risky
+                        // if the exception wasn't a trivial NPE 
+                        // or wrapped interrupted-exception...
                     }
                 }
-            } catch (EOFException e) {
-                // no problem: untidy end of recovery journal
-            } finally {
-        	    br.close(); 
-            }
+            }, new Runnable() {
+                public void run() {
+                    LOGGER.info(
+                            "through line " 
+                            + progress.getLines() + "/" + lines 
+                            + " queued count = " +
+                            frontier.queuedUriCount()
+                            + " (" + (long) progress.getLinesPerSecond() + " lines/sec)");
+                }
+            });
         } catch (IOException e) {
             LOGGER.log(Level.WARNING,"problem importQueuesFromLog",e);
         }
+        progress.finish();
         LOGGER.info("finished recovering frontier from "+source+" "
                 +qLines+" lines processed");
         enough.countDown();
     }
+
+    private static int recoveryThreads(JSONObject params) {
+        return Math.max(1, params.optInt("recoveryThreads",
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** A batch of log lines, and the URIs parsed from the wanted ones. */
+    private static class ParsedLines {
+        final int lineCount;
+        final List<String> lines = new ArrayList<String>();
+        final List<CrawlURI> uris = new ArrayList<CrawlURI>();
+        ParsedLines(int lineCount) {
+            this.lineCount = lineCount;
+        }
+    }
+
+    /**
+     * Feed the URIs of the given types of line in the recovery log to the
+     * consumer, in log order, on the calling thread. The log is decompressed
+     * by a reader thread, which stays a bounded number of batches ahead of
+     * the parsing threads.
+     * 
+     * @param lineTypes line types (like {@link #F_ADD}) of interest
+     * @param scope if not null, URIs it rejects are skipped
+     * @param threads number of parsing threads
+     * @param consumer called with each line of interest and its URI
+     * @param progressReport run every {@link #PROGRESS_INTERVAL} lines
+     * @return number of lines in the log
+     */
+    protected static long replayLog(final File source, final Set<String> lineTypes,
+            final DecideRule scope, int threads, RecoveryProgress progress,
+            BiConsumer<String,CrawlURI> consumer, Runnable progressReport)
+            throws IOException {
+        final AtomicInteger parserCount = new AtomicInteger();
+        final ExecutorService parsers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "recoveryParser-" + parserCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // in log order; a null batch marks the end of the log
+        final BlockingQueue<Future<ParsedLines>> parsed =
+            new ArrayBlockingQueue<Future<ParsedLines>>(threads * 4);
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    BufferedReader br = ArchiveUtils.getBufferedReader(source);
+                    try {
+                        List<String> batch = new ArrayList<String>(RECOVERY_BATCH_LINES);
+                        String read;
+                        try {
+                            while ((read = br.readLine()) != null) {
+                                batch.add(read);
+                                if (batch.size() == RECOVERY_BATCH_LINES) {
+                                    submit(batch);
+                                    batch = new ArrayList<String>(RECOVERY_BATCH_LINES);
+                                }
+                            }
+                        } catch (EOFException e) {
+                            // expected in some uncleanly-closed recovery logs; ignore
+                        }
+                        submit(batch);
+                        parsed.put(CompletableFuture.completedFuture((ParsedLines) null));
+                    } finally {
+                        br.close();
+                    }
+                } catch (IOException e) {
+                    try {
+                        parsed.put(CompletableFuture.failedFuture(e));
+                    } catch (InterruptedException ie) {
+                        // replay abandoned
+                    }
+                } catch (InterruptedException e) {
+                    // replay abandoned
+                }
+            }
+
+            protected void submit(final List<String> batch) throws InterruptedException {
+                parsed.put(parsers.submit(() -> parse(batch, lineTypes, scope)));
+            }
+        }, "recoveryReader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long lines = 0;
+        try {
+            while (true) {
+                ParsedLines batch;
+                try {
+                    batch = parsed.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                if (batch == null) {
+                    break;
+                }
+                for (int i = 0; i < batch.uris.size(); i++) {
+                    consumer.accept(batch.lines.get(i), batch.uris.get(i));
+                }
+                progress.phaseLines.addAndGet(batch.lineCount);
+                if (lines / PROGRESS_INTERVAL 
+                        != (lines + batch.lineCount) / PROGRESS_INTERVAL) {
+                    // every 1 million lines, print progress
+                    progressReport.run();
+                }
+                lines += batch.lineCount;
+            }
+        } catch (InterruptedException e) {
+            IOException ioe = new IOException("interrupted replaying " + source);
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            reader.interrupt();
+            parsers.shutdownNow();
+        }
+        return lines;
+    }
+
+    private static ParsedLines parse(List<String> batch, Set<String> lineTypes,
+            DecideRule scope) {
+        ParsedLines result = new ParsedLines(batch.size());
+        for (String read : batch) {
+            if (read.length() < 4 || !lineTypes.contains(read.substring(0, 3))) {
+                continue;
+            }
+            try {
+                CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
+                //TODO:SPRINGY
+//                caUri.setStateProvider(controller.getSheetManager());
+                if (scope != null && !scope.accepts(caUri)) {
+                    // skip out-of-scope URIs if so configured
+                    continue;
+                }
+                result.lines.add(read);
+                result.uris.add(caUri);
+            } catch (URIException e) {
+                LOGGER.log(Level.WARNING, "bad hopsViaString: " + read.substring(3), e);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "exception during log-recovery of "
+                        + read.substring(3), e);
+            }
+        }
+        return result;
+    }
 }
@@ -59,7 +59,10 @@ implements
      * The number of parallel queues to split a core key into. By 
      * default is 1. If larger than 1, the non-authority-based portion
      * of the URI will be used to distribute over that many separate
-     * queues. 
+     * queues. Changing it mid-crawl leaves URIs already queued under
+     * their old keys (see {@link #getDeferToPrevious()}); to let one
+     * queue have several URIs out at once instead, see
+     * {@link WorkQueueFrontier#setMaxInFlightPerQueue(int)}.
      * 
      */
     public int getParallelQueues() {
@@ -22,8 +22,10 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
@@ -98,6 +100,34 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /** The next item to be returned */
     transient protected CrawlURI peekItem = null;
 
+    /**
+     * Items handed out and not yet finished, when the queue may have more
+     * than one out at once (see {@link #setMaxInFlight(int, boolean)});
+     * they stay in the queue's storage until dequeued. Null when none.
+     */
+    transient protected List<CrawlURI> inFlightItems = null;
+
+    /** Most items to have out at once; like the fields below, not
+     * stored, as it is reset from the settings whenever the queue is
+     * used, and the adaptive limit starts over */
+    transient protected int maxInFlight = 1;
+
+    /** Whether to find the in-flight limit by additive-increase,
+     * multiplicative-decrease rather than always using maxInFlight */
+    transient protected boolean adaptiveInFlight = false;
+
+    /** Current adaptive in-flight limit, at most maxInFlight */
+    transient protected int inFlightLimit = 1;
+
+    /** Successes since the adaptive limit last changed */
+    transient protected int inFlightSuccesses = 0;
+
+    /** Retirement asked for while other items were still out */
+    transient protected boolean retirePending = false;
+
+    /** Ready-list entries offering a slot of the queue, not yet polled */
+    transient protected int slotOffers = 0;
+
     /** Last URI enqueued */
     protected String lastQueued;
 
@@ -169,9 +199,11 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * @return topmost queue item, or null
      */
     public synchronized CrawlURI peek(final WorkQueueFrontier frontier) {
-        if(peekItem == null && count > 0) {
+        if(peekItem == null && count > getInFlightCount()) {
             try {
-                peekItem = peekItem(frontier);
+                peekItem = (inFlightItems == null)
+                        ? peekItem(frontier)
+                        : peekItemExcluding(frontier, inFlightItems);
             } catch (IOException e) {
                 //FIXME better exception handling
                 logger.log(Level.SEVERE,"peek failure",e);
@@ -192,7 +224,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      */
     protected synchronized void dequeue(final WorkQueueFrontier frontier, CrawlURI expected) {
         try {
-            deleteItem(frontier, peekItem);
+            deleteItem(frontier, isInFlight(expected) ? expected : peekItem);
         } catch (IOException e) {
             //FIXME better exception handling
             e.printStackTrace();
@@ -337,10 +369,167 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * 
      */
     public synchronized void unpeek(CrawlURI expected) {
+        if (isInFlight(expected)) {
+            inFlightItems.remove(expected);
+            if (inFlightItems.isEmpty()) {
+                inFlightItems = null;
+            }
+            return;
+        }
         assert expected == peekItem : "unexpected peekItem";
         peekItem = null;
     }
 
+    /**
+     * Set how many items this queue may have out for crawling at once.
+     * Automatically reset continually as new CrawlURIs are enqueued, from
+     * the frontier's 'maxInFlightPerQueue' and 'adaptiveInFlightPerQueue'
+     * (which may be overlaid with URI/queue-specific values).
+     * 
+     * @param max most items to have out at once
+     * @param adaptive whether to work up to max gradually, backing off
+     * on server errors
+     */
+    protected synchronized void setMaxInFlight(int max, boolean adaptive) {
+        this.maxInFlight = Math.max(1, max);
+        this.adaptiveInFlight = adaptive;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the number of items that may be out at once now
+     */
+    public synchronized int getInFlightLimit() {
+        // (at least 1, as a queue read back from storage has zeros here
+        // until next reset)
+        return Math.max(1, adaptiveInFlight
+                ? Math.min(inFlightLimit, maxInFlight) : maxInFlight);
+    }
+
+    /**
+     * @return number of items handed out and not yet finished, when
+     * the queue has been allowed more than one at once
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightItems == null ? 0 : inFlightItems.size();
+    }
+
+    /**
+     * Whether the given item is one of those handed out while the queue
+     * was allowed more than one at once.
+     */
+    public synchronized boolean isInFlight(CrawlURI curi) {
+        return inFlightItems != null && curi != null
+                && inFlightItems.contains(curi);
+    }
+
+    /**
+     * Whether the queue hands out items one at a time, the peeked item
+     * staying its topmost until finished, or may have several out.
+     */
+    public synchronized boolean isOneAtATime() {
+        return maxInFlight <= 1 && inFlightItems == null;
+    }
+
+    /**
+     * Hand out the topmost item not already out: it stays in storage
+     * until dequeued, but later peeks pass over it. Rechecks the limit, as
+     * another thread offered a slot of the same queue may have taken it
+     * since.
+     * 
+     * @param frontier Work queues manager
+     * @return the item, or null if all stored items are out or no slot is
+     * free
+     */
+    protected synchronized CrawlURI takeNext(final WorkQueueFrontier frontier) {
+        if (inFlightItems != null && !hasFreeSlot()) {
+            return null;
+        }
+        CrawlURI curi = peek(frontier);
+        if (curi != null) {
+            if (inFlightItems == null) {
+                inFlightItems = new ArrayList<CrawlURI>(maxInFlight);
+            }
+            inFlightItems.add(curi);
+            peekItem = null;
+        }
+        return curi;
+    }
+
+    /**
+     * Whether another item may be handed out while some are already out:
+     * the queue is under its in-flight limit, has stored items not yet
+     * out, and is not waiting on a prerequisite (such as a DNS lookup or
+     * robots.txt) that the others depend on.
+     */
+    public synchronized boolean hasFreeSlot() {
+        int inFlight = getInFlightCount();
+        if (inFlight >= getInFlightLimit() || count <= inFlight) {
+            return false;
+        }
+        if (inFlightItems != null) {
+            for (CrawlURI curi : inFlightItems) {
+                if (curi.isPrerequisite()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adjust the adaptive in-flight limit after an item finishes: halve it
+     * on a server error, or raise it by one after as many successes in a
+     * row as the limit itself (so at most about once per round of
+     * concurrent fetches).
+     * 
+     * @param serverError whether the server failed or refused the fetch
+     */
+    protected synchronized void noteInFlightOutcome(boolean serverError) {
+        if (serverError) {
+            inFlightLimit = Math.max(1, Math.min(inFlightLimit, maxInFlight) / 2);
+            inFlightSuccesses = 0;
+        } else if (++inFlightSuccesses >= inFlightLimit) {
+            inFlightSuccesses = 0;
+            if (inFlightLimit < maxInFlight) {
+                inFlightLimit++;
+            }
+        }
+    }
+
+    protected void setRetirePending(boolean b) {
+        this.retirePending = b;
+    }
+
+    public boolean isRetirePending() {
+        return retirePending;
+    }
+
+    /**
+     * Note that the queue's key was put on the ready list to offer one
+     * more slot while it has items out.
+     */
+    protected synchronized void noteSlotOffered() {
+        slotOffers++;
+    }
+
+    /**
+     * Note that the queue's key was taken from the ready list.
+     * 
+     * @return whether that entry offered a slot (rather than readying
+     * the queue itself)
+     */
+    protected synchronized boolean takeSlotOffer() {
+        if (slotOffers == 0) {
+            return false;
+        }
+        slotOffers--;
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see java.util.concurrent.Delayed#getDelay(java.util.concurrent.TimeUnit)
      */
@@ -447,6 +636,17 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     protected abstract CrawlURI peekItem(final WorkQueueFrontier frontier)
         throws IOException;
 
+    /**
+     * Returns the first item from queue that is not one of the given
+     * items (does not delete)
+     * 
+     * @param excluded items to pass over
+     * @return The peeked item, or null
+     * @throws IOException  if there was a problem while peeking
+     */
+    protected abstract CrawlURI peekItemExcluding(final WorkQueueFrontier frontier,
+        List<CrawlURI> excluded) throws IOException;
+
     // 
     // Reporter
     //
@@ -458,6 +658,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         map.put("queueName", classKey);
         map.put("precedence", getPrecedence());
         map.put("itemCount", count);
+        map.put("inFlight", getInFlightCount());
+        map.put("inFlightLimit", getInFlightLimit());
         map.put("enqueueCount", enqueueCount);
         map.put("sessionBalance", getSessionBalance());
         map.put("lastCost", lastCost);
@@ -558,6 +760,13 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         writer.print("  ");
         writer.print(Long.toString(count));
         writer.print(" items");
+        if (getInFlightCount() > 0) {
+            writer.print(", ");
+            writer.print(getInFlightCount());
+            writer.print(" in flight (limit ");
+            writer.print(getInFlightLimit());
+            writer.print(")");
+        }
         if (wakeTime != 0) {
             writer.print("\n   wakes in: "+ArchiveUtils.formatMillisecondsToConventional(wakeTime - System.currentTimeMillis()));
         }
@@ -53,11 +53,13 @@ import java.util.regex.Pattern;
 import org.apache.commons.collections.iterators.ObjectArrayIterator;
 import org.archive.crawler.datamodel.UriUniqFilter;
 import org.archive.crawler.event.CrawlURIDispositionEvent;
+import org.archive.crawler.event.CrawlURIScheduledEvent;
 import org.archive.crawler.framework.ToeThread;
 import org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy;
 import org.archive.crawler.frontier.precedence.QueuePrecedencePolicy;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.net.ServerPoliteness;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.ObjectIdentityCache;
@@ -149,6 +151,39 @@ implements Closeable,
     public void setQueueTotalBudget(long budget) {
         kp.put("queueTotalBudget",budget);
     }
+
+    {
+        setMaxInFlightPerQueue(1);
+    }
+    public int getMaxInFlightPerQueue() {
+        return (Integer) kp.get("maxInFlightPerQueue");
+    }
+    /**
+     * most URIs of one queue to have out for crawling at once. Usually
+     * 1, for strictly one connection per host; overlay a larger value for
+     * large sites known to tolerate it. Unlike a queue assignment
+     * policy's 'parallelQueues', this may be changed mid-crawl, as it
+     * does not change which queue a URI is in. Each URI still waits out
+     * the politeness delay after the previous one from its slot. 
+     */
+    public void setMaxInFlightPerQueue(int max) {
+        kp.put("maxInFlightPerQueue",max);
+    }
+
+    {
+        setAdaptiveInFlightPerQueue(false);
+    }
+    public boolean getAdaptiveInFlightPerQueue() {
+        return (Boolean) kp.get("adaptiveInFlightPerQueue");
+    }
+    /**
+     * whether to work up to maxInFlightPerQueue gradually, adding one
+     * URI in flight after each round of successes and halving on server
+     * errors (connection failures, timeouts, 429 and 5xx responses)
+     */
+    public void setAdaptiveInFlightPerQueue(boolean adaptive) {
+        kp.put("adaptiveInFlightPerQueue",adaptive);
+    }
     
     {
         setQueuePrecedencePolicy(new BaseQueuePrecedencePolicy());
@@ -321,7 +356,8 @@ implements Closeable,
      * 
      * Choose a per-classKey queue and enqueue it. If this
      * item has made an unready queue ready, place that 
-     * queue on the readyClassQueues queue. 
+     * queue on the readyClassQueues queue. Announces the URI with a
+     * {@link CrawlURIScheduledEvent}.
      * @param curi CrawlURI.
      */
     protected void processScheduleAlways(CrawlURI curi) {
@@ -330,6 +366,7 @@ implements Closeable,
         
         prepForFrontier(curi);
         sendToQueue(curi);
+        appCtx.publishEvent(new CrawlURIScheduledEvent(this, curi));
     }
     
     
@@ -394,6 +431,7 @@ implements Closeable,
             // (whose overlay settings should be active here)
             wq.setSessionBudget(getBalanceReplenishAmount());
             wq.setTotalBudget(getQueueTotalBudget());
+            wq.setMaxInFlight(getMaxInFlightPerQueue(), getAdaptiveInFlightPerQueue());
             
             if(!wq.isRetired()) {
                 incrementQueuedUriCount();
@@ -609,6 +647,16 @@ implements Closeable,
                         break findaqueue;
                     }
                 synchronized (readyQ) {
+                    // queue with URIs already out, offering another slot
+                    boolean busy = readyQ.getInFlightCount() > 0;
+                    if (readyQ.takeSlotOffer() && (!busy
+                            || readyQ.getWakeTime() > System.currentTimeMillis())) {
+                        // slot offered while others were out, but all have
+                        // since finished and sent the queue on to its next
+                        // state (perhaps snoozed or retired): stale
+                        readyQ = null;
+                        continue;
+                    }
                     if (readyQ.getCount() == 0) {
                         // readyQ is empty and ready: it's exhausted
                         readyQ.noteExhausted();
@@ -616,7 +664,7 @@ implements Closeable,
                         readyQ = null;
                         continue;
                     }
-                    if (!inProcessQueues.add(readyQ)) {
+                    if (!inProcessQueues.add(readyQ) && !busy) {
                         // double activation; discard this and move on
                         // (this guard allows other enqueuings to ready or
                         // the various inactive-by-precedence queues to
@@ -624,9 +672,17 @@ implements Closeable,
                         readyQ = null;
                         continue;
                     }
-                    // queue has gone 'in process'
-                    readyQ.considerActive();
-                    readyQ.setWakeTime(0); // clear obsolete wake time, if any
+                    if (busy && !readyQ.hasFreeSlot()) {
+                        // no more URIs may go out for now; the queue is
+                        // reconsidered as those out finish
+                        readyQ = null;
+                        continue;
+                    }
+                    if (!busy) {
+                        // queue has gone 'in process'
+                        readyQ.considerActive();
+                        readyQ.setWakeTime(0); // clear obsolete wake time, if any
+                    }
 
                     // we know readyQ is not empty (getCount()!=0) so peek()
                     // shouldn't return null
@@ -637,10 +693,18 @@ implements Closeable,
                         KeyedProperties.loadOverridesFrom(readyQUri);
                         readyQ.setSessionBudget(getBalanceReplenishAmount());
                         readyQ.setTotalBudget(getQueueTotalBudget());
+                        readyQ.setMaxInFlight(getMaxInFlightPerQueue(),
+                                getAdaptiveInFlightPerQueue());
                     } finally {
                         KeyedProperties.clearOverridesFrom(readyQUri);
                     }
 
+                    if (busy && (readyQ.isOverSessionBudget()
+                            || readyQ.isOverTotalBudget())) {
+                        // deactivated or retired once those out finish
+                        readyQ = null;
+                        continue;
+                    }
                     if (readyQ.isOverSessionBudget()) {
                         deactivateQueue(readyQ);
                         readyQ.makeDirty();
@@ -663,7 +727,19 @@ implements Closeable,
            
                 returnauri: while(true) { // loop left by explicit return or break on empty
                     CrawlURI curi = null;
-                    curi = readyQ.peek(this);   
+                    boolean oneAtATime = readyQ.isOneAtATime();
+                    if (oneAtATime) {
+                        curi = readyQ.peek(this);   
+                    } else {
+                        // taken at once, so that a concurrent next() offered
+                        // another slot of this queue gets a different URI
+                        curi = readyQ.takeNext(this);
+                        if (curi == null && readyQ.getInFlightCount() > 0) {
+                            // all stored URIs are already out, or the
+                            // slot was taken by another thread
+                            continue findauri;
+                        }
+                    }
                     if(curi == null) {
                         // should not reach
                         logger.severe("No CrawlURI from ready non-empty queue "
@@ -689,6 +765,14 @@ implements Closeable,
                     if (currentQueueKey.equals(curi.getClassKey())) {
                         // curi was in right queue, emit
                         noteAboutToEmit(curi, readyQ);
+                        if (!oneAtATime) {
+                            synchronized (readyQ) {
+                                if (readyQ.hasFreeSlot()) {
+                                    // let another thread take the next URI now
+                                    offerSlotNow(readyQ);
+                                }
+                            }
+                        }
                         return curi;
                     }
                     // URI's assigned queue has changed since it
@@ -701,6 +785,11 @@ implements Closeable,
                     decrementQueuedCount(1);
                     curi.setHolderKey(null);
                     sendToQueue(curi);
+                    if (!oneAtATime && readyQ.getInFlightCount() > 0) {
+                        // others still out; queue remains in process, and
+                        // offers more slots as they finish
+                        continue findauri;
+                    }
                     if(readyQ.getCount()==0) {
                         // readyQ is empty and ready: it's exhausted
                         // release held status, allowing any subsequent 
@@ -855,7 +944,13 @@ implements Closeable,
     public void forceWakeQueues() {
         Iterator<DelayedWorkQueue> iterSnoozed = snoozedClassQueues.iterator();
         while(iterSnoozed.hasNext()) {
-            WorkQueue queue = iterSnoozed.next().getWorkQueue(WorkQueueFrontier.this);
+            DelayedWorkQueue dq = iterSnoozed.next();
+            WorkQueue queue = dq.getWorkQueue(WorkQueueFrontier.this);
+            if (dq.isSlot()) {
+                offerSlot(queue);
+                iterSnoozed.remove();
+                continue;
+            }
             synchronized(queue) {
                 queue.setWakeTime(0);
                 reenqueueQueue(queue);
@@ -865,11 +960,16 @@ implements Closeable,
         }
         Iterator<DelayedWorkQueue> iterOverflow = snoozedOverflow.values().iterator();
         while(iterOverflow.hasNext()) {
-            WorkQueue queue = iterOverflow.next().getWorkQueue(WorkQueueFrontier.this);
-            synchronized(queue) {
-                queue.setWakeTime(0);
-                reenqueueQueue(queue);
-                queue.makeDirty();
+            DelayedWorkQueue dq = iterOverflow.next();
+            WorkQueue queue = dq.getWorkQueue(WorkQueueFrontier.this);
+            if (dq.isSlot()) {
+                offerSlot(queue);
+            } else {
+                synchronized(queue) {
+                    queue.setWakeTime(0);
+                    reenqueueQueue(queue);
+                    queue.makeDirty();
+                }
             }
             iterOverflow.remove(); 
             snoozedOverflowCount.decrementAndGet();
@@ -883,6 +983,10 @@ implements Closeable,
         DelayedWorkQueue waked; 
         while((waked = snoozedClassQueues.poll())!=null) {
             WorkQueue queue = waked.getWorkQueue(this);
+            if (waked.isSlot()) {
+                offerSlot(queue);
+                continue;
+            }
             synchronized(queue) {
                 queue.setWakeTime(0);
                 queue.makeDirty();
@@ -899,6 +1003,10 @@ implements Closeable,
                     iter.remove();
                     snoozedOverflowCount.decrementAndGet();
                     WorkQueue queue = dq.getWorkQueue(this);
+                    if (dq.isSlot()) {
+                        offerSlot(queue);
+                        continue;
+                    }
                     synchronized(queue) {
                         queue.setWakeTime(0);
                         queue.makeDirty();
@@ -909,6 +1017,34 @@ implements Closeable,
         }
     }
     
+    /**
+     * Ready a queue whose slot has waited out its delay, if the queue
+     * still has URIs out. (If not, the last of them to finish has
+     * already sent the queue on to its next state.)
+     * 
+     * @param wq
+     */
+    protected void offerSlot(WorkQueue wq) {
+        synchronized (wq) {
+            if (wq.getInFlightCount() > 0 && !wq.isRetirePending()) {
+                offerSlotNow(wq);
+            }
+        }
+    }
+
+    /**
+     * Put the key of a queue with URIs out on the ready list, to offer
+     * one more slot. Should the others finish first, sending the queue on
+     * to its next state, the entry is passed over rather than activating
+     * the queue out of turn.
+     * 
+     * @param wq
+     */
+    protected void offerSlotNow(WorkQueue wq) {
+        wq.noteSlotOffered();
+        readyQueue(wq);
+    }
+
     /**
      * Note that the previously emitted CrawlURI has completed
      * its processing (for now).
@@ -939,8 +1075,12 @@ implements Closeable,
             // (whose overlay settings should be active here)
             wq.setSessionBudget(getBalanceReplenishAmount());
             wq.setTotalBudget(getQueueTotalBudget());
+            wq.setMaxInFlight(getMaxInFlightPerQueue(), getAdaptiveInFlightPerQueue());
 
-            if ((wq.peek(this) != curi)) throw new AssertionError("unexpected peek " + wq);
+            if (!wq.isInFlight(curi) && (wq.peek(this) != curi)) throw new AssertionError("unexpected peek " + wq);
+            if (wq.getMaxInFlight() > 1) {
+                wq.noteInFlightOutcome(ServerPoliteness.isServerError(curi));
+            }
 
             int holderCost = curi.getHolderCost();
 
@@ -1038,6 +1178,25 @@ implements Closeable,
      * @param delay_ms
      */
     protected void handleQueue(WorkQueue wq, boolean forceRetire, long now, long delay_ms) {
+        if (wq.getInFlightCount() > 0) {
+            // other URIs of the queue are still out: it stays in process,
+            // and only the slot just freed is offered again (after the
+            // delay), unless the queue is to be retired
+            if (forceRetire) {
+                wq.setRetirePending(true);
+            } else if (!wq.isRetirePending()) {
+                if (delay_ms > 0) {
+                    snoozeSlot(wq, now, delay_ms);
+                } else {
+                    offerSlotNow(wq);
+                }
+            }
+            return;
+        }
+        if (wq.isRetirePending()) {
+            wq.setRetirePending(false);
+            forceRetire = true;
+        }
         inProcessQueues.remove(wq);
         if(forceRetire) {
             retireQueue(wq);
@@ -1060,7 +1219,30 @@ implements Closeable,
     protected void snoozeQueue(WorkQueue wq, long now, long delay_ms) {
         long nextTime = now + delay_ms;
         wq.setWakeTime(nextTime);
+        snooze(new DelayedWorkQueue(wq));
+    }
+
+    /**
+     * Offer one more slot of a queue that has URIs out for crawling (see
+     * {@link #setMaxInFlightPerQueue(int)}) once the given time has
+     * passed. The queue itself stays in process.
+     * 
+     * @param wq queue with URIs out
+     * @param now time now in ms 
+     * @param delay_ms time to wait in ms
+     */
+    protected void snoozeSlot(WorkQueue wq, long now, long delay_ms) {
         DelayedWorkQueue dq = new DelayedWorkQueue(wq);
+        dq.setWakeTime(now + delay_ms);
+        dq.setSlot(true);
+        snooze(dq);
+    }
+
+    /**
+     * Hold the given snoozed queue (or slot) until its wake time.
+     */
+    protected void snooze(DelayedWorkQueue dq) {
+        long nextTime = dq.getWakeTime();
         if(snoozedClassQueues.size()<MAX_SNOOZED_IN_MEMORY) {
             snoozedClassQueues.add(dq);
         } else {
@@ -1150,6 +1332,9 @@ implements Closeable,
         map.put("exhaustedQueues", exhaustedCount);
         map.put("lastReachedState", lastReachedState);
         map.put("queueReadiedCount", queueReadiedCount.get());
+        if (recoveryProgress != null) {
+            map.put("recovery", recoveryProgress.toMap());
+        }
 
         return map;
     }
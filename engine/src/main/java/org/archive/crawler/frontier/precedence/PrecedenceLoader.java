@@ -29,13 +29,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.archive.modules.recrawl.HistoryMapBinding;
 import org.archive.modules.recrawl.PersistProcessor;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.FileUtils;
 import org.archive.util.bdbje.EnhancedEnvironment;
 import org.archive.util.iterator.LineReadingIterator;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
@@ -110,8 +110,8 @@ public class PrecedenceLoader {
                 PersistProcessor.URI_HISTORY_DBNAME,
                 PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
         @SuppressWarnings({ "rawtypes", "unchecked" })
-        StoredSortedMap<String, Object> historyMap = new StoredSortedMap<String, Object>(historyDB,
-                new StringBinding(), new SerialBinding(classCatalog, Map.class), true);
+        StoredSortedMap<String, Map> historyMap = new StoredSortedMap<String, Map>(historyDB,
+                new StringBinding(), new HistoryMapBinding(classCatalog), true);
         
         int count = 0;
         
@@ -24,11 +24,11 @@ import java.util.Map;
 
 import org.archive.bdb.BdbModule;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.recrawl.HistoryMapBinding;
 import org.archive.modules.recrawl.PersistProcessor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
@@ -81,8 +81,8 @@ implements Lifecycle {
             BdbModule.BdbConfig dbConfig = PersistProcessor.HISTORY_DB_CONFIG;
 
             historyDb = bdb.openDatabase(dbName, dbConfig, true);
-            SerialBinding sb = new SerialBinding(classCatalog, Map.class);
-            StoredSortedMap historyMap = new StoredSortedMap(historyDb, new StringBinding(), sb, true);
+            HistoryMapBinding binding = new HistoryMapBinding(classCatalog);
+            StoredSortedMap historyMap = new StoredSortedMap(historyDb, new StringBinding(), binding, true);
             store = historyMap;
         } catch (DatabaseException e) {
             throw new RuntimeException(e);
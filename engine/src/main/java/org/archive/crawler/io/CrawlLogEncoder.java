@@ -0,0 +1,556 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.archive.modules.CoreAttributeConstants;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.ServerCache;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes the crawl log record of a finished {@link CrawlURI} into a reusable
+ * per-thread buffer, either as a crawl.log line or as the json object sent
+ * by the crawl log feeds. Timestamps are formatted from a cache of the
+ * current second, and fields are padded in place, so that a record costs
+ * little garbage beyond the copy of the finished buffer.
+ *
+ * <p>Instances aren't thread-safe; use {@link #get()}.
+ */
+public class CrawlLogEncoder implements CoreAttributeConstants {
+    protected final static String NA = "-";
+    protected final static String NO_TYPE = "no-type";
+    /** characters ending the part of a content type logged */
+    protected final static String MIMETYPE_END = " \t\n\u000b\f\r;,";
+    protected final static String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+    protected final static String BASE32_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    /**
+     * Guess at line length. Used to preallocated the buffer we accumulate the
+     * log line in. Hopefully we get it right most of the time and no need to
+     * enlarge except in the rare case.
+     *
+     * <p>
+     * In a sampling of actual Aug 2014 Archive-It crawl logs I found that a
+     * line length 1000 characters was around the 99th percentile (only 1 in 100
+     * is longer than that). We put more information in the crawl log now than
+     * was originally estimated. Exactly what goes in can depend on the
+     * configuration as well.
+     */
+    protected final static int GUESS_AT_LINE_LENGTH = 1000;
+
+    protected static final ThreadLocal<CrawlLogEncoder> local =
+        ThreadLocal.withInitial(CrawlLogEncoder::new);
+
+    /** @return this thread's encoder */
+    public static CrawlLogEncoder get() {
+        return local.get();
+    }
+
+    /**
+     * Digits of a timestamp up to the second, reformatted only when the
+     * second changes.
+     */
+    protected static class SecondCache {
+        protected final boolean log17;
+        protected final char[] chars;
+        protected long second = Long.MIN_VALUE;
+
+        /**
+         * @param log17 if true, "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" (as
+         *          ArchiveUtils.getLog17Date()), otherwise "yyyyMMddHHmmssSSS"
+         *          (as ArchiveUtils.get17DigitDate())
+         */
+        protected SecondCache(boolean log17) {
+            this.log17 = log17;
+            this.chars = new char[log17 ? 20 : 14];
+        }
+
+        protected void append(long millis, StringBuilder out) {
+            long s = Math.floorDiv(millis, 1000);
+            if (s != second) {
+                LocalDateTime t = LocalDateTime.ofEpochSecond(s, 0, ZoneOffset.UTC);
+                int i = digits(t.getYear(), 4, 0);
+                i = digits(t.getMonthValue(), 2, separator(i, '-'));
+                i = digits(t.getDayOfMonth(), 2, separator(i, '-'));
+                i = digits(t.getHour(), 2, separator(i, 'T'));
+                i = digits(t.getMinute(), 2, separator(i, ':'));
+                i = digits(t.getSecond(), 2, separator(i, ':'));
+                separator(i, '.');
+                second = s;
+            }
+            out.append(chars);
+            int ms = (int) Math.floorMod(millis, 1000);
+            out.append((char) ('0' + ms / 100))
+                .append((char) ('0' + ms / 10 % 10))
+                .append((char) ('0' + ms % 10));
+            if (log17) {
+                out.append('Z');
+            }
+        }
+
+        protected int separator(int i, char c) {
+            if (log17) {
+                chars[i++] = c;
+            }
+            return i;
+        }
+
+        protected int digits(int value, int width, int i) {
+            for (int j = i + width - 1; j >= i; j--) {
+                chars[j] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            return i + width;
+        }
+    }
+
+    protected final StringBuilder buffer = new StringBuilder(GUESS_AT_LINE_LENGTH);
+    protected final StringBuilderWriter writer = new StringBuilderWriter(buffer);
+    protected final SecondCache log17Date = new SecondCache(true);
+    protected final SecondCache digits17Date = new SecondCache(false);
+    protected final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    protected char[] chars = new char[GUESS_AT_LINE_LENGTH];
+    protected byte[] bytes = new byte[GUESS_AT_LINE_LENGTH * 2];
+
+    /** @return the buffer holding the last record encoded */
+    public StringBuilder buffer() {
+        return buffer;
+    }
+
+    /**
+     * Encode the crawl.log line for the uri, with trailing newline.
+     *
+     * @param time time to log the uri at
+     * @param logExtraInfo whether to end the line with the uri's extra info
+     * @return the buffer holding the line
+     */
+    public StringBuilder encodeText(CrawlURI curi, long time, boolean logExtraInfo) {
+        buffer.setLength(0);
+        log17Date.append(time, buffer);
+        buffer.append(' ');
+        appendPadded(curi.getFetchStatus(), 5);
+        buffer.append(' ');
+        long length = -1;
+        if (curi.isHttpTransaction() && curi.getContentLength() >= 0) {
+            length = curi.getContentLength();
+        } else if (curi.getContentSize() > 0) {
+            length = curi.getContentSize();
+        }
+        if (length >= 0) {
+            appendPadded(length, 10);
+        } else {
+            buffer.append("         ").append(NA);
+        }
+        buffer.append(' ')
+            .append(curi.getUURI().toString())
+            .append(' ');
+        appendOrNA(curi.getPathFromSeed());
+        buffer.append(' ');
+        appendOrNA(curi.flattenVia());
+        buffer.append(' ');
+        appendMimetype(curi.getContentType(), false);
+        buffer.append(" #");
+        // Pad threads to be 3 digits.  For Igor.
+        int start = buffer.length();
+        buffer.append(curi.getThreadNumber());
+        while (buffer.length() - start < 3) {
+            buffer.insert(start, '0');
+        }
+        buffer.append(' ');
+
+        // arcTimeAndDuration
+        if (curi.containsDataKey(A_FETCH_COMPLETED_TIME)) {
+            long beganTime = curi.getFetchBeginTime();
+            digits17Date.append(beganTime, buffer);
+            buffer.append('+').append(curi.getFetchCompletedTime() - beganTime);
+        } else {
+            buffer.append(NA);
+        }
+
+        buffer.append(' ');
+        if (curi.getContentDigest() != null) {
+            appendDigest(curi);
+        } else {
+            buffer.append(NA);
+        }
+        buffer.append(' ');
+        appendOrNA(curi.containsDataKey(A_SOURCE_TAG) ? curi.getSourceTag() : null);
+        buffer.append(' ');
+        Collection<String> anno = curi.getAnnotations();
+        if (anno != null && anno.size() > 0) {
+            appendJoined(anno, false);
+        } else {
+            buffer.append(NA);
+        }
+
+        if (logExtraInfo) {
+            buffer.append(' ');
+            appendJsonObject(curi.getExtraInfo(), false);
+        }
+
+        buffer.append('\n');
+        return buffer;
+    }
+
+    /**
+     * Encode the json crawl log record for the uri, as sent by the crawl log
+     * feeds. Fields of the uri's extra info that have fields of their own
+     * ("contentSize", "warcFilename" and "warcFileOffset") are left out of
+     * "extra_info".
+     *
+     * @param time time to log the uri at
+     * @param extraFields more string fields to include, if not null
+     * @return the buffer holding the json
+     */
+    public StringBuilder encodeJson(CrawlURI curi, long time,
+            Map<String,String> extraFields, ServerCache serverCache) {
+        buffer.setLength(0);
+        buffer.append("{\"timestamp\":\"");
+        log17Date.append(time, buffer);
+        buffer.append('"');
+
+        if (extraFields != null) {
+            for (Entry<String,String> entry : extraFields.entrySet()) {
+                if (entry.getValue() != null) {
+                    appendKey(entry.getKey());
+                    appendJsonString(entry.getValue());
+                }
+            }
+        }
+
+        appendKey("content_length");
+        if (curi.isHttpTransaction() && curi.getContentLength() >= 0) {
+            buffer.append(curi.getContentLength());
+        } else {
+            buffer.append("null");
+        }
+        appendKey("size");
+        if (curi.getContentSize() > 0) {
+            buffer.append(curi.getContentSize());
+        } else {
+            buffer.append("null");
+        }
+        appendKey("status_code");
+        buffer.append(curi.getFetchStatus());
+        appendKey("url");
+        appendJsonString(curi.getUURI().toString());
+        appendKey("hop_path");
+        appendJsonString(curi.getPathFromSeed());
+        appendKey("via");
+        appendJsonString(curi.flattenVia());
+        appendKey("mimetype");
+        buffer.append('"');
+        appendMimetype(curi.getContentType(), true);
+        buffer.append('"');
+        appendKey("thread");
+        buffer.append(curi.getThreadNumber());
+
+        appendKey("start_time_plus_duration");
+        if (curi.containsDataKey(A_FETCH_COMPLETED_TIME)) {
+            long beganTime = curi.getFetchBeginTime();
+            buffer.append('"');
+            digits17Date.append(beganTime, buffer);
+            buffer.append('+').append(curi.getFetchCompletedTime() - beganTime).append('"');
+        } else {
+            buffer.append("null");
+        }
+
+        appendKey("content_digest");
+        if (curi.getContentDigest() != null) {
+            buffer.append('"');
+            appendDigest(curi);
+            buffer.append('"');
+        } else {
+            buffer.append("null");
+        }
+        appendKey("seed");
+        appendJsonString(curi.getSourceTag());
+
+        appendKey("host");
+        CrawlHost host = serverCache.getHostFor(curi.getUURI());
+        appendJsonString(host != null ? host.fixUpName() : null);
+
+        appendKey("annotations");
+        Collection<String> anno = curi.getAnnotations();
+        if (anno != null) {
+            buffer.append('"');
+            appendJoined(anno, true);
+            buffer.append('"');
+        } else {
+            buffer.append("null");
+        }
+
+        JSONObject ei = curi.getExtraInfo();
+        appendKey("warc_filename");
+        appendJsonValue(ei.opt("warcFilename"));
+        appendKey("warc_offset");
+        appendJsonValue(ei.opt("warcFileOffset"));
+        appendKey("extra_info");
+        appendJsonObject(ei, true);
+        buffer.append('}');
+        return buffer;
+    }
+
+    /**
+     * @return the buffer's contents encoded as UTF-8, in a new array of
+     * exactly their length
+     */
+    public byte[] toUtf8() {
+        int length = buffer.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        buffer.getChars(0, length, chars, 0);
+        CharBuffer in = CharBuffer.wrap(chars, 0, length);
+        ByteBuffer out = ByteBuffer.wrap(bytes);
+        utf8.reset();
+        while (true) {
+            CoderResult result = utf8.encode(in, out, true);
+            if (result.isUnderflow()) {
+                result = utf8.flush(out);
+            }
+            if (result.isUnderflow()) {
+                break;
+            }
+            // overflow: the only other possibility, with REPLACE actions
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            ByteBuffer grown = ByteBuffer.wrap(bytes);
+            grown.position(out.position());
+            out = grown;
+        }
+        return Arrays.copyOf(bytes, out.position());
+    }
+
+    protected void appendPadded(long value, int width) {
+        int start = buffer.length();
+        buffer.append(value);
+        while (buffer.length() - start < width) {
+            buffer.insert(start, ' ');
+        }
+    }
+
+    /**
+     * Append the content type as MimetypeUtils.truncate() would return it:
+     * up to the first whitespace, ';' or ','. Escaped for a JSON string if
+     * json is set, as it may hold quotes or backslashes.
+     */
+    protected void appendMimetype(String contentType, boolean json) {
+        if (contentType == null) {
+            buffer.append(NO_TYPE);
+            return;
+        }
+        int end = 0;
+        while (end < contentType.length() 
+                && MIMETYPE_END.indexOf(contentType.charAt(end)) < 0) {
+            end++;
+        }
+        for (int i = end; i < contentType.length(); i++) {
+            if (LINE_TERMINATORS.indexOf(contentType.charAt(i)) >= 0) {
+                // not matched by the truncation regex
+                end = 0;
+                break;
+            }
+        }
+        if (end == 0) {
+            buffer.append(NO_TYPE);
+        } else if (json) {
+            appendJsonEscaped(contentType, end);
+        } else {
+            buffer.append(contentType, 0, end);
+        }
+    }
+
+    /**
+     * Append the content digest as CrawlURI.getContentDigestSchemeString()
+     * would return it: scheme, ':', and the digest in base32.
+     */
+    protected void appendDigest(CrawlURI curi) {
+        buffer.append(curi.getContentDigestScheme()).append(':');
+        byte[] digest = curi.getContentDigest();
+        int i = 0;
+        int index = 0;
+        while (i < digest.length) {
+            int currByte = digest[i] & 0xff;
+            int digit;
+            if (index > 3) {
+                int nextByte = (i + 1 < digest.length) ? digest[i + 1] & 0xff : 0;
+                digit = currByte & (0xff >> index);
+                index = (index + 5) % 8;
+                digit <<= index;
+                digit |= nextByte >> (8 - index);
+                i++;
+            } else {
+                digit = (currByte >> (8 - (index + 5))) & 0x1f;
+                index = (index + 5) % 8;
+                if (index == 0) {
+                    i++;
+                }
+            }
+            buffer.append(BASE32_DIGITS.charAt(digit));
+        }
+    }
+
+    protected void appendOrNA(String str) {
+        buffer.append(str == null || str.length() <= 0 ? NA : str);
+    }
+
+    protected void appendJoined(Collection<String> strs, boolean json) {
+        boolean first = true;
+        for (String str : strs) {
+            if (!first) {
+                buffer.append(',');
+            }
+            first = false;
+            if (json) {
+                appendJsonEscaped(str);
+            } else {
+                buffer.append(str);
+            }
+        }
+    }
+
+    protected void appendKey(String key) {
+        buffer.append(",\"").append(key).append("\":");
+    }
+
+    protected void appendJsonString(String str) {
+        if (str == null) {
+            buffer.append("null");
+        } else {
+            buffer.append('"');
+            appendJsonEscaped(str);
+            buffer.append('"');
+        }
+    }
+
+    /**
+     * Append the object as {@link JSONObject#toString()} would, optionally
+     * leaving out the extra info fields the json record has fields for.
+     */
+    protected void appendJsonObject(JSONObject jo, boolean skipUnrolled) {
+        buffer.append('{');
+        boolean first = true;
+        for (String key : jo.keySet()) {
+            if (skipUnrolled && ("contentSize".equals(key) || "warcFilename".equals(key)
+                    || "warcFileOffset".equals(key))) {
+                continue;
+            }
+            if (!first) {
+                buffer.append(',');
+            }
+            first = false;
+            appendJsonString(key);
+            buffer.append(':');
+            appendJsonValue(jo.opt(key));
+        }
+        buffer.append('}');
+    }
+
+    protected void appendJsonValue(Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            buffer.append("null");
+        } else if (value instanceof String) {
+            appendJsonString((String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Boolean) {
+            buffer.append(value);
+        } else if (value instanceof JSONObject) {
+            appendJsonObject((JSONObject) value, false);
+        } else if (value instanceof JSONArray) {
+            ((JSONArray) value).write(writer);
+        } else {
+            buffer.append(JSONObject.valueToString(value));
+        }
+    }
+
+    /**
+     * Escape as {@link JSONObject#quote(String)} does, without the quotes.
+     */
+    protected void appendJsonEscaped(String str) {
+        appendJsonEscaped(str, str.length());
+    }
+
+    /**
+     * Escape the first end chars of str as {@link JSONObject#quote(String)}
+     * does, without the quotes.
+     */
+    protected void appendJsonEscaped(String str, int end) {
+        char b;
+        char c = 0;
+        for (int i = 0; i < end; i++) {
+            b = c;
+            c = str.charAt(i);
+            switch (c) {
+            case '\\':
+            case '"':
+                buffer.append('\\').append(c);
+                break;
+            case '/':
+                if (b == '<') {
+                    buffer.append('\\');
+                }
+                buffer.append(c);
+                break;
+            case '\b':
+                buffer.append("\\b");
+                break;
+            case '\t':
+                buffer.append("\\t");
+                break;
+            case '\n':
+                buffer.append("\\n");
+                break;
+            case '\f':
+                buffer.append("\\f");
+                break;
+            case '\r':
+                buffer.append("\\r");
+                break;
+            default:
+                if (c < 0x20 || (c >= 0x80 && c < 0xa0)
+                        || (c >= 0x2000 && c < 0x2100)) {
+                    buffer.append("\\u");
+                    for (int shift = 12; shift >= 0; shift -= 4) {
+                        buffer.append(Character.forDigit((c >> shift) & 0xf, 16));
+                    }
+                } else {
+                    buffer.append(c);
+                }
+            }
+        }
+    }
+}
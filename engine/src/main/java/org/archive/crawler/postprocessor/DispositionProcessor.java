@@ -39,6 +39,7 @@ import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.IgnoreRobotsPolicy;
 import org.archive.modules.net.Robotstxt;
 import org.archive.modules.net.ServerCache;
+import org.archive.modules.net.ServerPoliteness;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
@@ -121,6 +122,63 @@ public class DispositionProcessor extends Processor {
         kp.put("maxDelayMs",maxDelay);
     }    
 
+    {
+        setAdaptivePoliteness(false);
+    }
+    public boolean getAdaptivePoliteness() {
+        return (Boolean) kp.get("adaptivePoliteness");
+    }
+    /**
+     * Whether to adapt each server's delay to its smoothed fetch duration
+     * and error rate rather than to the last fetch alone. The delay is at
+     * least delayFactor times the smoothed duration (within minDelayMs and
+     * maxDelayMs); it is multiplied by adaptiveBackoffFactor after a server
+     * error, timeout or refusal, and otherwise comes down by
+     * adaptiveDecreaseMs per fetch while the smoothed error rate is at most
+     * adaptiveMaxErrorRate. Robots crawl-delay and the bandwidth limit
+     * still apply. The state is kept with the server, and listed in the
+     * politeness report.
+     */
+    public void setAdaptivePoliteness(boolean adaptive) {
+        kp.put("adaptivePoliteness",adaptive);
+    }
+
+    {
+        setAdaptiveBackoffFactor(2.0f);
+    }
+    public float getAdaptiveBackoffFactor() {
+        return (Float) kp.get("adaptiveBackoffFactor");
+    }
+    /** multiple of the current delay to wait after a server error */
+    public void setAdaptiveBackoffFactor(float factor) {
+        kp.put("adaptiveBackoffFactor",factor);
+    }
+
+    {
+        setAdaptiveDecreaseMs(500);
+    }
+    public int getAdaptiveDecreaseMs() {
+        return (Integer) kp.get("adaptiveDecreaseMs");
+    }
+    /** how much the delay comes down after each fetch without error */
+    public void setAdaptiveDecreaseMs(int decrease) {
+        kp.put("adaptiveDecreaseMs",decrease);
+    }
+
+    {
+        setAdaptiveMaxErrorRate(0.1f);
+    }
+    public float getAdaptiveMaxErrorRate() {
+        return (Float) kp.get("adaptiveMaxErrorRate");
+    }
+    /**
+     * smoothed fraction of fetches failing above which the delay is not
+     * brought down
+     */
+    public void setAdaptiveMaxErrorRate(float rate) {
+        kp.put("adaptiveMaxErrorRate",rate);
+    }
+
     {
         setMaxPerHostBandwidthUsageKbSec(0);
     }
@@ -235,18 +293,11 @@ public class DispositionProcessor extends Processor {
 
             long completeTime = curi.getFetchCompletedTime();
             long durationTaken = (completeTime - curi.getFetchBeginTime());
-            durationToWait = (long)(getDelayFactor() * durationTaken);
+            durationToWait = boundedDelay(getDelayFactor() * durationTaken);
 
-            long minDelay = getMinDelayMs();
-            if (minDelay > durationToWait) {
-                // wait at least the minimum
-                durationToWait = minDelay;
-            }
-
-            long maxDelay = getMaxDelayMs();
-            if (durationToWait > maxDelay) {
-                // wait no more than the maximum
-                durationToWait = maxDelay;
+            if (getAdaptivePoliteness()) {
+                durationToWait = adaptiveDelayFor(curi, durationTaken,
+                        durationToWait);
             }
             
             long respectThreshold = getRespectCrawlDelayUpToSeconds() * 1000;
@@ -292,4 +343,69 @@ public class DispositionProcessor extends Processor {
         }
         return durationToWait;
     }
+
+    /**
+     * @return the given delay, at least minDelayMs and at most maxDelayMs
+     */
+    protected long boundedDelay(double delay) {
+        long durationToWait = (long) delay;
+        long minDelay = getMinDelayMs();
+        if (minDelay > durationToWait) {
+            // wait at least the minimum
+            durationToWait = minDelay;
+        }
+
+        long maxDelay = getMaxDelayMs();
+        if (durationToWait > maxDelay) {
+            // wait no more than the maximum
+            durationToWait = maxDelay;
+        }
+        return durationToWait;
+    }
+
+    /**
+     * Adds this fetch to its server's {@link ServerPoliteness} and adjusts
+     * the server's delay, additive-decrease/multiplicative-increase, as
+     * described at {@link #setAdaptivePoliteness(boolean)}.
+     * 
+     * @param curi the CrawlURI just fetched
+     * @param durationTaken how long the fetch took
+     * @param lastFetchDelay the delay by the last fetch alone, used before
+     * the server has a delay of its own
+     * @return millisecond politeness delay
+     */
+    protected long adaptiveDelayFor(CrawlURI curi, long durationTaken,
+            long lastFetchDelay) {
+        CrawlServer server = getServerCache().getServerFor(curi.getUURI());
+        if (server == null) {
+            return lastFetchDelay;
+        }
+        synchronized (server) {
+            ServerPoliteness politeness = server.getOrCreatePoliteness();
+            boolean error = isServerError(curi);
+            politeness.sample(durationTaken, error);
+            long floor = boundedDelay(getDelayFactor() * politeness.getDurationMs());
+            long delay = politeness.getDelayMs();
+            if (delay < 0) {
+                delay = lastFetchDelay;
+            } else if (error) {
+                delay = (long) (Math.max(delay, floor) * getAdaptiveBackoffFactor());
+                politeness.incrementBackoffs();
+            } else if (politeness.getErrorRate() <= getAdaptiveMaxErrorRate()) {
+                delay -= getAdaptiveDecreaseMs();
+            }
+            delay = boundedDelay(Math.max(delay, floor));
+            politeness.setDelayMs(delay);
+            server.makeDirty();
+            return delay;
+        }
+    }
+
+    /**
+     * Whether the fetch outcome suggests the server is overloaded; see
+     * {@link ServerPoliteness#isServerError(CrawlURI)}.
+     */
+    protected boolean isServerError(CrawlURI curi) {
+        return ServerPoliteness.isServerError(curi);
+    }
 }
@@ -38,6 +38,9 @@ public class AlertThreadGroup extends ThreadGroup {
     protected int count;
     protected LinkedList<Logger> loggers = new LinkedList<Logger>(); 
     static protected ThreadLocal<Logger> threadLogger = new ThreadLocal<Logger>();
+    // for threads outside any AlertThreadGroup, such as virtual threads
+    static protected ThreadLocal<AlertThreadGroup> boundGroup = new ThreadLocal<AlertThreadGroup>();
+    static protected ThreadLocal<SinkHandlerLogThread> boundLogThread = new ThreadLocal<SinkHandlerLogThread>();
     
     public AlertThreadGroup(String name) {
         super(name);
@@ -60,12 +63,30 @@ public class AlertThreadGroup extends ThreadGroup {
         threadLogger.set(logger); 
     }
 
+    /**
+     * Treat the current thread as a member of the given group, reporting
+     * the given processing state, for threads which cannot be created in
+     * the group themselves (virtual threads all share one group).
+     */
+    public static void bindCurrentThread(AlertThreadGroup group, SinkHandlerLogThread logThread) {
+        boundGroup.set(group);
+        boundLogThread.set(logThread);
+    }
+
+    public static void unbindCurrentThread() {
+        boundGroup.remove();
+        boundLogThread.remove();
+    }
+
     public static AlertThreadGroup current() {
         Thread t = Thread.currentThread();
         ThreadGroup th = t.getThreadGroup();
         while ((th != null) && !(th instanceof AlertThreadGroup)) {
             th = th.getParent();
         }
+        if (th == null) {
+            return boundGroup.get();
+        }
         return (AlertThreadGroup)th;
     }
 
@@ -98,8 +119,9 @@ public class AlertThreadGroup extends ThreadGroup {
         Thread current = Thread.currentThread();
         newMessage.append(orig).append(" (in thread '");
         newMessage.append(current.getName()).append("'");
-        if (current instanceof SinkHandlerLogThread) {
-            SinkHandlerLogThread tt = (SinkHandlerLogThread)current;
+        SinkHandlerLogThread tt = (current instanceof SinkHandlerLogThread)
+                ? (SinkHandlerLogThread) current : boundLogThread.get();
+        if (tt != null) {
             if(tt.getCurrentProcessorName().length()>0) {
                 newMessage.append("; in processor '");
                 newMessage.append(tt.getCurrentProcessorName());
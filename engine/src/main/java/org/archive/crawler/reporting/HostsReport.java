@@ -19,12 +19,14 @@
  
 package org.archive.crawler.reporting;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Collection;
+import java.io.UncheckedIOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.archive.bdb.DisposableStoredSortedMap;
+import org.apache.commons.collections.Closure;
+import org.archive.modules.fetcher.FetchStats;
 import org.archive.modules.net.CrawlHost;
 
 /**
@@ -42,8 +44,9 @@ public class HostsReport extends Report {
     	return maxSortSize;
     }
     /**
-     * The maximum number of hosts allowed in a report while still sorting it. If the number of hosts exceeds
-     * this value, the generated report will not be sorted. A negative signifies no limit (always sort). 
+     * The maximum number of hosts to sort in a report. If the number of hosts exceeds
+     * this value, the report lists this many hosts with the most URLs, sorted, followed by
+     * all the others, unsorted. A negative signifies no limit (always sort). 
      * A value of zero means never sort. Default -1, always sort. This matches the behavior before this 
      * parameter was introduced.
      * 
@@ -76,50 +79,55 @@ public class HostsReport extends Report {
 	
 	@Override
     public void write(final PrintWriter writer, StatisticsTracker stats) {
-    	Collection<String> keys = null;
-    	DisposableStoredSortedMap<Long, String> hd = null;
-    	if (maxSortSize<0 || maxSortSize>stats.serverCache.hostKeys().size()) {
-    		hd = stats.calcReverseSortedHostsDistribution();
-        	keys = hd.values();
-        } else {
-        	keys = stats.serverCache.hostKeys();
-        }
-        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
-        for (String key : keys) {
-            // key is -count, value is hostname
-            try {
-                CrawlHost host = stats.serverCache.getHostFor(key);
-                long fetchSuccesses = host.getSubstats().getFetchSuccesses();
-                if (!suppressEmptyHosts || fetchSuccesses>0) {
-	                writeReportLine(writer,
-	                        fetchSuccesses,
-	                        host.getSubstats().getTotalBytes(),
-	                        host.fixUpName(),
-	                        host.getSubstats().getRobotsDenials(),
-	                        host.getSubstats().getRemaining(), 
-	                        host.getSubstats().getNovelUrls(),
-	                        host.getSubstats().getNovelBytes(),
-	                        host.getSubstats().getDupByHashUrls(),
-	                        host.getSubstats().getDupByHashBytes(),
-	                        host.getSubstats().getNotModifiedUrls(),
-	                        host.getSubstats().getNotModifiedBytes());
+        final ReportSorter sorter = new ReportSorter(stats.getReportsDir().getFile(), maxSortSize);
+        try {
+            // one pass over the hosts, in store order, each line composed
+            // from the host as read rather than looked up again
+            stats.serverCache.forAllHostsDo(new Closure() {
+                @Override
+                public void execute(Object hostObj) {
+                    CrawlHost host = (CrawlHost) hostObj;
+                    try {
+                        FetchStats substats = host.getSubstats();
+                        long fetchSuccesses = substats.getFetchSuccesses();
+                        if (!suppressEmptyHosts || fetchSuccesses>0) {
+                            sorter.add(-fetchSuccesses, host.getHostName(),
+                                    reportLine(fetchSuccesses,
+                                            substats.getTotalBytes(),
+                                            host.fixUpName(),
+                                            substats.getRobotsDenials(),
+                                            substats.getRemaining(),
+                                            substats.getNovelUrls(),
+                                            substats.getNovelBytes(),
+                                            substats.getDupByHashUrls(),
+                                            substats.getDupByHashBytes(),
+                                            substats.getNotModifiedUrls(),
+                                            substats.getNotModifiedBytes()));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "unable to tally host stats for " + host.getHostName(), e);
+                    }
                 }
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "unable to tally host stats for " + key, e);
-            }
-        }
-        if (hd!=null) {
-        	hd.dispose();
+            });
+            writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
+            sorter.writeTo(writer);
+        } catch (IOException|UncheckedIOException e) {
+            logger.log(Level.SEVERE, "unable to write hosts report", e);
+        } finally {
+            sorter.close();
         }
     }
 
-    protected void writeReportLine(PrintWriter writer, Object  ... fields) {
+    protected String reportLine(Object ... fields) {
+        StringBuilder line = new StringBuilder();
         for(Object field : fields) {
-            writer.print(field);
-            writer.print(" ");
+            line.append(field);
+            line.append(" ");
         }
-        writer.print("\n");
-     }
+        return line.toString();
+    }
 
     @Override
     public String getFilename() {
@@ -0,0 +1,100 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.collections.Closure;
+import org.archive.modules.net.CrawlServer;
+import org.archive.modules.net.ServerPoliteness;
+
+/**
+ * The "Politeness Report", the current delay of each server under the
+ * adaptive politeness policy (see
+ * {@link org.archive.crawler.postprocessor.DispositionProcessor#setAdaptivePoliteness(boolean)}),
+ * longest first, with the smoothed fetch duration and error rate it is
+ * based on.
+ */
+public class PolitenessReport extends Report {
+
+    private final static Logger logger =
+            Logger.getLogger(PolitenessReport.class.getName());
+
+    int maxSortSize = -1;
+    public int getMaxSortSize() {
+        return maxSortSize;
+    }
+    /**
+     * The maximum number of servers to sort in a report, as for
+     * {@link HostsReport#setMaxSortSize(int)}.
+     */
+    public void setMaxSortSize(int maxSortSize) {
+        this.maxSortSize = maxSortSize;
+    }
+
+    @Override
+    public void write(final PrintWriter writer, StatisticsTracker stats) {
+        final ReportSorter sorter = new ReportSorter(stats.getReportsDir().getFile(), maxSortSize);
+        try {
+            stats.serverCache.forAllServersDo(new Closure() {
+                @Override
+                public void execute(Object serverObj) {
+                    CrawlServer server = (CrawlServer) serverObj;
+                    String line;
+                    long delay;
+                    synchronized (server) {
+                        ServerPoliteness politeness = server.getPoliteness();
+                        if (politeness == null) {
+                            return;
+                        }
+                        delay = politeness.getDelayMs();
+                        line = String.format(Locale.ROOT, "%d %s %.0f %.3f %d %d ",
+                                delay, server.getName(),
+                                politeness.getDurationMs(),
+                                politeness.getErrorRate(),
+                                politeness.getSamples(),
+                                politeness.getBackoffs());
+                    }
+                    try {
+                        sorter.add(-delay, server.getName(), line);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            writer.print("[delay-ms] [server] [fetch-ms] [error-rate] [#fetches] [#backoffs]\n");
+            sorter.writeTo(writer);
+        } catch (IOException|UncheckedIOException e) {
+            logger.log(Level.SEVERE, "unable to write politeness report", e);
+        } finally {
+            sorter.close();
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return "politeness-report.txt";
+    }
+}
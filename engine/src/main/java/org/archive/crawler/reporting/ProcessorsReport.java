@@ -20,6 +20,9 @@ package org.archive.crawler.reporting;
 
 import java.io.PrintWriter;
 
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.modules.deciderules.DecideRuleSequence;
+
 /**
  * The "Processors Report", delegated through the CrawlController 
  * to each Processor to dump whatever information it collects for 
@@ -34,6 +37,14 @@ public class ProcessorsReport extends Report {
         stats.controller.getCandidateChain().reportTo(writer);
         stats.controller.getFetchChain().reportTo(writer);
         stats.controller.getDispositionChain().reportTo(writer);
+
+        DecideRule scope = stats.controller.getFrontier().getScope();
+        if (scope instanceof DecideRuleSequence) {
+            StringBuilder sb = new StringBuilder();
+            ((DecideRuleSequence) scope).reportTo("  ", sb);
+            writer.print("Scope - DecideRuleSequence report\n");
+            writer.print(sb);
+        }
     }
 
     @Override
@@ -0,0 +1,336 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Orders report lines, added in a single pass over whatever they report
+ * on, by a long sort key and then a string, in bounded memory.
+ * <p>
+ * With no limit, every line is sorted: lines are sorted a chunk at a time,
+ * full chunks written to temporary files, and the chunks merged as the
+ * lines are written out. With a limit of K, only the first K lines are
+ * sorted, held in a heap as lines are added; they are written first,
+ * followed by all the other lines, unsorted (in the order they were passed
+ * over or displaced from the heap).
+ */
+public class ReportSorter implements Closeable {
+    private final static Logger logger =
+            Logger.getLogger(ReportSorter.class.getName());
+
+    public static final int DEFAULT_CHUNK_SIZE = 100000;
+
+    protected static class Line {
+        protected final long key;
+        protected final String tiebreak;
+        protected final String text;
+        protected Line(long key, String tiebreak, String text) {
+            this.key = key;
+            this.tiebreak = tiebreak;
+            this.text = text;
+        }
+    }
+
+    protected static final Comparator<Line> ORDER =
+            Comparator.<Line>comparingLong(l -> l.key).thenComparing(l -> l.tiebreak);
+
+    protected final File tempDir;
+    protected final int limit;
+    protected final int chunkSize;
+
+    /** lines not yet written to a chunk file (or, with a limit, the unsorted rest) */
+    protected ArrayList<Line> chunk = new ArrayList<Line>();
+    protected List<File> chunkFiles = new ArrayList<File>();
+    /** with a limit, the lines to sort so far, last in order first */
+    protected PriorityQueue<Line> top;
+    protected long count = 0;
+
+    /**
+     * @param tempDir directory for temporary chunk files (null for the
+     *            system default)
+     * @param limit number of lines to sort, negative for all
+     */
+    public ReportSorter(File tempDir, int limit) {
+        this(tempDir, limit, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ReportSorter(File tempDir, int limit, int chunkSize) {
+        this.tempDir = tempDir;
+        this.limit = limit;
+        this.chunkSize = chunkSize;
+        if (limit >= 0) {
+            top = new PriorityQueue<Line>(Math.max(1, Math.min(limit, chunkSize)),
+                    Collections.reverseOrder(ORDER));
+        }
+    }
+
+    /**
+     * @return number of lines added
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Add a report line (without line terminator).
+     */
+    public void add(long key, String tiebreak, String text) throws IOException {
+        count++;
+        Line line = new Line(key, tiebreak, text);
+        if (top != null) {
+            if (limit == 0) {
+                addUnsorted(line);
+                return;
+            }
+            if (top.size() < limit) {
+                top.add(line);
+                return;
+            }
+            if (ORDER.compare(line, top.peek()) < 0) {
+                top.add(line);
+                line = top.poll();
+            }
+            addUnsorted(line);
+            return;
+        }
+        chunk.add(line);
+        if (chunk.size() >= chunkSize) {
+            chunk.sort(ORDER);
+            spill();
+        }
+    }
+
+    protected void addUnsorted(Line line) throws IOException {
+        chunk.add(line);
+        if (chunk.size() >= chunkSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Write the chunk of lines held in memory to a new temporary file.
+     */
+    protected void spill() throws IOException {
+        if (tempDir != null) {
+            tempDir.mkdirs();
+        }
+        File file = File.createTempFile("report-sort-", ".tmp", tempDir);
+        chunkFiles.add(file);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            for (Line line : chunk) {
+                out.writeLong(line.key);
+                writeString(out, line.tiebreak);
+                writeString(out, line.text);
+            }
+        } finally {
+            out.close();
+        }
+        chunk.clear();
+    }
+
+    protected static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lines of one temporary file, in the order written.
+     */
+    protected static class ChunkReader implements Iterator<Line>, Closeable {
+        protected DataInputStream in;
+        protected Line next;
+
+        protected ChunkReader(File file) throws IOException {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            advance();
+        }
+
+        protected void advance() throws IOException {
+            long key;
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                next = null;
+                close();
+                return;
+            }
+            next = new Line(key, readString(in), readString(in));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Line next() {
+            Line line = next;
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Write all the lines added, each followed by "\n".
+     */
+    public void writeTo(PrintWriter writer) throws IOException {
+        if (top != null) {
+            // sorted section
+            ArrayList<Line> sorted = new ArrayList<Line>(top);
+            sorted.sort(ORDER);
+            for (Line line : sorted) {
+                writeLine(writer, line);
+            }
+            // then the rest, as added
+            for (File file : chunkFiles) {
+                ChunkReader reader = new ChunkReader(file);
+                try {
+                    while (reader.hasNext()) {
+                        writeLine(writer, reader.next());
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            for (Line line : chunk) {
+                writeLine(writer, line);
+            }
+            return;
+        }
+
+        chunk.sort(ORDER);
+        if (chunkFiles.isEmpty()) {
+            for (Line line : chunk) {
+                writeLine(writer, line);
+            }
+            return;
+        }
+        // merge sorted chunks, each reader keyed by its next line
+        List<ChunkReader> readers = new ArrayList<ChunkReader>();
+        PriorityQueue<PeekingIterator> merge = new PriorityQueue<PeekingIterator>(
+                chunkFiles.size() + 1, Comparator.comparing(PeekingIterator::peek, ORDER));
+        try {
+            for (File file : chunkFiles) {
+                ChunkReader reader = new ChunkReader(file);
+                readers.add(reader);
+                if (reader.hasNext()) {
+                    merge.add(new PeekingIterator(reader));
+                }
+            }
+            if (!chunk.isEmpty()) {
+                merge.add(new PeekingIterator(chunk.iterator()));
+            }
+            while (!merge.isEmpty()) {
+                PeekingIterator source = merge.poll();
+                writeLine(writer, source.next());
+                if (source.hasNext()) {
+                    merge.add(source);
+                }
+            }
+        } finally {
+            for (ChunkReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    protected static class PeekingIterator implements Iterator<Line> {
+        protected final Iterator<Line> source;
+        protected Line next;
+        protected PeekingIterator(Iterator<Line> source) {
+            this.source = source;
+            this.next = source.hasNext() ? source.next() : null;
+        }
+        protected Line peek() {
+            return next;
+        }
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        @Override
+        public Line next() {
+            Line line = next;
+            next = source.hasNext() ? source.next() : null;
+            return line;
+        }
+    }
+
+    protected void writeLine(PrintWriter writer, Line line) {
+        writer.print(line.text);
+        writer.print("\n");
+    }
+
+    /**
+     * Delete any temporary files.
+     */
+    @Override
+    public void close() {
+        for (File file : chunkFiles) {
+            if (!file.delete() && file.exists()) {
+                logger.log(Level.WARNING, "unable to delete " + file);
+            }
+        }
+        chunkFiles.clear();
+        chunk.clear();
+        if (top != null) {
+            top.clear();
+        }
+    }
+}
@@ -18,13 +18,11 @@
  */
 package org.archive.crawler.reporting;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Iterator;
-import java.util.Map;
-
-import org.archive.bdb.DisposableStoredSortedMap;
-
-import com.sleepycat.collections.StoredIterator;
+import java.io.UncheckedIOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -34,40 +32,48 @@ import com.sleepycat.collections.StoredIterator;
  */
 public class SeedsReport extends Report {
 
+    private final static Logger logger =
+            Logger.getLogger(SeedsReport.class.getName());
+
     @Override
     public void write(PrintWriter writer, StatisticsTracker stats) {
         // Build header.
         writer.print("[code] [status] [seed] [redirect]\n");
 
-        long seedsCrawled = 0;
-        long seedsTotal = 0;
-        DisposableStoredSortedMap<Integer, SeedRecord> seedsByCode = stats.calcSeedRecordsSortedByStatusCode();
-//        for (Map.Entry<Integer,SeedRecord> entry : seedsByCode.entrySet()) {
-        Iterator<Map.Entry<Integer,SeedRecord>> iter = seedsByCode.entrySet().iterator();
-        while(iter.hasNext()) {
-            Map.Entry<Integer,SeedRecord> entry = iter.next();
-            SeedRecord sr = entry.getValue();
-            writer.print(sr.getStatusCode());
-            writer.print(" ");
-            seedsTotal++;
-            if((sr.getStatusCode() > 0)) {
-                seedsCrawled++;
-                writer.print("CRAWLED");
-            } else {
-                writer.print("NOTCRAWLED");
-            }
-            writer.print(" ");
-            writer.print(sr.getUri());
-            if(sr.getRedirectUri()!=null) {
-                writer.print(" ");
-                writer.print(sr.getRedirectUri());
-            }
-            writer.print("\n");
+        final long[] seedsCrawled = {0};
+        final ReportSorter seedsByCode = new ReportSorter(stats.getReportsDir().getFile(), -1);
+        try {
+            // one pass over the seed records, sorted by status code
+            stats.processedSeedsRecords.forEachValue(sr -> {
+                StringBuilder line = new StringBuilder();
+                line.append(sr.getStatusCode());
+                line.append(" ");
+                if((sr.getStatusCode() > 0)) {
+                    seedsCrawled[0]++;
+                    line.append("CRAWLED");
+                } else {
+                    line.append("NOTCRAWLED");
+                }
+                line.append(" ");
+                line.append(sr.getUri());
+                if(sr.getRedirectUri()!=null) {
+                    line.append(" ");
+                    line.append(sr.getRedirectUri());
+                }
+                try {
+                    seedsByCode.add(sr.sortShiftStatusCode(), sr.getUri(), line.toString());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            seedsByCode.writeTo(writer);
+        } catch (IOException|UncheckedIOException e) {
+            logger.log(Level.SEVERE, "unable to write seeds report", e);
+        } finally {
+            seedsByCode.close();
         }
-        StoredIterator.close(iter);
-        seedsByCode.dispose();
-        stats.seedsTotal = seedsTotal;
-        stats.seedsCrawled = seedsCrawled; 
+        stats.seedsTotal = seedsByCode.size();
+        stats.seedsCrawled = seedsCrawled[0]; 
     }
 
     @Override
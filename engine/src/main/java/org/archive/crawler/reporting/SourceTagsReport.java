@@ -18,12 +18,13 @@
  */
 package org.archive.crawler.reporting;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
-
-import org.archive.bdb.DisposableStoredSortedMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The "Source Report", tallies of source tags (usually seeds) by host.
@@ -32,6 +33,9 @@ import org.archive.bdb.DisposableStoredSortedMap;
  */
 public class SourceTagsReport extends Report {
 
+    private final static Logger logger =
+            Logger.getLogger(SourceTagsReport.class.getName());
+
     @Override
     public void write(PrintWriter writer, StatisticsTracker stats) {
 
@@ -48,18 +52,19 @@ public class SourceTagsReport extends Report {
             Map<String,AtomicLong> hostCounts = 
                 (Map<String,AtomicLong>)stats.sourceHostDistribution.get(sourceKey);
             // sort hosts by #urls
-            DisposableStoredSortedMap<Long,String> sortedHostCounts = 
-                stats.getReverseSortedHostCounts(hostCounts);
-            // for each host
-            for (Map.Entry<Long, String> entry : sortedHostCounts.entrySet()) {
-                writer.print(sourceKey.toString());
-                writer.print(" ");
-                writer.print(entry.getValue());
-                writer.print(" ");
-                writer.print(Math.abs(entry.getKey()));
-                writer.print("\n");
+            ReportSorter sortedHostCounts = new ReportSorter(stats.getReportsDir().getFile(), -1);
+            try {
+                for (Map.Entry<String,AtomicLong> entry : hostCounts.entrySet()) {
+                    long count = entry.getValue().get();
+                    sortedHostCounts.add(-count, entry.getKey(),
+                            sourceKey + " " + entry.getKey() + " " + count);
+                }
+                sortedHostCounts.writeTo(writer);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "unable to write source report", e);
+            } finally {
+                sortedHostCounts.close();
             }
-            sortedHostCounts.dispose();
         }
     }
 
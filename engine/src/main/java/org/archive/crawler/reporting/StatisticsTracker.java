@@ -25,7 +25,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -36,6 +38,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -123,6 +126,11 @@ import com.sleepycat.je.DatabaseException;
  *        crawl)
  *   <li> Successfully downloaded documents per host per source
  * </ul>
+ * <p>
+ * The crawled-bytes, status code and mime type tallies are first kept per
+ * thread, without any shared lock or map, and merged into the cumulative
+ * tallies whenever a snapshot is taken, a report written, or one of them
+ * asked for.
  *
  * @author Parker Thompson
  * @author Kristinn Sigurdsson
@@ -269,6 +277,7 @@ public class StatisticsTracker
     protected CrawledBytesHistotable crawledBytes = new CrawledBytesHistotable();
     
     public CrawledBytesHistotable getCrawledBytes() {
+        mergeThreadTallies();
         return crawledBytes;
     }
 
@@ -294,6 +303,19 @@ public class StatisticsTracker
     protected ConcurrentHashMap<String, CrawledBytesHistotable> statsBySource =
             new ConcurrentHashMap<String, CrawledBytesHistotable>();
 
+    /** per-thread tallies not yet merged into the cumulative ones above */
+    protected List<ThreadTallies> threadTallies = new ArrayList<ThreadTallies>();
+    protected ThreadLocal<ThreadTallies> localTallies = new ThreadLocal<ThreadTallies>() {
+        @Override
+        protected ThreadTallies initialValue() {
+            ThreadTallies tallies = new ThreadTallies();
+            synchronized (threadTallies) {
+                threadTallies.add(tallies);
+            }
+            return tallies;
+        }
+    };
+
     /**
      * Record of seeds and latest results
      */
@@ -316,6 +338,7 @@ public class StatisticsTracker
             reports.add(new CrawlSummaryReport());
             reports.add(new SeedsReport());
             reports.add(new HostsReport());
+            reports.add(new PolitenessReport());
             reports.add(new SourceTagsReport());
             reports.add(new MimetypesReport());
             reports.add(new ResponseCodeReport());
@@ -482,6 +505,7 @@ public class StatisticsTracker
     }
     
     public CrawlStatSnapshot getSnapshot() {
+        mergeThreadTallies();
         // TODO: take snapshot implementation from a spring prototype?
         CrawlStatSnapshot snapshot = new CrawlStatSnapshot();
         snapshot.collect(controller,this); 
@@ -583,6 +607,7 @@ public class StatisticsTracker
      * @return mimeTypeDistribution
      */
     public Map<String, AtomicLong> getFileDistribution() {
+        mergeThreadTallies();
         return mimeTypeDistribution;
     }
 
@@ -674,6 +699,7 @@ public class StatisticsTracker
      * @return statusCodeDistribution
      */
     public Map<String, AtomicLong> getStatusCodeDistribution() {
+        mergeThreadTallies();
         return statusCodeDistribution;
     }
     
@@ -705,6 +731,7 @@ public class StatisticsTracker
      * @return the accumulated number of bytes from files of a given mime type
      */
     public long getBytesPerFileType(String filetype){
+        mergeThreadTallies();
         return getReportValue(mimeTypeBytes, filetype);
     }
 
@@ -718,6 +745,7 @@ public class StatisticsTracker
     }
             
     public String crawledBytesSummary() {
+        mergeThreadTallies();
         return crawledBytes.summary();
     }
     
@@ -743,17 +771,8 @@ public class StatisticsTracker
 
     public void crawledURISuccessful(CrawlURI curi) {
         handleSeed(curi,"Seed successfully crawled");
-        // save crawled bytes tally
-        crawledBytes.accumulate(curi);
-
-        // Save status codes
-        incrementMapCount(statusCodeDistribution,
-            Integer.toString(curi.getFetchStatus()));
-
-        // Save mime types
-        String mime = MimetypeUtils.truncate(curi.getContentType());
-        incrementMapCount(mimeTypeDistribution, mime);
-        incrementMapCount(mimeTypeBytes, mime, curi.getContentSize());
+        // save crawled bytes, status code and mime type tallies
+        localTallies.get().tally(curi);
 
         ServerCache sc = serverCache;
         if (getTrackSources() && curi.getData().containsKey(A_SOURCE_TAG)) {
@@ -776,14 +795,128 @@ public class StatisticsTracker
     }
 
     protected void tallySourceStats(CrawlURI curi) {
+        // not kept per thread: SourceQuotaEnforcer checks these per uri
         String source = curi.getSourceTag();
-        CrawledBytesHistotable sourceStats = statsBySource.get(source);
-        if (sourceStats == null) {
-            sourceStats = new CrawledBytesHistotable();
-            statsBySource.put(source, sourceStats);
-        }
+        CrawledBytesHistotable sourceStats = statsBySource.computeIfAbsent(
+                source, k -> new CrawledBytesHistotable());
         sourceStats.accumulate(curi);
     }
+
+    /**
+     * Merge every thread's tallies into the cumulative ones, forgetting
+     * the threads that have ended.
+     */
+    protected void mergeThreadTallies() {
+        synchronized (threadTallies) {
+            for (Iterator<ThreadTallies> i = threadTallies.iterator(); i.hasNext();) {
+                ThreadTallies tallies = i.next();
+                boolean ended = !tallies.thread.isAlive();
+                tallies.drainTo(this);
+                if (ended) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * One thread's crawled-bytes, status code and mime type tallies since
+     * they were last merged. Only that thread adds to them, so taking the
+     * lock is uncontended except while merging.
+     */
+    protected static class ThreadTallies {
+        /** highest status code counted in {@link #statusCodes} */
+        protected static final int MAX_INDEXED_STATUS = 999;
+        /** most truncated mime types remembered */
+        protected static final int MAX_CACHED_MIMETYPES = 1000;
+
+        protected final Thread thread = Thread.currentThread();
+        protected boolean dirty = false;
+        /** key -&gt; amount */
+        protected HashMap<String,long[]> crawledBytes = new HashMap<String,long[]>();
+        protected ObjLongConsumer<String> crawledBytesTally =
+                (key, amount) -> increment(crawledBytes, key, 0, amount);
+        /** count for each status code 0-999 */
+        protected long[] statusCodes = new long[MAX_INDEXED_STATUS + 1];
+        /** count for any other (negative) status code */
+        protected HashMap<Integer,long[]> otherStatusCodes = new HashMap<Integer,long[]>();
+        /** truncated mime type -&gt; {count, bytes} */
+        protected HashMap<String,long[]> mimeTypes = new HashMap<String,long[]>();
+        /** content type -&gt; truncated mime type */
+        protected HashMap<String,String> truncatedMimeTypes = new HashMap<String,String>();
+
+        public synchronized void tally(CrawlURI curi) {
+            dirty = true;
+            CrawledBytesHistotable.accumulate(curi, crawledBytesTally);
+
+            int status = curi.getFetchStatus();
+            if (status >= 0 && status <= MAX_INDEXED_STATUS) {
+                statusCodes[status]++;
+            } else {
+                otherStatusCodes.computeIfAbsent(status, k -> new long[1])[0]++;
+            }
+
+            String mimeType = truncateMimetype(curi.getContentType());
+            increment(mimeTypes, mimeType, 0, 1);
+            increment(mimeTypes, mimeType, 1, curi.getContentSize());
+        }
+
+        protected String truncateMimetype(String contentType) {
+            if (contentType == null) {
+                return MimetypeUtils.truncate(null);
+            }
+            String mime = truncatedMimeTypes.get(contentType);
+            if (mime == null) {
+                if (truncatedMimeTypes.size() >= MAX_CACHED_MIMETYPES) {
+                    truncatedMimeTypes.clear();
+                }
+                mime = MimetypeUtils.truncate(contentType);
+                truncatedMimeTypes.put(contentType, mime);
+            }
+            return mime;
+        }
+
+        protected static void increment(HashMap<String,long[]> map, String key,
+                int index, long amount) {
+            long[] counts = map.get(key);
+            if (counts == null) {
+                counts = new long[2];
+                map.put(key, counts);
+            }
+            counts[index] += amount;
+        }
+
+        /**
+         * Add these tallies to the tracker's cumulative ones, and reset.
+         */
+        public synchronized void drainTo(StatisticsTracker tracker) {
+            if (!dirty) {
+                return;
+            }
+            for (Map.Entry<String,long[]> e : crawledBytes.entrySet()) {
+                tracker.crawledBytes.tally(e.getKey(), e.getValue()[0]);
+            }
+            crawledBytes.clear();
+            for (int status = 0; status <= MAX_INDEXED_STATUS; status++) {
+                if (statusCodes[status] != 0) {
+                    incrementMapCount(tracker.statusCodeDistribution,
+                            Integer.toString(status), statusCodes[status]);
+                    statusCodes[status] = 0;
+                }
+            }
+            for (Map.Entry<Integer,long[]> e : otherStatusCodes.entrySet()) {
+                incrementMapCount(tracker.statusCodeDistribution,
+                        Integer.toString(e.getKey()), e.getValue()[0]);
+            }
+            otherStatusCodes.clear();
+            for (Map.Entry<String,long[]> e : mimeTypes.entrySet()) {
+                incrementMapCount(tracker.mimeTypeDistribution, e.getKey(), e.getValue()[0]);
+                incrementMapCount(tracker.mimeTypeBytes, e.getKey(), e.getValue()[1]);
+            }
+            mimeTypes.clear();
+            dirty = false;
+        }
+    }
     
     public void crawledURINeedRetry(CrawlURI curi) {
         handleSeed(curi,"Failed to crawl seed, will retry");
@@ -879,6 +1012,7 @@ public class StatisticsTracker
     }
 
     protected File writeReportFile(Report report, boolean force) {
+        mergeThreadTallies();
         File f = new File(getReportsDir().getFile(), report.getFilename());
         
         if(f.exists() && !controller.isRunning() && controller.hasStarted() && !force
@@ -1050,6 +1184,7 @@ public class StatisticsTracker
     // Checkpointable
     public void startCheckpoint(Checkpoint checkpointInProgress) {}
     public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        mergeThreadTallies();
         JSONObject json = new JSONObject();
         try {
             json.put("crawlStartTime",crawlStartTime);
@@ -249,6 +249,9 @@
 							<i>n/a</i>
 							<#else>
 							${job.frontierReport.lastReachedState} - ${job.frontierReport.totalQueues} URI queues: ${job.frontierReport.activeQueues} active (${job.frontierReport.inProcessQueues} in-process; ${job.frontierReport.readyQueues} ready; ${job.frontierReport.snoozedQueues} snoozed); ${job.frontierReport.inactiveQueues} inactive; ${job.frontierReport.ineligibleQueues} ineligible; ${job.frontierReport.retiredQueues} retired; ${job.frontierReport.exhaustedQueues} exhausted
+							<#if job.frontierReport.recovery??>
+							<br/>recovery log import: ${job.frontierReport.recovery.phase} - ${job.frontierReport.recovery.lines} lines<#if job.frontierReport.recovery.totalLines??> of ${job.frontierReport.recovery.totalLines}</#if> (${job.frontierReport.recovery.linesPerSecond} lines/sec)
+							</#if>
 							</#if>
 						</td>
 					</tr>
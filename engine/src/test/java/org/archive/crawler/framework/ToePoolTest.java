@@ -0,0 +1,59 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.framework;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class ToePoolTest {
+
+    @Test
+    public void testVirtualThreadReport() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Thread worker = ToePool.newVirtualThread("ToeThread #1: ", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // ends
+            }
+        });
+        if (Runtime.version().feature() < 21) {
+            assertNull(worker);
+            return;
+        }
+        assertNotNull(worker);
+        worker.start();
+        try {
+            StringWriter sw = new StringWriter();
+            ToeThread.reportThread(worker, new PrintWriter(sw));
+            assertTrue(sw.toString().startsWith("Java Thread State: "), sw.toString());
+            assertTrue(sw.toString().contains("Blocked/Waiting On: NONE"), sw.toString());
+        } finally {
+            release.countDown();
+            worker.join();
+        }
+    }
+}
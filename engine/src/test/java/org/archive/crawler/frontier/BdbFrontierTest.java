@@ -19,7 +19,29 @@
 
 package org.archive.crawler.frontier;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.archive.bdb.BdbModule;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.crawler.framework.CrawlerProcessorTestBase;
+import org.archive.crawler.prefetch.FrontierPreparer;
+import org.archive.crawler.spring.SheetOverlaysManager;
+import org.archive.crawler.util.BdbUriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.support.StaticApplicationContext;
 
 
 /**
@@ -28,7 +50,180 @@ import org.archive.crawler.framework.CrawlerProcessorTestBase;
  */
 public class BdbFrontierTest extends CrawlerProcessorTestBase {
 
-    // TODO TESTME
+    @TempDir
+    File dir;
 
-}
+    BdbModule bdb;
+    BdbUriUniqFilter uuf;
+    BdbFrontier frontier;
+
+    @AfterEach
+    public void tearDown() {
+        if (frontier != null) {
+            frontier.close();
+        }
+        if (bdb != null) {
+            bdb.close();
+        }
+    }
+
+    /**
+     * A frontier, without its manager thread, holding the given number of
+     * URIs of one host.
+     */
+    protected BdbFrontier createFrontier(int maxInFlight, int uris) throws Exception {
+        openFrontier(maxInFlight, null);
+        for (int i = 0; i < uris; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.example.com/" + i));
+            curi.setSeed(true);
+            frontier.schedule(curi);
+        }
+        return frontier;
+    }
+
+    /**
+     * A frontier, without its manager thread, either new or resumed from
+     * the given checkpoint.
+     */
+    protected BdbFrontier openFrontier(int maxInFlight, Checkpoint recovery) throws Exception {
+        bdb = new BdbModule();
+        bdb.setDir(new ConfigPath("bdb", new File(dir, "bdb").getAbsolutePath()));
+        bdb.setRecoveryCheckpoint(recovery);
+        bdb.start();
+        uuf = new BdbUriUniqFilter();
+        uuf.setBeanName("uriUniqFilter");
+        uuf.setBdbModule(bdb);
+        uuf.setRecoveryCheckpoint(recovery);
+        uuf.start();
+        frontier = new BdbFrontier() {
+            @Override
+            protected void log(CrawlURI curi) {
+                // no crawl.log
+            }
+        };
+        frontier.setBeanName("frontier");
+        frontier.setRecoveryCheckpoint(recovery);
+        frontier.setBdbModule(bdb);
+        frontier.setServerCache(new DefaultServerCache());
+        frontier.setSheetOverlaysManager(new SheetOverlaysManager());
+        frontier.setFrontierPreparer(new FrontierPreparer());
+        frontier.setUriUniqFilter(uuf);
+        StaticApplicationContext appCtx = new StaticApplicationContext();
+        appCtx.refresh();
+        frontier.setApplicationContext(appCtx);
+        frontier.setMaxInFlightPerQueue(maxInFlight);
+        uuf.setDestination(frontier);
+        frontier.initInternalQueues();
+        return frontier;
+    }
+
+    /**
+     * Checkpoint the frontier as CheckpointService would, then close it.
+     */
+    protected Checkpoint checkpointAndClose() throws Exception {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.generateFrom(new ConfigPath("checkpoints",
+                new File(dir, "checkpoints").getAbsolutePath()), 1);
+        frontier.startCheckpoint(checkpoint);
+        uuf.doCheckpoint(checkpoint);
+        frontier.doCheckpoint(checkpoint);
+        bdb.doCheckpoint(checkpoint);
+        frontier.finishCheckpoint(checkpoint);
+        frontier.close();
+        bdb.close();
+
+        Checkpoint recovery = new Checkpoint();
+        recovery.setCheckpointDir(new ConfigPath("recover",
+                checkpoint.getCheckpointDir().getFile().getAbsolutePath()));
+        recovery.afterPropertiesSet();
+        return recovery;
+    }
 
+    protected BenchmarkFrontier.Result crawl(String... settings) throws Exception {
+        BenchmarkFrontier benchmark = new BenchmarkFrontier();
+        benchmark.checkDuplicates = true;
+        benchmark.cacheMB = 8;
+        for (String setting : settings) {
+            String[] nameValue = setting.split("=", 2);
+            benchmark.set(nameValue[0], nameValue[1]);
+        }
+        return benchmark.run(dir);
+    }
+
+    protected void finish(CrawlURI curi, long politenessMs) {
+        curi.setFetchStatus(200);
+        curi.setPolitenessDelay(politenessMs);
+        frontier.finished(curi);
+    }
+
+    @Test
+    public void testOneAtATimePerQueue() throws Exception {
+        createFrontier(1, 3);
+        CrawlURI first = frontier.next();
+        assertNull(frontier.findEligibleURI());
+        finish(first, 0);
+        assertNotNull(frontier.next());
+    }
+
+    @Test
+    public void testSeveralInFlightPerQueue() throws Exception {
+        createFrontier(3, 5);
+        Set<String> out = new HashSet<String>();
+        CrawlURI first = frontier.next();
+        out.add(first.getURI());
+        out.add(frontier.next().getURI());
+        out.add(frontier.next().getURI());
+        assertEquals(3, out.size());
+        // at the limit
+        assertNull(frontier.findEligibleURI());
+        finish(first, 0);
+        assertTrue(out.add(frontier.next().getURI()));
+        assertNull(frontier.findEligibleURI());
+    }
+
+    @Test
+    public void testPolitenessDelayWithSeveralInFlight() throws Exception {
+        createFrontier(2, 4);
+        // the only URI out finishes before the slot offered on its emission
+        // is taken: the whole queue waits out the delay
+        CrawlURI first = frontier.next();
+        long start = System.currentTimeMillis();
+        finish(first, 500);
+        CrawlURI second = frontier.next();
+        assertTrue(System.currentTimeMillis() - start >= 500);
+        // with another still out, the freed slot waits out the delay
+        frontier.next();
+        start = System.currentTimeMillis();
+        finish(second, 500);
+        frontier.next();
+        assertTrue(System.currentTimeMillis() - start >= 500);
+    }
+
+    @Test
+    public void testResumeWithSnoozedQueue() throws Exception {
+        createFrontier(1, 2);
+        finish(frontier.next(), 900000);
+        assertNull(frontier.findEligibleURI());
+        Checkpoint recovery = checkpointAndClose();
+
+        // the snoozed queue is among the active ones readied on resume
+        openFrontier(1, recovery);
+        CrawlURI curi = frontier.findEligibleURI();
+        assertNotNull(curi);
+        assertEquals("http://www.example.com/1", curi.getURI());
+    }
+
+    @Test
+    public void testSyntheticWeb() throws Exception {
+        BenchmarkFrontier.Result result = crawl("uris=2000", "hosts=200", "seeds=20",
+                "threads=10", "linksPerPage=10", "errorRate=0");
+        assertTrue(result.fetches >= 2000, "" + result);
+        assertEquals(result.fetches, result.succeeded);
+        assertEquals(0, result.duplicates);
+        // every discovered URI was either fetched or is still queued
+        assertEquals(result.discovered, result.succeeded + result.queued, "" + result);
+        assertTrue(result.queues > 20, "" + result);
+        assertEquals(result.fetches, result.nextNanos.length);
+    }
+}
@@ -19,6 +19,7 @@
 package org.archive.crawler.frontier;
 
 import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.EnvironmentConfig;
 import com.sleepycat.je.tree.Key;
@@ -30,6 +31,7 @@ import org.archive.modules.SchedulingConstants;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.url.URIException;
+import org.archive.util.ArchiveUtils;
 import org.archive.util.Recorder;
 import org.archive.util.bdbje.EnhancedEnvironment;
 import org.junit.jupiter.api.AfterEach;
@@ -40,8 +42,14 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -105,6 +113,9 @@ public class BdbMultipleWorkQueuesTest {
     protected void tearDown() throws Exception {
         if(this.pendingUris!=null)
             this.pendingUris.close();
+        // stop the environment's background threads before removing its files
+        this.db.close();
+        this.env.close();
         if (this.envDir.exists()) {
             FileUtils.deleteDirectory(this.envDir);
         }
@@ -171,6 +182,115 @@ public class BdbMultipleWorkQueuesTest {
         }
     }
 
+    /**
+     * Compact (queue id) keys are 16 bytes, sort in the same order within a
+     * queue as classKey keys, and never fall within a classKey queue's range.
+     */
+    @Test
+    public void testCompactInsertKey() throws URIException {
+        byte[] origin = BdbMultipleWorkQueues.calculateOriginKey(258);
+        assertEquals(258, BdbMultipleWorkQueues.compactKeyQueueId(origin));
+        assertEquals("#258", BdbWorkQueue.getPrefixClassKey(origin));
+
+        CrawlURI curi1 = new CrawlURI(UURIFactory.getInstance("http://archive.org/foo"));
+        curi1.setOrdinal(2);
+        curi1.setClassKey("org,archive,");
+        CrawlURI curi2 = new CrawlURI(UURIFactory.getInstance("http://archive.org/bar"));
+        curi2.setOrdinal(1);
+        curi2.setClassKey("org,archive,");
+        curi2.setSchedulingDirective(SchedulingConstants.HIGH);
+        byte[] key1 = BdbMultipleWorkQueues.calculateInsertKey(origin, curi1).getData();
+        byte[] key2 = BdbMultipleWorkQueues.calculateInsertKey(origin, curi2).getData();
+        assertEquals(16, key1.length);
+        assertTrue(ArchiveUtils.startsWith(key1, origin));
+        assertTrue(BdbMultipleWorkQueues.isCompactKey(key1));
+        assertTrue(Key.compareKeys(key2, key1, null) < 0);
+        assertTrue(Key.compareKeys(origin, key2, null) < 0);
+        assertTrue(Key.compareKeys(key1,
+                BdbMultipleWorkQueues.calculateOriginKey(259), null) < 0);
+
+        // same ordering bytes as the classKey form
+        byte[] legacy = BdbMultipleWorkQueues.calculateInsertKey(curi1).getData();
+        assertFalse(BdbMultipleWorkQueues.isCompactKey(legacy));
+        assertArrayEquals(Arrays.copyOfRange(legacy, legacy.length - 8, legacy.length),
+                Arrays.copyOfRange(key1, 8, 16));
+        assertArrayEquals(legacy, BdbMultipleWorkQueues.calculateInsertKey(
+                BdbMultipleWorkQueues.calculateOriginKey("org,archive,"), curi1).getData());
+    }
+
+    /**
+     * Queues keyed by id and by classKey share one database.
+     */
+    @Test
+    public void testMixedQueues() throws IOException {
+        byte[] legacyOrigin = BdbMultipleWorkQueues.calculateOriginKey("key");
+        byte[] origin0 = BdbMultipleWorkQueues.calculateOriginKey(0);
+        byte[] origin1 = BdbMultipleWorkQueues.calculateOriginKey(1);
+        pendingUris.addCap(legacyOrigin);
+        pendingUris.addCap(origin0);
+        pendingUris.addCap(origin1);
+        for (int i = 0; i < 3; i++) {
+            CrawlURI legacy = makeCrawlURI("http://legacy.example.com/" + i);
+            legacy.setOrdinal(i);
+            pendingUris.put(legacy, false);
+            CrawlURI curi0 = makeCrawlURI("http://zero.example.com/" + i);
+            curi0.setOrdinal(10 + i);
+            pendingUris.put(curi0, false, origin0);
+            CrawlURI curi1 = makeCrawlURI("http://one.example.com/" + i);
+            curi1.setOrdinal(20 - i);
+            pendingUris.put(curi1, false, origin1);
+        }
+        assertEquals("http://legacy.example.com/0",
+                pendingUris.get(new DatabaseEntry(legacyOrigin)).toString());
+        assertEquals("http://zero.example.com/0",
+                pendingUris.get(new DatabaseEntry(origin0)).toString());
+        CrawlURI peeked = pendingUris.get(new DatabaseEntry(origin1));
+        assertEquals("http://one.example.com/2", peeked.toString());
+        assertTrue(ArchiveUtils.startsWith(
+                ((DatabaseEntry) peeked.getHolderKey()).getData(), origin1));
+        pendingUris.delete(peeked);
+        assertEquals("http://one.example.com/1",
+                pendingUris.get(new DatabaseEntry(origin1)).toString());
+    }
+
+    /**
+     * Items already out for crawling are passed over by a get that names
+     * their keys, even when a higher-priority item arrives ahead of them.
+     */
+    @Test
+    public void testGetSkippingKeys() throws IOException {
+        byte[] origin = BdbMultipleWorkQueues.calculateOriginKey(7);
+        pendingUris.addCap(origin);
+        for (int i = 0; i < 3; i++) {
+            CrawlURI curi = makeCrawlURI("http://www.example.com/" + i);
+            curi.setOrdinal(i);
+            pendingUris.put(curi, false, origin);
+        }
+        List<DatabaseEntry> out = new ArrayList<DatabaseEntry>();
+        CrawlURI first = pendingUris.get(new DatabaseEntry(origin), out);
+        assertEquals("http://www.example.com/0", first.toString());
+        out.add((DatabaseEntry) first.getHolderKey());
+        CrawlURI second = pendingUris.get(new DatabaseEntry(origin), out);
+        assertEquals("http://www.example.com/1", second.toString());
+        out.add((DatabaseEntry) second.getHolderKey());
+
+        CrawlURI urgent = makeCrawlURI("http://www.example.com/urgent");
+        urgent.setOrdinal(3);
+        urgent.setSchedulingDirective(SchedulingConstants.HIGH);
+        pendingUris.put(urgent, false, origin);
+        assertEquals("http://www.example.com/urgent",
+                pendingUris.get(new DatabaseEntry(origin), out).toString());
+
+        pendingUris.delete(first);
+        out.remove(0);
+        out.add((DatabaseEntry) urgent.getHolderKey());
+        assertEquals("http://www.example.com/2",
+                pendingUris.get(new DatabaseEntry(origin), out).toString());
+        // unskipped, the queue head is as before
+        assertEquals("http://www.example.com/urgent",
+                pendingUris.get(new DatabaseEntry(origin)).toString());
+    }
+
     @Test
     public void testThreadInterrupt() throws InterruptedException, IOException {
         MockToeThread mockToeThread = new MockToeThread(this.pendingUris, makeCrawlURI("http://www.archive.org"));
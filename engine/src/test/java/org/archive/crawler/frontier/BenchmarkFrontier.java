@@ -0,0 +1,489 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.crawler.prefetch.FrontierPreparer;
+import org.archive.crawler.spring.SheetOverlaysManager;
+import org.archive.crawler.util.BdbUriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.Lifecycle;
+import org.springframework.context.support.StaticApplicationContext;
+
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+
+/**
+ * Drives a {@link BdbFrontier}, with a real {@link BdbModule} and the
+ * chosen {@link UriUniqFilter}, through schedule/next/finished cycles over
+ * a synthetic web: hosts of Zipf-distributed size and popularity, each page
+ * linking mostly within its own host and otherwise to hosts chosen by the
+ * same distribution. Fetching is simulated by worker threads that take
+ * URIs with next(), optionally sleep, mark most of them fetched and a few
+ * failed, schedule the page's links and hand the URI back with
+ * finished(). The graph is a function of the settings alone, so runs with
+ * the same settings are comparable.
+ *
+ * <p>Reports fetches (including retries) per second, next() latency,
+ * BDB cache misses, heap and GC activity.
+ *
+ * <p>Usage: {@code BenchmarkFrontier [name=value ...]}, with names and
+ * defaults: uris=200000 hosts=20000 threads=50 uniqFilter=BdbUriUniqFilter
+ * zipf=1.0 linksPerPage=20 seeds=100 errorRate=0.01 fetchMs=0
+ * politenessMs=0 maxInFlight=1 compactKeys=false cacheMB=64 minRate=0.
+ * With minRate, exits with status 1 if fewer fetches per second than that
+ * were made, for use as a regression check.
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkFrontier {
+
+    protected long uris = 200000;
+    protected int hosts = 20000;
+    protected int threads = 50;
+    protected String uniqFilter = "BdbUriUniqFilter";
+    protected double zipf = 1.0;
+    protected int linksPerPage = 20;
+    protected double localLinkRate = 0.8;
+    protected int seeds = 100;
+    protected double errorRate = 0.01;
+    protected long fetchMs = 0;
+    protected long politenessMs = 0;
+    protected int maxInFlight = 1;
+    protected boolean compactKeys = false;
+    protected int cacheMB = 64;
+    protected double minRate = 0;
+    /** whether to count URIs fetched successfully more than once */
+    protected boolean checkDuplicates = false;
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkFrontier()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        for (String arg : args) {
+            String[] nameValue = arg.split("=", 2);
+            if (nameValue.length != 2) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            set(nameValue[0], nameValue[1]);
+        }
+        System.out.println("uris=" + uris + " hosts=" + hosts + " threads=" + threads
+                + " uniqFilter=" + uniqFilter + " zipf=" + zipf
+                + " linksPerPage=" + linksPerPage + " seeds=" + seeds
+                + " errorRate=" + errorRate + " fetchMs=" + fetchMs
+                + " politenessMs=" + politenessMs + " maxInFlight=" + maxInFlight
+                + " compactKeys=" + compactKeys + " cacheMB=" + cacheMB);
+        File dir = Files.createTempDirectory("frontier-benchmark").toFile();
+        Result result;
+        try {
+            result = run(dir);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+        System.out.println(result);
+        if (minRate > 0 && result.fetchesPerSecond() < minRate) {
+            System.out.println("FAIL: below minRate " + minRate);
+            System.exit(1);
+        }
+    }
+
+    protected void set(String name, String value) {
+        switch (name) {
+        case "uris": uris = Long.parseLong(value); break;
+        case "hosts": hosts = Integer.parseInt(value); break;
+        case "threads": threads = Integer.parseInt(value); break;
+        case "uniqFilter": uniqFilter = value; break;
+        case "zipf": zipf = Double.parseDouble(value); break;
+        case "linksPerPage": linksPerPage = Integer.parseInt(value); break;
+        case "seeds": seeds = Integer.parseInt(value); break;
+        case "errorRate": errorRate = Double.parseDouble(value); break;
+        case "fetchMs": fetchMs = Long.parseLong(value); break;
+        case "politenessMs": politenessMs = Long.parseLong(value); break;
+        case "maxInFlight": maxInFlight = Integer.parseInt(value); break;
+        case "compactKeys": compactKeys = Boolean.parseBoolean(value); break;
+        case "cacheMB": cacheMB = Integer.parseInt(value); break;
+        case "minRate": minRate = Double.parseDouble(value); break;
+        default: throw new IllegalArgumentException("unknown setting: " + name);
+        }
+    }
+
+    /**
+     * Hosts and pages of the synthetic web. Host h has popularity
+     * proportional to 1/(h+1)^zipf, and a number of pages in the same
+     * proportion; the links of each page are fixed by a generator seeded
+     * from the page.
+     */
+    protected static class SyntheticWeb {
+        static final String[] TLDS = {"com", "org", "net", "de", "co.uk"};
+        final double[] cumulative;
+        final int[] pages;
+        final int linksPerPage;
+        final double localLinkRate;
+
+        SyntheticWeb(int hosts, double zipf, long totalPages, int linksPerPage,
+                double localLinkRate) {
+            this.cumulative = new double[hosts];
+            this.pages = new int[hosts];
+            this.linksPerPage = linksPerPage;
+            this.localLinkRate = localLinkRate;
+            double sum = 0;
+            for (int h = 0; h < hosts; h++) {
+                sum += 1 / Math.pow(h + 1, zipf);
+                cumulative[h] = sum;
+            }
+            for (int h = 0; h < hosts; h++) {
+                double weight = (1 / Math.pow(h + 1, zipf)) / sum;
+                cumulative[h] /= sum;
+                pages[h] = (int) Math.max(5, Math.min(Integer.MAX_VALUE, totalPages * weight));
+            }
+        }
+
+        int pickHost(Random random) {
+            int h = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(cumulative.length - 1, (h < 0) ? -h - 1 : h);
+        }
+
+        String uri(int host, int page) {
+            return "http://www.site" + host + ".example." + TLDS[host % TLDS.length]
+                    + "/p/" + page + ".html";
+        }
+
+        /**
+         * Adds the links of the page with the given URI (as made by
+         * {@link #uri(int, int)}).
+         */
+        void linksFrom(String uri, List<String> into) {
+            int hostStart = uri.indexOf("site") + 4;
+            int host = Integer.parseInt(uri.substring(hostStart, uri.indexOf('.', hostStart)));
+            int pageStart = uri.lastIndexOf('/') + 1;
+            int page = Integer.parseInt(uri.substring(pageStart, uri.length() - 5));
+            Random random = new Random(((long) host << 32) ^ page);
+            for (int i = 0; i < linksPerPage; i++) {
+                int h = (random.nextDouble() < localLinkRate) ? host : pickHost(random);
+                into.add(uri(h, random.nextInt(pages[h])));
+            }
+        }
+    }
+
+    /** measurements of one run */
+    public static class Result {
+        long fetches;
+        long succeeded;
+        long duplicates;
+        long elapsedNanos;
+        long[] nextNanos;
+        int maxInFlightSeen;
+        long discovered;
+        long queued;
+        long queues;
+        long cacheMisses;
+        long cacheFetches;
+        long heapPeakBytes;
+        long heapAfterGcBytes;
+        long gcCount;
+        long gcMillis;
+
+        double fetchesPerSecond() {
+            return fetches / (elapsedNanos / 1e9);
+        }
+
+        double nextMillisAt(double percentile) {
+            if (nextNanos.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.min(nextNanos.length - 1, Math.floor(percentile * nextNanos.length));
+            return nextNanos[i] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d fetches (%d succeeded) in %.1fs: %.0f URIs/s%n"
+                    + "next() ms: p50 %.3f p99 %.3f max %.1f%n"
+                    + "%d discovered, %d still queued, %d queues, most in flight from one queue %d%n"
+                    + "bdb cache: %d misses of %d fetches (%.1f%% hit rate)%n"
+                    + "heap: peak %d MB, %d MB after gc; gc: %d collections, %d ms",
+                    fetches, succeeded, elapsedNanos / 1e9, fetchesPerSecond(),
+                    nextMillisAt(0.5), nextMillisAt(0.99), nextMillisAt(1),
+                    discovered, queued, queues, maxInFlightSeen,
+                    cacheMisses, cacheFetches,
+                    100.0 * (cacheFetches - cacheMisses) / Math.max(1, cacheFetches),
+                    heapPeakBytes >> 20, heapAfterGcBytes >> 20, gcCount, gcMillis);
+        }
+    }
+
+    protected UriUniqFilter createUriUniqFilter(BdbModule bdb) throws Exception {
+        String className = uniqFilter.contains(".") ? uniqFilter
+                : "org.archive.crawler.util." + uniqFilter;
+        UriUniqFilter uuf = (UriUniqFilter) Class.forName(className)
+                .getDeclaredConstructor().newInstance();
+        if (uuf instanceof BdbUriUniqFilter) {
+            ((BdbUriUniqFilter) uuf).setBdbModule(bdb);
+        }
+        if (uuf instanceof InitializingBean) {
+            ((InitializingBean) uuf).afterPropertiesSet();
+        }
+        if (uuf instanceof Lifecycle) {
+            ((Lifecycle) uuf).start();
+        }
+        return uuf;
+    }
+
+    protected BdbFrontier createFrontier(BdbModule bdb, UriUniqFilter uuf) throws Exception {
+        BdbFrontier frontier = new BdbFrontier() {
+            @Override
+            protected void log(CrawlURI curi) {
+                // no crawl.log
+            }
+        };
+        frontier.setBdbModule(bdb);
+        frontier.setServerCache(new DefaultServerCache());
+        frontier.setSheetOverlaysManager(new SheetOverlaysManager());
+        frontier.setFrontierPreparer(new FrontierPreparer());
+        frontier.setUriUniqFilter(uuf);
+        StaticApplicationContext appCtx = new StaticApplicationContext();
+        appCtx.refresh();
+        frontier.setApplicationContext(appCtx);
+        frontier.setCompactQueueKeys(compactKeys);
+        frontier.setMaxInFlightPerQueue(maxInFlight);
+        frontier.setRetryDelaySeconds(1);
+        // as start(), without the manager thread, which only waits on
+        // state changes
+        uuf.setDestination(frontier);
+        frontier.initInternalQueues();
+        return frontier;
+    }
+
+    /**
+     * Runs the benchmark with state kept under the given directory.
+     */
+    public Result run(File dir) throws Exception {
+        BdbModule bdb = new BdbModule();
+        bdb.setDir(new ConfigPath("bdb", new File(dir, "bdb").getAbsolutePath()));
+        bdb.setCacheSize(cacheMB * 1024 * 1024);
+        bdb.start();
+        UriUniqFilter uuf = createUriUniqFilter(bdb);
+        final BdbFrontier frontier = createFrontier(bdb, uuf);
+        final SyntheticWeb web = new SyntheticWeb(hosts, zipf, uris * 4,
+                linksPerPage, localLinkRate);
+        try {
+            for (int s = 0; s < Math.min(seeds, hosts); s++) {
+                CrawlURI seed = new CrawlURI(UURIFactory.getInstance(web.uri(s, 0)));
+                seed.setSeed(true);
+                frontier.schedule(seed);
+            }
+            return run(frontier, web, bdb);
+        } finally {
+            frontier.close();
+            bdb.close();
+        }
+    }
+
+    protected Result run(final BdbFrontier frontier, final SyntheticWeb web,
+            BdbModule bdb) throws Exception {
+        final AtomicLong fetches = new AtomicLong();
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        final AtomicInteger maxInFlightSeen = new AtomicInteger();
+        final ConcurrentHashMap<String,AtomicInteger> inFlight =
+                new ConcurrentHashMap<String,AtomicInteger>();
+        final Set<String> fetched = checkDuplicates
+                ? ConcurrentHashMap.<String>newKeySet() : null;
+        final long[][] nextNanos = new long[threads][];
+        final int[] nextCounts = new int[threads];
+        final AtomicIntegerArray inNext = new AtomicIntegerArray(threads);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        bdb.getEnvironmentStats(new StatsConfig().setClear(true));
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            nextNanos[id] = new long[1024];
+            workers[t] = new Thread("BenchmarkFrontier worker " + t) {
+                @Override
+                public void run() {
+                    Random random = new Random(id);
+                    List<String> links = new ArrayList<String>(linksPerPage);
+                    while (!done.get()) {
+                        long startTime = System.nanoTime();
+                        CrawlURI curi;
+                        inNext.set(id, 1);
+                        try {
+                            curi = frontier.next();
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                        inNext.set(id, 0);
+                        if (nextCounts[id] == nextNanos[id].length) {
+                            nextNanos[id] = Arrays.copyOf(nextNanos[id], nextCounts[id] * 2);
+                        }
+                        nextNanos[id][nextCounts[id]++] = System.nanoTime() - startTime;
+                        AtomicInteger queueInFlight = inFlight.computeIfAbsent(
+                                curi.getClassKey(), k -> new AtomicInteger());
+                        maxInFlightSeen.accumulateAndGet(
+                                queueInFlight.incrementAndGet(), Math::max);
+                        try {
+                            if (fetchMs > 0) {
+                                Thread.sleep(fetchMs);
+                            }
+                            if (random.nextDouble() < errorRate) {
+                                curi.setFetchStatus(S_CONNECT_FAILED);
+                            } else {
+                                curi.setFetchStatus(200);
+                                curi.setContentSize(10000);
+                                links.clear();
+                                web.linksFrom(curi.getURI(), links);
+                                for (String link : links) {
+                                    frontier.schedule(curi.createCrawlURI(
+                                            link, LinkContext.NAVLINK_MISC, Hop.NAVLINK));
+                                }
+                                succeeded.incrementAndGet();
+                                if (fetched != null && !fetched.add(curi.getURI())) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                        curi.setPolitenessDelay(politenessMs);
+                        queueInFlight.decrementAndGet();
+                        frontier.finished(curi);
+                        fetches.incrementAndGet();
+                    }
+                }
+            };
+        }
+
+        long startTime = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        while (fetches.get() < uris && !frontier.isEmpty()) {
+            Thread.sleep(20);
+        }
+        done.set(true);
+        // as when pausing: once the lock is held, workers calling next()
+        // wait on it, and may be interrupted there without disturbing bdb;
+        // one just returned from next() is running, not waiting
+        frontier.outboundLock.writeLock().lock();
+        try {
+            for (int t = 0; t < threads; t++) {
+                while (workers[t].isAlive()) {
+                    if (inNext.get(t) == 1
+                            && workers[t].getState() == Thread.State.WAITING) {
+                        workers[t].interrupt();
+                    }
+                    workers[t].join(50);
+                }
+            }
+        } finally {
+            frontier.outboundLock.writeLock().unlock();
+        }
+
+        Result result = new Result();
+        result.elapsedNanos = System.nanoTime() - startTime;
+        result.fetches = fetches.get();
+        result.succeeded = succeeded.get();
+        result.duplicates = duplicates.get();
+        result.maxInFlightSeen = maxInFlightSeen.get();
+        int total = 0;
+        for (int count : nextCounts) {
+            total += count;
+        }
+        result.nextNanos = new long[total];
+        int offset = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(nextNanos[t], 0, result.nextNanos, offset, nextCounts[t]);
+            offset += nextCounts[t];
+        }
+        Arrays.sort(result.nextNanos);
+        result.discovered = frontier.discoveredUriCount();
+        result.queued = frontier.queuedUriCount();
+        result.queues = frontier.allQueues.size();
+
+        EnvironmentStats stats = bdb.getEnvironmentStats(new StatsConfig());
+        result.cacheMisses = stats.getNLNsFetchMiss() + stats.getNBINsFetchMiss()
+                + stats.getNUpperINsFetchMiss();
+        result.cacheFetches = stats.getNLNsFetch() + stats.getNBINsFetch()
+                + stats.getNUpperINsFetch();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                result.heapPeakBytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.gc();
+        result.heapAfterGcBytes = ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage().getUsed();
+        result.gcCount = gcCount() - gcCountBefore;
+        result.gcMillis = gcMillis() - gcMillisBefore;
+        return result;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.je.BtreeStats;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
+
+/**
+ * Compares the pending-URIs database with queues keyed by classKey and
+ * by integer queue id ({@link BdbFrontier#getCompactQueueKeys()}): the
+ * size of the database and its internal nodes after enqueueing URIs over
+ * many queues, and the BDB cache hit rate for internal nodes while then
+ * dequeueing half of them from randomly chosen queues.
+ *
+ * <p>Usage: {@code BenchmarkQueueKeys [uris] [queues] [cacheBytes]}
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkQueueKeys {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkQueueKeys()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int uris = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        int queues = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        long cacheBytes = (args.length > 2) ? Long.parseLong(args[2]) : 8 * 1024 * 1024;
+        System.out.println("uris=" + uris + " queues=" + queues + " cacheBytes=" + cacheBytes);
+
+        Random random = new Random(0);
+        String[] classKeys = new String[queues];
+        for (int q = 0; q < queues; q++) {
+            classKeys[q] = "com,example-" + Integer.toString(random.nextInt(1 << 30), 36)
+                    + ",subdomain" + q + ",www,";
+        }
+        List<CrawlURI> curis = new ArrayList<CrawlURI>(uris);
+        int[] queueOf = new int[uris];
+        for (int i = 0; i < uris; i++) {
+            int q = random.nextInt(queues);
+            queueOf[i] = q;
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.subdomain" + q + ".example.com/path/" + i + ".html"));
+            curi.setClassKey(classKeys[q]);
+            curi.setOrdinal(i);
+            curis.add(curi);
+        }
+
+        File dir = Files.createTempDirectory("queue-keys-benchmark").toFile();
+        try {
+            for (boolean compact : new boolean[] {false, true}) {
+                File envDir = new File(dir, compact ? "compact" : "classkey");
+                envDir.mkdirs();
+                EnvironmentConfig envConfig = new EnvironmentConfig();
+                envConfig.setAllowCreate(true);
+                envConfig.setTransactional(false);
+                envConfig.setCacheSize(cacheBytes);
+                EnhancedEnvironment env = new EnhancedEnvironment(envDir, envConfig);
+                BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+                dbConfig.setAllowCreate(true);
+                Database db = env.openDatabase(null, "pending", dbConfig.toDatabaseConfig());
+                BdbMultipleWorkQueues pendingUris = new BdbMultipleWorkQueues(db, env.getClassCatalog());
+
+                byte[][] origins = new byte[queues][];
+                long[] counts = new long[queues];
+                for (int q = 0; q < queues; q++) {
+                    origins[q] = compact
+                            ? BdbMultipleWorkQueues.calculateOriginKey(q)
+                            : BdbMultipleWorkQueues.calculateOriginKey(classKeys[q]);
+                    pendingUris.addCap(origins[q]);
+                }
+
+                System.gc();
+                long startTime = System.nanoTime();
+                for (int i = 0; i < uris; i++) {
+                    CrawlURI curi = curis.get(i);
+                    curi.setHolderKey(null);
+                    pendingUris.put(curi, false, origins[queueOf[i]]);
+                    counts[queueOf[i]]++;
+                }
+                db.sync();
+                long putTime = System.nanoTime() - startTime;
+                long envBytes = FileUtils.sizeOfDirectory(envDir);
+                BtreeStats btree = (BtreeStats) db.getStats(new StatsConfig().setFast(false));
+
+                StatsConfig clear = new StatsConfig().setClear(true);
+                env.getStats(clear);
+                startTime = System.nanoTime();
+                int dequeued = 0;
+                while (dequeued < uris / 2) {
+                    int q = random.nextInt(queues);
+                    if (counts[q] == 0) {
+                        continue;
+                    }
+                    CrawlURI curi = pendingUris.get(new DatabaseEntry(origins[q]));
+                    pendingUris.delete(curi);
+                    counts[q]--;
+                    dequeued++;
+                }
+                long getTime = System.nanoTime() - startTime;
+                EnvironmentStats stats = env.getStats(clear);
+                long fetches = stats.getNBINsFetch() + stats.getNUpperINsFetch();
+                long misses = stats.getNBINsFetchMiss() + stats.getNUpperINsFetchMiss();
+
+                db.close();
+                env.close();
+                System.out.printf("%-8s put %9.0f/s  get+delete %9.0f/s  %6.1f env bytes/uri"
+                        + "  %6d INs %6d BINs  IN hit rate %5.1f%% (%d misses)%n",
+                        compact ? "compact" : "classkey",
+                        uris / (putTime / 1e9), dequeued / (getTime / 1e9),
+                        envBytes / (double) uris,
+                        btree.getInternalNodeCount(), btree.getBottomInternalNodeCount(),
+                        100.0 * (fetches - misses) / Math.max(1, fetches), misses);
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -18,13 +18,20 @@
  */
 package org.archive.crawler.frontier;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import org.archive.url.URIException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 /**
  * @author stack
@@ -61,4 +68,30 @@ public class FrontierJournalTest {
         */
     }
 
+    @Test
+    public void testReplayLog() throws Exception {
+        FrontierJournal journal = new FrontierJournal(
+                tempDir.toAbsolutePath().toString(), FrontierJournal.LOGNAME_RECOVER);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5432; i++) {
+            String uri = "http://example" + (i % 7) + ".com/" + i;
+            journal.writeLine(FrontierJournal.F_ADD, uri, " L http://example.com/");
+            if (i % 3 == 0) {
+                journal.writeLine(FrontierJournal.F_SUCCESS, uri, " L http://example.com/");
+                expected.add(uri);
+            }
+            journal.writeLine("x");
+        }
+        journal.close();
+
+        File source = new File(tempDir.toFile(), FrontierJournal.LOGNAME_RECOVER);
+        final List<String> replayed = new ArrayList<String>();
+        FrontierJournal.RecoveryProgress progress = new FrontierJournal.RecoveryProgress();
+        long lines = FrontierJournal.replayLog(source, Set.of(FrontierJournal.F_SUCCESS),
+                null, 3, progress, (line, curi) -> replayed.add(curi.toString()), () -> {});
+        assertEquals(lines, progress.getLines());
+        // plus the journal's own timestamp lines
+        assertTrue(lines >= 5432 * 2 + expected.size(), "lines " + lines);
+        assertEquals(expected, replayed);
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.junit.jupiter.api.Test;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Tests of a {@link WorkQueue} handing out several URIs at once.
+ */
+public class WorkQueueTest {
+
+    /**
+     * A BdbWorkQueue of three URIs of www.example.com, as written by
+     * {@link KryoBinding} before queues could have several URIs out.
+     */
+    protected static final String LEGACY_BDB_WORK_QUEUE =
+            "AGNvbSxleGFtcGxlLHd3d6wABgYAAAEAAIBodHRwOi8vd3d3LmV4YW1wbGUuY29tL7ISY29tLGV4YW1wbGUsd3d3LAAOBgDwLgwBAICABAYAAQAA";
+
+    /** a queue held in a list, in insertion order */
+    static class ListWorkQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+        List<CrawlURI> items = new ArrayList<CrawlURI>();
+
+        ListWorkQueue() {
+            super("www.example.com:80");
+        }
+
+        @Override
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean overwriteIfPresent) {
+            if (!items.contains(curi)) {
+                items.add(curi);
+            }
+        }
+
+        @Override
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) {
+            return 0;
+        }
+
+        @Override
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item) {
+            items.remove(item);
+        }
+
+        @Override
+        protected CrawlURI peekItem(WorkQueueFrontier frontier) {
+            return peekItemExcluding(frontier, Collections.<CrawlURI>emptyList());
+        }
+
+        @Override
+        protected CrawlURI peekItemExcluding(WorkQueueFrontier frontier,
+                List<CrawlURI> excluded) {
+            for (CrawlURI curi : items) {
+                if (!excluded.contains(curi)) {
+                    return curi;
+                }
+            }
+            return null;
+        }
+    }
+
+    protected ListWorkQueue makeQueue(int count) throws Exception {
+        ListWorkQueue wq = new ListWorkQueue();
+        for (int i = 0; i < count; i++) {
+            wq.enqueue(null, new CrawlURI(
+                    UURIFactory.getInstance("http://www.example.com/" + i)));
+        }
+        return wq;
+    }
+
+    @Test
+    public void testOneAtATimeByDefault() throws Exception {
+        ListWorkQueue wq = makeQueue(3);
+        assertTrue(wq.isOneAtATime());
+        assertEquals(1, wq.getInFlightLimit());
+        CrawlURI head = wq.peek(null);
+        assertEquals(head, wq.peek(null));
+        assertEquals(0, wq.getInFlightCount());
+        assertFalse(wq.isInFlight(head));
+        wq.dequeue(null, head);
+        assertEquals(2, wq.getCount());
+        assertEquals("http://www.example.com/1", wq.peek(null).toString());
+    }
+
+    @Test
+    public void testSeveralInFlight() throws Exception {
+        ListWorkQueue wq = makeQueue(4);
+        wq.setMaxInFlight(3, false);
+        assertFalse(wq.isOneAtATime());
+
+        CrawlURI first = wq.takeNext(null);
+        CrawlURI second = wq.takeNext(null);
+        assertEquals("http://www.example.com/0", first.toString());
+        assertEquals("http://www.example.com/1", second.toString());
+        assertTrue(wq.isInFlight(first));
+        assertTrue(wq.hasFreeSlot());
+        CrawlURI third = wq.takeNext(null);
+        assertEquals(3, wq.getInFlightCount());
+        assertFalse(wq.hasFreeSlot());
+        assertNull(wq.takeNext(null));
+        // still stored until finished
+        assertEquals(4, wq.getCount());
+
+        // the second finishes first
+        wq.dequeue(null, second);
+        assertEquals(3, wq.getCount());
+        assertEquals(2, wq.getInFlightCount());
+        assertFalse(wq.isInFlight(second));
+        assertTrue(wq.hasFreeSlot());
+        assertEquals("http://www.example.com/3", wq.takeNext(null).toString());
+
+        // a retry is handed out again after the others
+        wq.unpeek(third);
+        assertEquals(2, wq.getInFlightCount());
+        assertEquals(third, wq.takeNext(null));
+        assertNull(wq.takeNext(null));
+    }
+
+    @Test
+    public void testPrerequisiteHoldsSlots() throws Exception {
+        ListWorkQueue wq = makeQueue(3);
+        wq.setMaxInFlight(3, false);
+        CrawlURI dns = wq.takeNext(null);
+        dns.setPrerequisite(true);
+        assertFalse(wq.hasFreeSlot());
+        wq.dequeue(null, dns);
+        assertTrue(wq.hasFreeSlot());
+    }
+
+    @Test
+    public void testAdaptiveLimit() throws Exception {
+        ListWorkQueue wq = makeQueue(0);
+        wq.setMaxInFlight(4, true);
+        assertEquals(1, wq.getInFlightLimit());
+        // one more after each round of successes
+        wq.noteInFlightOutcome(false);
+        assertEquals(2, wq.getInFlightLimit());
+        wq.noteInFlightOutcome(false);
+        assertEquals(2, wq.getInFlightLimit());
+        wq.noteInFlightOutcome(false);
+        assertEquals(3, wq.getInFlightLimit());
+        for (int i = 0; i < 10; i++) {
+            wq.noteInFlightOutcome(false);
+        }
+        assertEquals(4, wq.getInFlightLimit());
+        // halved on a server error
+        wq.noteInFlightOutcome(true);
+        assertEquals(2, wq.getInFlightLimit());
+        wq.noteInFlightOutcome(true);
+        wq.noteInFlightOutcome(true);
+        assertEquals(1, wq.getInFlightLimit());
+
+        // a lowered maximum takes effect at once
+        for (int i = 0; i < 10; i++) {
+            wq.noteInFlightOutcome(false);
+        }
+        wq.setMaxInFlight(2, true);
+        assertEquals(2, wq.getInFlightLimit());
+        wq.setMaxInFlight(5, false);
+        assertEquals(5, wq.getInFlightLimit());
+    }
+
+    @Test
+    public void testKryoLegacyRecord() throws Exception {
+        byte[] legacy = Base64.getDecoder().decode(LEGACY_BDB_WORK_QUEUE);
+        KryoBinding<BdbWorkQueue> binding = new KryoBinding<BdbWorkQueue>(BdbWorkQueue.class);
+        BdbWorkQueue wq = binding.entryToObject(new DatabaseEntry(legacy));
+        assertEquals("com,example,www,", wq.getClassKey());
+        assertEquals(3, wq.getCount());
+        assertTrue(wq.isOneAtATime());
+        assertEquals(1, wq.getInFlightLimit());
+
+        // the stored layout is unchanged
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(wq, entry);
+        assertArrayEquals(legacy, Arrays.copyOfRange(entry.getData(),
+                entry.getOffset(), entry.getOffset() + entry.getSize()));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.CrawlURI.FetchType;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.Base32;
+import org.archive.util.MimetypeUtils;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+public class CrawlLogEncoderTest {
+
+    protected CrawlURI crawlUri() throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/aé"),
+                "LLE", UURIFactory.getInstance("http://example.com/"), LinkContext.NAVLINK_MISC);
+        curi.setFetchType(FetchType.HTTP_GET);
+        curi.setFetchStatus(200);
+        curi.setContentSize(1234);
+        curi.setContentType("text/html; charset=utf-8");
+        curi.setThreadNumber(7);
+        curi.setFetchBeginTime(1500000000007l);
+        curi.setFetchCompletedTime(1500000000328l);
+        curi.setContentDigest("sha1", new byte[20]);
+        curi.getAnnotations().add("duplicate:digest");
+        curi.getAnnotations().add("3t");
+        curi.getExtraInfo().put("warcFilename", "a.warc.gz");
+        curi.getExtraInfo().put("warcFileOffset", 12345l);
+        curi.getExtraInfo().put("note", "</script> \"");
+        return curi;
+    }
+
+    @Test
+    public void testText() throws Exception {
+        CrawlURI curi = crawlUri();
+        String line = CrawlLogEncoder.get().encodeText(curi, 1500000000123l, true).toString();
+        assertEquals("2017-07-14T02:40:00.123Z   200          0 http://example.com/a%C3%A9 LLE "
+                + "http://example.com/ text/html #007 20170714024000007+321 "
+                + "sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA - duplicate:digest,3t "
+                + curi.getExtraInfo() + "\n", line);
+
+        curi = new CrawlURI(UURIFactory.getInstance("dns:example.com"));
+        curi.setFetchStatus(-6);
+        curi.setThreadNumber(1234);
+        line = CrawlLogEncoder.get().encodeText(curi, 1500000000123l, false).toString();
+        assertEquals("2017-07-14T02:40:00.123Z    -6          - dns:example.com - - unknown #1234 - - - -\n", line);
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        CrawlURI curi = crawlUri();
+        CrawlLogEncoder encoder = CrawlLogEncoder.get();
+        encoder.encodeJson(curi, 1500000000123l, Map.of("crawl", "test"), new DefaultServerCache());
+        byte[] bytes = encoder.toUtf8();
+        String json = encoder.buffer().toString();
+        assertEquals(json, new String(bytes, StandardCharsets.UTF_8));
+        assertTrue(json.contains(JSONObject.quote("</script> \"")), json);
+
+        JSONObject jo = new JSONObject(json);
+        assertEquals("2017-07-14T02:40:00.123Z", jo.get("timestamp"));
+        assertEquals("test", jo.get("crawl"));
+        assertEquals(0, jo.getLong("content_length"));
+        assertEquals(1234, jo.getLong("size"));
+        assertEquals(200, jo.getInt("status_code"));
+        assertEquals("http://example.com/a%C3%A9", jo.get("url"));
+        assertEquals("text/html", jo.get("mimetype"));
+        assertEquals("20170714024000007+321", jo.get("start_time_plus_duration"));
+        assertEquals("sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", jo.get("content_digest"));
+        assertEquals(JSONObject.NULL, jo.get("seed"));
+        assertEquals("example.com", jo.get("host"));
+        assertEquals("duplicate:digest,3t", jo.get("annotations"));
+        assertEquals("a.warc.gz", jo.get("warc_filename"));
+        assertEquals(12345, jo.getLong("warc_offset"));
+        assertTrue(new JSONObject(Map.of("note", "</script> \""))
+                .similar(jo.get("extra_info")), json);
+    }
+
+    @Test
+    public void testJsonMimetypeEscaped() throws Exception {
+        CrawlURI curi = crawlUri();
+        curi.setContentType("te\"xt\\html; charset=utf-8");
+        CrawlLogEncoder encoder = CrawlLogEncoder.get();
+        encoder.encodeJson(curi, 1500000000123l, Map.of(), new DefaultServerCache());
+        String json = encoder.buffer().toString();
+        JSONObject jo = new JSONObject(json);
+        assertEquals("te\"xt\\html", jo.get("mimetype"));
+    }
+
+    @Test
+    public void testMatchesArchiveUtils() throws Exception {
+        Random random = new Random(40);
+        CrawlLogEncoder encoder = CrawlLogEncoder.get();
+        String[] contentTypes = { null, "", ";x", "text/html\nfoo", "a,b", " a", "image/png" };
+        for (int i = 0; i < 1000; i++) {
+            long time = 1000000000000l + (random.nextLong() & 0xffffffffffl);
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+            byte[] digest = new byte[i % 33];
+            random.nextBytes(digest);
+            curi.setContentDigest("sha" + i, digest);
+            curi.setContentType(contentTypes[i % contentTypes.length]);
+            curi.setFetchBeginTime(time);
+            curi.setFetchCompletedTime(time);
+
+            String line = encoder.encodeText(curi, time, false).toString();
+            String[] fields = line.split(" +");
+            assertEquals(ArchiveUtils.getLog17Date(time), fields[0]);
+            assertEquals(MimetypeUtils.truncate(curi.getContentType()), fields[6]);
+            assertEquals(ArchiveUtils.get17DigitDate(time) + "+0", fields[8]);
+            assertEquals("sha" + i + ":" + Base32.encode(digest), fields[9]);
+        }
+    }
+}
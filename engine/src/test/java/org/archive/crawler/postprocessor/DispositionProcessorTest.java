@@ -0,0 +1,178 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.postprocessor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.archive.crawler.reporting.PolitenessReport;
+import org.archive.crawler.reporting.StatisticsTracker;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.net.CrawlServer;
+import org.archive.modules.net.ServerPoliteness;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Drives {@link DispositionProcessor}'s politeness delays against a
+ * simulated server on a simulated clock.
+ */
+public class DispositionProcessorTest {
+
+    @TempDir
+    File tempDir;
+
+    /**
+     * A server that answers in {@link #fetchMs}, but while overloaded
+     * refuses most requests (a quick 503) that come sooner than
+     * {@link #capacityMs} after the previous one.
+     */
+    static class SimulatedServer {
+        final Random random = new Random(0);
+        long fetchMs = 300;
+        long capacityMs = 0;
+        long lastRequest = Long.MIN_VALUE / 2;
+
+        int fetch(long now) {
+            boolean tooSoon = now - lastRequest < capacityMs;
+            lastRequest = now;
+            return (tooSoon && random.nextDouble() < 0.7) ? 503 : 200;
+        }
+    }
+
+    /** outcome of a simulated run */
+    static class Run {
+        long now = 0;
+        int fetches = 0;
+        int errors = 0;
+        long lastDelay = -1;
+    }
+
+    protected DispositionProcessor makeProcessor(DefaultServerCache serverCache,
+            boolean adaptive) {
+        DispositionProcessor processor = new DispositionProcessor();
+        processor.setServerCache(serverCache);
+        processor.setRespectCrawlDelayUpToSeconds(0);
+        processor.setAdaptivePoliteness(adaptive);
+        return processor;
+    }
+
+    protected void crawl(DispositionProcessor processor, SimulatedServer server,
+            Run run, int fetches) throws Exception {
+        for (int i = 0; i < fetches; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.example.com/" + run.fetches));
+            int status = server.fetch(run.now);
+            long took = (status == 503) ? 50 : server.fetchMs;
+            curi.setFetchStatus(status);
+            curi.setFetchBeginTime(run.now);
+            curi.setFetchCompletedTime(run.now + took);
+            run.lastDelay = processor.politenessDelayFor(curi);
+            run.now += took + run.lastDelay;
+            run.fetches++;
+            if (status == 503) {
+                run.errors++;
+            }
+        }
+    }
+
+    @Test
+    public void testBacksOffOverloadedServer() throws Exception {
+        Run classic = new Run();
+        SimulatedServer server = new SimulatedServer();
+        server.capacityMs = 5000;
+        crawl(makeProcessor(new DefaultServerCache(), false), server, classic, 200);
+        // the delay follows the quick refusals, and the server keeps refusing
+        assertEquals(3000, classic.lastDelay);
+        assertTrue(classic.errors > 100, "classic errors " + classic.errors);
+
+        Run adaptive = new Run();
+        server = new SimulatedServer();
+        server.capacityMs = 5000;
+        DefaultServerCache serverCache = new DefaultServerCache();
+        DispositionProcessor processor = makeProcessor(serverCache, true);
+        crawl(processor, server, adaptive, 200);
+        assertTrue(adaptive.errors < 40, "adaptive errors " + adaptive.errors);
+        // a few refusals early on, then hovering around the capacity
+        assertTrue(adaptive.now / adaptive.fetches > 4000,
+                "mean interval " + adaptive.now / adaptive.fetches);
+
+        CrawlServer crawlServer = serverCache.getServerFor("www.example.com");
+        ServerPoliteness politeness = crawlServer.getPoliteness();
+        assertEquals(200, politeness.getSamples());
+        assertEquals(adaptive.errors, politeness.getBackoffs());
+        assertEquals(adaptive.lastDelay, politeness.getDelayMs());
+
+        // load gone: the delay comes back down to the floor
+        server.capacityMs = 0;
+        crawl(processor, server, adaptive, 100);
+        assertEquals(3000, adaptive.lastDelay);
+    }
+
+    @Test
+    public void testFollowsSmoothedDuration() throws Exception {
+        DefaultServerCache serverCache = new DefaultServerCache();
+        DispositionProcessor processor = makeProcessor(serverCache, true);
+        SimulatedServer server = new SimulatedServer();
+        Run run = new Run();
+        crawl(processor, server, run, 20);
+        assertEquals(3000, run.lastDelay);
+
+        // a slower server is given delayFactor times its smoothed duration
+        server.fetchMs = 2000;
+        crawl(processor, server, run, 1);
+        assertTrue(run.lastDelay > 3000 && run.lastDelay < 10000, "delay " + run.lastDelay);
+        crawl(processor, server, run, 50);
+        assertTrue(run.lastDelay > 9900 && run.lastDelay <= 10000, "delay " + run.lastDelay);
+    }
+
+    @Test
+    public void testClassicKeepsNoState() throws Exception {
+        DefaultServerCache serverCache = new DefaultServerCache();
+        crawl(makeProcessor(serverCache, false), new SimulatedServer(), new Run(), 5);
+        assertNull(serverCache.getServerFor("www.example.com").getPoliteness());
+    }
+
+    @Test
+    public void testPolitenessReport() throws Exception {
+        DefaultServerCache serverCache = new DefaultServerCache();
+        DispositionProcessor processor = makeProcessor(serverCache, true);
+        crawl(processor, new SimulatedServer(), new Run(), 3);
+        serverCache.getServerFor("other.example.com");
+
+        StatisticsTracker stats = new StatisticsTracker();
+        stats.setReportsDir(new ConfigPath("reports", tempDir.getAbsolutePath()));
+        stats.setServerCache(serverCache);
+        StringWriter out = new StringWriter();
+        new PolitenessReport().write(new PrintWriter(out), stats);
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("3000 www.example.com 300 0.000 3 0 ", lines[1]);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.reporting;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.net.CrawlHost;
+import org.archive.spring.ConfigPath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReportSorterTest {
+
+    @TempDir
+    File tempDir;
+
+    protected List<String> sorted(ReportSorter sorter) throws Exception {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        sorter.writeTo(writer);
+        writer.flush();
+        sorter.close();
+        return out.toString().isEmpty()
+                ? new ArrayList<String>()
+                : Arrays.asList(out.toString().split("\n"));
+    }
+
+    @Test
+    public void testExternalSort() throws Exception {
+        Random random = new Random(43);
+        List<String> expected = new ArrayList<String>();
+        ReportSorter sorter = new ReportSorter(tempDir, -1, 100);
+        for (int i = 0; i < 1050; i++) {
+            int count = random.nextInt(50);
+            String host = "host" + random.nextInt(100000) + ".example.com";
+            // pad so string order is the sort order
+            expected.add(String.format("%03d %s", 100 - count, host));
+            sorter.add(-count, host, String.format("%03d %s", 100 - count, host));
+        }
+        assertEquals(10, sorter.chunkFiles.size());
+        List<File> chunkFiles = new ArrayList<File>(sorter.chunkFiles);
+        expected.sort(null);
+        assertEquals(expected, sorted(sorter));
+        for (File file : chunkFiles) {
+            assertEquals(false, file.exists());
+        }
+    }
+
+    @Test
+    public void testTopK() throws Exception {
+        ReportSorter sorter = new ReportSorter(tempDir, 3, 4);
+        long[] counts = {5, 1, 9, 7, 3, 9, 2, 8, 4};
+        for (int i = 0; i < counts.length; i++) {
+            sorter.add(-counts[i], "h" + i, counts[i] + " h" + i);
+        }
+        // the three largest, sorted, then the rest as they left the heap
+        assertEquals(Arrays.asList("9 h2", "9 h5", "8 h7",
+                "1 h1", "3 h4", "5 h0", "2 h6", "7 h3", "4 h8"), sorted(sorter));
+
+        sorter = new ReportSorter(tempDir, 0, 4);
+        for (int i = 0; i < counts.length; i++) {
+            sorter.add(-counts[i], "h" + i, counts[i] + " h" + i);
+        }
+        assertEquals(Arrays.asList("5 h0", "1 h1", "9 h2", "7 h3", "3 h4",
+                "9 h5", "2 h6", "8 h7", "4 h8"), sorted(sorter));
+    }
+
+    @Test
+    public void testHostsReport() throws Exception {
+        StatisticsTracker stats = new StatisticsTracker();
+        stats.setReportsDir(new ConfigPath("reports", tempDir.getAbsolutePath()));
+        DefaultServerCache serverCache = new DefaultServerCache();
+        stats.setServerCache(serverCache);
+        String[] hosts = {"b.example.com", "a.example.com", "c.example.com", "d.example.com"};
+        long[] successes = {2, 2, 5, 0};
+        for (int i = 0; i < hosts.length; i++) {
+            CrawlHost host = serverCache.getHostFor(hosts[i]);
+            host.getSubstats().put("fetchSuccesses", successes[i]);
+        }
+
+        HostsReport report = new HostsReport();
+        report.setSuppressEmptyHosts(true);
+        StringWriter out = new StringWriter();
+        report.write(new PrintWriter(out), stats);
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("5 0 c.example.com 0 -5 0 0 0 0 0 0 ", lines[1]);
+        assertEquals("2 0 a.example.com 0 -2 0 0 0 0 0 0 ", lines[2]);
+        assertEquals("2 0 b.example.com 0 -2 0 0 0 0 0 0 ", lines[3]);
+    }
+}
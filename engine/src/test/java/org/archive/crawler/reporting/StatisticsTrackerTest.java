@@ -0,0 +1,85 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.reporting;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.archive.crawler.util.CrawledBytesHistotable;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.revisit.ServerNotModifiedRevisit;
+import org.archive.net.UURIFactory;
+import org.junit.jupiter.api.Test;
+
+public class StatisticsTrackerTest {
+
+    @Test
+    public void testThreadTallies() throws Exception {
+        final StatisticsTracker stats = new StatisticsTracker();
+        stats.setTrackSeeds(false);
+        stats.setTrackSources(false);
+
+        final List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        for (int i = 0; i < 10; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/" + i));
+            curi.setFetchStatus(i % 2 == 0 ? 200 : -5003);
+            curi.setContentType(i % 2 == 0 ? "text/html; charset=UTF-8" : null);
+            curi.setContentSize(100);
+            if (i == 9) {
+                curi.setRevisitProfile(new ServerNotModifiedRevisit());
+            }
+            curis.add(curi);
+        }
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                public void run() {
+                    for (int r = 0; r < 1000; r++) {
+                        for (CrawlURI curi : curis) {
+                            stats.crawledURISuccessful(curi);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        // merge while the threads are still tallying
+        stats.mergeThreadTallies();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(20000, stats.getStatusCodeDistribution().get("200").get());
+        assertEquals(20000, stats.getStatusCodeDistribution().get("-5003").get());
+        assertEquals(20000, stats.getFileDistribution().get("text/html").get());
+        assertEquals(20000, stats.getFileDistribution().get("unknown").get());
+        assertEquals(2000000, stats.getBytesPerFileType("text/html"));
+        CrawledBytesHistotable crawledBytes = stats.getCrawledBytes();
+        assertEquals(36000, (long) crawledBytes.get(CrawledBytesHistotable.NOVELCOUNT));
+        assertEquals(3600000, (long) crawledBytes.get(CrawledBytesHistotable.NOVEL));
+        assertEquals(4000, (long) crawledBytes.get(CrawledBytesHistotable.NOTMODIFIEDCOUNT));
+        // ended threads are dropped once merged
+        assertEquals(0, stats.threadTallies.size());
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.selftest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.framework.CrawlJob;
+import org.archive.crawler.reporting.CrawlStatSnapshot;
+import org.archive.crawler.reporting.StatisticsTracker;
+import org.archive.modules.Processor;
+import org.archive.modules.ProcessorChain;
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ * Runs a whole crawl, as a {@link CrawlJob} of a crawler-beans
+ * configuration, against a {@link SyntheticSiteServlet} site served by an
+ * in-process Jetty on a range of local ports, one crawl queue each. Reports
+ * URIs and bytes downloaded per second, the time spent in each processor
+ * (see {@link Processor#getProcessingNanos()}), and heap and GC activity.
+ *
+ * <p>Usage: {@code BenchmarkCrawl [name=value ...]}, with names and
+ * defaults: ports=10 port=7800 pages=1000 linksPerPage=20 htmlKB=20
+ * cssKB=4 jsKB=8 pdfKB=100 latencyMs=0 errorRate=0.01 threads=25
+ * maxUris=0 (no limit) minRate=0 keep=false, and
+ * profile=(the default profile-crawler-beans.cxml). Any name containing a
+ * dot, such as {@code frontier.maxInFlightPerQueue=4}, is added to the
+ * profile's simple overrides. A profile of one's own must keep the
+ * default profile's placeholders for the contact URL, seeds and further
+ * overrides.
+ *
+ * <p>The site, and so the crawl, depends only on the settings; runs with
+ * the same settings and profile are comparable. Politeness delays are
+ * overridden to zero. With minRate, exits with status 1 if fewer URIs per
+ * second than that were downloaded.
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkCrawl {
+
+    final static String PROFILE =
+        "/org/archive/crawler/restlet/profile-crawler-beans.cxml";
+    final static String HOST = "127.0.0.1";
+
+    protected int ports = 10;
+    protected int port = 7800;
+    protected int pages = 1000;
+    protected int linksPerPage = 20;
+    protected int htmlKB = 20;
+    protected int cssKB = 4;
+    protected int jsKB = 8;
+    protected int pdfKB = 100;
+    protected long latencyMs = 0;
+    protected double errorRate = 0.01;
+    protected int threads = 25;
+    protected long maxUris = 0;
+    protected double minRate = 0;
+    protected boolean keep = false;
+    protected String profile = null;
+    protected Map<String,String> overrides = new LinkedHashMap<String,String>();
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkCrawl()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        for (String arg : args) {
+            String[] nameValue = arg.split("=", 2);
+            if (nameValue.length != 2) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            set(nameValue[0], nameValue[1]);
+        }
+        System.out.println("ports=" + ports + " port=" + port + " pages=" + pages
+                + " linksPerPage=" + linksPerPage + " htmlKB=" + htmlKB
+                + " cssKB=" + cssKB + " jsKB=" + jsKB + " pdfKB=" + pdfKB
+                + " latencyMs=" + latencyMs + " errorRate=" + errorRate
+                + " threads=" + threads + " maxUris=" + maxUris
+                + " profile=" + (profile == null ? "default" : profile)
+                + " " + overrides);
+        File dir = Files.createTempDirectory("crawl-benchmark").toFile();
+        Result result;
+        try {
+            result = run(dir);
+        } finally {
+            if (keep) {
+                System.out.println("job kept in " + dir);
+            } else {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+        System.out.println(result);
+        if (minRate > 0 && result.urisPerSecond() < minRate) {
+            System.out.println("FAIL: below minRate " + minRate);
+            System.exit(1);
+        }
+    }
+
+    protected void set(String name, String value) {
+        switch (name) {
+        case "ports": ports = Integer.parseInt(value); break;
+        case "port": port = Integer.parseInt(value); break;
+        case "pages": pages = Integer.parseInt(value); break;
+        case "linksPerPage": linksPerPage = Integer.parseInt(value); break;
+        case "htmlKB": htmlKB = Integer.parseInt(value); break;
+        case "cssKB": cssKB = Integer.parseInt(value); break;
+        case "jsKB": jsKB = Integer.parseInt(value); break;
+        case "pdfKB": pdfKB = Integer.parseInt(value); break;
+        case "latencyMs": latencyMs = Long.parseLong(value); break;
+        case "errorRate": errorRate = Double.parseDouble(value); break;
+        case "threads": threads = Integer.parseInt(value); break;
+        case "maxUris": maxUris = Long.parseLong(value); break;
+        case "minRate": minRate = Double.parseDouble(value); break;
+        case "keep": keep = Boolean.parseBoolean(value); break;
+        case "profile": profile = value; break;
+        default:
+            if (!name.contains(".")) {
+                throw new IllegalArgumentException("unknown setting: " + name);
+            }
+            overrides.put(name, value);
+        }
+    }
+
+    /** measurements of one run */
+    public static class Result {
+        long downloaded;
+        long failures;
+        long discovered;
+        long bytes;
+        long elapsedMillis;
+        Map<String,long[]> processors = new LinkedHashMap<String,long[]>();
+        long heapPeakBytes;
+        long gcCount;
+        long gcMillis;
+
+        double urisPerSecond() {
+            return downloaded * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d URIs downloaded (%d failed, %d discovered) in %.1fs: "
+                    + "%.1f URIs/s, %.0f KB/s%n",
+                    downloaded, failures, discovered, elapsedMillis / 1000.0,
+                    urisPerSecond(), bytes / 1024.0 * 1000 / Math.max(1, elapsedMillis)));
+            long total = 0;
+            for (long[] countNanos : processors.values()) {
+                total += countNanos[1];
+            }
+            sb.append(String.format("%-24s %10s %10s %8s %6s%n",
+                    "[processor]", "[#uris]", "[ms]", "[us/uri]", "[%]"));
+            for (Map.Entry<String,long[]> e : processors.entrySet()) {
+                long count = e.getValue()[0];
+                long nanos = e.getValue()[1];
+                sb.append(String.format("%-24s %10d %10d %8.1f %6.1f%n",
+                        e.getKey(), count, TimeUnit.NANOSECONDS.toMillis(nanos),
+                        count == 0 ? 0 : nanos / 1000.0 / count,
+                        100.0 * nanos / Math.max(1, total)));
+            }
+            sb.append(String.format("heap: peak %d MB; gc: %d collections, %d ms",
+                    heapPeakBytes >> 20, gcCount, gcMillis));
+            return sb.toString();
+        }
+    }
+
+    protected Server startHttpServer() throws Exception {
+        Server server = new Server();
+        for (int i = 0; i < ports; i++) {
+            ServerConnector sc = new ServerConnector(server);
+            sc.setHost(HOST);
+            sc.setPort(port + i);
+            server.addConnector(sc);
+        }
+        SyntheticSiteServlet site = new SyntheticSiteServlet();
+        site.setHost(HOST);
+        site.setMinPort(port);
+        site.setMaxPort(port + ports);
+        site.setPages(pages);
+        site.setLinksPerPage(linksPerPage);
+        site.setHtmlBytes(htmlKB * 1024);
+        site.setCssBytes(cssKB * 1024);
+        site.setJsBytes(jsKB * 1024);
+        site.setPdfBytes(pdfKB * 1024);
+        site.setLatencyMs(latencyMs);
+        site.setErrorRate(errorRate);
+
+        ServletContextHandler contextHandler = new ServletContextHandler();
+        contextHandler.addServlet(site, "/*");
+        server.setHandler(contextHandler);
+        server.start();
+        return server;
+    }
+
+    /**
+     * The crawler-beans configuration: the profile with seeds for every
+     * port, starting unpaused, politeness delays off and the benchmark's
+     * overrides.
+     */
+    protected String crawlerBeans() throws IOException {
+        String cxml;
+        if (profile == null) {
+            try (InputStream in = BenchmarkCrawl.class.getResourceAsStream(PROFILE)) {
+                cxml = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+        } else {
+            cxml = FileUtils.readFileToString(new File(profile), StandardCharsets.UTF_8);
+        }
+        StringBuilder seeds = new StringBuilder();
+        for (int i = 0; i < ports; i++) {
+            seeds.append("http://" + HOST + ":" + (port + i) + "/\n");
+        }
+        Map<String,String> props = new LinkedHashMap<String,String>();
+        props.put("crawlController.pauseAtStart", "false");
+        props.put("crawlController.maxToeThreads", Integer.toString(threads));
+        props.put("disposition.delayFactor", "0");
+        props.put("disposition.minDelayMs", "0");
+        props.put("disposition.maxDelayMs", "0");
+        props.put("disposition.respectCrawlDelayUpToSeconds", "0");
+        if (maxUris > 0) {
+            props.put("crawlLimiter.maxDocumentsDownload", Long.toString(maxUris));
+        }
+        props.putAll(overrides);
+        StringBuilder more = new StringBuilder();
+        for (Map.Entry<String,String> e : props.entrySet()) {
+            more.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        cxml = replace(cxml,
+                "ENTER_AN_URL_WITH_YOUR_CONTACT_INFO_HERE_FOR_WEBMASTERS_AFFECTED_BY_YOUR_CRAWL",
+                "http://" + HOST + "/benchmark");
+        cxml = replace(cxml, "http://example.example/example", seeds.toString());
+        cxml = replace(cxml, "##..more?..##", more.toString());
+        return cxml;
+    }
+
+    protected static String replace(String cxml, String placeholder, String value) {
+        if (!cxml.contains(placeholder)) {
+            throw new IllegalArgumentException("profile lacks " + placeholder);
+        }
+        return cxml.replace(placeholder, value);
+    }
+
+    /**
+     * Runs the benchmark crawl with its job directory under the given one.
+     */
+    public Result run(File dir) throws Exception {
+        File jobDir = new File(dir, "benchmark");
+        jobDir.mkdirs();
+        File cxml = new File(jobDir, "crawler-beans.cxml");
+        FileUtils.writeStringToFile(cxml, crawlerBeans(), StandardCharsets.UTF_8);
+
+        Server server = startHttpServer();
+        CrawlJob job = new CrawlJob(cxml);
+        try {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            long gcCountBefore = gcCount();
+            long gcMillisBefore = gcMillis();
+
+            job.launch();
+            CrawlController controller = job.getCrawlController();
+            if (controller == null || !job.isRunning()) {
+                throw new IllegalStateException("crawl did not launch; see "
+                        + job.getJobLog());
+            }
+            while (job.isRunning()) {
+                Thread.sleep(250);
+            }
+
+            Result result = new Result();
+            result.gcCount = gcCount() - gcCountBefore;
+            result.gcMillis = gcMillis() - gcMillisBefore;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    result.heapPeakBytes += pool.getPeakUsage().getUsed();
+                }
+            }
+            StatisticsTracker stats = controller.getStatisticsTracker();
+            CrawlStatSnapshot snapshot = stats.getSnapshot();
+            result.downloaded = snapshot.downloadedUriCount;
+            result.failures = snapshot.downloadFailures;
+            result.discovered = snapshot.discoveredUriCount;
+            result.bytes = snapshot.bytesProcessed;
+            result.elapsedMillis = stats.getCrawlElapsedTime();
+            List<ProcessorChain> chains = new ArrayList<ProcessorChain>();
+            chains.add(controller.getCandidateChain());
+            chains.add(controller.getFetchChain());
+            chains.add(controller.getDispositionChain());
+            for (ProcessorChain chain : chains) {
+                for (Processor p : chain) {
+                    result.processors.put(p.getBeanName(),
+                            new long[] {p.getURICount(), p.getProcessingNanos()});
+                }
+            }
+            return result;
+        } finally {
+            job.teardown();
+            server.stop();
+        }
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
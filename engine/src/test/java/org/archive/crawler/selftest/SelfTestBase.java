@@ -285,7 +285,7 @@ public abstract class SelfTestBase {
 
 
 
-    private String getSelfTestName() {
+    protected String getSelfTestName() {
         String full = getClass().getName();
         int i = full.lastIndexOf('.');
         return full.substring(i + 1);
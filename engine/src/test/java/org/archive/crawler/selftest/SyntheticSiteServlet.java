@@ -0,0 +1,356 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.selftest;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves a synthetic site: HTML pages /p/N.html (the first also at /)
+ * linking to other pages, mostly of the same server and otherwise of the
+ * others in the port range, and to stylesheets /s/N.css, scripts /j/N.js
+ * and documents /d/N.pdf. Each of those refers on to a page or another of
+ * its kind.
+ * Content, links and which responses are errors depend only on the
+ * settings, the port and the path, so a crawl of the same settings always
+ * meets the same site.
+ */
+public class SyntheticSiteServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    final private static long SEED_BASE = 0x5DEECE66DL;
+
+    final private static Pattern PATH =
+        Pattern.compile("/([psjd])/(\\d+)\\.(html|css|js|pdf)");
+
+    private String host = "127.0.0.1";
+    private int minPort = 7000;
+    private int maxPort = 7001;
+    private int pages = 1000;
+    private int linksPerPage = 20;
+    private double offsiteLinkRate = 0.1;
+    private int htmlBytes = 20 * 1024;
+    private int cssBytes = 4 * 1024;
+    private int jsBytes = 8 * 1024;
+    private int pdfBytes = 100 * 1024;
+    private long latencyMs = 0;
+    private double errorRate = 0.0;
+
+    public SyntheticSiteServlet() {
+    }
+
+    public String getHost() {
+        return host;
+    }
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getMinPort() {
+        return minPort;
+    }
+    public void setMinPort(int minPort) {
+        this.minPort = minPort;
+    }
+
+    /** one past the last port serving the site */
+    public int getMaxPort() {
+        return maxPort;
+    }
+    public void setMaxPort(int maxPort) {
+        this.maxPort = maxPort;
+    }
+
+    /** HTML pages per server; stylesheets, scripts and documents are a
+     * tenth as many each */
+    public int getPages() {
+        return pages;
+    }
+    public void setPages(int pages) {
+        this.pages = pages;
+    }
+
+    public int getLinksPerPage() {
+        return linksPerPage;
+    }
+    public void setLinksPerPage(int linksPerPage) {
+        this.linksPerPage = linksPerPage;
+    }
+
+    public double getOffsiteLinkRate() {
+        return offsiteLinkRate;
+    }
+    public void setOffsiteLinkRate(double offsiteLinkRate) {
+        this.offsiteLinkRate = offsiteLinkRate;
+    }
+
+    public int getHtmlBytes() {
+        return htmlBytes;
+    }
+    public void setHtmlBytes(int htmlBytes) {
+        this.htmlBytes = htmlBytes;
+    }
+
+    public int getCssBytes() {
+        return cssBytes;
+    }
+    public void setCssBytes(int cssBytes) {
+        this.cssBytes = cssBytes;
+    }
+
+    public int getJsBytes() {
+        return jsBytes;
+    }
+    public void setJsBytes(int jsBytes) {
+        this.jsBytes = jsBytes;
+    }
+
+    public int getPdfBytes() {
+        return pdfBytes;
+    }
+    public void setPdfBytes(int pdfBytes) {
+        this.pdfBytes = pdfBytes;
+    }
+
+    /** time taken to answer each request */
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /** share of pages and other resources answered with a 500 */
+    public double getErrorRate() {
+        return errorRate;
+    }
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+    throws IOException {
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String path = req.getRequestURI();
+        Matcher m = PATH.matcher(path.equals("/") ? "/p/0.html" : path);
+        char kind = m.matches() ? m.group(1).charAt(0) : 0;
+        if (kind == 0 || !m.group(3).equals(extension(kind))) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        int n = Integer.parseInt(m.group(2));
+        if (n >= (kind == 'p' ? pages : assets())) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Random random = randomFor(req.getLocalPort(), kind, n);
+        if (random.nextDouble() < errorRate) {
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        byte[] content = content(req.getLocalPort(), kind, n, random);
+        resp.setContentType(contentType(kind));
+        resp.setContentLength(content.length);
+        OutputStream out = resp.getOutputStream();
+        out.write(content);
+    }
+
+    protected int assets() {
+        return Math.max(1, pages / 10);
+    }
+
+    protected Random randomFor(int port, char kind, int n) {
+        // mixed, as Random's first values from nearby seeds are close
+        long seed = SEED_BASE * (port * 31L + kind) + n;
+        seed = (seed ^ (seed >>> 33)) * 0xff51afd7ed558ccdL;
+        seed = (seed ^ (seed >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return new Random(seed ^ (seed >>> 33));
+    }
+
+    protected static String extension(char kind) {
+        switch (kind) {
+        case 'p': return "html";
+        case 's': return "css";
+        case 'j': return "js";
+        default: return "pdf";
+        }
+    }
+
+    protected static String contentType(char kind) {
+        switch (kind) {
+        case 'p': return "text/html";
+        case 's': return "text/css";
+        case 'j': return "application/javascript";
+        default: return "application/pdf";
+        }
+    }
+
+    /**
+     * The content of the given resource, as served.
+     */
+    protected byte[] content(int port, char kind, int n, Random random) {
+        switch (kind) {
+        case 'p': return html(port, random);
+        case 's': return css(random);
+        case 'j': return js(random);
+        default: return pdf(port, random);
+        }
+    }
+
+    protected String pageLink(int port, Random random) {
+        if (maxPort - minPort > 1 && random.nextDouble() < offsiteLinkRate) {
+            int other = minPort + random.nextInt(maxPort - minPort);
+            if (other != port) {
+                return "http://" + host + ":" + other + "/p/"
+                        + random.nextInt(pages) + ".html";
+            }
+        }
+        return "/p/" + random.nextInt(pages) + ".html";
+    }
+
+    protected byte[] html(int port, Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<html><head><title>synthetic</title>\n");
+        sb.append("<link rel=\"stylesheet\" href=\"/s/")
+                .append(random.nextInt(assets())).append(".css\">\n");
+        sb.append("<script src=\"/j/")
+                .append(random.nextInt(assets())).append(".js\"></script>\n");
+        sb.append("</head><body>\n");
+        for (int i = 0; i < linksPerPage; i++) {
+            sb.append("<a href=\"").append(pageLink(port, random))
+                    .append("\">link ").append(i).append("</a>\n");
+        }
+        sb.append("<a href=\"/d/").append(random.nextInt(assets()))
+                .append(".pdf\">document</a>\n");
+        fill(sb, htmlBytes - 16, random, "<p>", "</p>\n");
+        sb.append("</body></html>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected byte[] css(Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("@import url(/s/").append(random.nextInt(assets()))
+                .append(".css);\n");
+        int i = 0;
+        while (sb.length() < cssBytes) {
+            sb.append(".c").append(i++).append(" { color: #")
+                    .append(Integer.toHexString(0x100000 + random.nextInt(0xefffff)))
+                    .append("; margin: ").append(random.nextInt(20)).append("px; }\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected byte[] js(Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("var next = \"/p/").append(random.nextInt(pages))
+                .append(".html\";\n");
+        int i = 0;
+        while (sb.length() < jsBytes) {
+            sb.append("function f").append(i).append("(a) { return a * ")
+                    .append(random.nextInt(1000)).append(" + \"")
+                    .append(word(random)).append("\"; }\n");
+            i++;
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A small but well-formed PDF, with one page whose text makes up the
+     * size and a link annotation to an HTML page.
+     */
+    protected byte[] pdf(int port, Random random) {
+        String link = pageLink(port, random);
+        if (link.startsWith("/")) {
+            link = "http://" + host + ":" + port + link;
+        }
+        StringBuilder text = new StringBuilder("BT /F1 10 Tf 20 800 Td\n");
+        while (text.length() < pdfBytes - 700) {
+            text.append("(").append(word(random)).append(' ').append(word(random))
+                    .append(") Tj 0 -12 Td\n");
+        }
+        text.append("ET\n");
+        List<String> objects = new ArrayList<String>();
+        objects.add("<< /Type /Catalog /Pages 2 0 R >>");
+        objects.add("<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+        objects.add("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 842]"
+                + " /Contents 4 0 R /Annots [5 0 R]"
+                + " /Resources << /Font << /F1 6 0 R >> >> >>");
+        objects.add("<< /Length " + text.length() + " >>\nstream\n" + text
+                + "endstream");
+        objects.add("<< /Type /Annot /Subtype /Link /Rect [20 20 200 40]"
+                + " /A << /S /URI /URI (" + link + ") >> >>");
+        objects.add("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>");
+
+        StringBuilder sb = new StringBuilder("%PDF-1.4\n");
+        long[] offsets = new long[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            offsets[i] = sb.length();
+            sb.append(i + 1).append(" 0 obj\n").append(objects.get(i))
+                    .append("\nendobj\n");
+        }
+        int xref = sb.length();
+        sb.append("xref\n0 ").append(objects.size() + 1).append("\n");
+        sb.append("0000000000 65535 f \n");
+        for (long offset : offsets) {
+            sb.append(String.format("%010d 00000 n \n", offset));
+        }
+        sb.append("trailer\n<< /Size ").append(objects.size() + 1)
+                .append(" /Root 1 0 R >>\nstartxref\n").append(xref)
+                .append("\n%%EOF\n");
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    protected static void fill(StringBuilder sb, int size, Random random,
+            String open, String close) {
+        while (sb.length() < size) {
+            sb.append(open);
+            for (int i = 0; i < 12; i++) {
+                sb.append(word(random)).append(' ');
+            }
+            sb.append(close);
+        }
+    }
+
+    protected static String word(Random random) {
+        char[] word = new char[3 + random.nextInt(7)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.selftest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the content {@link SyntheticSiteServlet} serves.
+ */
+public class SyntheticSiteServletTest {
+
+    protected byte[] content(SyntheticSiteServlet site, int port, char kind, int n) {
+        return site.content(port, kind, n, site.randomFor(port, kind, n));
+    }
+
+    @Test
+    public void testDeterministic() {
+        SyntheticSiteServlet site = new SyntheticSiteServlet();
+        for (char kind : "psjd".toCharArray()) {
+            byte[] first = content(site, 7000, kind, 3);
+            assertArrayEquals(first, content(new SyntheticSiteServlet(), 7000, kind, 3));
+            assertFalse(Arrays.equals(first, content(site, 7000, kind, 4)));
+        }
+    }
+
+    @Test
+    public void testPage() {
+        SyntheticSiteServlet site = new SyntheticSiteServlet();
+        site.setMaxPort(7004);
+        site.setLinksPerPage(30);
+        site.setOffsiteLinkRate(0.5);
+        site.setHtmlBytes(5000);
+        String html = new String(content(site, 7000, 'p', 1), StandardCharsets.UTF_8);
+        assertTrue(html.length() >= 5000);
+        assertTrue(html.contains("<link rel=\"stylesheet\" href=\"/s/"));
+        assertTrue(html.contains("<script src=\"/j/"));
+        assertTrue(html.contains("<a href=\"/d/"));
+        int links = 0;
+        int offsite = 0;
+        Matcher m = Pattern.compile("<a href=\"(http://127.0.0.1:(\\d+))?/p/(\\d+).html\"").matcher(html);
+        while (m.find()) {
+            links++;
+            if (m.group(1) != null) {
+                offsite++;
+                int port = Integer.parseInt(m.group(2));
+                assertTrue(port > 7000 && port < 7004, "port " + port);
+            }
+            assertTrue(Integer.parseInt(m.group(3)) < site.getPages());
+        }
+        assertEquals(30, links);
+        assertTrue(offsite > 5 && offsite < 25, "offsite " + offsite);
+    }
+
+    @Test
+    public void testErrorRate() {
+        SyntheticSiteServlet site = new SyntheticSiteServlet();
+        int errors = 0;
+        for (int n = 0; n < 1000; n++) {
+            if (site.randomFor(7000, 'p', n).nextDouble() < 0.05) {
+                errors++;
+            }
+        }
+        assertTrue(errors > 25 && errors < 75, "errors " + errors);
+    }
+
+    @Test
+    public void testPdfCrossReferences() {
+        SyntheticSiteServlet site = new SyntheticSiteServlet();
+        site.setPdfBytes(10000);
+        String pdf = new String(content(site, 7000, 'd', 2), StandardCharsets.US_ASCII);
+        assertTrue(pdf.startsWith("%PDF-1.4\n"));
+        assertTrue(pdf.length() >= 9000 && pdf.length() <= 10500, "length " + pdf.length());
+        assertTrue(pdf.contains("/URI (http://127.0.0.1:7000/p/"));
+
+        Matcher startxref = Pattern.compile("startxref\n(\\d+)\n%%EOF\n$").matcher(pdf);
+        assertTrue(startxref.find());
+        int xref = Integer.parseInt(startxref.group(1));
+        assertTrue(pdf.startsWith("xref\n0 7\n", xref));
+        Matcher entries = Pattern.compile("(\\d{10}) 00000 n \n").matcher(pdf);
+        entries.region(xref, pdf.length());
+        int object = 0;
+        while (entries.find()) {
+            object++;
+            int offset = Integer.parseInt(entries.group(1));
+            assertTrue(pdf.startsWith(object + " 0 obj\n", offset), "object " + object);
+        }
+        assertEquals(6, object);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.selftest;
+
+/**
+ * Runs the {@link SimpleSelfTest} crawl with
+ * {@link org.archive.crawler.framework.CrawlController#setUseVirtualToeThreads(boolean)}
+ * enabled. On runtimes without virtual threads this exercises the fallback
+ * to platform ToeThreads.
+ */
+public class VirtualToeThreadsSelfTest extends SimpleSelfTest {
+
+    @Override
+    protected String getSelfTestName() {
+        // same site and expectations
+        return "SimpleSelfTest";
+    }
+
+    @Override
+    protected String changeGlobalConfig(String config) {
+        config = config.replace("@@MORE_PROPERTIES@@",
+                "crawlController.useVirtualToeThreads=true\n");
+        return super.changeGlobalConfig(config);
+    }
+}
@@ -21,6 +21,7 @@ package org.archive.crawler.util;
 
 import java.util.Comparator;
 import java.util.Map;
+import java.util.function.ObjLongConsumer;
 
 import org.archive.io.warc.WARCWriter;
 import org.archive.modules.CoreAttributeConstants;
@@ -56,27 +57,40 @@ implements CoreAttributeConstants {
         super(comparator);
     }
 
-    @SuppressWarnings("unchecked")
     public void accumulate(CrawlURI curi) {
+        accumulate(curi, this::tally);
+    }
+
+    /**
+     * Classify the given uri's content as novel, not-modified, or
+     * duplicate, passing each resulting (key, amount) pair to the tally.
+     * Shared with collectors that don't keep their counts in a
+     * Histotable.
+     *
+     * @param curi uri with a positive fetch status
+     * @param tally receives one call per key to increment
+     */
+    @SuppressWarnings("unchecked")
+    public static void accumulate(CrawlURI curi, ObjLongConsumer<String> tally) {
         if (curi.getRevisitProfile() instanceof ServerNotModifiedRevisit) {
-            tally(NOTMODIFIED, curi.getContentSize());
-            tally(NOTMODIFIEDCOUNT,1);
+            tally.accept(NOTMODIFIED, curi.getContentSize());
+            tally.accept(NOTMODIFIEDCOUNT,1);
         } else if (curi.getRevisitProfile() instanceof IdenticalPayloadDigestRevisit) {
-            tally(DUPLICATE,curi.getContentSize());
-            tally(DUPLICATECOUNT,1);
+            tally.accept(DUPLICATE,curi.getContentSize());
+            tally.accept(DUPLICATECOUNT,1);
         } else if (curi.getRevisitProfile() != null) {
-            tally(OTHERDUPLICATE, curi.getContentSize());
-            tally(OTHERDUPLICATECOUNT, 1);
+            tally.accept(OTHERDUPLICATE, curi.getContentSize());
+            tally.accept(OTHERDUPLICATECOUNT, 1);
         } else {
-            tally(NOVEL,curi.getContentSize());
-            tally(NOVELCOUNT,1);
+            tally.accept(NOVEL,curi.getContentSize());
+            tally.accept(NOVELCOUNT,1);
         }
         Map<String,Map<String,Long>> warcStats = (Map<String,Map<String,Long>>) curi.getData().get(A_WARC_STATS);
         if (warcStats != null) {
-            tally(WARC_NOVEL_CONTENT_BYTES,
+            tally.accept(WARC_NOVEL_CONTENT_BYTES,
                     WARCWriter.getStat(warcStats, "response", "contentBytes")
                     + WARCWriter.getStat(warcStats, "resource", "contentBytes"));
-            tally(WARC_NOVEL_URLS,
+            tally.accept(WARC_NOVEL_URLS,
                     WARCWriter.getStat(warcStats, "response", "numRecords")
                     + WARCWriter.getStat(warcStats, "resource", "numRecords"));
         }
@@ -917,6 +917,10 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         this.contentDigestScheme = scheme;
     }
     
+    public String getContentDigestScheme() {
+        return this.contentDigestScheme;
+    }
+
     public String getContentDigestSchemeString() {
         if (this.contentDigest == null) {
             return null;
@@ -31,6 +31,7 @@ import org.archive.modules.credential.HttpAuthenticationCredential;
 import org.archive.modules.deciderules.AcceptDecideRule;
 import org.archive.modules.deciderules.DecideResult;
 import org.archive.modules.deciderules.DecideRule;
+import org.archive.modules.deciderules.DecideRuleSequence;
 import org.archive.modules.fetcher.FetchStatusCodes;
 import org.archive.net.UURI;
 import org.archive.spring.HasKeyedProperties;
@@ -103,6 +104,11 @@ implements HasKeyedProperties,
      */
     protected AtomicLong uriCount = new AtomicLong(0);
 
+    /**
+     * The time spent processing those URIs, in nanoseconds.
+     */
+    protected AtomicLong processingNanos = new AtomicLong(0);
+
     
     /**
      * Processes the given URI.  First checks {@link #getEnabled()} and
@@ -122,7 +128,7 @@ implements HasKeyedProperties,
      * <p>Otherwise, the URI is considered valid.  This processor's count
      * of handled URIs is incremented, and the 
      * {@link #innerProcess(CrawlURI)} method is invoked to actually
-     * perform the process.
+     * perform the process, its time added to {@link #getProcessingNanos()}.
      * 
      * @param uri  The URI to process
      * @throws  InterruptedException   if the thread is interrupted
@@ -140,7 +146,12 @@ implements HasKeyedProperties,
         
         if (shouldProcess(uri)) {
             uriCount.incrementAndGet();
-            return innerProcessResult(uri);
+            long startTime = System.nanoTime();
+            try {
+                return innerProcessResult(uri);
+            } finally {
+                processingNanos.addAndGet(System.nanoTime() - startTime);
+            }
         } else {
             return ProcessResult.PROCEED;
         }
@@ -158,6 +169,17 @@ implements HasKeyedProperties,
         return uriCount.get();
     }
 
+    /**
+     * Returns the time this processor has spent on the URIs it handled
+     * since it was created, including time blocked (as on the network or
+     * on locks). Not carried over from a checkpoint.
+     * 
+     * @return  processing time in nanoseconds
+     */
+    public long getProcessingNanos() {
+        return processingNanos.get();
+    }
+
 
     /**
      * Determines whether the given uri should be processed by this 
@@ -247,7 +269,13 @@ implements HasKeyedProperties,
     // FIXME: Internationalize somehow
     // FIXME: Pass in PrintWriter instead creating large in-memory strings
     public String report() {
-        return "Processor: "+getClass().getName()+"\n";
+        StringBuilder ret = new StringBuilder();
+        ret.append("Processor: "+getClass().getName()+"\n");
+        if (getShouldProcessRule() instanceof DecideRuleSequence) {
+            ret.append("  shouldProcessRule:\n");
+            ((DecideRuleSequence) getShouldProcessRule()).reportTo("    ", ret);
+        }
+        return ret.toString();
     }
     
     protected boolean isRunning = false; 
@@ -5,6 +5,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
@@ -89,6 +90,8 @@ implements Iterable<Processor>,
 
         for (Processor p: this) {
             writer.print(p.report());
+            writer.print("  Processing time: " + ArchiveUtils.formatMillisecondsToConventional(
+                    TimeUnit.NANOSECONDS.toMillis(p.getProcessingNanos())) + "\n");
             writer.println();
         }
         writer.println();
@@ -0,0 +1,390 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.canonicalize;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Applies a list of the built-in {@link CanonicalizationRule}s to a URL
+ * without regular expressions or intermediate Strings: each rule edits one
+ * reusable per-thread char buffer in place, and only the final result (if
+ * different from the input) is allocated.
+ *
+ * <p>Each rule's code here reproduces exactly what its regex does, including
+ * which occurrence wins when there are several. The rules handled are
+ * {@link LowercaseRule}, {@link StripUserinfoRule}, {@link StripWWWNRule},
+ * {@link StripWWWRule}, {@link StripSessionIDs}, {@link StripSessionCFIDs},
+ * {@link FixupQueryString} and {@link StripExtraSlashes}; subclasses of them
+ * are not, as they may behave differently. URLs with non-ASCII or line
+ * terminator characters, where regex and locale subtleties come in, are
+ * also left to the rules themselves.
+ *
+ * @see RulesCanonicalizationPolicy#canonicalize(String)
+ */
+public class CompiledCanonicalizer {
+
+    protected static final ThreadLocal<Buffer> BUFFER =
+            ThreadLocal.withInitial(Buffer::new);
+
+    /** Reusable edit buffer. */
+    protected static class Buffer {
+        char[] chars = new char[256];
+        int len;
+        boolean changed;
+
+        void load(String s) {
+            if (chars.length < s.length()) {
+                chars = new char[Math.max(s.length(), chars.length * 2)];
+            }
+            s.getChars(0, s.length(), chars, 0);
+            len = s.length();
+            changed = false;
+        }
+
+        void delete(int from, int to) {
+            System.arraycopy(chars, to, chars, from, len - to);
+            len -= to - from;
+            changed = true;
+        }
+
+        int indexOf(char c, int from) {
+            for (int i = from; i < len; i++) {
+                if (chars[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean startsWith(String prefix, int at) {
+            if (at + prefix.length() > len) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (chars[at + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** @param lower an all-lowercase ASCII string */
+        boolean startsWithIgnoreCase(String lower, int at) {
+            if (at + lower.length() > len) {
+                return false;
+            }
+            for (int i = 0; i < lower.length(); i++) {
+                if (toLower(chars[at + i]) != lower.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return whether the rule is one this class reproduces
+     */
+    public static boolean isSupported(CanonicalizationRule rule) {
+        Class<?> c = rule.getClass();
+        return c == LowercaseRule.class || c == StripUserinfoRule.class
+                || c == StripWWWNRule.class || c == StripWWWRule.class
+                || c == StripSessionIDs.class || c == StripSessionCFIDs.class
+                || c == FixupQueryString.class || c == StripExtraSlashes.class;
+    }
+
+    /**
+     * Apply the enabled rules, in order, to the url.
+     *
+     * @return the canonicalized url, or null if the rules or the url aren't
+     * supported, in which case the rules must be applied one by one
+     */
+    public static String canonicalize(String url, List<CanonicalizationRule> rules) {
+        if (url == null) {
+            return null;
+        }
+        for (CanonicalizationRule rule : rules) {
+            if (!isSupported(rule)) {
+                return null;
+            }
+        }
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c >= 0x80 || c == '\n' || c == '\r') {
+                return null;
+            }
+        }
+        Buffer buf = BUFFER.get();
+        buf.load(url);
+        for (CanonicalizationRule rule : rules) {
+            if (!rule.getEnabled()) {
+                continue;
+            }
+            Class<?> c = rule.getClass();
+            if (c == LowercaseRule.class) {
+                if (!lowercase(buf)) {
+                    return null;
+                }
+            } else if (c == StripUserinfoRule.class) {
+                stripUserinfo(buf);
+            } else if (c == StripWWWNRule.class) {
+                stripWWW(buf, true);
+            } else if (c == StripWWWRule.class) {
+                stripWWW(buf, false);
+            } else if (c == StripSessionIDs.class) {
+                stripSessionId(buf, SESSION_ID_NAMES, 32, false);
+                stripSessionId(buf, SID_NAMES, 32, false);
+                stripSessionId(buf, ASPSESSIONID_NAMES, 24, true);
+            } else if (c == StripSessionCFIDs.class) {
+                stripSessionCFIDs(buf);
+            } else if (c == FixupQueryString.class) {
+                fixupQueryString(buf);
+            } else if (c == StripExtraSlashes.class) {
+                stripExtraSlashes(buf);
+            }
+        }
+        return buf.changed ? new String(buf.chars, 0, buf.len) : url;
+    }
+
+    protected static char toLower(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    protected static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    protected static boolean isAsciiAlnum(char c) {
+        return isAsciiLetter(c) || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * As {@link String#toLowerCase()}, which uses the default locale; false
+     * if that locale lowercases ASCII specially.
+     */
+    protected static boolean lowercase(Buffer buf) {
+        String language = Locale.getDefault().getLanguage();
+        if ("tr".equals(language) || "az".equals(language)) {
+            return false;
+        }
+        for (int i = 0; i < buf.len; i++) {
+            char c = buf.chars[i];
+            if (c >= 'A' && c <= 'Z') {
+                buf.chars[i] = toLower(c);
+                buf.changed = true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@link StripUserinfoRule}: {@code ^((?:(?:https?)|(?:ftps?))://)(?:[^/]+@)(.*)$},
+     * case-sensitively. The userinfo runs to the last '@' before the first
+     * '/' of the authority.
+     */
+    protected static void stripUserinfo(Buffer buf) {
+        int p;
+        if (buf.startsWith("http://", 0) || buf.startsWith("ftps://", 0)) {
+            p = 7;
+        } else if (buf.startsWith("https://", 0)) {
+            p = 8;
+        } else if (buf.startsWith("ftp://", 0)) {
+            p = 6;
+        } else {
+            return;
+        }
+        int slash = buf.indexOf('/', p);
+        int end = slash < 0 ? buf.len : slash;
+        for (int at = end - 1; at > p; at--) {
+            if (buf.chars[at] == '@') {
+                buf.delete(p, at + 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@link StripWWWNRule}: strip a leading 'www' and digits, or for
+     * {@link StripWWWRule} just 'www', before a '.' on http(s) URLs with a
+     * non-empty path.
+     */
+    protected static void stripWWW(Buffer buf, boolean digits) {
+        int p;
+        if (buf.startsWithIgnoreCase("http://", 0)) {
+            p = 7;
+        } else if (buf.startsWithIgnoreCase("https://", 0)) {
+            p = 8;
+        } else {
+            return;
+        }
+        if (!buf.startsWithIgnoreCase("www", p)) {
+            return;
+        }
+        int dot = p + 3;
+        if (digits) {
+            while (dot < buf.len && buf.chars[dot] >= '0' && buf.chars[dot] <= '9') {
+                dot++;
+            }
+        }
+        if (dot >= buf.len || buf.chars[dot] != '.') {
+            return;
+        }
+        int slash = buf.indexOf('/', dot + 1);
+        if (slash < 0 || slash + 1 >= buf.len) {
+            return;
+        }
+        buf.delete(p, dot + 1);
+    }
+
+    protected static final String[] SESSION_ID_NAMES = {"jsessionid=", "phpsessid="};
+    protected static final String[] SID_NAMES = {"sid="};
+    protected static final String[] ASPSESSIONID_NAMES = {"aspsessionid"};
+
+    /**
+     * One of {@link StripSessionIDs}'s patterns, of the form
+     * {@code (?i)^(.+)(?:NAME=[0-9a-zA-Z]{32})(?:&(.*))?$}, or for
+     * ASPSESSIONID {@code ASPSESSIONID[a-zA-Z]{8}=[a-zA-Z]{24}}. The greedy
+     * {@code (.+)} means the last occurrence after the first char wins.
+     */
+    protected static void stripSessionId(Buffer buf, String[] names,
+            int valueLength, boolean asp) {
+        for (int i = buf.len - 1; i >= 1; i--) {
+            for (String name : names) {
+                if (!buf.startsWithIgnoreCase(name, i)) {
+                    continue;
+                }
+                int v = i + name.length();
+                if (asp) {
+                    // 8 letters and '='
+                    if (v + 9 > buf.len) {
+                        continue;
+                    }
+                    boolean ok = buf.chars[v + 8] == '=';
+                    for (int j = v; ok && j < v + 8; j++) {
+                        ok = isAsciiLetter(buf.chars[j]);
+                    }
+                    if (!ok) {
+                        continue;
+                    }
+                    v += 9;
+                }
+                int end = v + valueLength;
+                if (end > buf.len) {
+                    continue;
+                }
+                boolean ok = true;
+                for (int j = v; ok && j < end; j++) {
+                    ok = asp ? isAsciiLetter(buf.chars[j]) : isAsciiAlnum(buf.chars[j]);
+                }
+                if (!ok) {
+                    continue;
+                }
+                if (end == buf.len) {
+                    buf.delete(i, end);
+                    return;
+                } else if (buf.chars[end] == '&') {
+                    buf.delete(i, end + 1);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link StripSessionCFIDs}:
+     * {@code ^(.+)(?i)(?:cfid=[^&]+&cftoken=[^&]+(?:jsession=[^&]+)?)(?:&(.*))?$}.
+     * The cftoken value always extends to the next '&' or the end, so the
+     * optional jsession part never matches separately.
+     */
+    protected static void stripSessionCFIDs(Buffer buf) {
+        for (int i = buf.len - 1; i >= 1; i--) {
+            if (!buf.startsWithIgnoreCase("cfid=", i)) {
+                continue;
+            }
+            int amp = buf.indexOf('&', i + 5);
+            if (amp <= i + 5 || !buf.startsWithIgnoreCase("cftoken=", amp + 1)) {
+                continue;
+            }
+            int token = amp + 9;
+            int end = buf.indexOf('&', token);
+            if (end < 0) {
+                end = buf.len;
+            }
+            if (end == token) {
+                continue;
+            }
+            buf.delete(i, end < buf.len ? end + 1 : end);
+            return;
+        }
+    }
+
+    /**
+     * {@link FixupQueryString}.
+     */
+    protected static void fixupQueryString(Buffer buf) {
+        if (buf.len <= 0) {
+            return;
+        }
+        int index = -1;
+        for (int i = buf.len - 1; i >= 0; i--) {
+            if (buf.chars[i] == '?') {
+                index = i;
+                break;
+            }
+        }
+        if (index > 0) {
+            if (index == buf.len - 1) {
+                buf.delete(index, buf.len);
+            } else if (buf.chars[index + 1] == '&') {
+                buf.delete(index + 1, index + 2);
+                if (buf.len == index + 1) {
+                    // url ended with '?&'
+                    buf.delete(index, buf.len);
+                }
+            } else if (buf.chars[buf.len - 1] == '&') {
+                buf.delete(buf.len - 1, buf.len);
+            }
+        }
+    }
+
+    /**
+     * {@link StripExtraSlashes}: {@code (^https?://.*?)//+(.*)}, repeated
+     * while it matches; collapses every run of slashes after the scheme.
+     */
+    protected static void stripExtraSlashes(Buffer buf) {
+        int p;
+        if (buf.startsWith("http://", 0)) {
+            p = 7;
+        } else if (buf.startsWith("https://", 0)) {
+            p = 8;
+        } else {
+            return;
+        }
+        for (int i = p; i + 1 < buf.len; i++) {
+            if (buf.chars[i] == '/' && buf.chars[i + 1] == '/') {
+                int run = i + 2;
+                while (run < buf.len && buf.chars[run] == '/') {
+                    run++;
+                }
+                buf.delete(i + 1, run);
+            }
+        }
+    }
+}
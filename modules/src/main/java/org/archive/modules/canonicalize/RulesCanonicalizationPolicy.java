@@ -56,7 +56,10 @@ public class RulesCanonicalizationPolicy
     }
     
     /**
-     * Run the passed uuri through the list of rules.
+     * Run the passed uuri through the list of rules. When all the rules
+     * are built-in ones, they are applied in a single buffer by
+     * {@link CompiledCanonicalizer}, unless FINER logging of each rule's
+     * result is wanted.
      * @param before Url to canonicalize.
      * @return Canonicalized URL.
      */
@@ -64,6 +67,11 @@ public class RulesCanonicalizationPolicy
         String canonical = before;
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("Canonicalizing: "+before);
+        } else {
+            String compiled = CompiledCanonicalizer.canonicalize(before, getRules());
+            if (compiled != null) {
+                return compiled;
+            }
         }
         for (CanonicalizationRule rule : getRules()) {
             if(rule.getEnabled()) {
@@ -19,7 +19,10 @@
 
 package org.archive.modules.deciderules;
 
+import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -100,6 +103,52 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         this.serverCache = serverCache;
     }
 
+    {
+        setEvaluateInReverse(false);
+    }
+    public boolean getEvaluateInReverse() {
+        return (Boolean) kp.get("evaluateInReverse");
+    }
+    /**
+     * If enabled, walk the rules from last to first and stop at the first
+     * one that decides, rather than running them all. The decision is the
+     * same either way (the last rule to decide wins), but rules near the
+     * front of a long sequence often don't need to run at all. When several
+     * trailing rules agree, the one logged as decisive is the last of them
+     * rather than the first.
+     */
+    public void setEvaluateInReverse(boolean evaluateInReverse) {
+        kp.put("evaluateInReverse", evaluateInReverse);
+    }
+
+    /**
+     * Invocation, decision and timing counts for one rule in the sequence.
+     */
+    public static class RuleStatistics implements Serializable {
+        private static final long serialVersionUID = 1L;
+        protected LongAdder invocations = new LongAdder();
+        protected LongAdder decisions = new LongAdder();
+        protected LongAdder nanos = new LongAdder();
+
+        public long getInvocations() {
+            return invocations.sum();
+        }
+        public long getDecisions() {
+            return decisions.sum();
+        }
+        public long getNanos() {
+            return nanos.sum();
+        }
+    }
+
+    /** per-rule counters, by rule identity */
+    protected ConcurrentHashMap<DecideRule, RuleStatistics> ruleStatistics =
+            new ConcurrentHashMap<DecideRule, RuleStatistics>();
+
+    public RuleStatistics getRuleStatistics(DecideRule rule) {
+        return ruleStatistics.computeIfAbsent(rule, r -> new RuleStatistics());
+    }
+
     public DecideResult innerDecide(CrawlURI uri) {
         DecideRule decisiveRule = null;
         int decisiveRuleNumber = -1;
@@ -107,18 +156,27 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         List<DecideRule> rules = getRules();
         int max = rules.size();
 
-        for (int i = 0; i < max; i++) {
-            DecideRule rule = rules.get(i);
-            if (rule.onlyDecision(uri) != result) {
-                DecideResult r = rule.decisionFor(uri);
-                if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest("DecideRule #" + i + " " + 
-                            rule.getClass().getName() + " returned " + r + " for url: " + uri);
-                }
+        if (getEvaluateInReverse()) {
+            for (int i = max - 1; i >= 0; i--) {
+                DecideRule rule = rules.get(i);
+                DecideResult r = evaluateRule(rule, i, uri);
                 if (r != DecideResult.NONE) {
                     result = r;
                     decisiveRule = rule;
                     decisiveRuleNumber = i;
+                    break;
+                }
+            }
+        } else {
+            for (int i = 0; i < max; i++) {
+                DecideRule rule = rules.get(i);
+                if (rule.onlyDecision(uri) != result) {
+                    DecideResult r = evaluateRule(rule, i, uri);
+                    if (r != DecideResult.NONE) {
+                        result = r;
+                        decisiveRule = rule;
+                        decisiveRuleNumber = i;
+                    }
                 }
             }
         }
@@ -128,6 +186,44 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         return result;
     }
 
+    protected DecideResult evaluateRule(DecideRule rule, int i, CrawlURI uri) {
+        RuleStatistics stats = getRuleStatistics(rule);
+        long start = System.nanoTime();
+        DecideResult r = rule.decisionFor(uri);
+        stats.nanos.add(System.nanoTime() - start);
+        stats.invocations.increment();
+        if (r != DecideResult.NONE) {
+            stats.decisions.increment();
+        }
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("DecideRule #" + i + " " +
+                    rule.getClass().getName() + " returned " + r + " for url: " + uri);
+        }
+        return r;
+    }
+
+    /**
+     * Write per-rule counters (invocations, decisions, and mean time per
+     * invocation), nested sequences included, one rule per line.
+     */
+    public void reportTo(String indent, StringBuilder sb) {
+        List<DecideRule> rules = getRules();
+        for (int i = 0; i < rules.size(); i++) {
+            DecideRule rule = rules.get(i);
+            RuleStatistics stats = ruleStatistics.get(rule);
+            long invocations = stats == null ? 0 : stats.getInvocations();
+            sb.append(indent).append('#').append(i).append(' ')
+                .append(rule.getClass().getSimpleName())
+                .append(": ").append(invocations).append(" invocations, ")
+                .append(stats == null ? 0 : stats.getDecisions()).append(" decisive, ")
+                .append(invocations == 0 ? 0 : stats.getNanos() / invocations)
+                .append(" ns/invocation\n");
+            if (rule instanceof DecideRuleSequence) {
+                ((DecideRuleSequence) rule).reportTo(indent + "  ", sb);
+            }
+        }
+    }
+
     protected void decisionMade(CrawlURI uri, DecideRule decisiveRule,
             int decisiveRuleNumber, DecideResult result) {
         if (fileLogger != null) {
@@ -31,6 +31,7 @@ import java.util.regex.Pattern;
 
 import org.archive.modules.CrawlURI;
 import org.archive.util.InterruptibleCharSequence;
+import org.archive.util.MultiRegexMatcher;
 
 /**
  * Rule applies configured decision to any CrawlURIs whose String URI
@@ -88,6 +89,36 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         kp.put("listLogicalOr",listLogicalOr);
     }
 
+    /**
+     * A matcher, and the list and patterns it was made for.
+     */
+    protected static class CachedMatcher {
+        final List<Pattern> list;
+        final Pattern[] patterns;
+        final MultiRegexMatcher matcher;
+
+        CachedMatcher(List<Pattern> list, MultiRegexMatcher matcher) {
+            this.list = list;
+            this.patterns = list.toArray(new Pattern[0]);
+            this.matcher = matcher;
+        }
+
+        /** whether still for the given list, unchanged */
+        boolean isFor(List<Pattern> regexes) {
+            if (regexes != list || regexes.size() != patterns.length) {
+                return false;
+            }
+            for (int i = 0; i < patterns.length; i++) {
+                if (regexes.get(i) != patterns[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    protected transient volatile CachedMatcher cachedMatcher;
+
     /**
      * Usual constructor. 
      */
@@ -96,7 +127,12 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
 
     /**
      * Evaluate whether given object's string version
-     * matches configured regexes
+     * matches configured regexes.
+     * <p>
+     * The regexes are run together by a {@link MultiRegexMatcher}, in time
+     * linear in the length of the URI. The few that it can't handle are run
+     * one by one with {@link #matches(Pattern, CharSequence)}, subject to
+     * the timeout.
      */
     @Override
     protected boolean evaluate(CrawlURI uri) {
@@ -106,54 +142,69 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         }
 
         String str = uri.toString();
-        boolean listLogicOR = getListLogicalOr();
-
-        for (Pattern p: regexes) {
-            boolean matches = false;
-            if (getTimeoutPerRegexSeconds() <= 0) {
-                matches = p.matcher(str).matches();
-            } else {
-                InterruptibleCharSequence interruptible = new InterruptibleCharSequence(str);
-                FutureTask<Boolean> matchesFuture = new FutureTask<>(() -> p.matcher(interruptible).matches());
-                ForkJoinPool.commonPool().submit(matchesFuture);
-                try {
-                    matches = matchesFuture.get(getTimeoutPerRegexSeconds(), TimeUnit.SECONDS);
-                } catch (TimeoutException e) {
-                    matchesFuture.cancel(true);
-                    logger.warning("Timed out after " + getTimeoutPerRegexSeconds() + " seconds waiting for '" + p + "' to match.");
-                } catch (InterruptedException e) {
-                    matchesFuture.cancel(true);
-                    logger.warning("InterruptedException while waiting for '" + p + "' to match.");
-                } catch (ExecutionException e) {
-                    matchesFuture.cancel(true);
-                    logger.warning("ExecutionException while waiting for '" + p + "' to match: " + e.getMessage());
-                }
+        MultiRegexMatcher matcher = matcherFor(regexes);
+        boolean result;
+        if (getListLogicalOr()) {
+            result = matcher.matchesAny(str, this::matches);
+            if (result) {
+                logger.fine("Matched: " + str);
             }
+        } else {
+            result = matcher.matchesAll(str, this::matches);
+        }
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("Tested '" + str + "' match with regexes " + regexes
+                    + " and result was " + result);
+        }
+        return result;
+    }
 
-            if (logger.isLoggable(Level.FINER)) {
-                logger.finer("Tested '" + str + "' match with regex '" +
-                        p.pattern() + " and result was " + matches);
-            }
+    /**
+     * The matcher for the given list of regexes, kept while the same list
+     * (as set, or as overridden by a sheet) is used and its patterns don't
+     * change, so most URIs need no lookup in the shared cache of
+     * {@link MultiRegexMatcher#forPatterns(List)}.
+     */
+    protected MultiRegexMatcher matcherFor(List<Pattern> regexes) {
+        CachedMatcher cached = cachedMatcher;
+        if (cached == null || !cached.isFor(regexes)) {
+            cached = new CachedMatcher(regexes, MultiRegexMatcher.forPatterns(regexes));
+            cachedMatcher = cached;
+        }
+        return cached.matcher;
+    }
 
-            if(matches){
-                if(listLogicOR){
-                    // OR based and we just got a match, done!
-                    logger.fine("Matched: " + str);
-                    return true;
-                }
-            } else {
-                if(listLogicOR == false){
-                    // AND based and we just found a non-match, done!
-                    return false;
-                }
+    /**
+     * Match a single regex with java.util.regex, giving up after the
+     * configured timeout, if any.
+     */
+    protected boolean matches(Pattern p, CharSequence str) {
+        boolean matches = false;
+        if (getTimeoutPerRegexSeconds() <= 0) {
+            matches = p.matcher(str).matches();
+        } else {
+            InterruptibleCharSequence interruptible = new InterruptibleCharSequence(str);
+            FutureTask<Boolean> matchesFuture = new FutureTask<>(() -> p.matcher(interruptible).matches());
+            ForkJoinPool.commonPool().submit(matchesFuture);
+            try {
+                matches = matchesFuture.get(getTimeoutPerRegexSeconds(), TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                matchesFuture.cancel(true);
+                logger.warning("Timed out after " + getTimeoutPerRegexSeconds() + " seconds waiting for '" + p + "' to match.");
+            } catch (InterruptedException e) {
+                matchesFuture.cancel(true);
+                logger.warning("InterruptedException while waiting for '" + p + "' to match.");
+            } catch (ExecutionException e) {
+                matchesFuture.cancel(true);
+                logger.warning("ExecutionException while waiting for '" + p + "' to match: " + e.getMessage());
             }
         }
 
-        if (listLogicOR) {
-            return false;
-        } else {
-            return true;
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("Tested '" + str + "' match with regex '" +
+                    p.pattern() + " and result was " + matches);
         }
+        return matches;
     }
 
-}
\ No newline at end of file
+}
@@ -18,9 +18,11 @@
  */
 package org.archive.modules.deciderules;
 
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 import org.archive.modules.CrawlURI;
+import org.archive.util.MultiRegexMatcher;
 
 /**
  * Rule applies configured decision to any CrawlURIs whose String URI
@@ -59,7 +61,9 @@ public class MatchesRegexDecideRule extends PredicatedDecideRule {
     @Override
     protected boolean evaluate(CrawlURI uri) {
         Pattern p = getRegex();
-        return p.matcher(getString(uri)).matches();
+        // linear time, with java.util.regex only for unsupported syntax
+        return MultiRegexMatcher.forPatterns(Collections.singletonList(p))
+                .matchesAny(getString(uri));
     }
     
     protected String getString(CrawlURI uri) {
@@ -18,8 +18,11 @@
  */
 package org.archive.modules.extractor;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStatusCodes;
+import org.springframework.beans.factory.annotation.Autowired;
 
 
 /**
@@ -29,17 +32,82 @@ import org.archive.modules.fetcher.FetchStatusCodes;
  */
 public abstract class ContentExtractor extends Extractor {
 
+    protected AtomicLong cacheHits = new AtomicLong(0);
+    protected AtomicLong cacheMisses = new AtomicLong(0);
+    protected AtomicLong cacheHitNanos = new AtomicLong(0);
+    protected AtomicLong cacheMissNanos = new AtomicLong(0);
+
+    protected transient ExtractionCache extractionCache;
+    public ExtractionCache getExtractionCache() {
+        return extractionCache;
+    }
+    /**
+     * Cache of links by content digest, used if
+     * {@link #isExtractionCacheable(CrawlURI)}. Optional.
+     */
+    @Autowired(required=false)
+    public void setExtractionCache(ExtractionCache extractionCache) {
+        this.extractionCache = extractionCache;
+    }
 
     /**
      * Extracts links 
      */
     final protected void extract(CrawlURI uri) {
-        boolean finished = innerExtract(uri);
+        boolean finished;
+        if (extractionCache != null && isExtractionCacheable(uri)) {
+            finished = extractionCache.extract(this, uri);
+        } else {
+            finished = innerExtract(uri);
+        }
         if (finished) {
             uri.linkExtractorFinished();
         }
     }
 
+    /**
+     * Whether the links this extractor finds in the given URI depend only
+     * on its content, content-type and base (or via), so may be taken from
+     * the {@link ExtractionCache} for other URIs with the same content
+     * digest. False unless overridden.
+     * 
+     * @param uri the URI about to be extracted
+     * @return true if the extraction cache may be used
+     */
+    protected boolean isExtractionCacheable(CrawlURI uri) {
+        return false;
+    }
+
+    /**
+     * Part of the {@link ExtractionCache} key, so that URIs extracted with
+     * different settings do not share entries: the names of the sheets
+     * applied to the URI that override this extractor's settings. Extractors
+     * that use the settings of other beans should add theirs.
+     * 
+     * @param uri the URI about to be extracted
+     * @return a string equal for URIs whose extraction settings are equal
+     */
+    protected String getExtractionCacheSettings(CrawlURI uri) {
+        return ExtractionCache.overlaysOverriding(uri, kp);
+    }
+
+    @Override
+    public String report() {
+        StringBuilder ret = new StringBuilder(super.report());
+        long hits = cacheHits.get();
+        long misses = cacheMisses.get();
+        if (hits + misses > 0) {
+            long missNanos = cacheMissNanos.get();
+            long saved = (misses == 0) ? 0
+                    : hits * (missNanos / misses) - cacheHitNanos.get();
+            ret.append("  extraction cache: " + hits + " hits, " + misses
+                    + " misses (" + (100 * hits / (hits + misses))
+                    + "% hit rate), ~" + (saved / 1000000)
+                    + "ms CPU saved\n");
+        }
+        return ret.toString();
+    }
+
     /**
      * Determines if links should be extracted from the given URI. This method
      * performs four checks. It first checks if the URI was processed successfully,
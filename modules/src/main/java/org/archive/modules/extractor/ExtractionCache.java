@@ -0,0 +1,294 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.archive.modules.CrawlURI;
+import org.archive.spring.KeyedProperties;
+import org.archive.url.URIException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the links extracted from fetched content by payload digest
+ * ({@link CrawlURI#getContentDigestSchemeString()}), so that other copies
+ * of the same content -- shared script libraries, stylesheets, boilerplate
+ * pages, CDN mirrors -- are not parsed again. What is remembered is each
+ * link as it appeared in the content, before derelativization, so on a hit
+ * the links are resolved against the new URI's base (or via) just as if
+ * they had been extracted again.
+ *
+ * <p>Define one of these in the crawl configuration to have it used by the
+ * {@link ContentExtractor}s that allow it (see
+ * {@link ContentExtractor#isExtractionCacheable(CrawlURI)}); their
+ * {@link Extractor#report()} then shows the hit rate and the CPU time saved.
+ * Entries are keyed by extractor, the sheets overriding its settings for
+ * the URI (see {@link ContentExtractor#getExtractionCacheSettings(CrawlURI)}),
+ * content-type header and digest, and are evicted least-recently-used when
+ * their total size passes {@link #getMaxCachedChars()}.
+ *
+ * <p>A result is not remembered if extracting it stored anything in the
+ * URI's data map other than annotations (for example an HTML
+ * {@code <base href>}, meta robots or form offsets), or recorded a
+ * non-fatal failure, because those depend on more than the links. Checks
+ * of the URI itself, such as its path in
+ * {@link ExtractorHTML#isHtmlExpectedHere(CrawlURI)}, belong in
+ * {@link ContentExtractor#shouldExtract(CrawlURI)}, which is made for every
+ * URI before the cache is consulted.
+ */
+public class ExtractionCache {
+
+    static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** how a remembered link is to be resolved */
+    protected enum Kind {
+        BASE, VIA, URI, ABSOLUTE
+    }
+
+    /**
+     * The links and annotations found in one copy of some content, in the
+     * order found.
+     */
+    protected static class Entry {
+        final String[] uris;
+        final Kind[] kinds;
+        final LinkContext[] contexts;
+        final Hop[] hops;
+        final String[] annotations;
+        final boolean finished;
+
+        Entry(Recording r, String[] annotations, boolean finished) {
+            int n = r.uris.size();
+            this.uris = r.uris.toArray(new String[n]);
+            this.kinds = r.kinds.toArray(new Kind[n]);
+            this.contexts = r.contexts.toArray(new LinkContext[n]);
+            this.hops = r.hops.toArray(new Hop[n]);
+            this.annotations = annotations;
+            this.finished = finished;
+        }
+
+        int weight() {
+            int weight = 16;
+            for (String uri : uris) {
+                weight += uri.length() + 8;
+            }
+            for (String annotation : annotations) {
+                weight += annotation.length() + 8;
+            }
+            return weight;
+        }
+    }
+
+    /** links added to one URI while an extractor runs on it */
+    protected static class Recording {
+        final CrawlURI curi;
+        final List<String> uris = new ArrayList<String>();
+        final List<Kind> kinds = new ArrayList<Kind>();
+        final List<LinkContext> contexts = new ArrayList<LinkContext>();
+        final List<Hop> hops = new ArrayList<Hop>();
+        boolean cacheable = true;
+
+        Recording(CrawlURI curi) {
+            this.curi = curi;
+        }
+    }
+
+    protected static final ThreadLocal<Recording> RECORDING = new ThreadLocal<Recording>();
+
+    /**
+     * Notes a link being added to {@code curi}, if its extraction is being
+     * recorded on this thread.
+     */
+    static void record(CrawlURI curi, Kind kind, CharSequence uri,
+            LinkContext context, Hop hop) {
+        Recording r = RECORDING.get();
+        if (r != null && r.curi == curi) {
+            r.uris.add(uri.toString());
+            r.kinds.add(kind);
+            r.contexts.add(context);
+            r.hops.add(hop);
+        }
+    }
+
+    /**
+     * Keeps the current extraction of {@code curi} out of the cache, for
+     * extractors that find links in ways that depend on more than the
+     * content and base.
+     */
+    public static void skip(CrawlURI curi) {
+        Recording r = RECORDING.get();
+        if (r != null && r.curi == curi) {
+            r.cacheable = false;
+        }
+    }
+
+    protected long maxCachedChars = 64 * 1024 * 1024;
+    public long getMaxCachedChars() {
+        return maxCachedChars;
+    }
+    /**
+     * Approximate bound on the total length of the links and annotations
+     * held, in characters. The cache is built when first used, so changes
+     * after then have no effect.
+     */
+    public void setMaxCachedChars(long maxCachedChars) {
+        this.maxCachedChars = maxCachedChars;
+    }
+
+    private volatile Cache<String,Entry> entries;
+
+    protected Cache<String,Entry> getEntries() {
+        if (entries == null) {
+            synchronized (this) {
+                if (entries == null) {
+                    entries = CacheBuilder.newBuilder()
+                            .maximumWeight(getMaxCachedChars())
+                            .weigher((String k, Entry e) -> e.weight())
+                            .<String,Entry>build();
+                }
+            }
+        }
+        return entries;
+    }
+
+    public long size() {
+        return getEntries().size();
+    }
+
+    /**
+     * Extracts links from {@code curi} with {@code extractor}, replaying a
+     * remembered result for the same content if there is one.
+     *
+     * @return as {@link ContentExtractor#innerExtract(CrawlURI)}
+     */
+    public boolean extract(ContentExtractor extractor, CrawlURI curi) {
+        String digest = curi.getContentDigestSchemeString();
+        if (digest == null || RECORDING.get() != null) {
+            return extractor.innerExtract(curi);
+        }
+        String key = extractor.getClass().getName() + " " + extractor.getBeanName()
+                + " [" + extractor.getExtractionCacheSettings(curi) + "] "
+                + curi.getContentType() + " " + digest;
+        long startTime = cpuTime();
+        Entry entry = getEntries().getIfPresent(key);
+        if (entry != null) {
+            replay(extractor, curi, entry);
+            extractor.cacheHits.incrementAndGet();
+            extractor.cacheHitNanos.addAndGet(cpuTime() - startTime);
+            return entry.finished;
+        }
+
+        Recording r = new Recording(curi);
+        int annotationCount = curi.getAnnotations().size();
+        int failureCount = curi.getNonFatalFailures().size();
+        Set<String> dataKeys = new HashSet<String>(curi.getData().keySet());
+        boolean finished;
+        RECORDING.set(r);
+        try {
+            finished = extractor.innerExtract(curi);
+        } finally {
+            RECORDING.remove();
+        }
+        extractor.cacheMisses.incrementAndGet();
+        extractor.cacheMissNanos.addAndGet(cpuTime() - startTime);
+
+        if (!r.cacheable || curi.getNonFatalFailures().size() != failureCount
+                || !dataKeys.containsAll(curi.getData().keySet())) {
+            return finished;
+        }
+        Collection<String> annotations = curi.getAnnotations();
+        String[] added = new String[annotations.size() - annotationCount];
+        Iterator<String> iter = annotations.iterator();
+        for (int i = 0; i < annotationCount; i++) {
+            iter.next();
+        }
+        for (int i = 0; i < added.length; i++) {
+            added[i] = iter.next();
+        }
+        getEntries().put(key, new Entry(r, added, finished));
+        return finished;
+    }
+
+    /**
+     * @return the names of the sheets applied to {@code curi} that override
+     * any of the given settings, each followed by a space
+     */
+    public static String overlaysOverriding(CrawlURI curi, KeyedProperties kp) {
+        if (!curi.haveOverlayNamesBeenSet()) {
+            return "";
+        }
+        StringBuilder names = new StringBuilder();
+        for (String name : curi.getOverlayNames()) {
+            if (kp.isOverriddenBy(curi.getOverlayMap(name))) {
+                names.append(name).append(' ');
+            }
+        }
+        return names.toString();
+    }
+
+    protected void replay(ContentExtractor extractor, CrawlURI curi, Entry entry) {
+        int max = extractor.getExtractorParameters().getMaxOutlinks();
+        int before = curi.getOutLinks().size();
+        for (int i = 0; i < entry.uris.length; i++) {
+            String uri = entry.uris[i];
+            try {
+                switch (entry.kinds[i]) {
+                case BASE:
+                    Extractor.addRelativeToBase(curi, max, uri, entry.contexts[i], entry.hops[i]);
+                    break;
+                case VIA:
+                    Extractor.addRelativeToVia(curi, max, uri, entry.contexts[i], entry.hops[i]);
+                    break;
+                case URI:
+                    extractor.addOutlink(curi, uri, entry.contexts[i], entry.hops[i]);
+                    break;
+                case ABSOLUTE:
+                    Extractor.add(curi, max, uri, entry.contexts[i], entry.hops[i]);
+                    break;
+                }
+            } catch (URIException e) {
+                extractor.logUriError(e, curi.getUURI(), uri);
+            }
+        }
+        for (String annotation : entry.annotations) {
+            curi.getAnnotations().add(annotation);
+        }
+        extractor.numberOfLinksExtracted.addAndGet(curi.getOutLinks().size() - before);
+    }
+
+    /**
+     * CPU time of the current thread, or wall time where that is not
+     * available (as on virtual threads).
+     */
+    static long cpuTime() {
+        long time = THREADS.isCurrentThreadCpuTimeSupported()
+                ? THREADS.getCurrentThreadCpuTime() : -1;
+        return (time < 0) ? System.nanoTime() : time;
+    }
+}
@@ -142,6 +142,7 @@ public abstract class Extractor extends Processor {
         if (UriUtils.isDataUri(uri)) {
             return null;
         }
+        ExtractionCache.record(curi, ExtractionCache.Kind.URI, uri, context, hop);
         try {
             UURI dest = UURIFactory.getInstance(curi.getUURI(), uri);
             CrawlURI link = curi.createCrawlURI(dest, context, hop);
@@ -158,6 +159,7 @@ public abstract class Extractor extends Processor {
         if ("data".equalsIgnoreCase(uuri.getScheme())) {
             return;
         }
+        ExtractionCache.record(curi, ExtractionCache.Kind.ABSOLUTE, uuri.toString(), context, hop);
         try {
             CrawlURI link = curi.createCrawlURI(uuri, context, hop);
             curi.getOutLinks().add(link);
@@ -200,6 +202,7 @@ public abstract class Extractor extends Processor {
         if (UriUtils.isDataUri(newUri)) {
             return null;
         }
+        ExtractionCache.record(uri, ExtractionCache.Kind.BASE, newUri, context, hop);
         UURI dest = UURIFactory.getInstance(uri.getBaseURI(), newUri.toString());
         return add2(uri, max, dest, context, hop);
     }
@@ -213,6 +216,7 @@ public abstract class Extractor extends Processor {
         if (UriUtils.isDataUri(newUri)) {
             return null;
         }
+        ExtractionCache.record(uri, ExtractionCache.Kind.VIA, newUri, context, hop);
         UURI relTo = uri.getVia();
         if (relTo == null) {
             if (!uri.getAnnotations().contains("usedBaseForVia")) {
@@ -227,6 +231,7 @@ public abstract class Extractor extends Processor {
 
     public static void add(CrawlURI uri, int max, String newUri,
             LinkContext context, Hop hop) throws URIException {
+        ExtractionCache.record(uri, ExtractionCache.Kind.ABSOLUTE, newUri, context, hop);
         UURI dest = UURIFactory.getInstance(newUri);
         add2(uri, max, dest, context, hop);
     }
@@ -103,6 +103,11 @@ public class ExtractorCSS extends ContentExtractor {
         return true;
     }
     
+    @Override
+    protected boolean isExtractionCacheable(CrawlURI curi) {
+        return true;
+    }
+
     /**
      * @param curi Crawl URI to process.
      */
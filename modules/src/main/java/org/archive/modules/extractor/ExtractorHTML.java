@@ -29,6 +29,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -87,6 +88,11 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
 
     // As per https://infra.spec.whatwg.org/#ascii-whitespace
     private final static Pattern ASCII_WHITESPACE = Pattern.compile("[\t\n\f\r ]+");
+
+    // lazy-loading image attributes treated as embeds
+    private final static Set<String> DATA_SRC_ATTRIBUTES = Set.of("data-src",
+            "data-src-small", "data-src-medium", "data-srcset", "data-original",
+            "data-original-set", "data-lazy", "data-lazy-srcset", "data-full-src");
     
     {
         setMaxElementLength(64); 
@@ -342,6 +348,24 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     public void setObeyRelNofollow(boolean obeyRelNofollow) {
         kp.put("obeyRelNofollow", obeyRelNofollow);
     }
+
+    {
+        setUseTokenizer(false);
+    }
+    public boolean getUseTokenizer() {
+        return (Boolean) kp.get("useTokenizer");
+    }
+    /**
+     * If true, find tags and attributes with the hand-written single-pass
+     * scanners of {@link HTMLTokenizer} instead of the
+     * {@link #RELEVANT_TAG_EXTRACTOR} and {@link #EACH_ATTRIBUTE_EXTRACTOR}
+     * regular expressions. The scanners produce exactly the same matches,
+     * but avoid the regex engine's backtracking on large or malformed
+     * documents.
+     */
+    public void setUseTokenizer(boolean useTokenizer) {
+        kp.put("useTokenizer", useTokenizer);
+    }
     
     /**
      * CrawlMetadata provides the robots honoring policy to use when 
@@ -372,6 +396,10 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     // TODO: convert to Strings
     private String relevantTagPattern;
     private String eachAttributePattern;
+    // lengths the patterns were built with, for the equivalent scanners
+    private int patternMaxElementLength;
+    private int patternMaxAttributeNameLength;
+    private int patternMaxAttributeValLength;
  
     public ExtractorHTML() {
     }
@@ -388,13 +416,87 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         regex = regex.replace(MAX_ATTR_VAL_REPLACE,
                     Integer.toString(getMaxAttributeValLength()));
         this.eachAttributePattern = regex;
+
+        this.patternMaxElementLength = getMaxElementLength();
+        this.patternMaxAttributeNameLength = getMaxAttributeNameLength();
+        this.patternMaxAttributeValLength = getMaxAttributeValLength();
+    }
+
+    protected HTMLTokenizer.Matches tagMatches(CharSequence cs) {
+        if (getUseTokenizer()) {
+            return new HTMLTokenizer.TagScanner(cs, patternMaxElementLength);
+        }
+        return new HTMLTokenizer.RegexMatches(relevantTagPattern, cs);
+    }
+
+    protected HTMLTokenizer.Matches attributeMatches(CharSequence cs) {
+        if (getUseTokenizer()) {
+            return new HTMLTokenizer.AttributeScanner(cs,
+                    patternMaxAttributeNameLength, patternMaxAttributeValLength);
+        }
+        return new HTMLTokenizer.RegexMatches(eachAttributePattern, cs);
     }
     
 
+    /**
+     * Whether the tag innards match
+     * {@code (?i).*data-remote\s*=\s*(["'])true.*\1}, without running that
+     * regex against every anchor.
+     */
+    protected static boolean isDataRemoteTrue(CharSequence cs) {
+        int len = cs.length();
+        if (len == 0) {
+            return false;
+        }
+        char quote = cs.charAt(len - 1);
+        if (quote != '"' && quote != '\'') {
+            return false;
+        }
+        // '.' does not match line terminators
+        int firstTerminator = len;
+        int lastTerminator = -1;
+        for (int i = 0; i < len - 1; i++) {
+            if (isLineTerminator(cs.charAt(i))) {
+                firstTerminator = Math.min(firstTerminator, i);
+                lastTerminator = i;
+            }
+        }
+        for (int k = 0; k < firstTerminator; k++) {
+            if (!HTMLTokenizer.regionMatchesIgnoreCase(cs, k, "data-remote")) {
+                continue;
+            }
+            int j = k + 11;
+            while (j < len && HTMLTokenizer.isSpace(cs.charAt(j))) {
+                j++;
+            }
+            if (j >= len || cs.charAt(j) != '=') {
+                continue;
+            }
+            j++;
+            while (j < len && HTMLTokenizer.isSpace(cs.charAt(j))) {
+                j++;
+            }
+            if (j >= len || cs.charAt(j) != quote
+                    || !HTMLTokenizer.regionMatchesIgnoreCase(cs, j + 1, "true")) {
+                continue;
+            }
+            int afterTrue = j + 5;
+            if (afterTrue <= len - 1 && lastTerminator < afterTrue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+                || c == '\u2029';
+    }
+
     protected void processGeneralTag(CrawlURI curi, CharSequence element,
             CharSequence cs) {
 
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        HTMLTokenizer.Matches attr = attributeMatches(cs);
 
         // Just in case it's an OBJECT or APPLET tag
         String codebase = null;
@@ -450,7 +552,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             if (attr.start(2) > -1) {
                 CharSequence context;
                 // HREF
-                if ("a".equals(element) && TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", cs)) {
+                if ("a".equals(element) && isDataRemoteTrue(cs)) {
                     context = "a[data-remote='true']/@href";
                 } else {
                     context = elementContext(element, attr.group(2));
@@ -569,9 +671,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
 
 				// 2023 updates get img or source data attr
 				CharSequence context = elementContext(element, attr.group(13));
-				if (TextUtils.matches(
-						"data-(src|src-small|src-medium|srcset|original|original-set|lazy|lazy-srcset|full-src)", //
-						attr.group(13).toLowerCase())) {
+				if (DATA_SRC_ATTRIBUTES.contains(attr.group(13).toLowerCase())) {
 
 					// true, if we expect another HTML page instead of an image etc.
 					final Hop hop;
@@ -592,7 +692,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                 // and/or symptomatic of page bugs
             }
         }
-        TextUtils.recycleMatcher(attr);
+        attr.recycle();
 
         // handle codebase/resources
         if (resources != null) {
@@ -601,6 +701,8 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             String res = null;
             try {
                 if (codebase != null) {
+                    // resolved against this URI, not the base
+                    ExtractionCache.skip(curi);
                     // TODO: Pass in the charset.
                     codebaseURI = UURIFactory.
                         getInstance(curi.getUURI(), codebase);
@@ -894,6 +996,22 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         return false;
     }
 
+    @Override
+    protected boolean isExtractionCacheable(CrawlURI uri) {
+        return true;
+    }
+
+    @Override
+    protected String getExtractionCacheSettings(CrawlURI uri) {
+        // inline script is extracted with the ExtractorJS's settings
+        String settings = super.getExtractionCacheSettings(uri);
+        if (getExtractorJS() != null) {
+            settings += ExtractionCache.overlaysOverriding(uri,
+                    getExtractorJS().getKeyedProperties());
+        }
+        return settings;
+    }
+
     public boolean innerExtract(CrawlURI curi) {
         if (!curi.containsContentTypeCharsetDeclaration()) {
             String contentPrefix = curi.getRecorder().getContentReplayPrefixString(1000);
@@ -982,7 +1100,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      * of this extractors' lifetime.
      */
     protected void extract(CrawlURI curi, CharSequence cs) {
-        Matcher tags = TextUtils.getMatcher(relevantTagPattern,cs);
+        HTMLTokenizer.Matches tags = tagMatches(cs);
         while(tags.find()) {
             if(Thread.interrupted()){
                 break;
@@ -1046,7 +1164,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                     tags.end(4) - start);
             }
         }
-        TextUtils.recycleMatcher(tags);
+        tags.recycle();
     }
 
 
@@ -1108,7 +1226,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      * @return True robots exclusion metatag.
      */
     protected boolean processMeta(CrawlURI curi, CharSequence cs) {
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        HTMLTokenizer.Matches attr = attributeMatches(cs);
         String name = null;
         String httpEquiv = null;
         String content = null;
@@ -1127,7 +1245,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             }            
             // TODO: handle other stuff
         }
-        TextUtils.recycleMatcher(attr);
+        attr.recycle();
 
         // Look for the 'robots' meta-tag
         if("robots".equalsIgnoreCase(name) && content != null ) {
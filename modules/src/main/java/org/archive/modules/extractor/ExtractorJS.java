@@ -74,6 +74,24 @@ public class ExtractorJS extends ContentExtractor {
 
     protected long numberOfCURIsHandled = 0;
 
+    {
+        setUseLexer(false);
+    }
+    public boolean getUseLexer() {
+        return (Boolean) kp.get("useLexer");
+    }
+    /**
+     * If true, find candidate strings with the hand-written single-pass
+     * {@link JSStringLexer} instead of the {@link #JAVASCRIPT_STRING_EXTRACTOR}
+     * regular expression. The lexer takes time linear in the size of the
+     * script, and skips comments and regular expression literals, and so
+     * the strings that only the regex's pairing of quotes across them would
+     * find; it also considers template literals.
+     */
+    public void setUseLexer(boolean useLexer) {
+        kp.put("useLexer", useLexer);
+    }
+
     protected boolean shouldExtract(CrawlURI uri) {
         String contentType = uri.getContentType();
         if (contentType == null) {
@@ -110,6 +128,11 @@ public class ExtractorJS extends ContentExtractor {
     }
     
 
+    @Override
+    protected boolean isExtractionCacheable(CrawlURI uri) {
+        return true;
+    }
+
     @Override
     protected boolean innerExtract(CrawlURI curi) {
         this.numberOfCURIsHandled++;
@@ -144,6 +167,9 @@ public class ExtractorJS extends ContentExtractor {
     
     public long considerStrings(Extractor ext, 
             CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
+        if (getUseLexer()) {
+            return considerLexedStrings(ext, curi, cs, handlingJSFile);
+        }
         long foundLinks = 0;
         
         Matcher strings =
@@ -166,15 +192,34 @@ public class ExtractorJS extends ContentExtractor {
         return foundLinks;
     }
 
+    protected long considerLexedStrings(final Extractor ext,
+            final CrawlURI curi, CharSequence cs, final boolean handlingJSFile) {
+        final long[] foundLinks = {0};
+        new JSStringLexer(cs, UURI.MAX_URL_LENGTH, candidate -> {
+            if (UriUtils.isPossibleUri(candidate)
+                    && considerString(ext, curi, handlingJSFile, candidate.toString())) {
+                foundLinks[0]++;
+            }
+        }).scan();
+        return foundLinks[0];
+    }
+
 
     protected boolean considerString(Extractor ext, CrawlURI curi,
             boolean handlingJSFile, String candidate) {
-        try {
-            candidate = StringEscapeUtils.unescapeEcmaScript(candidate);
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "problem unescaping some javascript", e);
+        if (candidate.indexOf('\\') >= 0) {
+            try {
+                candidate = StringEscapeUtils.unescapeEcmaScript(candidate);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "problem unescaping some javascript", e);
+            }
+        }
+        String fixed = UriUtils.speculativeFixup(candidate, curi.getUURI());
+        if (fixed.startsWith("https://") && !candidate.startsWith("https")) {
+            // scheme-less host name given this URI's scheme, being the same host
+            ExtractionCache.skip(curi);
         }
-        candidate = UriUtils.speculativeFixup(candidate, curi.getUURI());
+        candidate = fixed;
 
         if (shouldAddUri(curi, candidate)) {
             try {
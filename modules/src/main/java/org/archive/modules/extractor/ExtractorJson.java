@@ -1,16 +1,19 @@
 package org.archive.modules.extractor;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
 import org.archive.util.UriUtils;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * Extracts URIs from JSON resources.
@@ -18,35 +21,104 @@ import java.util.logging.Logger;
  * n.b. chokes on JSONP, e.g.
  * <p>
  * breakingNews({"pollPeriod":30000,"isError":false,"html":""})
+ * <p>
+ * The content is read as a stream of tokens straight from the recorder, so
+ * no document tree is built. String values in objects and arrays are
+ * considered as links; nesting deeper than {@link #getMaxDepth()} and strings
+ * longer than {@link #getMaxStringLength()} are skipped without being
+ * materialized.
  *
  * @author rcoram
  */
 public class ExtractorJson extends ContentExtractor {
     public final static String JSON_URI = "^https?://[^/]+/.+\\.json\\b.*$";
+    protected final static Pattern JSON_URI_PATTERN = Pattern.compile(JSON_URI);
     private static final Logger LOGGER = Logger.getLogger(ExtractorJson.class.getName());
     private final JsonFactory factory = new JsonFactory();
-    private final ObjectMapper mapper = new ObjectMapper(factory);
+
+    {
+        setMaxDepth(64);
+        setMaxStringLength(UURI.MAX_URL_LENGTH);
+    }
+    public int getMaxDepth() {
+        return (Integer) kp.get("maxDepth");
+    }
+    /**
+     * Objects and arrays nested deeper than this are skipped.
+     */
+    public void setMaxDepth(int maxDepth) {
+        kp.put("maxDepth", maxDepth);
+    }
+
+    public int getMaxStringLength() {
+        return (Integer) kp.get("maxStringLength");
+    }
+    /**
+     * String values longer than this many characters are not considered as
+     * links.
+     */
+    public void setMaxStringLength(int maxStringLength) {
+        kp.put("maxStringLength", maxStringLength);
+    }
 
     @Override
     protected boolean innerExtract(CrawlURI curi) {
-        try {
-            List<String> links = new ArrayList<>();
-            JsonNode rootNode = mapper.readTree(curi.getRecorder().getContentReplayInputStream());
-            parse(rootNode, links);
-            for (String link : links) {
+        try (JsonParser parser = factory.createParser(
+                curi.getRecorder().getContentReplayInputStream())) {
+            extract(curi, parser);
+        } catch (Exception e) {
+            // Only record this as INFO, as malformed JSON is fairly common.
+            LOGGER.log(Level.INFO, curi.getURI() + " : " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Walk the token stream, adding likely URIs found in string values as
+     * outlinks until the outlinks limit is reached.
+     */
+    protected void extract(CrawlURI curi, JsonParser parser) throws IOException {
+        int max = getExtractorParameters().getMaxOutlinks();
+        int maxDepth = getMaxDepth();
+        int maxStringLength = getMaxStringLength();
+        int depth = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+            case START_OBJECT:
+            case START_ARRAY:
+                if (++depth > maxDepth) {
+                    parser.skipChildren();
+                    depth--;
+                }
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                depth--;
+                break;
+            case VALUE_STRING:
+                // top-level scalars are not links
+                if (depth == 0 || parser.getTextLength() > maxStringLength) {
+                    break;
+                }
+                String link = parser.getText();
+                if (!UriUtils.isVeryLikelyUri(link)) {
+                    break;
+                }
                 try {
-                    int max = getExtractorParameters().getMaxOutlinks();
                     addRelativeToBase(curi, max, link, LinkContext.INFERRED_MISC, Hop.INFERRED);
                     numberOfLinksExtracted.incrementAndGet();
                 } catch (org.archive.url.URIException e) {
                     logUriError(e, curi.getUURI(), link);
                 }
+                if (curi.getOutLinks().size() >= max) {
+                    return;
+                }
+                break;
+            default:
+                break;
             }
-        } catch (Exception e) {
-            // Only record this as INFO, as malformed JSON is fairly common.
-            LOGGER.log(Level.INFO, curi.getURI() + " : " + e.getMessage());
         }
-        return false;
     }
 
     @Override
@@ -55,9 +127,13 @@ public class ExtractorJson extends ContentExtractor {
         if (contentType != null && contentType.contains("json")) {
             return true;
         }
-        return curi.isSuccess() && curi.toString().matches(JSON_URI);
+        return curi.isSuccess() && JSON_URI_PATTERN.matcher(curi.toString()).matches();
     }
 
+    /**
+     * @deprecated tree-walking predecessor of {@link #extract(CrawlURI, JsonParser)}
+     */
+    @Deprecated
     protected List<String> parse(JsonNode rootNode, List<String> links) {
         for (Map.Entry<String, JsonNode> field : rootNode.properties()) {
             if (field.getValue().textValue() != null
@@ -35,6 +35,7 @@ import org.archive.url.URIException;
 import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStatusCodes;
+import org.archive.util.MultiRegexMatcher;
 import org.archive.util.TextUtils;
 
 /**
@@ -214,7 +215,10 @@ public class ExtractorMultipleRegex extends Extractor {
         // { regex name -> list of matches }
         Map<String, MatchList> matchLists;
 
-        // uri regex
+        // uri regex; a linear-time check first, as most URIs won't match
+        if (!MultiRegexMatcher.forRegex(getUriRegex()).matchesAny(curi.getURI())) {
+            return;
+        }
         Matcher matcher = TextUtils.getMatcher(getUriRegex(), curi.getURI());
         if (matcher.matches()) {
             matchLists = new LinkedHashMap<String,MatchList>();
@@ -235,6 +239,14 @@ public class ExtractorMultipleRegex extends Extractor {
             return;
         }
         
+        // make sure every regex finds something before collecting groups
+        for (String regex: getContentRegexes().values()) {
+            if (!MultiRegexMatcher.forRegex(regex).findsAny(cs)) {
+                TextUtils.recycleMatcher(matcher);
+                return;
+            }
+        }
+
         // run all the regexes on the content and cache results
         for (String regexName: getContentRegexes().keySet()) {
             String regex = getContentRegexes().get(regexName);
@@ -74,26 +74,11 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
-        try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
         ArrayList<String> uris;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            try (PDFParser parser = new PDFParser(tempFile.getAbsolutePath())){
-                uris = parser.extractURIs();
+            uris = parseDirectly(curi);
+            if (uris == null) {
+                uris = parseFromTempFile(curi);
             }
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
@@ -103,8 +88,6 @@ public class ExtractorPDF extends ContentExtractor {
             // other problems
             curi.getNonFatalFailures().add(e);
             return false;
-        } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
         }
         
         if (uris == null) {
@@ -131,4 +114,44 @@ public class ExtractorPDF extends ContentExtractor {
         // Set flag to indicate that link extraction is completed.
         return true;
     }
+
+    /**
+     * Parse the PDF straight out of the recorder's buffer and backing file.
+     *
+     * @return the extracted URIs, or null if the recorded body is chunked or
+     *         content-encoded and so has to be decoded to a file first
+     */
+    protected ArrayList<String> parseDirectly(CrawlURI curi) throws IOException {
+        ReplayRandomAccessRead source = ReplayRandomAccessRead.open(curi.getRecorder());
+        if (source == null) {
+            return null;
+        }
+        try (PDFParser parser = new PDFParser(source)) {
+            return parser.extractURIs();
+        } finally {
+            source.close();
+        }
+    }
+
+    protected ArrayList<String> parseFromTempFile(CrawlURI curi) throws IOException {
+        File tempFile;
+
+        int sn;
+        Thread thread = Thread.currentThread();
+        if (thread instanceof SinkHandlerLogThread) {
+            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
+        } else {
+            sn = System.identityHashCode(thread);
+        }
+        tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
+
+        try {
+            curi.getRecorder().copyContentBodyTo(tempFile);
+            try (PDFParser parser = new PDFParser(tempFile.getAbsolutePath())){
+                return parser.extractURIs();
+            }
+        } finally {
+            FileUtils.deleteSoonerOrLater(tempFile);
+        }
+    }
 }
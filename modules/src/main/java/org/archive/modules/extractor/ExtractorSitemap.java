@@ -1,14 +1,23 @@
 package org.archive.modules.extractor;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Collection;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.archive.url.URIException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.extractor.ContentExtractor;
 import org.archive.modules.extractor.Hop;
@@ -30,6 +39,28 @@ public class ExtractorSitemap extends ContentExtractor {
     private static final Logger LOGGER = Logger
             .getLogger(ExtractorSitemap.class.getName());
 
+    /**
+     * Data key under which the {@code <lastmod>} of a sitemap entry is
+     * carried on the outlink, as milliseconds since the epoch.
+     */
+    public static final String A_SITEMAP_LASTMOD = "sitemap-lastmod";
+
+    /**
+     * Maximum number of outlinks taken from a single sitemap. Sitemaps are
+     * excused from {@link ExtractorParameters#getMaxOutlinks()} and instead
+     * get the limit of the sitemap protocol.
+     */
+    protected static final int MAX_SITEMAP_OUTLINKS = 50000;
+
+    protected static final XMLInputFactory XML_INPUT_FACTORY;
+    static {
+        XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
     /**
      * If urlPattern is not null then any url marked as a sitemap and matching the pattern is
      * assumed to be a sitemap. Otherwise the mime-type is checked (must be "text/xml" or "application/xml") and the
@@ -43,6 +74,15 @@ public class ExtractorSitemap extends ContentExtractor {
      */
     private boolean enableLenientExtraction = false;
 
+    /**
+     * If true, XML urlset and sitemapindex documents are read incrementally
+     * and each {@code <loc>} is added as an outlink as soon as its entry has
+     * been parsed, instead of first building the whole sitemap in memory.
+     * Other formats (plain text, RSS, Atom) still go through the
+     * crawler-commons parser.
+     */
+    private boolean streamingParse = false;
+
     /* (non-Javadoc)
      * @see org.archive.modules.extractor.ContentExtractor#shouldExtract(org.archive.modules.CrawlURI)
      */
@@ -96,6 +136,10 @@ public class ExtractorSitemap extends ContentExtractor {
      */
     @Override
     protected boolean innerExtract(CrawlURI uri) {
+        if (isStreamingParse() && streamSiteMap(uri)) {
+            return false;
+        }
+
         // Parse the sitemap:
         AbstractSiteMap sitemap = parseSiteMap(uri);
 
@@ -109,8 +153,8 @@ public class ExtractorSitemap extends ContentExtractor {
                     if (asm == null) {
                         continue;
                     }
-                    this.recordOutlink(uri, asm.getUrl(), asm.getLastModified(),
-                            true);
+                    this.recordOutlink(uri, asm.getUrl().toString(),
+                            asm.getLastModified(), true);
                 }
             } else {
                 final Collection<SiteMapURL> links = ((SiteMap) sitemap)
@@ -119,8 +163,8 @@ public class ExtractorSitemap extends ContentExtractor {
                     if (url == null) {
                         continue;
                     }
-                    this.recordOutlink(uri, url.getUrl(), url.getLastModified(),
-                            false);
+                    this.recordOutlink(uri, url.getUrl().toString(),
+                            url.getLastModified(), false);
                 }
             }
         }
@@ -161,7 +205,143 @@ public class ExtractorSitemap extends ContentExtractor {
         return sitemap;
     }
 
-    private void recordOutlink(CrawlURI curi, URL newUri, Date lastModified,
+    /**
+     * Walk an XML urlset or sitemapindex with a pull parser, adding each entry
+     * as an outlink as soon as its closing tag is seen. Nothing but the
+     * current entry is held in memory.
+     *
+     * @return false if the content is not a sitemap XML document this method
+     *         understands (including content, such as a text sitemap, that
+     *         fails to parse before the root element), and should be handed
+     *         to the full parser instead
+     */
+    protected boolean streamSiteMap(CrawlURI uri) {
+        XMLStreamReader reader = null;
+        boolean started = false;
+        try (InputStream in = openSiteMapStream(uri)) {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext()
+                    && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            }
+            if (!reader.isStartElement()) {
+                return false;
+            }
+
+            boolean isIndex;
+            if ("sitemapindex".equals(reader.getLocalName())) {
+                isIndex = true;
+            } else if ("urlset".equals(reader.getLocalName())) {
+                isIndex = false;
+            } else {
+                return false;
+            }
+            started = true;
+            String entryName = isIndex ? "sitemap" : "url";
+            // the sitemap protocol only restricts urls listed in a urlset
+            String baseUrl = null;
+            if (!isIndex && !isEnableLenientExtraction()) {
+                baseUrl = new SiteMap(uri.getURI()).getBaseUrl();
+            }
+
+            String loc = null;
+            String lastmod = null;
+            int depth = 1;
+            int entryDepth = -1;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (entryDepth < 0) {
+                        if (depth == 2 && entryName.equals(name)) {
+                            entryDepth = depth;
+                            loc = null;
+                            lastmod = null;
+                        }
+                    } else if (depth == entryDepth + 1 && "loc".equals(name)) {
+                        loc = reader.getElementText();
+                        depth--;
+                    } else if (depth == entryDepth + 1 && "lastmod".equals(name)) {
+                        lastmod = reader.getElementText();
+                        depth--;
+                    } else if ("loc".equals(name)) {
+                        // extension locs (image:loc, video:loc...) are picked
+                        // up by the namespace-lenient full parser too
+                        emitStreamedEntry(uri, reader.getElementText(), null,
+                                isIndex, baseUrl);
+                        depth--;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == entryDepth) {
+                        entryDepth = -1;
+                        emitStreamedEntry(uri, loc, lastmod, isIndex, baseUrl);
+                    }
+                    depth--;
+                }
+            }
+        } catch (IOException e) {
+            if (!started) {
+                return false;
+            }
+            LOGGER.log(Level.WARNING,
+                    "I/O Exception when parsing sitemap " + uri, e);
+        } catch (XMLStreamException e) {
+            if (!started) {
+                // not XML, or not well-formed before the root element
+                return false;
+            }
+            // keep whatever was emitted before the error, like the partial
+            // extraction allowed of the full parser
+            LOGGER.log(Level.WARNING,
+                    "XMLStreamException when parsing sitemap " + uri, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOGGER.log(Level.FINE, "problem closing reader", e);
+                }
+            }
+        }
+        return true;
+    }
+
+    protected void emitStreamedEntry(CrawlURI uri, String loc, String lastmod,
+            boolean isIndex, String baseUrl) {
+        loc = StringUtils.strip(loc);
+        if (StringUtils.isEmpty(loc)) {
+            return;
+        }
+        if (baseUrl != null && !SiteMapParser.urlIsValid(baseUrl, loc)) {
+            LOGGER.fine("Skipping " + loc + " not under sitemap base "
+                    + baseUrl + " in " + uri);
+            return;
+        }
+        Date lastModified = null;
+        if (StringUtils.isNotBlank(lastmod)) {
+            lastModified = AbstractSiteMap.convertToDate(lastmod.trim());
+        }
+        recordOutlink(uri, loc, lastModified, isIndex);
+    }
+
+    /**
+     * Open the content for streaming, undoing gzip compression that was not
+     * signalled by a Content-Encoding header (e.g. a sitemap.xml.gz).
+     */
+    protected InputStream openSiteMapStream(CrawlURI uri) throws IOException {
+        InputStream in = new BufferedInputStream(
+                uri.getRecorder().getContentReplayInputStream());
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == 0x1f && b1 == 0x8b) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    private void recordOutlink(CrawlURI curi, String newUri, Date lastModified,
             boolean isSitemap) {
         try {
             // Get the max outlinks (needed by add method):
@@ -172,17 +352,22 @@ public class ExtractorSitemap extends ContentExtractor {
             // getExtractorParameters().getMaxOutlinks();
             //
             // And instead use the maximum that is allowed for a sitemap:
-            int max = 50000;
+            int max = MAX_SITEMAP_OUTLINKS;
 
             // Add the URI:
         	// Adding 'regular' URL listed in the sitemap
-            CrawlURI newCuri = addRelativeToBase(curi, max, newUri.toString(),
+            CrawlURI newCuri = addRelativeToBase(curi, max, newUri,
                     LinkContext.MANIFEST_MISC, Hop.MANIFEST);
 
             if (newCuri == null) {
                 return;
             }
 
+            if (lastModified != null) {
+                newCuri.getData().put(A_SITEMAP_LASTMOD,
+                        lastModified.getTime());
+            }
+
             if (isSitemap) {
                 // Annotate as a Site Map:
                 newCuri.getAnnotations().add(
@@ -195,7 +380,7 @@ public class ExtractorSitemap extends ContentExtractor {
             // Count it:
             numberOfLinksExtracted.incrementAndGet();
         } catch (URIException e) {
-            logUriError(e, curi.getUURI(), newUri.toString());
+            logUriError(e, curi.getUURI(), newUri);
         }
 
     }
@@ -227,5 +412,19 @@ public class ExtractorSitemap extends ContentExtractor {
         this.enableLenientExtraction = enableLenientExtraction;
     }
 
+    public boolean isStreamingParse() {
+        return streamingParse;
+    }
+
+    /**
+     * If true, XML urlset and sitemapindex documents are read incrementally
+     * and each {@code <loc>} is added as an outlink as soon as its entry has
+     * been parsed, instead of first building the whole sitemap in memory.
+     * @param streamingParse whether to use the streaming parser
+     */
+    public void setStreamingParse(boolean streamingParse) {
+        this.streamingParse = streamingParse;
+    }
+
 
 }
@@ -0,0 +1,512 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+
+import org.archive.util.TextUtils;
+
+/**
+ * Hand-written, single-pass scanners producing exactly the matches (and
+ * capturing-group offsets) of {@link ExtractorHTML}'s
+ * {@link ExtractorHTML#RELEVANT_TAG_EXTRACTOR} and
+ * {@link ExtractorHTML#EACH_ATTRIBUTE_EXTRACTOR} regular expressions, without
+ * the regex engine's backtracking on malformed markup.
+ *
+ * <p>Both scanners and the regex-backed {@link RegexMatches} implement
+ * {@link Matches}, so the extractor's tag handling is shared between the two
+ * modes.
+ *
+ * @see ExtractorHTML#setUseTokenizer(boolean)
+ */
+public class HTMLTokenizer {
+
+    /**
+     * The subset of {@link Matcher} used by {@link ExtractorHTML}. Group
+     * numbers are those of the corresponding regex; a group that did not
+     * participate in the match has start and end -1.
+     */
+    public interface Matches {
+        boolean find();
+        boolean find(int from);
+        int start(int group);
+        int end(int group);
+        int end();
+        String group(int group);
+        default void recycle() {
+        }
+    }
+
+    /**
+     * {@link Matches} backed by a (recycled) regex {@link Matcher}.
+     */
+    public static class RegexMatches implements Matches {
+        protected Matcher matcher;
+
+        public RegexMatches(String regex, CharSequence cs) {
+            this.matcher = TextUtils.getMatcher(regex, cs);
+        }
+        public boolean find() {
+            return matcher.find();
+        }
+        public boolean find(int from) {
+            return matcher.find(from);
+        }
+        public int start(int group) {
+            return matcher.start(group);
+        }
+        public int end(int group) {
+            return matcher.end(group);
+        }
+        public int end() {
+            return matcher.end();
+        }
+        public String group(int group) {
+            return matcher.group(group);
+        }
+        public void recycle() {
+            TextUtils.recycleMatcher(matcher);
+        }
+    }
+
+    protected abstract static class Scanner implements Matches {
+        protected final CharSequence cs;
+        protected final int len;
+        protected final int[] starts;
+        protected final int[] ends;
+        protected int matchEnd = -1;
+        protected int searchFrom = 0;
+
+        protected Scanner(CharSequence cs, int groupCount) {
+            this.cs = cs;
+            this.len = cs.length();
+            this.starts = new int[groupCount + 1];
+            this.ends = new int[groupCount + 1];
+        }
+
+        public boolean find() {
+            return find(searchFrom);
+        }
+
+        public boolean find(int from) {
+            if (from < 0 || from > len) {
+                throw new IndexOutOfBoundsException("Illegal start index");
+            }
+            Arrays.fill(starts, -1);
+            Arrays.fill(ends, -1);
+            if (scan(from)) {
+                searchFrom = matchEnd;
+                return true;
+            }
+            matchEnd = -1;
+            searchFrom = len;
+            return false;
+        }
+
+        protected abstract boolean scan(int from);
+
+        public int start(int group) {
+            checkMatch();
+            return starts[group];
+        }
+        public int end(int group) {
+            checkMatch();
+            return ends[group];
+        }
+        public int end() {
+            checkMatch();
+            return matchEnd;
+        }
+        public String group(int group) {
+            checkMatch();
+            return starts[group] < 0 ? null
+                    : cs.subSequence(starts[group], ends[group]).toString();
+        }
+        protected void checkMatch() {
+            if (matchEnd < 0) {
+                throw new IllegalStateException("No match available");
+            }
+        }
+        protected void set(int group, int start, int end) {
+            starts[group] = start;
+            ends[group] = end;
+        }
+    }
+
+    /**
+     * Equivalent of {@link ExtractorHTML#RELEVANT_TAG_EXTRACTOR}.
+     */
+    public static class TagScanner extends Scanner {
+        protected final int maxElementLength;
+        protected final Finder gt;
+        protected final Finder scriptClose;
+        protected final Finder styleClose;
+        protected final Finder commentClose;
+
+        public TagScanner(CharSequence cs, int maxElementLength) {
+            super(cs, 8);
+            this.maxElementLength = maxElementLength;
+            this.gt = new Finder(cs, ">");
+            this.scriptClose = new Finder(cs, "</script>");
+            this.styleClose = new Finder(cs, "</style>");
+            this.commentClose = new Finder(cs, "-->");
+        }
+
+        @Override
+        protected boolean scan(int from) {
+            for (int i = from; i < len; i++) {
+                if (cs.charAt(i) == '<' && matchAt(i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected boolean matchAt(int lt) {
+            int p = lt + 1;
+            // (1, 2) <script ...> ... </script>
+            if (regionMatchesIgnoreCase(cs, p, "script")) {
+                int tagEnd = gt.next(p + 6);
+                if (tagEnd < 0) {
+                    return false;
+                }
+                int close = scriptClose.next(tagEnd + 1);
+                if (close >= 0) {
+                    set(1, p, close + 8);
+                    set(2, p, tagEnd);
+                    matchEnd = close + 9;
+                    return true;
+                }
+            }
+            // (3, 4) <style ...> ... </style>
+            if (regionMatchesIgnoreCase(cs, p, "style")) {
+                int tagEnd = gt.next(p + 5);
+                if (tagEnd < 0) {
+                    return false;
+                }
+                int close = styleClose.next(tagEnd + 1);
+                if (close >= 0) {
+                    set(3, p, close + 7);
+                    set(4, p, tagEnd);
+                    matchEnd = close + 8;
+                    return true;
+                }
+            }
+            // (5, 6, 7) element of at most maxElementLength word chars,
+            // whitespace, anything up to the next '>'
+            int k = p;
+            while (k < len && k - p <= maxElementLength && isWordChar(cs.charAt(k))) {
+                k++;
+            }
+            int elementLength = k - p;
+            if (elementLength >= 1 && elementLength <= maxElementLength
+                    && k < len && isSpace(cs.charAt(k))) {
+                int tagEnd = gt.next(k + 1);
+                if (tagEnd < 0) {
+                    return false;
+                }
+                set(5, p, tagEnd);
+                set(6, p, k);
+                if (elementLength == 4 && regionMatchesIgnoreCase(cs, p, "meta")) {
+                    set(7, p, k);
+                }
+                matchEnd = tagEnd + 1;
+                return true;
+            }
+            // (8) comment, other than <!--[if ...> and <!-->
+            if (regionMatchesIgnoreCase(cs, p, "!--")) {
+                int j = p + 3;
+                if (regionMatchesIgnoreCase(cs, j, "[if")
+                        || (j < len && cs.charAt(j) == '>')) {
+                    return false;
+                }
+                int close = commentClose.next(j);
+                if (close >= 0) {
+                    set(8, p, close + 2);
+                    matchEnd = close + 3;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Equivalent of {@link ExtractorHTML#EACH_ATTRIBUTE_EXTRACTOR}.
+     */
+    public static class AttributeScanner extends Scanner {
+        protected final int maxNameLength;
+        protected final int maxValueLength;
+
+        public AttributeScanner(CharSequence cs, int maxNameLength, int maxValueLength) {
+            super(cs, 16);
+            this.maxNameLength = maxNameLength;
+            this.maxValueLength = maxValueLength;
+        }
+
+        @Override
+        protected boolean scan(int from) {
+            int i = from;
+            while (i < len) {
+                // optional single leading whitespace, then the name
+                int p = isSpace(cs.charAt(i)) ? i + 1 : i;
+                if (p >= len || !isNameChar(cs.charAt(p))) {
+                    i++;
+                    continue;
+                }
+                int runEnd = p;
+                while (runEnd < len && isNameChar(cs.charAt(runEnd))) {
+                    runEnd++;
+                }
+                // every name ends at the end of the run, so all start
+                // positions within it share the same '=' and value
+                if (matchValue(runEnd)) {
+                    for (int q = p; q < runEnd; q++) {
+                        int group = classify(q, runEnd);
+                        if (group > 0) {
+                            set(1, q, runEnd);
+                            set(group, q, runEnd);
+                            return true;
+                        }
+                    }
+                }
+                Arrays.fill(starts, -1);
+                Arrays.fill(ends, -1);
+                i = runEnd;
+            }
+            return false;
+        }
+
+        /**
+         * Which name group (2-13) matches the whole of cs[start,end), or 0.
+         */
+        protected int classify(int start, int end) {
+            int n = end - start;
+            switch (n) {
+            case 3:
+                if (equalsIgnoreCase(start, end, "src")) return 5;
+                break;
+            case 4:
+                if (equalsIgnoreCase(start, end, "href")
+                        || equalsIgnoreCase(start, end, "cite")) return 2;
+                if (equalsIgnoreCase(start, end, "data")) return 7;
+                if (equalsIgnoreCase(start, end, "code")) return 9;
+                break;
+            case 5:
+                if (equalsIgnoreCase(start, end, "value")) return 10;
+                if (equalsIgnoreCase(start, end, "style")) return 11;
+                break;
+            case 6:
+                if (equalsIgnoreCase(start, end, "action")) return 3;
+                if (equalsIgnoreCase(start, end, "srcset")
+                        || equalsIgnoreCase(start, end, "lowsrc")
+                        || equalsIgnoreCase(start, end, "usemap")) return 5;
+                if (equalsIgnoreCase(start, end, "method")) return 12;
+                break;
+            case 7:
+                if (equalsIgnoreCase(start, end, "profile")
+                        || equalsIgnoreCase(start, end, "datasrc")) return 5;
+                if (equalsIgnoreCase(start, end, "classid")) return 7;
+                if (equalsIgnoreCase(start, end, "archive")) return 8;
+                break;
+            case 8:
+                if (equalsIgnoreCase(start, end, "longdesc")
+                        || equalsIgnoreCase(start, end, "data-src")) return 5;
+                if (equalsIgnoreCase(start, end, "codebase")) return 6;
+                break;
+            case 10:
+                if (equalsIgnoreCase(start, end, "background")) return 5;
+                break;
+            case 11:
+                if (equalsIgnoreCase(start, end, "data-srcset")) return 5;
+                break;
+            case 13:
+                if (equalsIgnoreCase(start, end, "data-original")) return 5;
+                break;
+            case 17:
+                if (equalsIgnoreCase(start, end, "data-original-set")) return 5;
+                break;
+            }
+            // on\w{0,max}; checked ahead of the literals it cannot collide with
+            if (n >= 2 && n - 2 <= maxNameLength
+                    && regionMatchesIgnoreCase(cs, start, "on")) {
+                boolean allWord = true;
+                for (int k = start + 2; k < end; k++) {
+                    if (!isWordChar(cs.charAt(k))) {
+                        allWord = false;
+                        break;
+                    }
+                }
+                if (allWord) {
+                    return 4;
+                }
+            }
+            return n <= maxNameLength ? 13 : 0;
+        }
+
+        /**
+         * Match {@code \s*=\s*} and one of the three value alternatives at
+         * {@code pos}, setting groups 14-16 and the match end.
+         */
+        protected boolean matchValue(int pos) {
+            int k = pos;
+            while (k < len && isSpace(cs.charAt(k))) {
+                k++;
+            }
+            if (k >= len || cs.charAt(k) != '=') {
+                return false;
+            }
+            k++;
+            while (k < len && isSpace(cs.charAt(k))) {
+                k++;
+            }
+            if (k >= len) {
+                return false;
+            }
+            char quote = cs.charAt(k);
+            if (quote == '"' || quote == '\'') {
+                int group = quote == '"' ? 14 : 15;
+                int valueStart = k + 1;
+                for (int n = 0; n <= maxValueLength; n++) {
+                    int at = valueStart + n;
+                    if (at < len && cs.charAt(at) == quote) {
+                        set(group, valueStart, at);
+                        matchEnd = at + 1;
+                        return true;
+                    }
+                    if (isDollar(at)) {
+                        set(group, valueStart, at);
+                        matchEnd = at;
+                        return true;
+                    }
+                    if (at >= len) {
+                        break;
+                    }
+                }
+            }
+            int e = k;
+            while (e < len && e - k < maxValueLength && !isSpace(cs.charAt(e))) {
+                e++;
+            }
+            set(16, k, e);
+            matchEnd = e;
+            return true;
+        }
+
+        /**
+         * Whether the (non-MULTILINE) regex {@code $} matches at {@code at}:
+         * at the end of input, or before a line terminator ending the input.
+         */
+        protected boolean isDollar(int at) {
+            if (at == len) {
+                return true;
+            }
+            if (at == len - 2) {
+                return cs.charAt(at) == '\r' && cs.charAt(at + 1) == '\n';
+            }
+            if (at == len - 1) {
+                char c = cs.charAt(at);
+                if (c == '\n') {
+                    return at == 0 || cs.charAt(at - 1) != '\r';
+                }
+                return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+            }
+            return false;
+        }
+
+        protected boolean equalsIgnoreCase(int start, int end, String lower) {
+            return end - start == lower.length()
+                    && regionMatchesIgnoreCase(cs, start, lower);
+        }
+    }
+
+    /**
+     * Forward search for an ASCII needle, case-insensitively, remembering the
+     * last hit so that repeated searches from increasing positions (as when
+     * many tags lack a closing tag) stay linear.
+     */
+    protected static class Finder {
+        protected final CharSequence cs;
+        protected final String needle;
+        protected int searchedFrom = -1;
+        protected int found = -1;
+
+        protected Finder(CharSequence cs, String lowerCaseNeedle) {
+            this.cs = cs;
+            this.needle = lowerCaseNeedle;
+        }
+
+        protected int next(int from) {
+            if (searchedFrom >= 0 && from >= searchedFrom
+                    && (found < 0 || from <= found)) {
+                return found;
+            }
+            searchedFrom = from;
+            found = -1;
+            char first = needle.charAt(0);
+            int last = cs.length() - needle.length();
+            for (int i = from; i <= last; i++) {
+                if (toLowerAscii(cs.charAt(i)) == first
+                        && regionMatchesIgnoreCase(cs, i, needle)) {
+                    found = i;
+                    break;
+                }
+            }
+            return found;
+        }
+    }
+
+    /** Same set of characters as the regex class {@code \s}. */
+    protected static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+                || c == '\f' || c == '\r';
+    }
+
+    /** Same set of characters as the regex class {@code \w}. */
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** Same set of characters as the regex class {@code [-\w]}. */
+    protected static boolean isNameChar(char c) {
+        return c == '-' || isWordChar(c);
+    }
+
+    protected static char toLowerAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * ASCII-only case-insensitive comparison, as done by the regex engine
+     * for CASE_INSENSITIVE without UNICODE_CASE.
+     */
+    protected static boolean regionMatchesIgnoreCase(CharSequence cs, int start, String lower) {
+        if (start < 0 || start + lower.length() > cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < lower.length(); i++) {
+            if (toLowerAscii(cs.charAt(start + i)) != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Hand-written, single-pass lexer finding the string and template literals
+ * of Javascript source, for {@link ExtractorJS}. Unlike
+ * {@link ExtractorJS#JAVASCRIPT_STRING_EXTRACTOR}, which pairs up quote
+ * characters wherever they appear, it skips comments and regular expression
+ * literals, whose quotes would otherwise throw the pairing off, and does a
+ * bounded amount of work per character however large the script.
+ *
+ * <p>Candidates passed to the consumer, in order of their start, are:
+ * <ul>
+ * <li>the contents of each string literal, and each text part of each
+ * template literal, still escaped as in the source;
+ * <li>within those contents, text between a matching pair of nested quotes
+ * -- plain, backslash-escaped, or <code>&#92;u0022</code> and
+ * <code>&#92;u0027</code> escapes -- as for HTML or JSON within a string;
+ * <li>outside any literal, text between a matching pair of escaped quotes,
+ * as in script that was itself taken from a string.
+ * </ul>
+ * Each candidate is a view into the source, valid only for the duration of
+ * the call. Candidates longer than the maximum length are skipped, though
+ * still searched for nested quotes.
+ *
+ * <p>Unterminated literals are not candidates; lexing resumes just after
+ * their opening quote.
+ *
+ * @see ExtractorJS#setUseLexer(boolean)
+ */
+public class JSStringLexer {
+
+    /** words after which a '/' begins a regular expression, not a division */
+    protected static final String[] EXPRESSION_KEYWORDS = {
+        "await", "case", "delete", "do", "else", "in", "instanceof", "new",
+        "of", "return", "throw", "typeof", "void", "yield"
+    };
+
+    protected final CharSequence cs;
+    protected final int len;
+    protected final int maxLength;
+    protected final Consumer<CharSequence> candidates;
+    protected final View view;
+
+    /** whether a '/' at the current position would begin a regex literal */
+    protected boolean regexAllowed = true;
+
+    /** brace depth within each enclosing template literal substitution */
+    protected int[] templateDepths = new int[4];
+    protected int templates = 0;
+
+    /*
+     * Where an unterminated literal's scan stopped. No literal of the same
+     * kind is looked for again before that point, so that each character
+     * is rescanned at most once per kind however many stray quotes there are.
+     */
+    protected int noSingleQuotedBefore = -1;
+    protected int noDoubleQuotedBefore = -1;
+    protected int noTemplateBefore = -1;
+    protected int noRegexBefore = -1;
+
+    /**
+     * @param cs Javascript source
+     * @param maxLength longest candidate to report
+     * @param candidates receives each candidate
+     */
+    public JSStringLexer(CharSequence cs, int maxLength,
+            Consumer<CharSequence> candidates) {
+        this.cs = cs;
+        this.len = cs.length();
+        this.maxLength = maxLength;
+        this.candidates = candidates;
+        this.view = new View(cs);
+    }
+
+    /**
+     * Lex the whole source, reporting candidates.
+     */
+    public void scan() {
+        int i = 0;
+        while (i < len) {
+            char c = cs.charAt(i);
+            switch (c) {
+            case '\'':
+            case '"':
+                i = stringLiteral(i, c);
+                break;
+            case '`':
+                if (i < noTemplateBefore) {
+                    i++;
+                    regexAllowed = true;
+                } else {
+                    i = templateText(i + 1);
+                }
+                break;
+            case '/':
+                i = slash(i);
+                break;
+            case '\\':
+                i = escapedQuotes(i);
+                regexAllowed = false;
+                break;
+            case '{':
+                if (templates > 0) {
+                    templateDepths[templates - 1]++;
+                }
+                i++;
+                regexAllowed = true;
+                break;
+            case '}':
+                if (templates > 0) {
+                    if (templateDepths[templates - 1] == 0) {
+                        // end of substitution; back into template text
+                        templates--;
+                        i = templateText(i + 1);
+                        break;
+                    }
+                    templateDepths[templates - 1]--;
+                }
+                i++;
+                regexAllowed = true;
+                break;
+            case ')':
+            case ']':
+                i++;
+                regexAllowed = false;
+                break;
+            default:
+                if (isIdentifierPart(c)) {
+                    int start = i;
+                    do {
+                        i++;
+                    } while (i < len && isIdentifierPart(cs.charAt(i)));
+                    regexAllowed = isExpressionKeyword(start, i);
+                } else {
+                    if (c > ' ') {
+                        // punctuation or operator
+                        regexAllowed = true;
+                    }
+                    i++;
+                }
+            }
+        }
+    }
+
+    protected static boolean isIdentifierPart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_' || c == '$' || c >= 0x80;
+    }
+
+    protected boolean isExpressionKeyword(int start, int end) {
+        for (String keyword : EXPRESSION_KEYWORDS) {
+            if (keyword.length() == end - start && regionMatches(start, keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean regionMatches(int start, String s) {
+        for (int j = 0; j < s.length(); j++) {
+            if (cs.charAt(start + j) != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param open index of the opening quote
+     * @return index at which to continue lexing
+     */
+    protected int stringLiteral(int open, char quote) {
+        regexAllowed = false;
+        if (open < (quote == '\'' ? noSingleQuotedBefore : noDoubleQuotedBefore)) {
+            return open + 1;
+        }
+        boolean nested = false;
+        int j = open + 1;
+        while (j < len) {
+            char c = cs.charAt(j);
+            if (c == quote) {
+                candidate(open + 1, j);
+                if (nested) {
+                    nestedQuotes(open + 1, j);
+                }
+                return j + 1;
+            }
+            if (c == '\\') {
+                if (j + 1 < len) {
+                    char e = cs.charAt(j + 1);
+                    nested |= (e == '\'' || e == '"' || e == 'u');
+                }
+                // escaped character, including line continuations
+                j += 2;
+                continue;
+            }
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+            nested |= (c == '\'' || c == '"');
+            j++;
+        }
+        if (quote == '\'') {
+            noSingleQuotedBefore = Math.min(j, len);
+        } else {
+            noDoubleQuotedBefore = Math.min(j, len);
+        }
+        return open + 1;
+    }
+
+    /**
+     * Report the template literal text starting at the given index, up to
+     * the closing backquote or the start of a substitution.
+     *
+     * @return index at which to continue lexing
+     */
+    protected int templateText(int from) {
+        boolean nested = false;
+        for (int j = from; j < len; j++) {
+            char c = cs.charAt(j);
+            if (c == '\\') {
+                if (j + 1 < len) {
+                    char e = cs.charAt(j + 1);
+                    nested |= (e == '\'' || e == '"' || e == 'u');
+                }
+                j++;
+            } else if (c == '`') {
+                candidate(from, j);
+                if (nested) {
+                    nestedQuotes(from, j);
+                }
+                regexAllowed = false;
+                return j + 1;
+            } else if (c == '$' && j + 1 < len && cs.charAt(j + 1) == '{') {
+                candidate(from, j);
+                if (nested) {
+                    nestedQuotes(from, j);
+                }
+                if (templates == templateDepths.length) {
+                    templateDepths = Arrays.copyOf(templateDepths, templates * 2);
+                }
+                templateDepths[templates++] = 0;
+                regexAllowed = true;
+                return j + 2;
+            } else {
+                nested |= (c == '\'' || c == '"');
+            }
+        }
+        noTemplateBefore = len;
+        regexAllowed = true;
+        return from;
+    }
+
+    /**
+     * Skip a comment or regex literal starting at the given '/', if it
+     * begins one.
+     *
+     * @return index at which to continue lexing
+     */
+    protected int slash(int i) {
+        if (i + 1 < len) {
+            char next = cs.charAt(i + 1);
+            if (next == '/') {
+                int j = i + 2;
+                while (j < len && cs.charAt(j) != '\n' && cs.charAt(j) != '\r') {
+                    j++;
+                }
+                return j;
+            }
+            if (next == '*') {
+                for (int j = i + 2; j + 1 < len; j++) {
+                    if (cs.charAt(j) == '*' && cs.charAt(j + 1) == '/') {
+                        return j + 2;
+                    }
+                }
+                return len;
+            }
+        }
+        if (regexAllowed && i >= noRegexBefore) {
+            int end = regexLiteral(i);
+            if (end >= 0) {
+                regexAllowed = false;
+                return end;
+            }
+        }
+        // division
+        regexAllowed = true;
+        return i + 1;
+    }
+
+    /**
+     * @return index after the regex literal (and its flags) starting at the
+     *         given '/', or -1 if it does not end on the same line
+     */
+    protected int regexLiteral(int open) {
+        boolean inClass = false;
+        for (int j = open + 1; j < len; j++) {
+            char c = cs.charAt(j);
+            if (c == '\n' || c == '\r') {
+                noRegexBefore = j;
+                return -1;
+            }
+            if (c == '\\') {
+                j++;
+            } else if (inClass) {
+                inClass = (c != ']');
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '/') {
+                j++;
+                while (j < len && isIdentifierPart(cs.charAt(j))) {
+                    j++;
+                }
+                return j;
+            }
+        }
+        noRegexBefore = len;
+        return -1;
+    }
+
+    /**
+     * Outside any literal, report the text between the escaped quote
+     * starting with the backslash at the given index and the next matching
+     * one. A quote is closed by the next quote character, if the same; a
+     * <code>&#92;u0022</code> or <code>&#92;u0027</code> by the next of the
+     * same before any quote character.
+     *
+     * @return index at which to continue lexing
+     */
+    protected int escapedQuotes(int i) {
+        int j = i;
+        while (j < len && cs.charAt(j) == '\\') {
+            j++;
+        }
+        int run = Math.min(j - i, 8);
+        if (j >= len) {
+            return j;
+        }
+        char c = cs.charAt(j);
+        if (c == '\'' || c == '"') {
+            for (int p = j + 1; p < len; p++) {
+                char d = cs.charAt(p);
+                if (d == '\'' || d == '"') {
+                    if (d != c) {
+                        return j + 1;
+                    }
+                    int k = Math.min(run, backslashesBefore(p, j + 1));
+                    candidate(j + 1, p - k);
+                    return p + 1;
+                }
+            }
+            return j + 1;
+        }
+        char kind = quoteEscape(j, len);
+        if (kind != 0) {
+            for (int p = j + 5; p < len; p++) {
+                char d = cs.charAt(p);
+                if (d == '\'' || d == '"') {
+                    break;
+                }
+                if (d == 'u' && cs.charAt(p - 1) == '\\' && quoteEscape(p, len) == kind) {
+                    int k = Math.min(run, backslashesBefore(p, j + 5));
+                    candidate(j + 5, p - k);
+                    return p + 5;
+                }
+            }
+            return j + 5;
+        }
+        return j;
+    }
+
+    /**
+     * Report text between matching nested quotes within the given literal
+     * contents. Each quote character closes the span opened by the previous
+     * one, if the same character, and opens the next; likewise each
+     * <code>&#92;u0022</code> or <code>&#92;u0027</code> for the previous of
+     * the same kind since the last quote character. A closing quote's backslashes, up to
+     * as many as the opening quote's, are not part of the span.
+     */
+    protected void nestedQuotes(int from, int to) {
+        char quote = 0;
+        int quoteEnd = -1;
+        int quoteRun = 0;
+        int u22End = -1, u22Run = 0, u27End = -1, u27Run = 0;
+        for (int j = from; j < to; j++) {
+            char c = cs.charAt(j);
+            if (c == '\'' || c == '"') {
+                int run = backslashesBefore(j, from);
+                if (quoteEnd >= 0 && c == quote) {
+                    candidate(quoteEnd, j - Math.min(quoteRun, Math.min(run, j - quoteEnd)));
+                }
+                quote = c;
+                quoteEnd = j + 1;
+                quoteRun = Math.min(run, 8);
+                u22End = -1;
+                u27End = -1;
+            } else if (c == 'u' && j > from && cs.charAt(j - 1) == '\\') {
+                char kind = quoteEscape(j, to);
+                if (kind == 0) {
+                    continue;
+                }
+                int run = backslashesBefore(j, from);
+                if (kind == '"') {
+                    if (u22End >= 0) {
+                        candidate(u22End, j - Math.min(u22Run, Math.min(run, j - u22End)));
+                    }
+                    u22End = j + 5;
+                    u22Run = Math.min(run, 8);
+                } else {
+                    if (u27End >= 0) {
+                        candidate(u27End, j - Math.min(u27Run, Math.min(run, j - u27End)));
+                    }
+                    u27End = j + 5;
+                    u27Run = Math.min(run, 8);
+                }
+                j += 4;
+            }
+        }
+    }
+
+    /**
+     * @return '"' or '\'' if the text at the given index, before the limit,
+     *         is {@code u0022} or {@code u0027} respectively, otherwise 0
+     */
+    protected char quoteEscape(int j, int limit) {
+        if (j + 5 > limit || cs.charAt(j) != 'u' || cs.charAt(j + 1) != '0'
+                || cs.charAt(j + 2) != '0' || cs.charAt(j + 3) != '2') {
+            return 0;
+        }
+        char d = cs.charAt(j + 4);
+        return d == '2' ? '"' : d == '7' ? '\'' : 0;
+    }
+
+    /**
+     * @return number of consecutive backslashes just before the given index,
+     *         not counting any before the limit
+     */
+    protected int backslashesBefore(int j, int limit) {
+        int k = j;
+        while (k > limit && cs.charAt(k - 1) == '\\') {
+            k--;
+        }
+        return j - k;
+    }
+
+    protected void candidate(int start, int end) {
+        if (end > start && end - start <= maxLength) {
+            view.start = start;
+            view.end = end;
+            candidates.accept(view);
+        }
+    }
+
+    /**
+     * A reusable view of part of the source.
+     */
+    protected static class View implements CharSequence {
+        protected final CharSequence cs;
+        protected int start;
+        protected int end;
+
+        protected View(CharSequence cs) {
+            this.cs = cs;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return cs.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int s, int e) {
+            return cs.subSequence(start + s, start + e);
+        }
+
+        @Override
+        public String toString() {
+            return cs.subSequence(start, end).toString();
+        }
+    }
+}
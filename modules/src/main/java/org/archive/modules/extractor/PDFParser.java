@@ -19,6 +19,7 @@
 package org.archive.modules.extractor;
 
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessRead;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.interactive.action.PDAction;
@@ -53,6 +54,18 @@ public class PDFParser implements Closeable {
         document = doc;
         initialize();
     }
+    /**
+     * Open a document read directly from the given source, which is closed
+     * along with this parser. PDFBox locates the cross-reference table from
+     * the end of the source and resolves objects on demand, so only the
+     * pages and annotations visited by {@link #extractURIs()} are read.
+     * @param source
+     * @throws IOException
+     */
+    public PDFParser(RandomAccessRead source) throws IOException {
+        resetState();
+        documentReader = Loader.loadPDF(source);
+    }
 
     /** Reinitialize the object as though a new one were created.
      */
@@ -0,0 +1,159 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+import org.archive.io.ReplayInputStream;
+import org.archive.util.Recorder;
+
+/**
+ * A PDFBox {@link RandomAccessRead} over the message body of a
+ * {@link Recorder}'s recorded input. Reads are served directly from the
+ * recorder's in-memory buffer and backing file, so a document can be parsed
+ * without first copying it somewhere else.
+ *
+ * <p>Only usable when the recorded body is the entity itself, i.e. the
+ * response was neither chunked nor content-encoded; see
+ * {@link #open(Recorder)}.
+ */
+public class ReplayRandomAccessRead implements RandomAccessRead {
+
+    protected ReplayInputStream replay;
+    protected long bodyStart;
+    protected long length;
+    protected long position;
+
+    protected ReplayRandomAccessRead(ReplayInputStream replay) throws IOException {
+        this.replay = replay;
+        this.bodyStart = replay.setToResponseBodyStart();
+        this.length = replay.getContentSize();
+        this.position = 0;
+    }
+
+    /**
+     * Returns a random access view over the recorder's content body, or null
+     * if the recorded bytes are not the literal content (chunked transfer
+     * encoding or a non-identity content encoding), in which case the caller
+     * has to fall back to the decoded content stream.
+     */
+    public static ReplayRandomAccessRead open(Recorder recorder) throws IOException {
+        String contentEncoding = recorder.getContentEncoding();
+        if (StringUtils.isNotEmpty(contentEncoding)
+                && !"identity".equalsIgnoreCase(contentEncoding)
+                && !"none".equalsIgnoreCase(contentEncoding)) {
+            return null;
+        }
+        InputStream entity = recorder.getEntityReplayInputStream();
+        if (!(entity instanceof ReplayInputStream)) {
+            // dechunking stream
+            entity.close();
+            return null;
+        }
+        return new ReplayRandomAccessRead((ReplayInputStream) entity);
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        if (position >= length) {
+            return -1;
+        }
+        int b = replay.read();
+        if (b >= 0) {
+            position++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = length - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int n = replay.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkClosed();
+        return position;
+    }
+
+    @Override
+    public void seek(long newPosition) throws IOException {
+        checkClosed();
+        if (newPosition < 0) {
+            throw new IOException("Invalid position " + newPosition);
+        }
+        position = Math.min(newPosition, length);
+        replay.position(bodyStart + position);
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkClosed();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return replay == null;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        checkClosed();
+        return position >= length;
+    }
+
+    @Override
+    public RandomAccessReadView createView(long startPosition, long streamLength)
+            throws IOException {
+        checkClosed();
+        return new RandomAccessReadView(this, startPosition, streamLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+    }
+
+    protected void checkClosed() throws IOException {
+        if (replay == null) {
+            throw new IOException("RandomAccessRead already closed");
+        }
+    }
+}
@@ -18,31 +18,54 @@
  */
 package org.archive.modules.fetcher;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
 
 import org.apache.commons.collections.IteratorUtils;
-import org.apache.commons.collections.collection.CompositeCollection;
 import org.apache.http.client.CookieStore;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.BasicClientCookie2;
 import org.archive.bdb.BdbModule;
 import org.archive.checkpointing.Checkpoint;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.net.InternetDomainName;
+import com.google.common.util.concurrent.Striped;
 import com.sleepycat.bind.ByteArrayBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
 import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 
 /**
@@ -52,6 +75,14 @@ import com.sleepycat.je.DatabaseException;
  * {@link CookieStore#getCookies()} returns a list of cookies limited to
  * the supplied host and parent domains, if applicable.
  * 
+ * <p>
+ * Cookies read from bdb are cached in memory, grouped by registrable domain
+ * (such as example.com for www.example.com), for up to
+ * {@link #getMaxCachedDomains()} such domains; writes go through to bdb.
+ * Cookies are stored with the compact {@link CookieBinding}; values in the
+ * previous java serialization format are still readable, and are rewritten
+ * in the new format on checkpoint recovery.
+ * 
  * @see <a href="https://webarchive.jira.com/browse/HER-2070">https://webarchive.jira.com/browse/HER-2070</a>
  * @see <a href="https://github.com/internetarchive/heritrix3/pull/96">https://github.com/internetarchive/heritrix3/pull/96</a>
  * @see <a href="https://groups.yahoo.com/neo/groups/archive-crawler/conversations/messages/8620">https://groups.yahoo.com/neo/groups/archive-crawler/conversations/messages/8620</a>
@@ -104,11 +135,205 @@ public class BdbCookieStore extends AbstractCookieStore implements
         this.bdb = bdb;
     }
 
+    /**
+     * Binding storing {@link BasicClientCookie}s and
+     * {@link BasicClientCookie2}s field by field, after a format byte; other
+     * cookie classes are java-serialized after a different format byte.
+     * Values written by the {@link SerialBinding} previously used, which
+     * always start with TC_OBJECT (0x73), are read with that binding.
+     */
+    public static class CookieBinding extends TupleBinding<Cookie> {
+        protected static final byte FORMAT_FIELDS = 1;
+        protected static final byte FORMAT_JAVA = 2;
+
+        protected static final int FLAG_COOKIE2 = 1;
+        protected static final int FLAG_SECURE = 2;
+        protected static final int FLAG_DISCARD = 4;
+        protected static final int FLAG_EXPIRY = 8;
+        protected static final int FLAG_CREATION = 16;
+        protected static final int FLAG_PORTS = 32;
+
+        /** BasicClientCookie has no accessor for all its attributes */
+        protected static final Field ATTRIBS_FIELD;
+        static {
+            Field field = null;
+            try {
+                field = BasicClientCookie.class.getDeclaredField("attribs");
+                field.setAccessible(true);
+            } catch (Exception e) {
+                // leaves such cookies to java serialization
+            }
+            ATTRIBS_FIELD = field;
+        }
+
+        protected final SerialBinding<Cookie> legacyBinding;
+
+        public CookieBinding(StoredClassCatalog classCatalog) {
+            this.legacyBinding = new SerialBinding<Cookie>(classCatalog, Cookie.class);
+        }
+
+        /** @return whether the entry is in the old java serialization format */
+        public static boolean isLegacy(DatabaseEntry entry) {
+            return entry.getSize() > 0
+                    && entry.getData()[entry.getOffset()] == ObjectStreamConstants.TC_OBJECT;
+        }
+
+        @Override
+        public Cookie entryToObject(DatabaseEntry entry) {
+            if (isLegacy(entry)) {
+                return legacyBinding.entryToObject(entry);
+            }
+            return super.entryToObject(entry);
+        }
+
+        @Override
+        public Cookie entryToObject(TupleInput in) {
+            int format = in.readUnsignedByte();
+            if (format == FORMAT_JAVA) {
+                byte[] bytes = new byte[in.available()];
+                in.readFast(bytes);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (Cookie) ois.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            int flags = in.readPackedInt();
+            String name = in.readString();
+            String value = in.readString();
+            BasicClientCookie cookie;
+            if ((flags & FLAG_COOKIE2) != 0) {
+                BasicClientCookie2 cookie2 = new BasicClientCookie2(name, value);
+                cookie2.setCommentURL(in.readString());
+                cookie2.setDiscard((flags & FLAG_DISCARD) != 0);
+                if ((flags & FLAG_PORTS) != 0) {
+                    int[] ports = new int[in.readPackedInt()];
+                    for (int i = 0; i < ports.length; i++) {
+                        ports[i] = in.readPackedInt();
+                    }
+                    cookie2.setPorts(ports);
+                }
+                cookie = cookie2;
+            } else {
+                cookie = new BasicClientCookie(name, value);
+            }
+            cookie.setDomain(in.readString());
+            cookie.setPath(in.readString());
+            cookie.setComment(in.readString());
+            cookie.setVersion(in.readPackedInt());
+            cookie.setSecure((flags & FLAG_SECURE) != 0);
+            if ((flags & FLAG_EXPIRY) != 0) {
+                cookie.setExpiryDate(new Date(in.readPackedLong()));
+            }
+            if ((flags & FLAG_CREATION) != 0) {
+                cookie.setCreationDate(new Date(in.readPackedLong()));
+            }
+            for (int i = in.readPackedInt(); i > 0; i--) {
+                cookie.setAttribute(in.readString(), in.readString());
+            }
+            return cookie;
+        }
+
+        @Override
+        public void objectToEntry(Cookie cookie, TupleOutput out) {
+            Class<?> c = cookie.getClass();
+            if (ATTRIBS_FIELD == null
+                    || (c != BasicClientCookie.class && c != BasicClientCookie2.class)) {
+                out.writeUnsignedByte(FORMAT_JAVA);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                    oos.writeObject(cookie);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                out.writeFast(bytes.toByteArray());
+                return;
+            }
+            BasicClientCookie basic = (BasicClientCookie) cookie;
+            boolean isCookie2 = c == BasicClientCookie2.class;
+            int flags = (isCookie2 ? FLAG_COOKIE2 : 0)
+                    | (basic.isSecure() ? FLAG_SECURE : 0)
+                    | (basic.getExpiryDate() != null ? FLAG_EXPIRY : 0)
+                    | (basic.getCreationDate() != null ? FLAG_CREATION : 0);
+            if (isCookie2) {
+                // only observable through isPersistent()
+                flags |= !basic.isPersistent() && basic.getExpiryDate() != null ? FLAG_DISCARD : 0;
+                flags |= basic.getPorts() != null ? FLAG_PORTS : 0;
+            }
+            out.writeUnsignedByte(FORMAT_FIELDS);
+            out.writePackedInt(flags);
+            out.writeString(basic.getName());
+            out.writeString(basic.getValue());
+            if (isCookie2) {
+                out.writeString(basic.getCommentURL());
+                if (basic.getPorts() != null) {
+                    out.writePackedInt(basic.getPorts().length);
+                    for (int port : basic.getPorts()) {
+                        out.writePackedInt(port);
+                    }
+                }
+            }
+            out.writeString(basic.getDomain());
+            out.writeString(basic.getPath());
+            out.writeString(basic.getComment());
+            out.writePackedInt(basic.getVersion());
+            if (basic.getExpiryDate() != null) {
+                out.writePackedLong(basic.getExpiryDate().getTime());
+            }
+            if (basic.getCreationDate() != null) {
+                out.writePackedLong(basic.getCreationDate().getTime());
+            }
+            Map<String,String> attribs;
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String,String> a = (Map<String,String>) ATTRIBS_FIELD.get(basic);
+                attribs = a;
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e); // made accessible above
+            }
+            out.writePackedInt(attribs.size());
+            for (Map.Entry<String,String> attrib : attribs.entrySet()) {
+                out.writeString(attrib.getKey());
+                out.writeString(attrib.getValue());
+            }
+        }
+    }
+
     public static String COOKIEDB_NAME = "hc_httpclient_cookies";
 
     private transient Database cookieDb;
     private transient StoredSortedMap<byte[],Cookie> cookies;
 
+    /**
+     * Maximum number of registrable domains (such as example.com) whose
+     * cookies are cached in memory.
+     */
+    protected int maxCachedDomains = 10000;
+    public int getMaxCachedDomains() {
+        return maxCachedDomains;
+    }
+    public void setMaxCachedDomains(int maxCachedDomains) {
+        this.maxCachedDomains = maxCachedDomains;
+    }
+
+    /**
+     * Cached cookies of one registrable domain: for each of its hosts or
+     * subdomains looked up so far, the cookies set for exactly that domain,
+     * by {@link #sortableKey(Cookie)}. The maps are replaced, never
+     * modified, under the domain's lock in {@link #locks}.
+     */
+    protected static class DomainCookies {
+        final ConcurrentMap<String,Map<String,Cookie>> byDomain =
+            new ConcurrentHashMap<String,Map<String,Cookie>>();
+    }
+
+    private transient Cache<String,DomainCookies> domainCache;
+    /** orders bdb reads into, and writes through, each domain's cache */
+    private transient Striped<Lock> locks;
+
+    protected AtomicLong cacheHits = new AtomicLong(0);
+    protected AtomicLong cacheMisses = new AtomicLong(0);
+
     public void prepare() {
         try {
             StoredClassCatalog classCatalog = bdb.getClassCatalog();
@@ -120,33 +345,139 @@ public class BdbCookieStore extends AbstractCookieStore implements
                     isCheckpointRecovery);
             cookies = new StoredSortedMap<byte[],Cookie>(cookieDb,
                     new ByteArrayBinding(), 
-                    new SerialBinding<Cookie>(classCatalog, Cookie.class), 
+                    new CookieBinding(classCatalog), 
                     true);
+            if (isCheckpointRecovery) {
+                migrateLegacyCookies();
+            }
         } catch (DatabaseException e) {
             throw new RuntimeException(e);
         }
+        domainCache = CacheBuilder.newBuilder()
+                .maximumSize(getMaxCachedDomains())
+                .<String,DomainCookies>build();
+        locks = Striped.lazyWeakLock(1024);
     }
 
-    public void addCookieImpl(Cookie cookie) {
-        byte[] key;
+    /**
+     * Rewrite cookies stored in the java serialization format used before
+     * {@link CookieBinding}.
+     */
+    protected void migrateLegacyCookies() {
+        StoredSortedMap<byte[],byte[]> raw = new StoredSortedMap<byte[],byte[]>(
+                cookieDb, new ByteArrayBinding(), new ByteArrayBinding(), true);
+        List<byte[]> legacyKeys = new ArrayList<byte[]>();
+        for (Map.Entry<byte[],byte[]> entry : raw.entrySet()) {
+            if (CookieBinding.isLegacy(new DatabaseEntry(entry.getValue()))) {
+                legacyKeys.add(entry.getKey());
+            }
+        }
+        for (byte[] key : legacyKeys) {
+            cookies.put(key, cookies.get(key));
+        }
+        if (!legacyKeys.isEmpty()) {
+            logger.info("rewrote " + legacyKeys.size() + " cookies in compact format");
+        }
+    }
+
+    /**
+     * @return the registrable domain (public suffix plus one label) of the
+     * normalized domain, or the domain itself if it has none
+     */
+    protected String cacheKey(String domain) {
         try {
-            key = sortableKey(cookie).getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
+            if (InternetDomainName.isValid(domain)) {
+                InternetDomainName name = InternetDomainName.from(domain);
+                if (name.isUnderPublicSuffix()) {
+                    return name.topPrivateDomain().toString();
+                }
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            logger.log(Level.FINEST, "no registrable domain for " + domain, e);
+        }
+        return domain;
+    }
+
+    protected DomainCookies domainCookies(String key) {
+        try {
+            return domainCache.get(key, DomainCookies::new);
+        } catch (java.util.concurrent.ExecutionException e) {
             throw new RuntimeException(e); // impossible
         }
-        Thread.interrupted();
-        if (!cookie.isExpired(new Date())) {
-            cookies.put(key, cookie);
-        } else {
-            cookies.remove(key);
+    }
+
+    /**
+     * @return the cookies set for exactly this normalized domain
+     */
+    protected Collection<Cookie> cookiesForDomain(String domain) {
+        String key = cacheKey(domain);
+        Map<String,Cookie> cached = domainCookies(key).byDomain.get(domain);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached.values();
+        }
+        cacheMisses.incrementAndGet();
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            DomainCookies domainCookies = domainCookies(key);
+            cached = domainCookies.byDomain.get(domain);
+            if (cached == null) {
+                cached = new LinkedHashMap<String,Cookie>();
+                for (Cookie cookie : hostSubset(domain)) {
+                    cached.put(sortableKey(cookie), cookie);
+                }
+                cached = Collections.unmodifiableMap(cached);
+                domainCookies.byDomain.put(domain, cached);
+            }
+            return cached.values();
+        } finally {
+            lock.unlock();
         }
     }
+
+    /**
+     * Write a cookie to bdb (or remove it, if null) and to the cache of its
+     * domain, if loaded.
+     */
+    protected void writeThrough(Cookie cookie, boolean remove) {
+        String sortableKey = sortableKey(cookie);
+        byte[] key = sortableKey.getBytes(StandardCharsets.UTF_8);
+        String domain = normalizeHost(cookie.getDomain());
+        String cacheKey = cacheKey(domain);
+        Lock lock = locks.get(cacheKey);
+        lock.lock();
+        try {
+            Thread.interrupted();
+            if (remove) {
+                cookies.remove(key);
+            } else {
+                cookies.put(key, cookie);
+            }
+            DomainCookies domainCookies = domainCache.getIfPresent(cacheKey);
+            Map<String,Cookie> cached = domainCookies == null
+                    ? null : domainCookies.byDomain.get(domain);
+            if (cached != null) {
+                Map<String,Cookie> updated = new LinkedHashMap<String,Cookie>(cached);
+                if (remove) {
+                    updated.remove(sortableKey);
+                } else {
+                    updated.put(sortableKey, cookie);
+                }
+                domainCookies.byDomain.put(domain, Collections.unmodifiableMap(updated));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void addCookieImpl(Cookie cookie) {
+        writeThrough(cookie, cookie.isExpired(new Date()));
+    }
     
     public boolean expireCookie(Cookie cookie, Date date) {
-        byte[] key = sortableKey(cookie).getBytes(StandardCharsets.UTF_8);
-        Thread.interrupted();
         if (cookie.isExpired(date)) {
-            cookies.remove(key);
+            writeThrough(cookie, true);
             return true;
         } else {
             return false;
@@ -175,14 +506,12 @@ public class BdbCookieStore extends AbstractCookieStore implements
      * from {@code host} and its parent domains, if applicable.
      */
     public CookieStore cookieStoreFor(String host) {
-        CompositeCollection cookieCollection = new CompositeCollection();
-
+        final List<String> domains = new ArrayList<String>();
         if (InternetDomainName.isValid(host)) {
             InternetDomainName domain = InternetDomainName.from(host);
 
             while (domain != null) {
-                Collection<Cookie> subset = hostSubset(domain.toString());
-                cookieCollection.addComposited(subset);
+                domains.add(domain.toString());
 
                 if (domain.hasParent()) {
                     domain = domain.parent();
@@ -191,11 +520,32 @@ public class BdbCookieStore extends AbstractCookieStore implements
                 }
             }
         } else {
-            Collection<Cookie> subset = hostSubset(host.toString());
-            cookieCollection.addComposited(subset);
+            domains.add(host.toString());
         }
 
-        @SuppressWarnings("unchecked")
+        // reflects the cookies as of each iteration or size() call
+        Collection<Cookie> cookieCollection = new AbstractCollection<Cookie>() {
+            protected List<Cookie> current() {
+                List<Cookie> current = new ArrayList<Cookie>();
+                for (String domain : domains) {
+                    current.addAll(cookiesForDomain(domain));
+                }
+                return current;
+            }
+            @Override
+            public Iterator<Cookie> iterator() {
+                return current().iterator();
+            }
+            @Override
+            public int size() {
+                int size = 0;
+                for (String domain : domains) {
+                    size += cookiesForDomain(domain).size();
+                }
+                return size;
+            }
+        };
+
         List<Cookie> cookieList = new RestrictedCollectionWrappedList<Cookie>(cookieCollection);
         LimitedCookieStoreFacade store = new LimitedCookieStoreFacade(cookieList);
         return store;
@@ -228,6 +578,17 @@ public class BdbCookieStore extends AbstractCookieStore implements
     public void clear() {
         Thread.interrupted();
         cookies.clear();
+        domainCache.invalidateAll();
+    }
+
+    /** @return count of domain lookups answered from memory */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /** @return count of domain lookups read from bdb */
+    public long getCacheMisses() {
+        return cacheMisses.get();
     }
 
     /**
@@ -153,11 +153,20 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
      * @see org.archive.modules.net.ServerCache#forAllHostsDo(org.apache.commons.collections.Closure)
      */
     public void forAllHostsDo(Closure c) {
-        for(String host : hosts.keySet()) {
-            c.execute(hosts.get(host));
-        }
+        hosts.forEachValue(c::execute);
     }
     
+    /**
+     * NOTE: Should not mutate the CrawlServer instance so retrieved; depending
+     * on the servers cache implementation, the change may not be reliably
+     * persistent.
+     * 
+     * @see org.archive.modules.net.ServerCache#forAllServersDo(org.apache.commons.collections.Closure)
+     */
+    public void forAllServersDo(Closure c) {
+        servers.forEachValue(c::execute);
+    }
+
     public Set<String> hostKeys() {
         return hosts.keySet();
     }
@@ -18,27 +18,50 @@
  */
 package org.archive.modules.fetcher;
 
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.io.PrintWriter;
 import java.io.Serializable;
-import java.util.Comparator;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+import org.archive.bdb.AutoKryo;
 import org.archive.crawler.util.CrawledBytesHistotable;
 import org.archive.modules.CrawlURI;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.ReportUtils;
 import org.archive.util.Reporter;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 /**
  * Collector of statistics for a 'subset' of a crawl,
  * such as a server (host:port), host, or frontier group
  * (eg queue).
  *
+ * <p>Every {@link #KEYS known key} is a fixed slot of a primitive array,
+ * updated with an atomic add rather than under a lock; any other key is
+ * kept in a small side map. Reports and {@link #shortReportMap()} list
+ * non-zero counts in key order, as when this class was a
+ * {@link CrawledBytesHistotable}, and Kryo records of that time are
+ * converted as they are read.
+ *
  * @author gojomo
  */
-public class FetchStats extends CrawledBytesHistotable implements Serializable, FetchStatusCodes, Reporter {
-    private static final long serialVersionUID = 2l;
+public class FetchStats implements Serializable, FetchStatusCodes, Reporter {
+    private static final long serialVersionUID = 3l;
 
     public enum Stage {SCHEDULED, RELOCATED, RETRIED, SUCCEEDED, DISREGARDED, FAILED};
 
@@ -55,6 +78,46 @@ public class FetchStats extends CrawledBytesHistotable implements Serializable,
     public static final String FETCH_NONRESPONSES = "fetchNonResponses"; // processing attempts resulting in no response
                                                                     // (both failures and temp deferrals)
 
+    public static final String NOTMODIFIED = CrawledBytesHistotable.NOTMODIFIED;
+    public static final String DUPLICATE = CrawledBytesHistotable.DUPLICATE;
+    public static final String OTHERDUPLICATE = CrawledBytesHistotable.OTHERDUPLICATE;
+    public static final String NOVEL = CrawledBytesHistotable.NOVEL;
+    public static final String NOTMODIFIEDCOUNT = CrawledBytesHistotable.NOTMODIFIEDCOUNT;
+    public static final String DUPLICATECOUNT = CrawledBytesHistotable.DUPLICATECOUNT;
+    public static final String OTHERDUPLICATECOUNT = CrawledBytesHistotable.OTHERDUPLICATECOUNT;
+    public static final String NOVELCOUNT = CrawledBytesHistotable.NOVELCOUNT;
+    public static final String WARC_NOVEL_CONTENT_BYTES = CrawledBytesHistotable.WARC_NOVEL_CONTENT_BYTES;
+    public static final String WARC_NOVEL_URLS = CrawledBytesHistotable.WARC_NOVEL_URLS;
+
+    /** keys with a fixed slot, in report (sorted) order */
+    public static final String[] KEYS;
+    protected static final Map<String,Integer> SLOTS = new HashMap<String,Integer>();
+    static {
+        String[] keys = {TOTAL_SCHEDULED, FETCH_SUCCESSES, FETCH_FAILURES,
+                FETCH_DISREGARDS, FETCH_RESPONSES, ROBOTS_DENIALS, SUCCESS_BYTES,
+                TOTAL_BYTES, FETCH_NONRESPONSES, NOTMODIFIED, DUPLICATE,
+                OTHERDUPLICATE, NOVEL, NOTMODIFIEDCOUNT, DUPLICATECOUNT,
+                OTHERDUPLICATECOUNT, NOVELCOUNT, WARC_NOVEL_CONTENT_BYTES,
+                WARC_NOVEL_URLS};
+        Arrays.sort(keys);
+        KEYS = keys;
+        for (int i = 0; i < KEYS.length; i++) {
+            SLOTS.put(KEYS[i], i);
+        }
+    }
+    protected static final int S_TOTAL_SCHEDULED = SLOTS.get(TOTAL_SCHEDULED);
+    protected static final int S_FETCH_SUCCESSES = SLOTS.get(FETCH_SUCCESSES);
+    protected static final int S_FETCH_FAILURES = SLOTS.get(FETCH_FAILURES);
+    protected static final int S_FETCH_DISREGARDS = SLOTS.get(FETCH_DISREGARDS);
+    protected static final int S_FETCH_RESPONSES = SLOTS.get(FETCH_RESPONSES);
+    protected static final int S_ROBOTS_DENIALS = SLOTS.get(ROBOTS_DENIALS);
+    protected static final int S_SUCCESS_BYTES = SLOTS.get(SUCCESS_BYTES);
+    protected static final int S_TOTAL_BYTES = SLOTS.get(TOTAL_BYTES);
+    protected static final int S_FETCH_NONRESPONSES = SLOTS.get(FETCH_NONRESPONSES);
+
+    protected static final VarHandle COUNTS =
+            MethodHandles.arrayElementVarHandle(long[].class);
+
     public interface HasFetchStats {
         public FetchStats getSubstats();
     }
@@ -62,49 +125,48 @@ public class FetchStats extends CrawledBytesHistotable implements Serializable,
         public void tally(CrawlURI curi, Stage stage);
     }
 
-    protected long lastSuccessTime;
+    /** one slot per {@link #KEYS} entry */
+    protected final long[] counts = new long[KEYS.length];
+    /** counts for keys without a slot; null until one is tallied */
+    protected volatile ConcurrentSkipListMap<String,Long> others;
+    protected volatile long lastSuccessTime;
 
     public FetchStats() {
         super();
     }
 
-    // Kryo constructor
-    public FetchStats(Comparator<String> comparator) {
-        super(comparator);
-    }
-
-    public synchronized void tally(CrawlURI curi, Stage stage) {
+    public void tally(CrawlURI curi, Stage stage) {
         switch(stage) {
             case SCHEDULED:
-                tally(TOTAL_SCHEDULED, 1);
+                add(S_TOTAL_SCHEDULED, 1);
                 break;
             case RETRIED:
                 if(curi.getFetchStatus()<=0) {
-                    tally(FETCH_NONRESPONSES, 1);
+                    add(S_FETCH_NONRESPONSES, 1);
                 }
                 break;
             case SUCCEEDED:
-                tally(FETCH_SUCCESSES, 1);
-                tally(FETCH_RESPONSES, 1);
-                tally(TOTAL_BYTES, curi.getContentSize());
-                tally(SUCCESS_BYTES, curi.getContentSize());
+                add(S_FETCH_SUCCESSES, 1);
+                add(S_FETCH_RESPONSES, 1);
+                add(S_TOTAL_BYTES, curi.getContentSize());
+                add(S_SUCCESS_BYTES, curi.getContentSize());
 
                 lastSuccessTime = curi.getFetchCompletedTime();
                 break;
             case DISREGARDED:
-                tally(FETCH_DISREGARDS, 1);
+                add(S_FETCH_DISREGARDS, 1);
                 if(curi.getFetchStatus()==S_ROBOTS_PRECLUDED) {
-                    tally(ROBOTS_DENIALS, 1);
+                    add(S_ROBOTS_DENIALS, 1);
                 }
                 break;
             case FAILED:
                 if(curi.getFetchStatus()<=0) {
-                    tally(FETCH_NONRESPONSES, 1);
+                    add(S_FETCH_NONRESPONSES, 1);
                 } else {
-                    tally(FETCH_RESPONSES, 1);
-                    tally(TOTAL_BYTES, curi.getContentSize());
+                    add(S_FETCH_RESPONSES, 1);
+                    add(S_TOTAL_BYTES, curi.getContentSize());
                 }
-                tally(FETCH_FAILURES, 1);
+                add(S_FETCH_FAILURES, 1);
                 break;
             default:
                 break;
@@ -115,6 +177,84 @@ public class FetchStats extends CrawledBytesHistotable implements Serializable,
         }
     }
 
+    /**
+     * Tally the novel/duplicate content counts for the given uri.
+     *
+     * @see CrawledBytesHistotable#accumulate(CrawlURI)
+     */
+    public void accumulate(CrawlURI curi) {
+        CrawledBytesHistotable.accumulate(curi, this::tally);
+    }
+
+    protected void add(int slot, long count) {
+        COUNTS.getAndAdd(counts, slot, count);
+    }
+
+    /**
+     * Add the given amount to the count for the key.
+     */
+    public void tally(String key, long count) {
+        Integer slot = SLOTS.get(key);
+        if (slot != null) {
+            add(slot, count);
+            return;
+        }
+        ConcurrentSkipListMap<String,Long> o = others;
+        if (o == null) {
+            synchronized (this) {
+                if (others == null) {
+                    others = new ConcurrentSkipListMap<String,Long>();
+                }
+                o = others;
+            }
+        }
+        // like Histotable, drop keys whose count returns to zero
+        o.merge(key, count, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    /**
+     * @return the count for the key, 0 if never tallied
+     */
+    public long get(String key) {
+        Integer slot = SLOTS.get(key);
+        if (slot != null) {
+            return (long) COUNTS.getVolatile(counts, (int) slot);
+        }
+        ConcurrentSkipListMap<String,Long> o = others;
+        Long count = (o == null) ? null : o.get(key);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Replace the count for the key.
+     */
+    public void put(String key, long count) {
+        Integer slot = SLOTS.get(key);
+        if (slot != null) {
+            COUNTS.setVolatile(counts, (int) slot, count);
+        } else {
+            tally(key, count - get(key));
+        }
+    }
+
+    /**
+     * @return the non-zero counts, in key order
+     */
+    public Map<String,Long> asMap() {
+        TreeMap<String,Long> map = new TreeMap<String,Long>();
+        for (int i = 0; i < KEYS.length; i++) {
+            long count = (long) COUNTS.getVolatile(counts, i);
+            if (count != 0) {
+                map.put(KEYS[i], count);
+            }
+        }
+        ConcurrentSkipListMap<String,Long> o = others;
+        if (o != null) {
+            map.putAll(o);
+        }
+        return map;
+    }
+
     public long getFetchSuccesses() {
         return get(FETCH_SUCCESSES);
     }
@@ -224,7 +364,7 @@ public class FetchStats extends CrawledBytesHistotable implements Serializable,
 
     @Override
     public Map<String, Object> shortReportMap() {
-        Map<String,Object> map = new LinkedHashMap<String, Object>(this);
+        Map<String,Object> map = new LinkedHashMap<String, Object>(asMap());
         map.put("lastSuccessTime",lastSuccessTime);
         return map;
     }
@@ -232,4 +372,132 @@ public class FetchStats extends CrawledBytesHistotable implements Serializable,
     public long getLastSuccessTime() {
         return lastSuccessTime;
     }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    // Kryo support
+    public static void autoregisterTo(AutoKryo kryo) {
+        // only this one registration, so registration ids of the classes
+        // registered after it are the same as before
+        kryo.register(FetchStats.class, new KryoSerializer());
+    }
+
+    /**
+     * Writes the set slots as varints. Reads either that, or the java
+     * serialization of the TreeMap-based FetchStats that Kryo records
+     * (checkpointed frontier queues, hosts and servers) used to hold.
+     */
+    public static class KryoSerializer extends Serializer<FetchStats> {
+        /** first byte of a java serialization stream */
+        protected static final int JAVA_STREAM_MAGIC = 0xac;
+        protected static final int FORMAT_SLOTS = 1;
+
+        @Override
+        public void write(Kryo kryo, Output output, FetchStats stats) {
+            output.writeByte(FORMAT_SLOTS);
+            output.writeVarLong(stats.lastSuccessTime, true);
+            int present = 0;
+            for (int i = 0; i < KEYS.length; i++) {
+                if ((long) COUNTS.getVolatile(stats.counts, i) != 0) {
+                    present |= 1 << i;
+                }
+            }
+            output.writeVarInt(present, true);
+            for (int i = 0; i < KEYS.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    output.writeVarLong((long) COUNTS.getVolatile(stats.counts, i), false);
+                }
+            }
+            Map<String,Long> o = stats.others;
+            if (o == null) {
+                output.writeVarInt(0, true);
+            } else {
+                o = new TreeMap<String,Long>(o);
+                output.writeVarInt(o.size(), true);
+                for (Map.Entry<String,Long> e : o.entrySet()) {
+                    output.writeString(e.getKey());
+                    output.writeVarLong(e.getValue(), false);
+                }
+            }
+        }
+
+        @Override
+        public FetchStats read(Kryo kryo, Input input, Class<? extends FetchStats> type) {
+            FetchStats stats = kryo.newInstance(type);
+            int format = input.readByte() & 0xff;
+            if (format == JAVA_STREAM_MAGIC) {
+                // the byte just read is still in the buffer
+                input.setPosition(input.position() - 1);
+                readLegacy(kryo, input, stats);
+                return stats;
+            }
+            if (format != FORMAT_SLOTS) {
+                throw new KryoException("unknown FetchStats format " + format);
+            }
+            stats.lastSuccessTime = input.readVarLong(true);
+            int present = input.readVarInt(true);
+            for (int i = 0; i < KEYS.length; i++) {
+                if ((present & (1 << i)) != 0) {
+                    stats.counts[i] = input.readVarLong(false);
+                }
+            }
+            for (int n = input.readVarInt(true); n > 0; n--) {
+                stats.tally(input.readString(), input.readVarLong(false));
+            }
+            return stats;
+        }
+
+        protected void readLegacy(final Kryo kryo, Input input, FetchStats stats) {
+            LegacyFetchStats legacy;
+            try {
+                // as read by Kryo's JavaSerializer, but substituting a
+                // class with the old layout for the current FetchStats
+                @SuppressWarnings("resource")
+                ObjectInputStream in = new ObjectInputStream(input) {
+                    @Override
+                    protected ObjectStreamClass readClassDescriptor()
+                            throws IOException, ClassNotFoundException {
+                        ObjectStreamClass desc = super.readClassDescriptor();
+                        if (FetchStats.class.getName().equals(desc.getName())) {
+                            return ObjectStreamClass.lookup(LegacyFetchStats.class);
+                        }
+                        return desc;
+                    }
+                    @Override
+                    protected Class<?> resolveClass(ObjectStreamClass desc)
+                            throws IOException, ClassNotFoundException {
+                        try {
+                            return Class.forName(desc.getName(), false, kryo.getClassLoader());
+                        } catch (ClassNotFoundException e) {
+                            return super.resolveClass(desc);
+                        }
+                    }
+                };
+                Object o = in.readObject();
+                if (!(o instanceof LegacyFetchStats)) {
+                    throw new InvalidClassException(o.getClass().getName(),
+                            "not a serialized FetchStats");
+                }
+                legacy = (LegacyFetchStats) o;
+            } catch (Exception e) {
+                throw new KryoException("Error reading serialized FetchStats", e);
+            }
+            for (Map.Entry<String,Long> e : legacy.entrySet()) {
+                stats.tally(e.getKey(), e.getValue());
+            }
+            stats.lastSuccessTime = legacy.lastSuccessTime;
+        }
+    }
+
+    /**
+     * The serialized form of FetchStats through serialVersionUID 2,
+     * when it was a {@link CrawledBytesHistotable}.
+     */
+    protected static class LegacyFetchStats extends CrawledBytesHistotable {
+        private static final long serialVersionUID = 2l;
+        protected long lastSuccessTime;
+    }
 }
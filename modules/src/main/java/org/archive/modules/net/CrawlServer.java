@@ -81,6 +81,10 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     protected int http3Port;
     protected long http3Expiry;
 
+    /** adaptive politeness state, if that policy is in use; not stored,
+     * so it starts over when the server is read back */
+    protected transient ServerPoliteness politeness;
+
     /**
      * Creates a new CrawlServer object.
      *
@@ -284,6 +288,24 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         return http3Port;
     }
 
+    /**
+     * @return adaptive politeness state, or null if none has been kept
+     */
+    public ServerPoliteness getPoliteness() {
+        return politeness;
+    }
+
+    /**
+     * @return adaptive politeness state, created if necessary; callers
+     * should synchronize on this server
+     */
+    public ServerPoliteness getOrCreatePoliteness() {
+        if (politeness == null) {
+            politeness = new ServerPoliteness();
+        }
+        return politeness;
+    }
+
     /**
      * Get key to use doing lookup on server instances.
      * 
@@ -44,6 +44,13 @@ public abstract class ServerCache {
      */
     public abstract void forAllHostsDo(Closure action);
 
+    /**
+     * Utility for performing an action on every CrawlServer. 
+     * 
+     * @param action 1-argument Closure to apply to each CrawlServer
+     */
+    public abstract void forAllServersDo(Closure action);
+
     
     private static Logger logger =
         Logger.getLogger(ServerCache.class.getName());
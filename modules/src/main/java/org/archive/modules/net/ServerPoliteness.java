@@ -0,0 +1,110 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_TIMEOUT;
+
+import java.io.Serializable;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * State of an adaptive politeness policy for one {@link CrawlServer}:
+ * exponentially smoothed fetch duration and error rate, and the delay
+ * currently applied between fetches. Held by the server but not stored
+ * with it, so it is rebuilt from new fetches after a checkpoint resume or
+ * cache eviction; callers synchronize on the server.
+ */
+public class ServerPoliteness implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** weight of each new sample in the smoothed values */
+    public static final double SMOOTHING = 0.2;
+
+    protected double durationMs = -1;
+    protected double errorRate = 0;
+    protected long delayMs = -1;
+    protected long samples = 0;
+    protected long backoffs = 0;
+
+    /**
+     * Adds one fetch outcome to the smoothed estimates.
+     *
+     * @param fetchMs how long the fetch took
+     * @param error whether the server failed or refused the fetch
+     */
+    public void sample(long fetchMs, boolean error) {
+        if (samples == 0) {
+            durationMs = fetchMs;
+        } else {
+            durationMs += SMOOTHING * (fetchMs - durationMs);
+        }
+        errorRate += SMOOTHING * ((error ? 1 : 0) - errorRate);
+        samples++;
+    }
+
+    /**
+     * Whether the fetch outcome suggests the server is overloaded: a
+     * failed or lost connection, a timeout, a 5xx response or a 429 (too
+     * many requests).
+     */
+    public static boolean isServerError(CrawlURI curi) {
+        int status = curi.getFetchStatus();
+        return status == S_CONNECT_FAILED || status == S_CONNECT_LOST
+                || status == S_TIMEOUT || status == 429
+                || (status >= 500 && status < 600);
+    }
+
+    public double getDurationMs() {
+        return durationMs;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * @return the current delay, or -1 if none has been set
+     */
+    public long getDelayMs() {
+        return delayMs;
+    }
+
+    public void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return how many times the delay was multiplied up
+     */
+    public long getBackoffs() {
+        return backoffs;
+    }
+
+    public void incrementBackoffs() {
+        backoffs++;
+    }
+}
@@ -28,7 +28,6 @@ import org.archive.modules.CrawlURI;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
@@ -78,7 +77,7 @@ public class BdbContentDigestHistory extends AbstractContentDigestHistory implem
             historyMap = new StoredSortedMap<String, Map>(
                         historyDb,
                         new StringBinding(),
-                        new SerialBinding<Map>(classCatalog, Map.class),
+                        new HistoryMapBinding(classCatalog),
                         true);
         } catch (DatabaseException e) {
             throw new RuntimeException(e);
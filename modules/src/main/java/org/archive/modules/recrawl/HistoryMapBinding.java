@@ -0,0 +1,427 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST_COUNT;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_DATE;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_URL;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_FILENAME;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_FILE_OFFSET;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_RECORD_ID;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WRITE_TAG;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.archive.modules.CrawlURI;
+
+import com.google.common.io.BaseEncoding;
+import com.sleepycat.bind.serial.ClassCatalog;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.SerialInput;
+import com.sleepycat.bind.serial.SerialOutput;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Binding for the history maps kept by {@link PersistOnlineProcessor}s and
+ * {@link BdbContentDigestHistory}, replacing java serialization of the
+ * whole {@link HashMap}.
+ *
+ * <p>After a format byte, each map entry is written as its key (an index
+ * into {@link #KNOWN_KEYS}, or the string itself) and a tagged value.
+ * Strings, integers, longs and booleans are written directly; the
+ * fetch-history array is written as records with fixed fields for status,
+ * fetch time, digest (sha1 digests as 20 raw bytes), etag, last-modified,
+ * reference length and write tag. Any other value is java-serialized using
+ * the class catalog.
+ *
+ * <p>Values written by the {@link SerialBinding} previously used, which
+ * always start with TC_OBJECT (0x73), are still read, and maps other than
+ * {@link HashMap}s with string keys are still written that way.
+ *
+ * @see PersistProcessor#migratePersistEnv(java.io.File, String...)
+ */
+public class HistoryMapBinding extends TupleBinding<Map> {
+    protected static final int FORMAT_TUPLE = 1;
+
+    /**
+     * Keys written as their index. Only ever append to this list: stored
+     * maps refer to keys by position.
+     */
+    protected static final String[] KNOWN_KEYS = {
+        CrawlURI.A_FETCH_HISTORY, A_STATUS, A_FETCH_BEGAN_TIME,
+        A_CONTENT_DIGEST, A_ETAG_HEADER, A_LAST_MODIFIED_HEADER,
+        A_REFERENCE_LENGTH, A_WRITE_TAG, A_ORIGINAL_URL, A_WARC_RECORD_ID,
+        A_WARC_FILENAME, A_WARC_FILE_OFFSET, A_ORIGINAL_DATE,
+        A_CONTENT_DIGEST_COUNT,
+    };
+    protected static final Map<String,Integer> KEY_INDEXES = new HashMap<String,Integer>();
+    static {
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            KEY_INDEXES.put(KNOWN_KEYS[i], i + 1);
+        }
+    }
+
+    protected static final int TAG_NULL = 0;
+    protected static final int TAG_STRING = 1;
+    protected static final int TAG_INTEGER = 2;
+    protected static final int TAG_LONG = 3;
+    protected static final int TAG_TRUE = 4;
+    protected static final int TAG_FALSE = 5;
+    protected static final int TAG_MAP = 6;
+    protected static final int TAG_HISTORY = 7;
+    protected static final int TAG_SERIALIZED = 8;
+
+    /* fixed fields of fetch-history records, when present */
+    protected static final int FIELD_STATUS = 1;
+    protected static final int FIELD_FETCH_TIME = 2;
+    protected static final int FIELD_DIGEST = 4;
+    protected static final int FIELD_SHA1_DIGEST = 8;
+    protected static final int FIELD_ETAG = 16;
+    protected static final int FIELD_LAST_MODIFIED = 32;
+    protected static final int FIELD_REFERENCE_LENGTH = 64;
+    protected static final int FIELD_WRITE_TAG = 128;
+
+    protected static final String SHA1_PREFIX = "sha1:";
+    protected static final int SHA1_BASE32_LENGTH = 32;
+
+    protected final ClassCatalog classCatalog;
+    protected final SerialBinding<Map> legacyBinding;
+
+    public HistoryMapBinding(StoredClassCatalog classCatalog) {
+        this.classCatalog = classCatalog;
+        this.legacyBinding = new SerialBinding<Map>(classCatalog, Map.class);
+    }
+
+    /** @return whether the entry is in the old java serialization format */
+    public static boolean isLegacy(DatabaseEntry entry) {
+        return entry.getSize() > 0
+                && entry.getData()[entry.getOffset()] == ObjectStreamConstants.TC_OBJECT;
+    }
+
+    @Override
+    public Map entryToObject(DatabaseEntry entry) {
+        if (isLegacy(entry)) {
+            return legacyBinding.entryToObject(entry);
+        }
+        return super.entryToObject(entry);
+    }
+
+    @Override
+    public void objectToEntry(Map map, DatabaseEntry entry) {
+        if (map.getClass() != HashMap.class || !hasStringKeys(map)) {
+            legacyBinding.objectToEntry(map, entry);
+            return;
+        }
+        super.objectToEntry(map, entry);
+    }
+
+    @Override
+    public Map entryToObject(TupleInput in) {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT_TUPLE) {
+            throw new IllegalArgumentException("unknown history format " + format);
+        }
+        return readMap(in);
+    }
+
+    @Override
+    public void objectToEntry(Map map, TupleOutput out) {
+        out.writeUnsignedByte(FORMAT_TUPLE);
+        writeMap(map, out);
+    }
+
+    protected HashMap<String,Object> readMap(TupleInput in) {
+        int size = in.readPackedInt();
+        HashMap<String,Object> map = new HashMap<String,Object>(Math.max(4, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            String key = readKey(in);
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+
+    protected void writeMap(Map<?,?> map, TupleOutput out) {
+        out.writePackedInt(map.size());
+        for (Map.Entry<?,?> entry : map.entrySet()) {
+            writeKey((String) entry.getKey(), out);
+            writeValue(entry.getValue(), out);
+        }
+    }
+
+    protected String readKey(TupleInput in) {
+        int index = in.readPackedInt();
+        return index == 0 ? in.readString() : KNOWN_KEYS[index - 1];
+    }
+
+    protected void writeKey(String key, TupleOutput out) {
+        Integer index = KEY_INDEXES.get(key);
+        if (index != null) {
+            out.writePackedInt(index);
+        } else {
+            out.writePackedInt(0);
+            out.writeString(key);
+        }
+    }
+
+    protected Object readValue(TupleInput in) {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_STRING:
+            return in.readString();
+        case TAG_INTEGER:
+            return in.readPackedInt();
+        case TAG_LONG:
+            return in.readPackedLong();
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_MAP:
+            return readMap(in);
+        case TAG_HISTORY:
+            @SuppressWarnings("unchecked")
+            HashMap<String,Object>[] history = new HashMap[in.readPackedInt()];
+            for (int i = 0; i < history.length; i++) {
+                history[i] = readHistoryRecord(in);
+            }
+            return history;
+        case TAG_SERIALIZED:
+            byte[] bytes = new byte[in.readPackedInt()];
+            in.readFast(bytes);
+            try {
+                return new SerialInput(new ByteArrayInputStream(bytes),
+                        classCatalog).readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        default:
+            throw new IllegalArgumentException("unknown history value tag " + tag);
+        }
+    }
+
+    protected void writeValue(Object value, TupleOutput out) {
+        if (value == null) {
+            out.writeUnsignedByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeUnsignedByte(TAG_STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.writeUnsignedByte(TAG_INTEGER);
+            out.writePackedInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeUnsignedByte(TAG_LONG);
+            out.writePackedLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeUnsignedByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value.getClass() == HashMap.class && hasStringKeys((Map<?,?>) value)) {
+            out.writeUnsignedByte(TAG_MAP);
+            writeMap((Map<?,?>) value, out);
+        } else if (value.getClass() == HashMap[].class && isHistory((HashMap<?,?>[]) value)) {
+            HashMap<?,?>[] history = (HashMap<?,?>[]) value;
+            out.writeUnsignedByte(TAG_HISTORY);
+            out.writePackedInt(history.length);
+            for (HashMap<?,?> record : history) {
+                writeHistoryRecord(record, out);
+            }
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                new SerialOutput(bytes, classCatalog).writeObject(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            out.writeUnsignedByte(TAG_SERIALIZED);
+            out.writePackedInt(bytes.size());
+            out.writeFast(bytes.toByteArray());
+        }
+    }
+
+    protected static boolean hasStringKeys(Map<?,?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean isHistory(HashMap<?,?>[] history) {
+        for (HashMap<?,?> record : history) {
+            if (record != null && !hasStringKeys(record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a fetch-history record: a null marker or the bitmask of fixed
+     * fields present, those fields, and the remaining entries as a map.
+     */
+    protected HashMap<String,Object> readHistoryRecord(TupleInput in) {
+        int fields = in.readPackedInt();
+        if (fields == 0) {
+            return null;
+        }
+        HashMap<String,Object> record = readMap(in);
+        if ((fields & FIELD_STATUS) != 0) {
+            record.put(A_STATUS, in.readPackedInt());
+        }
+        if ((fields & FIELD_FETCH_TIME) != 0) {
+            record.put(A_FETCH_BEGAN_TIME, in.readPackedLong());
+        }
+        if ((fields & FIELD_DIGEST) != 0) {
+            record.put(A_CONTENT_DIGEST, in.readString());
+        }
+        if ((fields & FIELD_SHA1_DIGEST) != 0) {
+            byte[] digest = new byte[20];
+            in.readFast(digest);
+            record.put(A_CONTENT_DIGEST, SHA1_PREFIX + BaseEncoding.base32().encode(digest));
+        }
+        if ((fields & FIELD_ETAG) != 0) {
+            record.put(A_ETAG_HEADER, in.readString());
+        }
+        if ((fields & FIELD_LAST_MODIFIED) != 0) {
+            record.put(A_LAST_MODIFIED_HEADER, in.readString());
+        }
+        if ((fields & FIELD_REFERENCE_LENGTH) != 0) {
+            record.put(A_REFERENCE_LENGTH, in.readPackedLong());
+        }
+        if ((fields & FIELD_WRITE_TAG) != 0) {
+            record.put(A_WRITE_TAG, in.readString());
+        }
+        return record;
+    }
+
+    protected void writeHistoryRecord(Map<?,?> record, TupleOutput out) {
+        if (record == null) {
+            out.writePackedInt(0);
+            return;
+        }
+        Object status = record.get(A_STATUS);
+        Object fetchTime = record.get(A_FETCH_BEGAN_TIME);
+        Object digest = record.get(A_CONTENT_DIGEST);
+        byte[] sha1 = digest instanceof String ? sha1Bytes((String) digest) : null;
+        Object etag = record.get(A_ETAG_HEADER);
+        Object lastModified = record.get(A_LAST_MODIFIED_HEADER);
+        Object referenceLength = record.get(A_REFERENCE_LENGTH);
+        Object writeTag = record.get(A_WRITE_TAG);
+
+        // always nonzero, so that an empty record isn't read as null
+        int fields = 1 << 8;
+        HashMap<Object,Object> rest = new HashMap<Object,Object>(record);
+        if (status instanceof Integer) {
+            fields |= FIELD_STATUS;
+            rest.remove(A_STATUS);
+        }
+        if (fetchTime instanceof Long) {
+            fields |= FIELD_FETCH_TIME;
+            rest.remove(A_FETCH_BEGAN_TIME);
+        }
+        if (sha1 != null) {
+            fields |= FIELD_SHA1_DIGEST;
+            rest.remove(A_CONTENT_DIGEST);
+        } else if (digest instanceof String) {
+            fields |= FIELD_DIGEST;
+            rest.remove(A_CONTENT_DIGEST);
+        }
+        if (etag instanceof String) {
+            fields |= FIELD_ETAG;
+            rest.remove(A_ETAG_HEADER);
+        }
+        if (lastModified instanceof String) {
+            fields |= FIELD_LAST_MODIFIED;
+            rest.remove(A_LAST_MODIFIED_HEADER);
+        }
+        if (referenceLength instanceof Long) {
+            fields |= FIELD_REFERENCE_LENGTH;
+            rest.remove(A_REFERENCE_LENGTH);
+        }
+        if (writeTag instanceof String) {
+            fields |= FIELD_WRITE_TAG;
+            rest.remove(A_WRITE_TAG);
+        }
+
+        out.writePackedInt(fields);
+        writeMap(rest, out);
+        if ((fields & FIELD_STATUS) != 0) {
+            out.writePackedInt((Integer) status);
+        }
+        if ((fields & FIELD_FETCH_TIME) != 0) {
+            out.writePackedLong((Long) fetchTime);
+        }
+        if ((fields & FIELD_DIGEST) != 0) {
+            out.writeString((String) digest);
+        }
+        if ((fields & FIELD_SHA1_DIGEST) != 0) {
+            out.writeFast(sha1);
+        }
+        if ((fields & FIELD_ETAG) != 0) {
+            out.writeString((String) etag);
+        }
+        if ((fields & FIELD_LAST_MODIFIED) != 0) {
+            out.writeString((String) lastModified);
+        }
+        if ((fields & FIELD_REFERENCE_LENGTH) != 0) {
+            out.writePackedLong((Long) referenceLength);
+        }
+        if ((fields & FIELD_WRITE_TAG) != 0) {
+            out.writeString((String) writeTag);
+        }
+    }
+
+    /**
+     * @return the 20 bytes of a "sha1:" base32 digest, if it would be
+     * written back identically, otherwise null
+     */
+    protected static byte[] sha1Bytes(String digest) {
+        if (digest.length() != SHA1_PREFIX.length() + SHA1_BASE32_LENGTH
+                || !digest.startsWith(SHA1_PREFIX)) {
+            return null;
+        }
+        String base32 = digest.substring(SHA1_PREFIX.length());
+        try {
+            byte[] bytes = BaseEncoding.base32().decode(base32);
+            if (BaseEncoding.base32().encode(bytes).equals(base32)) {
+                return bytes;
+            }
+        } catch (IllegalArgumentException e) {
+            // not base32; written as a string
+        }
+        return null;
+    }
+}
@@ -25,7 +25,6 @@ import org.archive.bdb.BdbModule;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
@@ -82,7 +81,7 @@ implements Lifecycle {
                 new StoredSortedMap<String,Map>(
                         historyDb,
                         new StringBinding(), 
-                        new SerialBinding<Map>(classCatalog,Map.class), 
+                        new HistoryMapBinding(classCatalog), 
                         true);
         } catch (DatabaseException e) {
         	throw new RuntimeException(e);
@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -46,15 +47,18 @@ import org.archive.util.bdbje.EnhancedEnvironment;
 import org.archive.util.iterator.LineReadingIterator;
 import org.json.JSONObject;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredIterator;
 import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
 
 /**
  * Superclass for Processors which utilize BDB-JE for URI state
@@ -124,8 +128,7 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         Database sourceHistoryDB = sourceEnv.openDatabase(
                 null, URI_HISTORY_DBNAME, historyDbConfig);
         StoredSortedMap<String,Map> sourceHistoryMap = new StoredSortedMap<String,Map>(sourceHistoryDB,
-                new StringBinding(), new SerialBinding<Map>(sourceClassCatalog,
-                        Map.class), true);
+                new StringBinding(), new HistoryMapBinding(sourceClassCatalog), true);
 
         Iterator<Entry<String,Map>> iter = sourceHistoryMap.entrySet().iterator();
         while (iter.hasNext()) {
@@ -234,8 +237,7 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
             historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
                     HISTORY_DB_CONFIG.toDatabaseConfig());
             historyMap = new StoredSortedMap<String,Map>(historyDB, 
-                    new StringBinding(), new SerialBinding<Map>(classCatalog,
-                        Map.class), true);
+                    new StringBinding(), new HistoryMapBinding(classCatalog), true);
         }
 
         try {
@@ -256,6 +258,59 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         return count;
     }
 
+    /**
+     * Rewrites, in place, history entries stored in the java serialization
+     * format used before {@link HistoryMapBinding}. (Copying an environment
+     * with {@link #populatePersistEnv(String, File)} also converts entries.)
+     * 
+     * @param envFile
+     *            environment db directory, not open elsewhere
+     * @param dbNames
+     *            history databases to convert, by default
+     *            {@value #URI_HISTORY_DBNAME}
+     * @return number of records rewritten
+     * @throws DatabaseException
+     */
+    public static int migratePersistEnv(File envFile, String... dbNames)
+        throws DatabaseException {
+        if (dbNames.length == 0) {
+            dbNames = new String[] {URI_HISTORY_DBNAME};
+        }
+        int count = 0;
+        EnhancedEnvironment env = setupCopyEnvironment(envFile);
+        try {
+            HistoryMapBinding binding = new HistoryMapBinding(env.getClassCatalog());
+            DatabaseConfig dbConfig = HISTORY_DB_CONFIG.toDatabaseConfig();
+            dbConfig.setAllowCreate(false);
+            for (String dbName : dbNames) {
+                int dbCount = 0;
+                Database db = env.openDatabase(null, dbName, dbConfig);
+                Cursor cursor = db.openCursor(null, null);
+                try {
+                    DatabaseEntry key = new DatabaseEntry();
+                    DatabaseEntry value = new DatabaseEntry();
+                    while (cursor.getNext(key, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+                        if (HistoryMapBinding.isLegacy(value)) {
+                            Map map = binding.entryToObject(value);
+                            binding.objectToEntry(map, value);
+                            cursor.putCurrent(value);
+                            dbCount++;
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.sync();
+                db.close();
+                logger.info(dbCount + " records rewritten in " + dbName + " in BDB env " + envFile);
+                count += dbCount;
+            }
+        } finally {
+            env.close();
+        }
+        return count;
+    }
+
     /**
      * Populates a given StoredSortedMap (history map) from an old 
      * environment db or a persist log. If a map is not provided, only 
@@ -306,7 +361,8 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
     /**
      * Utility main for importing a log into a BDB-JE environment or moving a
      * database between environments (2 arguments), or simply dumping a log
-     * to stderr in a more readable format (1 argument). 
+     * to stderr in a more readable format (1 argument). With --migrate,
+     * converts the named history databases of an environment in place. 
      * 
      * @param args command-line arguments
      * @throws DatabaseException
@@ -319,7 +375,11 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         logger.addHandler(handler);
         logger.setUseParentHandlers(false);
 
-        if (args.length == 2) {
+        if (args.length >= 2 && args[0].equals("--migrate")) {
+            logger.setLevel(Level.INFO);
+            migratePersistEnv(new File(args[1]),
+                    Arrays.copyOfRange(args, 2, args.length));
+        } else if (args.length == 2) {
             logger.setLevel(Level.INFO);
             populatePersistEnv(args[0], new File(args[1]));
         } else if (args.length == 1) {
@@ -332,6 +392,10 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
                 "...where source is either a txtser log file or BDB env dir");
             System.out.println(
                 "and target, if present, is a BDB env dir. ");
+            System.out.println("    --migrate env [db...]");
+            System.out.println(
+                "...to rewrite history in the env (by default the "
+                + URI_HISTORY_DBNAME + " db) in the compact format. ");
             return;
         }
     }
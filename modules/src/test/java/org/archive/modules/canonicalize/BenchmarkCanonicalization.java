@@ -0,0 +1,98 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.canonicalize;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares applying the default canonicalization rules one by one with
+ * {@link CompiledCanonicalizer}: reports any URL on which they differ, and
+ * the throughput of each in URLs per second.
+ *
+ * <p>Usage: {@code BenchmarkCanonicalization [reps] [url-file]}, where the
+ * file has one URL per line. Without it a generated corpus is used.
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkCanonicalization {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkCanonicalization()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        List<String> urls;
+        if (args.length > 1) {
+            urls = Files.readAllLines(new File(args[1]).toPath(), StandardCharsets.UTF_8);
+        } else {
+            urls = new ArrayList<String>();
+            Random random = new Random(0);
+            for (int i = 0; i < 200000; i++) {
+                urls.add(CompiledCanonicalizerTest.randomUrl(random));
+            }
+        }
+        List<CanonicalizationRule> rules = RulesCanonicalizationPolicy.getDefaultRules();
+        System.out.println("reps=" + reps + " urls=" + urls.size());
+
+        int mismatches = 0;
+        int unsupported = 0;
+        for (String url : urls) {
+            String expected = CompiledCanonicalizerTest.applyOneByOne(url, rules);
+            String actual = CompiledCanonicalizer.canonicalize(url, rules);
+            if (actual == null) {
+                unsupported++;
+            } else if (!expected.equals(actual)) {
+                mismatches++;
+                System.out.println("MISMATCH " + url + "\n rules: " + expected
+                        + "\n compiled: " + actual);
+            }
+        }
+        System.out.println(mismatches + " differing urls, " + unsupported
+                + " left to the rules");
+
+        for (int r = 0; r < reps; r++) {
+            for (boolean compiled : new boolean[] {false, true}) {
+                System.gc();
+                long startTime = System.nanoTime();
+                long chars = 0;
+                for (String url : urls) {
+                    String result = compiled
+                            ? CompiledCanonicalizer.canonicalize(url, rules)
+                            : null;
+                    if (result == null) {
+                        result = CompiledCanonicalizerTest.applyOneByOne(url, rules);
+                    }
+                    chars += result.length();
+                }
+                long elapsed = System.nanoTime() - startTime;
+                System.out.printf("%-8s %8dms %12.0f urls/s %d chars%n",
+                        compiled ? "compiled" : "rules", elapsed / 1000000,
+                        urls.size() / (elapsed / 1e9), chars);
+            }
+        }
+    }
+}
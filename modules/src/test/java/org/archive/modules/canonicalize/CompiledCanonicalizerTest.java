@@ -0,0 +1,139 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.canonicalize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link CompiledCanonicalizer} against applying the rules one by one
+ * on generated URLs.
+ */
+public class CompiledCanonicalizerTest {
+
+    static final String[] SCHEMES = {
+        "http://", "https://", "HTTP://", "Https://", "ftp://", "ftps://",
+        "FTP://", "dns:", "mailto:", "", "http:/", "http:///",
+    };
+    static final String[] USERINFOS = {
+        "", "", "", "user:pass@", "a@b@", "@", "User@", "x:y@",
+    };
+    static final String[] HOSTS = {
+        "www.", "WWW.", "www12.", "Www0.", "www", "wwwx.", "www.www.",
+        "archive.org", "Example.COM", "a.b", "host:8080", "",
+    };
+    static final String[] PATH_PARTS = {
+        "/", "//", "///", "/index.html", "/A", "a", "@", "?", "&", "=",
+        "?&", "x=y", "sid=", "jsessionid=", "PHPSESSID=", "ASPSESSIONIDABCDEFGH=",
+        "cfid=", "CFID=123&", "cftoken=", "CFTOKEN=456", "jsession=789",
+        "0123456789abcdefABCDEF0123456789", "abcdefghijklmnopqrstuvwx", "#f",
+        "www.", "http://", " ", "%20",
+    };
+
+    protected static String randomUrl(Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(SCHEMES[random.nextInt(SCHEMES.length)]);
+        sb.append(USERINFOS[random.nextInt(USERINFOS.length)]);
+        sb.append(HOSTS[random.nextInt(HOSTS.length)]);
+        for (int n = random.nextInt(10); n > 0; n--) {
+            sb.append(PATH_PARTS[random.nextInt(PATH_PARTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    protected static String applyOneByOne(String url, List<CanonicalizationRule> rules) {
+        for (CanonicalizationRule rule : rules) {
+            if (rule.getEnabled()) {
+                url = rule.canonicalize(url);
+            }
+        }
+        return url;
+    }
+
+    protected static List<CanonicalizationRule> allRules() {
+        List<CanonicalizationRule> rules = new ArrayList<CanonicalizationRule>();
+        rules.add(new LowercaseRule());
+        rules.add(new StripUserinfoRule());
+        rules.add(new StripWWWNRule());
+        rules.add(new StripWWWRule());
+        rules.add(new StripSessionIDs());
+        rules.add(new StripSessionCFIDs());
+        rules.add(new FixupQueryString());
+        rules.add(new StripExtraSlashes());
+        return rules;
+    }
+
+    @Test
+    public void testDefaultRules() {
+        Random random = new Random(33);
+        List<CanonicalizationRule> rules = RulesCanonicalizationPolicy.getDefaultRules();
+        for (int i = 0; i < 100000; i++) {
+            String url = randomUrl(random);
+            assertEquals(applyOneByOne(url, rules),
+                    CompiledCanonicalizer.canonicalize(url, rules), url);
+        }
+    }
+
+    @Test
+    public void testRandomRuleLists() {
+        Random random = new Random(34);
+        for (int i = 0; i < 2000; i++) {
+            List<CanonicalizationRule> rules = allRules();
+            Collections.shuffle(rules, random);
+            rules = rules.subList(0, random.nextInt(rules.size() + 1));
+            for (CanonicalizationRule rule : rules) {
+                ((BaseRule) rule).setEnabled(random.nextInt(5) != 0);
+            }
+            for (int j = 0; j < 50; j++) {
+                String url = randomUrl(random);
+                assertEquals(applyOneByOne(url, rules),
+                        CompiledCanonicalizer.canonicalize(url, rules),
+                        rules + " on " + url);
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        List<CanonicalizationRule> rules = RulesCanonicalizationPolicy.getDefaultRules();
+        assertNull(CompiledCanonicalizer.canonicalize("http://www.\u00e9.org/x", rules));
+        assertNull(CompiledCanonicalizer.canonicalize("http://www.a.org/x\n", rules));
+        rules.add(new RegexRule());
+        assertNull(CompiledCanonicalizer.canonicalize("http://www.a.org/x", rules));
+        // falls back to applying the rules one by one
+        RulesCanonicalizationPolicy policy = new RulesCanonicalizationPolicy();
+        assertEquals("http://\u00e9.org/x",
+                policy.canonicalize("http://www.\u00e9.org/x?"));
+    }
+
+    @Test
+    public void testUnchangedIsSame() {
+        String url = "http://archive.org/index.html";
+        assertSame(url, CompiledCanonicalizer.canonicalize(url,
+                RulesCanonicalizationPolicy.getDefaultRules()));
+    }
+}
@@ -18,14 +18,116 @@
  */
 package org.archive.modules.deciderules;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
 import org.archive.state.ModuleTestBase;
+import org.junit.jupiter.api.Test;
 
 /**
  * Unit test for DecideRuleSequence.
- * 
+ *
  * @author pjack
  */
 public class DecideRuleSequenceTest extends ModuleTestBase {
 
-    // TODO TESTME
+    /** Decides for URIs whose hash falls in its bucket. */
+    public static class HashBucketDecideRule extends PredicatedDecideRule {
+        private static final long serialVersionUID = 1L;
+        protected int buckets;
+        protected int bucket;
+        public HashBucketDecideRule(int buckets, int bucket, DecideResult decision) {
+            this.buckets = buckets;
+            this.bucket = bucket;
+            setDecision(decision);
+        }
+        @Override
+        protected boolean evaluate(CrawlURI uri) {
+            return Math.floorMod(uri.toString().hashCode(), buckets) == bucket;
+        }
+    }
+
+    protected DecideRule randomRule(Random random, int depth) {
+        DecideResult decision = random.nextBoolean() ? DecideResult.ACCEPT : DecideResult.REJECT;
+        DecideRule rule;
+        switch (random.nextInt(depth > 0 ? 5 : 4)) {
+        case 0:
+            rule = decision == DecideResult.ACCEPT ? new AcceptDecideRule() : new RejectDecideRule();
+            break;
+        case 4:
+            rule = randomSequence(random, depth - 1);
+            break;
+        default:
+            rule = new HashBucketDecideRule(2 + random.nextInt(5), random.nextInt(2), decision);
+        }
+        rule.setEnabled(random.nextInt(8) != 0);
+        return rule;
+    }
+
+    protected DecideRuleSequence randomSequence(Random random, int depth) {
+        List<DecideRule> rules = new ArrayList<DecideRule>();
+        for (int n = random.nextInt(8); n > 0; n--) {
+            rules.add(randomRule(random, depth));
+        }
+        DecideRuleSequence sequence = new DecideRuleSequence();
+        sequence.setRules(rules);
+        return sequence;
+    }
+
+    @Test
+    public void testReverseEvaluationDecidesTheSame() throws Exception {
+        Random random = new Random(32);
+        List<CrawlURI> uris = new ArrayList<CrawlURI>();
+        for (int i = 0; i < 50; i++) {
+            uris.add(new CrawlURI(UURIFactory.getInstance("http://example.com/" + i)));
+        }
+        for (int i = 0; i < 500; i++) {
+            DecideRuleSequence sequence = randomSequence(random, 2);
+            for (CrawlURI uri : uris) {
+                sequence.setEvaluateInReverse(false);
+                DecideResult expected = sequence.decisionFor(uri);
+                sequence.setEvaluateInReverse(true);
+                assertEquals(expected, sequence.decisionFor(uri), uri.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testRuleStatistics() throws Exception {
+        DecideRule reject = new RejectDecideRule();
+        DecideRule evens = new HashBucketDecideRule(2, 0, DecideResult.ACCEPT);
+        DecideRule never = new HashBucketDecideRule(1, 1, DecideResult.REJECT);
+        DecideRuleSequence sequence = new DecideRuleSequence();
+        sequence.setRules(Arrays.asList(reject, evens, never));
+        sequence.setEvaluateInReverse(true);
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            CrawlURI uri = new CrawlURI(UURIFactory.getInstance("http://example.com/" + i));
+            if (sequence.decisionFor(uri) == DecideResult.ACCEPT) {
+                accepted++;
+            }
+        }
+        assertEquals(10, sequence.getRuleStatistics(never).getInvocations());
+        assertEquals(0, sequence.getRuleStatistics(never).getDecisions());
+        assertEquals(10, sequence.getRuleStatistics(evens).getInvocations());
+        assertEquals(accepted, sequence.getRuleStatistics(evens).getDecisions());
+        // only reached when the later rules didn't decide
+        assertEquals(10 - accepted, sequence.getRuleStatistics(reject).getInvocations());
+        assertEquals(10 - accepted, sequence.getRuleStatistics(reject).getDecisions());
+
+        StringBuilder sb = new StringBuilder();
+        sequence.reportTo("", sb);
+        assertTrue(sb.toString().startsWith("#0 RejectDecideRule: " + (10 - accepted)
+                + " invocations, " + (10 - accepted) + " decisive, "), sb.toString());
+        assertTrue(sb.toString().contains("#2 HashBucketDecideRule: 10 invocations, 0 decisive, "),
+                sb.toString());
+    }
 }
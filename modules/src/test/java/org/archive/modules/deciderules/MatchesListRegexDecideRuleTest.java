@@ -3,6 +3,7 @@ package org.archive.modules.deciderules;
 import org.archive.url.URIException;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURIFactory;
+import org.archive.util.MultiRegexMatcher;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
@@ -10,6 +11,8 @@ import java.util.List;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public class MatchesListRegexDecideRuleTest {
 
@@ -51,4 +54,40 @@ public class MatchesListRegexDecideRuleTest {
         assertEquals(DecideResult.REJECT, decideResult, "Expected REJECT not " + decideResult);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPathologicalRegexWithoutTimeout() throws URIException {
+        // no backtracking, so no need for a timeout
+        String seed = "http://www.netarkivet.dk/xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx";
+        MatchesListRegexDecideRule rule = new MatchesListRegexDecideRule();
+        List<Pattern> patternList = new ArrayList<>();
+        patternList.add(Pattern.compile("http://www\\.netarkivet\\.dk/((x+x+)+)y"));
+        patternList.add(Pattern.compile("(?i)HTTP://WWW\\.NETARKIVET\\.DK/.*"));
+        rule.setRegexList(patternList);
+        rule.setDecision(DecideResult.REJECT);
+        final CrawlURI curi = new CrawlURI(UURIFactory.getInstance(seed));
+        assertEquals(DecideResult.REJECT, rule.decisionFor(curi));
+        rule.setListLogicalOr(false);
+        assertEquals(DecideResult.NONE, rule.decisionFor(curi));
+        patternList.remove(0);
+        assertEquals(DecideResult.REJECT, rule.decisionFor(curi));
+    }
+
+    @Test
+    public void testMatcherKept() throws URIException {
+        MatchesListRegexDecideRule rule = new MatchesListRegexDecideRule();
+        List<Pattern> patternList = new ArrayList<>();
+        patternList.add(Pattern.compile("http://www\\.netarkivet\\.dk/.*"));
+        rule.setRegexList(patternList);
+        MultiRegexMatcher matcher = rule.matcherFor(patternList);
+        assertSame(matcher, rule.matcherFor(patternList));
+
+        patternList.set(0, Pattern.compile("http://www\\.example\\.com/.*"));
+        MultiRegexMatcher changed = rule.matcherFor(patternList);
+        assertNotSame(matcher, changed);
+        rule.setDecision(DecideResult.REJECT);
+        assertEquals(DecideResult.REJECT, rule.decisionFor(
+                new CrawlURI(UURIFactory.getInstance("http://www.example.com/"))));
+        assertSame(changed, rule.matcherFor(patternList));
+    }
+
+}
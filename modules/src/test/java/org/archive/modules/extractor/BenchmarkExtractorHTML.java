@@ -0,0 +1,157 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.archive.modules.CrawlMetadata;
+
+/**
+ * Compares {@link ExtractorHTML}'s regex and tokenizer modes over a corpus of
+ * HTML files: reports any document whose outlinks (URI, context and hop)
+ * differ between the two, and the throughput of each mode in MB/s.
+ *
+ * <p>Usage: {@code BenchmarkExtractorHTML [reps] [file-or-dir ...]}. Without
+ * corpus arguments a generated corpus is used, including pathological
+ * unterminated markup.
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkExtractorHTML {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkExtractorHTML()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        Map<String, String> corpus = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            load(new File(args[i]).toPath(), corpus);
+        }
+        if (corpus.isEmpty()) {
+            generate(corpus);
+        }
+        long bytes = 0;
+        for (String doc : corpus.values()) {
+            bytes += doc.getBytes(StandardCharsets.UTF_8).length;
+        }
+        System.out.println("reps=" + reps + " documents=" + corpus.size()
+                + " bytes=" + bytes);
+
+        ExtractorHTML extractor = makeExtractor();
+        int mismatches = 0;
+        for (Map.Entry<String, String> e : corpus.entrySet()) {
+            extractor.setUseTokenizer(false);
+            List<String> expected = ExtractorHTMLTokenizerTest.outlinks(extractor, e.getValue());
+            extractor.setUseTokenizer(true);
+            List<String> actual = ExtractorHTMLTokenizerTest.outlinks(extractor, e.getValue());
+            if (!expected.equals(actual)) {
+                mismatches++;
+                System.out.println("MISMATCH " + e.getKey() + "\n regex: "
+                        + expected + "\n tokenizer: " + actual);
+            }
+        }
+        System.out.println(mismatches + " documents with differing outlinks");
+
+        for (int r = 0; r < reps; r++) {
+            for (boolean useTokenizer : new boolean[] {false, true}) {
+                extractor.setUseTokenizer(useTokenizer);
+                System.gc();
+                long startTime = System.nanoTime();
+                long links = 0;
+                for (String doc : corpus.values()) {
+                    links += ExtractorHTMLTokenizerTest.outlinks(extractor, doc).size();
+                }
+                long elapsed = System.nanoTime() - startTime;
+                System.out.printf("%-9s %8dms %8.2f MB/s %d links%n",
+                        useTokenizer ? "tokenizer" : "regex",
+                        elapsed / 1000000, bytes / 1e6 / (elapsed / 1e9), links);
+            }
+        }
+    }
+
+    protected ExtractorHTML makeExtractor() {
+        ExtractorHTML extractor = new ExtractorHTML();
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        extractor.setMetadata(metadata);
+        extractor.setExtractorJS(new ExtractorJS());
+        extractor.afterPropertiesSet();
+        return extractor;
+    }
+
+    protected void load(Path path, Map<String, String> corpus) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    String name = p.getFileName().toString().toLowerCase();
+                    if (Files.isRegularFile(p) && (name.endsWith(".html") || name.endsWith(".htm"))) {
+                        corpus.put(p.toString(), Files.readString(p, StandardCharsets.ISO_8859_1));
+                    }
+                }
+            }
+        } else {
+            corpus.put(path.toString(), Files.readString(path, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    protected void generate(Map<String, String> corpus) {
+        Random random = new Random(0);
+        StringBuilder page = new StringBuilder("<html><head><title>t</title>"
+                + "<meta name=\"robots\" content=\"index,follow\">"
+                + "<link rel=\"stylesheet\" href=\"/s.css\"></head><body>\n");
+        for (int i = 0; i < 2000; i++) {
+            page.append("<div class=\"c").append(i % 7).append("\"><a href=\"/p/")
+                .append(i).append(".html\" onclick=\"track(").append(i)
+                .append(")\">link ").append(i).append("</a> <img src=\"/i/")
+                .append(i).append(".png\" alt=\"\" data-src=\"/l/").append(i)
+                .append(".jpg\"></div>\n");
+            if (i % 100 == 0) {
+                page.append("<script type=\"text/javascript\">var u = '/js/")
+                    .append(i).append(".js';</script>\n<!-- comment ")
+                    .append(i).append(" -->\n");
+            }
+        }
+        corpus.put("generated-page", page.append("</body></html>").toString());
+
+        StringBuilder unterminated = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            unterminated.append("<a href=x").append(i).append(" <script <!-- ");
+        }
+        corpus.put("generated-unterminated", unterminated.toString());
+
+        for (int i = 0; i < 200; i++) {
+            corpus.put("generated-fragments-" + i,
+                    ExtractorHTMLTokenizerTest.randomDocument(random, 300));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Compares {@link ExtractorJS}'s regex and lexer modes over a corpus of
+ * Javascript files, typically large minified bundles: the throughput of
+ * each mode in MB/s, and the number of outlinks found by only one of them.
+ *
+ * <p>Usage: {@code BenchmarkExtractorJS [reps] [file-or-dir ...]}. Without
+ * corpus arguments a generated minified bundle of a few MB is used.
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkExtractorJS {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkExtractorJS()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        Map<String, String> corpus = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            load(new File(args[i]).toPath(), corpus);
+        }
+        if (corpus.isEmpty()) {
+            generate(corpus);
+        }
+        long bytes = 0;
+        for (String doc : corpus.values()) {
+            bytes += doc.getBytes(StandardCharsets.UTF_8).length;
+        }
+        System.out.println("reps=" + reps + " documents=" + corpus.size()
+                + " bytes=" + bytes);
+
+        ExtractorJS extractor = makeExtractor();
+        long onlyRegex = 0;
+        long onlyLexer = 0;
+        for (Map.Entry<String, String> e : corpus.entrySet()) {
+            extractor.setUseLexer(false);
+            Set<String> regex = outlinks(extractor, e.getValue());
+            extractor.setUseLexer(true);
+            Set<String> lexer = outlinks(extractor, e.getValue());
+            Set<String> diff = new TreeSet<>(regex);
+            diff.removeAll(lexer);
+            onlyRegex += diff.size();
+            diff = new TreeSet<>(lexer);
+            diff.removeAll(regex);
+            onlyLexer += diff.size();
+        }
+        System.out.println(onlyRegex + " outlinks found only by regex, "
+                + onlyLexer + " only by lexer");
+
+        for (int r = 0; r < reps; r++) {
+            for (boolean useLexer : new boolean[] {false, true}) {
+                extractor.setUseLexer(useLexer);
+                System.gc();
+                long startTime = System.nanoTime();
+                long links = 0;
+                for (String doc : corpus.values()) {
+                    links += outlinks(extractor, doc).size();
+                }
+                long elapsed = System.nanoTime() - startTime;
+                System.out.printf("%-5s %8dms %8.2f MB/s %d links%n",
+                        useLexer ? "lexer" : "regex",
+                        elapsed / 1000000, bytes / 1e6 / (elapsed / 1e9), links);
+            }
+        }
+    }
+
+    protected ExtractorJS makeExtractor() {
+        ExtractorJS extractor = new ExtractorJS();
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        extractor.setExtractorParameters(new ExtractorParameters() {
+            public int getMaxOutlinks() {
+                return Integer.MAX_VALUE;
+            }
+            public boolean getExtractIndependently() {
+                return false;
+            }
+            public boolean getExtract404s() {
+                return false;
+            }
+        });
+        return extractor;
+    }
+
+    protected Set<String> outlinks(ExtractorJS extractor, String js) throws Exception {
+        UURI uuri = UURIFactory.getInstance("http://www.example.com/static/bundle.js");
+        CrawlURI curi = new CrawlURI(uuri, null, uuri, LinkContext.NAVLINK_MISC);
+        extractor.considerStrings(extractor, curi, js, true);
+        Set<String> result = new TreeSet<>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            result.add(link.getURI());
+        }
+        return result;
+    }
+
+    protected void load(Path path, Map<String, String> corpus) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    String name = p.getFileName().toString().toLowerCase();
+                    if (Files.isRegularFile(p) && (name.endsWith(".js") || name.endsWith(".mjs"))) {
+                        corpus.put(p.toString(), Files.readString(p, StandardCharsets.ISO_8859_1));
+                    }
+                }
+            }
+        } else {
+            corpus.put(path.toString(), Files.readString(path, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * A minified-bundle-like script, all on one line: functions with string,
+     * template and regex literals, some URLs, some escaped HTML, and
+     * comments with apostrophes.
+     */
+    protected void generate(Map<String, String> corpus) {
+        Random random = new Random(0);
+        StringBuilder js = new StringBuilder("/*! bundle (c) it's ours */");
+        for (int i = 0; js.length() < 4 * 1024 * 1024; i++) {
+            js.append("function f").append(i).append("(e,t){");
+            switch (random.nextInt(6)) {
+            case 0:
+                js.append("return e.replace(/[\"'&<>]/g,function(n){return m[n]})");
+                break;
+            case 1:
+                js.append("var n=\"/api/v").append(i % 3).append("/items/\"+e+\".json\";return fetch(n)");
+                break;
+            case 2:
+                js.append("t.innerHTML='<a href=\"/p/").append(i)
+                    .append(".html\" class=\"x\">don\\'t</a>'");
+                break;
+            case 3:
+                js.append("return `${e}/img/").append(i).append(".png?w=${t}`");
+                break;
+            case 4:
+                js.append("/* don't */return e/t/2");
+                break;
+            default:
+                js.append("return{type:\"module\",name:'f").append(i)
+                    .append("',url:\"https://cdn.example.com/lib/").append(i).append(".js\"}");
+            }
+            js.append("}");
+        }
+        corpus.put("generated-bundle", js.toString());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.Recorder;
+import org.junit.jupiter.api.Test;
+
+public class ExtractionCacheTest {
+
+    final static String PAGE = "<html><head>"
+            + "<link rel=stylesheet href='style.css'>"
+            + "<script>var u = '/js/app.js';</script>"
+            + "</head><body><a href='../up.html'>up</a>"
+            + "<img src='http://cdn.example.org/logo.png'></body></html>";
+
+    protected ExtractorHTML makeExtractor(ExtractionCache cache) {
+        ExtractorHTML result = new ExtractorHTML();
+        result.setLoggerModule(new UnitTestUriLoggerModule());
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        result.setMetadata(metadata);
+        result.setExtractorJS(new ExtractorJS());
+        result.afterPropertiesSet();
+        result.setExtractionCache(cache);
+        return result;
+    }
+
+    protected CrawlURI fetched(String uri, String content, String digest)
+            throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setFetchStatus(200);
+        Recorder recorder = ContentExtractorTestBase.createRecorder(content, "UTF-8");
+        curi.setContentType("text/html");
+        curi.setRecorder(recorder);
+        curi.setContentSize(content.length());
+        curi.setContentDigest("sha1", digest.getBytes("UTF-8"));
+        return curi;
+    }
+
+    protected List<String> outlinks(CrawlURI curi) {
+        List<String> result = new ArrayList<String>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            result.add(link.getURI() + " " + link.getLastHop() + " " + link.getViaContext());
+        }
+        return result;
+    }
+
+    @Test
+    public void testHitResolvesAgainstNewBase() throws Exception {
+        ExtractionCache cache = new ExtractionCache();
+        ExtractorHTML extractor = makeExtractor(cache);
+        ExtractorHTML uncached = makeExtractor(null);
+
+        CrawlURI first = fetched("http://www.example.com/a/b/page.html", PAGE, "d1");
+        extractor.process(first);
+        assertEquals(1, cache.size());
+        assertTrue(first.hasBeenLinkExtracted());
+
+        CrawlURI second = fetched("https://mirror.example.net/x/y/z/copy.html", PAGE, "d1");
+        extractor.process(second);
+        CrawlURI expected = fetched("https://mirror.example.net/x/y/z/copy.html", PAGE, "d1");
+        uncached.process(expected);
+
+        assertEquals(outlinks(expected), outlinks(second));
+        assertTrue(outlinks(second).get(0).startsWith("https://mirror.example.net/x/y/z/style.css "));
+        assertTrue(second.hasBeenLinkExtracted());
+        assertEquals(1, extractor.cacheHits.get());
+        assertEquals(1, extractor.cacheMisses.get());
+        assertTrue(extractor.report().contains("extraction cache: 1 hits, 1 misses"));
+    }
+
+    /**
+     * Extract with the given sheets (name, map) applied, as a ToeThread
+     * would.
+     */
+    protected void processWithSheets(ExtractorHTML extractor, CrawlURI curi,
+            Map<String,Map<String,Object>> sheets) throws Exception {
+        curi.setOverlayMapsSource(sheets::get);
+        curi.getOverlayNames().addAll(sheets.keySet());
+        KeyedProperties.loadOverridesFrom(curi);
+        try {
+            extractor.process(curi);
+        } finally {
+            KeyedProperties.clearOverridesFrom(curi);
+        }
+    }
+
+    @Test
+    public void testSheetOverridesMiss() throws Exception {
+        ExtractionCache cache = new ExtractionCache();
+        ExtractorHTML extractor = makeExtractor(cache);
+        // as a sheet targeting the bean would have primed it
+        extractor.getKeyedProperties().addExternalPath("extractorHtml");
+        Map<String,Map<String,Object>> noScript = Map.of("noScript",
+                Map.of("extractorHtml.extractJavascript", false));
+        Map<String,Map<String,Object>> unrelated = Map.of("politeness",
+                Map.of("disposition.delayFactor", 10.0f));
+
+        CrawlURI plain = fetched("http://www.example.com/1.html", PAGE, "d1");
+        processWithSheets(extractor, plain, unrelated);
+        assertTrue(outlinks(plain).stream().anyMatch(l -> l.contains("/js/app.js")));
+
+        CrawlURI overridden = fetched("http://www.example.com/2.html", PAGE, "d1");
+        processWithSheets(extractor, overridden, noScript);
+        assertFalse(outlinks(overridden).stream().anyMatch(l -> l.contains("/js/app.js")));
+        assertEquals(0, extractor.cacheHits.get());
+        assertEquals(2, cache.size());
+
+        // same settings, same entries
+        CrawlURI again = fetched("http://www.example.com/3.html", PAGE, "d1");
+        processWithSheets(extractor, again, noScript);
+        assertFalse(outlinks(again).stream().anyMatch(l -> l.contains("/js/app.js")));
+        CrawlURI unoverlaid = fetched("http://www.example.com/4.html", PAGE, "d1");
+        extractor.process(unoverlaid);
+        assertTrue(outlinks(unoverlaid).stream().anyMatch(l -> l.contains("/js/app.js")));
+        assertEquals(2, extractor.cacheHits.get());
+    }
+
+    @Test
+    public void testUnexpectedHtmlNotReplayed() throws Exception {
+        ExtractionCache cache = new ExtractionCache();
+        ExtractorHTML extractor = makeExtractor(cache);
+        extractor.process(fetched("http://www.example.com/page.html", PAGE, "d1"));
+        assertEquals(1, cache.size());
+
+        // the path check is made before the cache is consulted
+        CrawlURI image = fetched("http://www.example.com/logo.gif", PAGE, "d1");
+        extractor.process(image);
+        assertTrue(image.getOutLinks().isEmpty());
+        assertEquals(0, extractor.cacheHits.get());
+    }
+
+    @Test
+    public void testDifferentDigestMisses() throws Exception {
+        ExtractionCache cache = new ExtractionCache();
+        ExtractorHTML extractor = makeExtractor(cache);
+        extractor.process(fetched("http://www.example.com/1.html", PAGE, "d1"));
+        extractor.process(fetched("http://www.example.com/2.html", PAGE, "d2"));
+        assertEquals(0, extractor.cacheHits.get());
+        assertEquals(2, extractor.cacheMisses.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testBaseHrefNotCached() throws Exception {
+        ExtractionCache cache = new ExtractionCache();
+        ExtractorHTML extractor = makeExtractor(cache);
+        String page = "<html><head><base href='/other/'></head>"
+                + "<body><a href='rel.html'>x</a></body></html>";
+        extractor.process(fetched("http://www.example.com/a/1.html", page, "d1"));
+        assertEquals(0, cache.size());
+
+        CrawlURI second = fetched("http://www.example.com/b/2.html", page, "d1");
+        extractor.process(second);
+        assertEquals(0, extractor.cacheHits.get());
+        assertTrue(outlinks(second).stream().anyMatch(
+                l -> l.startsWith("http://www.example.com/other/rel.html ")));
+    }
+
+    @Test
+    public void testScriptRelativeToVia() throws Exception {
+        ExtractionCache cache = new ExtractionCache();
+        ExtractorJS extractor = new ExtractorJS();
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        extractor.setExtractionCache(cache);
+        String js = "var u = 'img/sprite.png';";
+        for (String via : new String[] {"http://www.example.com/a/", "http://www.example.org/b/c/"}) {
+            CrawlURI curi = fetched("http://cdn.example.net/lib.js", js, "d1");
+            curi.setContentType("application/javascript");
+            curi.setVia(UURIFactory.getInstance(via));
+            extractor.process(curi);
+            assertEquals(1, curi.getOutLinks().size());
+            assertEquals(via + "img/sprite.png", curi.getOutLinks().iterator().next().getURI());
+        }
+        assertEquals(1, extractor.cacheHits.get());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.TextUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs all of {@link ExtractorHTMLTest} with
+ * {@link ExtractorHTML#setUseTokenizer(boolean)} enabled, and checks the
+ * {@link HTMLTokenizer} scanners against the regular expressions they replace
+ * on generated, mostly malformed, markup.
+ */
+public class ExtractorHTMLTokenizerTest extends ExtractorHTMLTest {
+
+    static final String[] FRAGMENTS = {
+        "<", ">", "</", "/>", " ", "  ", "\t", "\n", "\r\n", "\r", "\u2028",
+        "<a ", "<A\n", "<img ", "<IMG\t", "<form ", "<frame ", "<link ",
+        "<script>", "<script ", "<SCRIPT src=s.js>", "</script>", "</ScRiPt>",
+        "</script", "<style>", "<Style ", "</style>", "</STYLE>", "<!--",
+        "-->", "--", "<!--[if IE]>", "<!-->", "<meta ", "<META ", "<metadata ",
+        "<averyveryverylongelement ", "href", "HREF", "cite", "action", "src",
+        "srcset", "data-src", "data-original-set", "codebase", "classid",
+        "data", "archive", "code", "value", "style", "method", "onclick",
+        "on", "on-x", "rel", "name", "content", "http-equiv",
+        "data-remote", "averyveryverylongattributename", "x-y", "=", " = ",
+        "\"", "'", "true", "nofollow", "refresh", "0; url=/r.html",
+        "/path/a.html", "b.html", "http://example.com/p?q=1&amp;r=2",
+        "javascript:go()", "'/js/x.js'", "\"/q.gif\"", "a", "x", "_", "-",
+        "\u00e9", "0123456789",
+    };
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorHTML result = (ExtractorHTML) super.makeExtractor();
+        result.setUseTokenizer(true);
+        return result;
+    }
+
+    protected static String randomDocument(Random random, int fragments) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fragments; i++) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    protected static ExtractorHTML smallLimitsExtractor() {
+        ExtractorHTML extractor = new ExtractorHTML();
+        extractor.setMaxElementLength(8);
+        extractor.setMaxAttributeNameLength(12);
+        extractor.setMaxAttributeValLength(16);
+        extractor.afterPropertiesSet();
+        return extractor;
+    }
+
+    protected static List<String> tagMatches(ExtractorHTML extractor,
+            boolean useTokenizer, CharSequence cs) {
+        extractor.setUseTokenizer(useTokenizer);
+        List<String> result = new ArrayList<>();
+        HTMLTokenizer.Matches tags = extractor.tagMatches(cs);
+        while (tags.find()) {
+            StringBuilder sb = new StringBuilder();
+            for (int g = 1; g <= 8; g++) {
+                sb.append(tags.start(g)).append(',').append(tags.end(g)).append(' ');
+            }
+            result.add(sb.append(tags.end()).toString());
+        }
+        tags.recycle();
+        return result;
+    }
+
+    protected static List<String> attributeMatches(ExtractorHTML extractor,
+            boolean useTokenizer, CharSequence cs) {
+        extractor.setUseTokenizer(useTokenizer);
+        List<String> result = new ArrayList<>();
+        HTMLTokenizer.Matches attr = extractor.attributeMatches(cs);
+        for (int from = 0; from <= cs.length(); from++) {
+            if (!attr.find(from)) {
+                result.add(from + ": none");
+                continue;
+            }
+            StringBuilder sb = new StringBuilder().append(from).append(": ");
+            for (int g = 1; g <= 16; g++) {
+                sb.append(attr.start(g)).append(',').append(attr.end(g)).append(' ');
+            }
+            result.add(sb.append(attr.end()).toString());
+        }
+        attr.recycle();
+        return result;
+    }
+
+    @Test
+    public void testTagScannerMatchesRegex() {
+        ExtractorHTML extractor = smallLimitsExtractor();
+        Random random = new Random(29);
+        for (int i = 0; i < 2000; i++) {
+            String doc = randomDocument(random, 1 + random.nextInt(60));
+            assertEquals(tagMatches(extractor, false, doc),
+                    tagMatches(extractor, true, doc), doc);
+        }
+    }
+
+    @Test
+    public void testAttributeScannerMatchesRegex() {
+        ExtractorHTML extractor = smallLimitsExtractor();
+        Random random = new Random(2029);
+        for (int i = 0; i < 1000; i++) {
+            String doc = randomDocument(random, 1 + random.nextInt(30));
+            assertEquals(attributeMatches(extractor, false, doc),
+                    attributeMatches(extractor, true, doc), doc);
+        }
+    }
+
+    @Test
+    public void testDataRemoteMatchesRegex() {
+        String regex = "(?i).*data-remote\\s*=\\s*([\"'])true.*\\1";
+        Random random = new Random(129);
+        String[] parts = {"data-remote", "DATA-REMOTE", "=", " ", "\n", "\u0085",
+                "\"", "'", "true", "TRUE", "x", "href=", "/a.html"};
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = random.nextInt(12); n >= 0; n--) {
+                sb.append(parts[random.nextInt(parts.length)]);
+            }
+            String tag = sb.toString();
+            assertEquals(TextUtils.matches(regex, tag),
+                    ExtractorHTML.isDataRemoteTrue(tag), tag);
+        }
+    }
+
+    @Test
+    public void testOutlinksMatchRegexMode() throws Exception {
+        ExtractorHTML extractor = (ExtractorHTML) makeExtractor();
+        Random random = new Random(3029);
+        for (int i = 0; i < 500; i++) {
+            String doc = randomDocument(random, 1 + random.nextInt(200));
+            extractor.setUseTokenizer(false);
+            List<String> expected = outlinks(extractor, doc);
+            extractor.setUseTokenizer(true);
+            assertEquals(expected, outlinks(extractor, doc), doc);
+        }
+    }
+
+    protected static List<String> outlinks(ExtractorHTML extractor, String doc)
+            throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/dir/"));
+        extractor.extract(curi, doc);
+        List<String> links = new ArrayList<>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            links.add(link.getURI() + " " + link.getViaContext() + " "
+                    + link.getLastHop());
+        }
+        return links;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs all of {@link ExtractorJSTest} with
+ * {@link ExtractorJS#setUseLexer(boolean)} enabled, plus cases with
+ * comments, regex literals and template literals, and checks the
+ * {@link JSStringLexer}'s candidates.
+ */
+public class ExtractorJSLexerTest extends ExtractorJSTest {
+
+    final public static String[] LEXER_TEST_DATA = new String[] {
+        "var re = /[\"']/g; var u = \"/after/regex.html\";",
+        "http://www.archive.org/after/regex.html",
+
+        "x = a / b; y = c / d; var u = '/after/division.html';",
+        "http://www.archive.org/after/division.html",
+
+        "// don't \"lose\" the next line\nvar u = '/after/comment.html';",
+        "http://www.archive.org/after/comment.html",
+
+        "/* it's \"a\" comment */ var u = '/after/block/comment.html';",
+        "http://www.archive.org/after/block/comment.html",
+
+        "var u = `${base}/template/page.html`;",
+        "http://www.archive.org/template/page.html",
+
+        "var u = `/template/literal.html`;",
+        "http://www.archive.org/template/literal.html",
+
+        "el.innerHTML = \"<img src='/nested/single.png'>\";",
+        "http://www.archive.org/nested/single.png",
+    };
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorJS result = (ExtractorJS) super.makeExtractor();
+        result.setUseLexer(true);
+        return result;
+    }
+
+    @Override
+    protected String[] getValidTestData() {
+        String[] data = Arrays.copyOf(VALID_TEST_DATA,
+                VALID_TEST_DATA.length + LEXER_TEST_DATA.length);
+        System.arraycopy(LEXER_TEST_DATA, 0, data, VALID_TEST_DATA.length,
+                LEXER_TEST_DATA.length);
+        return data;
+    }
+
+    protected static List<String> candidates(String js) {
+        List<String> result = new ArrayList<String>();
+        new JSStringLexer(js, 20, c -> result.add(c.toString())).scan();
+        return result;
+    }
+
+    @Test
+    public void testCandidates() {
+        assertEquals(Arrays.asList("a", "b"), candidates("f('a', \"b\")"));
+        assertEquals(Arrays.asList("a'b"), candidates("\"a'b\""));
+        assertEquals(Arrays.asList("x", "y"), candidates("/* 'no' */ x = /'/.test('x') // 'no'\n'y'"));
+        assertEquals(Arrays.asList("q"), candidates("a = b / 'q' / c"));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), candidates("`a${ {k: 'b'}[k] + `c` }d`"));
+        assertEquals(Arrays.asList("<a href=\\\"x\\\">", "x"), candidates("\"<a href=\\\"x\\\">\""));
+        assertEquals(Arrays.asList("\\u0027y\\u0027", "y"), candidates("'\\u0027y\\u0027'"));
+        assertEquals(Arrays.asList("z"), candidates("\\\\\\'z\\\\\\'"));
+        // too long, but the nested string is reported
+        assertEquals(Arrays.asList("n"), candidates("'abcdefghijklmnopqrstuvwxyz \"n\"'"));
+        // unterminated: resume after the quote
+        assertEquals(Arrays.asList("ok"), candidates("'no\n\"ok\""));
+        assertEquals(Arrays.asList("a "), candidates("`a ${ 'no"));
+    }
+
+    @Test
+    public void testStrayQuotes() {
+        // many would-be regex literals on one long line, after an
+        // unterminated template literal, take linear time
+        StringBuilder js = new StringBuilder("`");
+        for (int i = 0; i < 200000; i++) {
+            js.append("(/x");
+        }
+        js.append("\n'ok'");
+        assertEquals(Arrays.asList("ok"), candidates(js.toString()));
+    }
+}
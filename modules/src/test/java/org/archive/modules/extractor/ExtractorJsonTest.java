@@ -0,0 +1,126 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Recorder;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for {@link ExtractorJson}.
+ */
+public class ExtractorJsonTest extends ContentExtractorTestBase {
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorJson extractor = new ExtractorJson();
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        return extractor;
+    }
+
+    protected ExtractorJson getExtractor() {
+        return (ExtractorJson) extractor;
+    }
+
+    protected Set<String> extract(String json) throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/api/data.json"));
+        Recorder recorder = createRecorder(json, "UTF-8");
+        curi.setRecorder(recorder);
+        curi.setContentType("application/json");
+        curi.setContentSize(recorder.getRecordedInput().getSize());
+        curi.setFetchStatus(200);
+        extractor.process(curi);
+        Set<String> links = new TreeSet<>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            links.add(link.getURI());
+        }
+        return links;
+    }
+
+    @Test
+    public void testObjectsAndArrays() throws Exception {
+        String json = "{\"a\":\"http://example.com/a.html\",\"n\":3,\"word\":\"hello\","
+                + "\"nested\":{\"img\":\"/images/b.png\"},"
+                + "\"list\":[\"c.jpg\",{\"d\":\"https://other.example.org/d\"},[\"e/f.css\"]]}";
+        assertEquals(Set.of("http://example.com/a.html",
+                "http://example.com/images/b.png",
+                "http://example.com/api/c.jpg",
+                "https://other.example.org/d",
+                "http://example.com/api/e/f.css"), extract(json));
+    }
+
+    @Test
+    public void testTopLevelArray() throws Exception {
+        assertEquals(Set.of("http://example.com/x.html"),
+                extract("[\"/x.html\", 1, true]"));
+    }
+
+    @Test
+    public void testMaxDepth() throws Exception {
+        String json = "{\"a\":\"/shallow.html\",\"b\":{\"c\":{\"d\":\"/deep.html\"}},"
+                + "\"e\":\"/after.html\"}";
+        getExtractor().setMaxDepth(2);
+        assertEquals(Set.of("http://example.com/shallow.html",
+                "http://example.com/after.html"), extract(json));
+    }
+
+    @Test
+    public void testMaxStringLength() throws Exception {
+        String longPath = "/" + StringUtils.repeat('x', 100) + ".html";
+        String json = "{\"a\":\"" + longPath + "\",\"b\":\"/short.html\"}";
+        getExtractor().setMaxStringLength(50);
+        assertEquals(Set.of("http://example.com/short.html"), extract(json));
+    }
+
+    @Test
+    public void testMaxOutlinks() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 10; i++) {
+            json.append(i > 0 ? "," : "").append("\"/p").append(i).append(".html\"");
+        }
+        json.append("]");
+        ExtractorParameters params = new ExtractorParameters() {
+            public int getMaxOutlinks() {
+                return 3;
+            }
+            public boolean getExtractIndependently() {
+                return false;
+            }
+            public boolean getExtract404s() {
+                return false;
+            }
+        };
+        getExtractor().setExtractorParameters(params);
+        assertEquals(3, extract(json.toString()).size());
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        assertEquals(Set.of("http://example.com/ok.html"),
+                extract("{\"a\":\"/ok.html\",\"b\":[\"/trunc"));
+    }
+}
@@ -18,15 +18,96 @@
  */
 package org.archive.modules.extractor;
 
-import org.archive.modules.ProcessorTestBase;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.util.Recorder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Unit test for {@link ExtractorPDF}.
  *
  * @author pjack
  */
-public class ExtractorPDFTest extends ProcessorTestBase {
+public class ExtractorPDFTest extends ContentExtractorTestBase {
+
+    @TempDir
+    File tempDir;
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorPDF extractor = new ExtractorPDF();
+        UriErrorLoggerModule ulm = new UnitTestUriLoggerModule();
+        extractor.setLoggerModule(ulm);
+        return extractor;
+    }
+
+    protected Recorder createRecorder(byte[] content) throws IOException {
+        // small buffers so that most of the document lands in the backing file
+        Recorder recorder = new Recorder(new File(tempDir, "pdf"), 1024, 1024);
+        InputStream is = recorder.inputWrap(new ByteArrayInputStream(content));
+        recorder.markContentBegin();
+        IOUtils.consume(is);
+        is.close();
+        return recorder;
+    }
+
+    protected CrawlURI pdfURI(Recorder recorder) throws Exception {
+        CrawlURI curi = defaultURI();
+        curi.setFetchStatus(200);
+        curi.setContentType("application/pdf");
+        curi.setContentSize(recorder.getRecordedInput().getSize());
+        curi.setRecorder(recorder);
+        return curi;
+    }
+
+    protected static byte[] testPdf() throws IOException {
+        return IOUtils.resourceToByteArray(
+                "/org/archive/crawler/modules/extractor/PDFParserTest.pdf");
+    }
+
+    @Test
+    public void testDirectFromRecorder() throws Exception {
+        Recorder recorder = createRecorder(testPdf());
+        ReplayRandomAccessRead source = ReplayRandomAccessRead.open(recorder);
+        assertNotNull(source);
+        assertEquals(testPdf().length, source.length());
+        source.close();
+
+        CrawlURI curi = pdfURI(recorder);
+        extractor.process(curi);
+        assertNoSideEffects(curi);
+        assertEquals(1, curi.getOutLinks().size());
+        assertEquals("https://example.com/link-annotation",
+                curi.getOutLinks().iterator().next().getURI());
+    }
+
+    @Test
+    public void testContentEncodedFallsBackToTempFile() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(testPdf());
+        }
+        Recorder recorder = createRecorder(gzipped.toByteArray());
+        recorder.setContentEncoding("gzip");
+        assertNull(ReplayRandomAccessRead.open(recorder));
 
-    // TODO TESTME!
-    
+        CrawlURI curi = pdfURI(recorder);
+        extractor.process(curi);
+        assertNoSideEffects(curi);
+        assertEquals(1, curi.getOutLinks().size());
+        assertEquals("https://example.com/link-annotation",
+                curi.getOutLinks().iterator().next().getURI());
+    }
 }
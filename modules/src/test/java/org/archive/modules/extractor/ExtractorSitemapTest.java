@@ -0,0 +1,194 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Recorder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit test for {@link ExtractorSitemap}.
+ */
+public class ExtractorSitemapTest extends ContentExtractorTestBase {
+
+    static final String URLSET = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n"
+            + "        xmlns:image=\"http://www.google.com/schemas/sitemap-image/1.1\">\n"
+            + "  <url>\n"
+            + "    <loc> http://example.com/dir/page1.html </loc>\n"
+            + "    <lastmod>2024-01-02</lastmod>\n"
+            + "    <image:image><image:loc>http://example.com/dir/img.jpg</image:loc></image:image>\n"
+            + "  </url>\n"
+            + "  <url><loc>http://example.com/dir/sub/page2.html</loc></url>\n"
+            + "  <url><loc>http://example.com/outside.html</loc></url>\n"
+            + "  <url><loc></loc></url>\n"
+            + "</urlset>\n";
+
+    static final String INDEX = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n"
+            + "  <sitemap><loc>http://example.com/sitemap1.xml</loc>"
+            + "<lastmod>2024-03-04T05:06:07Z</lastmod></sitemap>\n"
+            + "  <sitemap><loc>http://other.example.com/sitemap2.xml.gz</loc></sitemap>\n"
+            + "</sitemapindex>\n";
+
+    @TempDir
+    File tempDir;
+
+    @Override
+    protected Extractor makeExtractor() {
+        ExtractorSitemap extractor = new ExtractorSitemap();
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        return extractor;
+    }
+
+    protected ExtractorSitemap getExtractor() {
+        return (ExtractorSitemap) extractor;
+    }
+
+    protected CrawlURI sitemapURI(byte[] content) throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/dir/sitemap.xml"));
+        Recorder recorder = new Recorder(new File(tempDir, "sitemap"), 1024, 1024);
+        InputStream is = recorder.inputWrap(new ByteArrayInputStream(content));
+        recorder.markContentBegin();
+        IOUtils.consume(is);
+        is.close();
+        curi.setRecorder(recorder);
+        curi.setContentSize(content.length);
+        curi.setContentType("text/xml");
+        curi.setFetchStatus(200);
+        return curi;
+    }
+
+    protected Set<String> extract(byte[] content) throws Exception {
+        CrawlURI curi = sitemapURI(content);
+        extractor.process(curi);
+        Set<String> links = new TreeSet<>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            links.add(link.getURI());
+        }
+        return links;
+    }
+
+    @Test
+    public void testStreamingMatchesFullParse() throws Exception {
+        for (boolean lenient : new boolean[] {false, true}) {
+            getExtractor().setEnableLenientExtraction(lenient);
+            for (String doc : new String[] {URLSET, INDEX}) {
+                byte[] content = doc.getBytes(StandardCharsets.UTF_8);
+                getExtractor().setStreamingParse(false);
+                Set<String> expected = extract(content);
+                getExtractor().setStreamingParse(true);
+                assertEquals(expected, extract(content));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingFallsBackOnTextSitemap() throws Exception {
+        byte[] content = ("http://example.com/dir/page1.html\n"
+                + "http://example.com/dir/sub/page2.html\n")
+                .getBytes(StandardCharsets.UTF_8);
+        for (boolean streaming : new boolean[] {false, true}) {
+            getExtractor().setStreamingParse(streaming);
+            // a text sitemap, as declared in robots.txt
+            CrawlURI curi = sitemapURI(content);
+            curi.getAnnotations().add(ExtractorRobotsTxt.ANNOTATION_IS_SITEMAP);
+            curi.setContentType("text/plain");
+            extractor.process(curi);
+            assertEquals(2, curi.getOutLinks().size());
+        }
+    }
+
+    @Test
+    public void testStreamingUrlset() throws Exception {
+        getExtractor().setStreamingParse(true);
+        CrawlURI curi = sitemapURI(URLSET.getBytes(StandardCharsets.UTF_8));
+        extractor.process(curi);
+
+        Set<String> links = new TreeSet<>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            links.add(link.getURI());
+            if (link.getURI().endsWith("page1.html")) {
+                assertEquals(1704153600000L,
+                        link.getData().get(ExtractorSitemap.A_SITEMAP_LASTMOD));
+            } else {
+                assertNull(link.getData().get(ExtractorSitemap.A_SITEMAP_LASTMOD));
+            }
+            assertTrue(!link.getAnnotations().contains(
+                    ExtractorRobotsTxt.ANNOTATION_IS_SITEMAP));
+        }
+        assertEquals(Set.of("http://example.com/dir/page1.html",
+                "http://example.com/dir/img.jpg",
+                "http://example.com/dir/sub/page2.html"), links);
+    }
+
+    @Test
+    public void testStreamingIndex() throws Exception {
+        getExtractor().setStreamingParse(true);
+        CrawlURI curi = sitemapURI(INDEX.getBytes(StandardCharsets.UTF_8));
+        extractor.process(curi);
+
+        assertEquals(2, curi.getOutLinks().size());
+        for (CrawlURI link : curi.getOutLinks()) {
+            assertTrue(link.getAnnotations().contains(
+                    ExtractorRobotsTxt.ANNOTATION_IS_SITEMAP));
+        }
+    }
+
+    @Test
+    public void testStreamingGzipped() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(INDEX.getBytes(StandardCharsets.UTF_8));
+        }
+        getExtractor().setStreamingParse(true);
+        CrawlURI curi = sitemapURI(gzipped.toByteArray());
+        curi.getAnnotations().add(ExtractorRobotsTxt.ANNOTATION_IS_SITEMAP);
+        curi.setContentType("application/x-gzip");
+        extractor.process(curi);
+        assertEquals(2, curi.getOutLinks().size());
+    }
+
+    @Test
+    public void testStreamingTruncated() throws Exception {
+        getExtractor().setStreamingParse(true);
+        String truncated = URLSET.substring(0, URLSET.indexOf("<url><loc>http://example.com/outside"));
+        assertEquals(Set.of("http://example.com/dir/page1.html",
+                "http://example.com/dir/img.jpg",
+                "http://example.com/dir/sub/page2.html"),
+                extract(truncated.getBytes(StandardCharsets.UTF_8)));
+    }
+}
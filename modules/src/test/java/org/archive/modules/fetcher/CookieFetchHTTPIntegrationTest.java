@@ -206,6 +206,7 @@ public class CookieFetchHTTPIntegrationTest extends ProcessorTestBase {
             return s;
         }
         @Override public void forAllHostsDo(Closure action) { throw new RuntimeException("not implemented"); }
+        @Override public void forAllServersDo(Closure action) { throw new RuntimeException("not implemented"); }
         @Override public Set<String> hostKeys() { throw new RuntimeException("not implemented"); }
     }
 
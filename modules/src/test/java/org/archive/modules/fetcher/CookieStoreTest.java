@@ -33,9 +33,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.http.client.CookieStore;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.BasicClientCookie2;
 import org.archive.bdb.BdbModule;
 import org.archive.spring.ConfigFile;
 import org.archive.spring.ConfigPath;
@@ -43,7 +45,13 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import com.sleepycat.bind.ByteArrayBinding;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.DatabaseEntry;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -353,6 +361,112 @@ public class CookieStoreTest {
         assertCookieListsEquivalent(bdbCookieList, basicCookieStore().getCookies());        
     }
 
+    @Test
+    public void testCookieBinding() throws IOException {
+        BdbCookieStore.CookieBinding binding =
+            new BdbCookieStore.CookieBinding(bdb().getClassCatalog());
+
+        BasicClientCookie cookie = new BasicClientCookie("name1", "value1");
+        cookie.setDomain("example.com");
+        cookie.setPath("/path1");
+        cookie.setComment("comment1");
+        cookie.setVersion(1);
+        cookie.setSecure(true);
+        cookie.setExpiryDate(new Date(System.currentTimeMillis() + 99999999l));
+        cookie.setCreationDate(new Date());
+        cookie.setAttribute("domain", "example.com");
+        cookie.setAttribute("max-age", "3600");
+
+        BasicClientCookie2 cookie2 = new BasicClientCookie2("name2", null);
+        cookie2.setDomain("example.org");
+        cookie2.setCommentURL("http://example.org/cookies");
+        cookie2.setPorts(new int[] {80, 8080});
+        cookie2.setDiscard(true);
+        cookie2.setExpiryDate(new Date(System.currentTimeMillis() + 99999999l));
+
+        for (BasicClientCookie c : Arrays.asList(cookie, cookie2)) {
+            DatabaseEntry entry = new DatabaseEntry();
+            binding.objectToEntry(c, entry);
+            assertFalse(BdbCookieStore.CookieBinding.isLegacy(entry));
+            BasicClientCookie read = (BasicClientCookie) binding.entryToObject(entry);
+            assertEquals(c.getClass(), read.getClass());
+            assertCookiesIdentical(c, read);
+            assertEquals(c.isSecure(), read.isSecure());
+            assertEquals(c.isPersistent(), read.isPersistent());
+            assertEquals(c.getCreationDate(), read.getCreationDate());
+            assertEquals(c.getAttribute("max-age"), read.getAttribute("max-age"));
+            assertEquals(c.containsAttribute("domain"), read.containsAttribute("domain"));
+
+            // smaller than java serialization
+            DatabaseEntry legacy = new DatabaseEntry();
+            new SerialBinding<Cookie>(bdb().getClassCatalog(), Cookie.class).objectToEntry(c, legacy);
+            assertTrue(BdbCookieStore.CookieBinding.isLegacy(legacy));
+            assertTrue(entry.getSize() < legacy.getSize());
+        }
+    }
+
+    @Test
+    public void testLegacyFormatMigration() throws IOException {
+        bdbCookieStore().clear();
+        // cookies as written by the previous SerialBinding
+        StoredSortedMap<byte[],Cookie> legacy = new StoredSortedMap<byte[],Cookie>(
+                bdb().getDatabase(BdbCookieStore.COOKIEDB_NAME),
+                new ByteArrayBinding(),
+                new SerialBinding<Cookie>(bdb().getClassCatalog(), Cookie.class), true);
+        for (int i = 0; i < 10; i++) {
+            BasicClientCookie cookie = new BasicClientCookie("name" + i, "value" + i);
+            cookie.setDomain("example.com");
+            basicCookieStore().addCookie(cookie);
+            legacy.put(bdbCookieStore.sortableKey(cookie).getBytes("UTF-8"), cookie);
+        }
+        assertCookieStoresEquivalent(basicCookieStore(), bdbCookieStore());
+
+        bdbCookieStore.migrateLegacyCookies();
+        StoredSortedMap<byte[],byte[]> raw = new StoredSortedMap<byte[],byte[]>(
+                bdb().getDatabase(BdbCookieStore.COOKIEDB_NAME),
+                new ByteArrayBinding(), new ByteArrayBinding(), true);
+        assertEquals(10, raw.size());
+        for (byte[] value : raw.values()) {
+            assertFalse(BdbCookieStore.CookieBinding.isLegacy(new DatabaseEntry(value)));
+        }
+        assertCookieStoresEquivalent(basicCookieStore(), bdbCookieStore());
+    }
+
+    @Test
+    public void testCookieStoreForSeesWrites() throws IOException {
+        bdbCookieStore().clear();
+        CookieStore forHost = bdbCookieStore.cookieStoreFor("www.example.com");
+        assertEquals(0, forHost.getCookies().size());
+
+        BasicClientCookie cookie = new BasicClientCookie("name1", "value1");
+        cookie.setDomain("example.com");
+        bdbCookieStore.addCookie(cookie);
+        cookie = new BasicClientCookie("name2", "value2");
+        cookie.setDomain("www.example.com");
+        bdbCookieStore.addCookie(cookie);
+        cookie = new BasicClientCookie("name3", "value3");
+        cookie.setDomain("other.example.com");
+        bdbCookieStore.addCookie(cookie);
+        // the facade made before the writes reflects them
+        assertEquals(2, forHost.getCookies().size());
+        assertEquals(2, bdbCookieStore.cookieStoreFor("www.example.com").getCookies().size());
+        assertTrue(bdbCookieStore.getCacheHits() > 0);
+
+        cookie = new BasicClientCookie("name2", "value2b");
+        cookie.setDomain("www.example.com");
+        bdbCookieStore.addCookie(cookie);
+        assertEquals(2, forHost.getCookies().size());
+        assertTrue(forHost.getCookies().stream().anyMatch(c -> "value2b".equals(c.getValue())));
+
+        cookie.setExpiryDate(new Date(System.currentTimeMillis() - 1000));
+        forHost.clearExpired(new Date());
+        assertEquals(1, forHost.getCookies().size());
+        assertEquals(2, bdbCookieStore.getCookies().size());
+
+        bdbCookieStore.clear();
+        assertEquals(0, forHost.getCookies().size());
+    }
+
     protected void assertCookieStoreCountEquals(BdbCookieStore bdb, int count) {
         assertEquals(bdb.getCookies().size(), count);
     }    
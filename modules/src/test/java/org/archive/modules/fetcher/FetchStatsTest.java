@@ -0,0 +1,141 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats.Stage;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.revisit.IdenticalPayloadDigestRevisit;
+import org.archive.net.UURIFactory;
+import org.junit.jupiter.api.Test;
+
+import com.sleepycat.je.DatabaseEntry;
+
+public class FetchStatsTest {
+
+    /**
+     * A CrawlHost as written by {@link KryoBinding} when FetchStats was a
+     * CrawledBytesHistotable, holding the counts of {@link #expectedMap()}.
+     */
+    protected static final String LEGACY_CRAWL_HOST =
+            "gABleGFtcGxlLmNv7QADAwys7QAFc3IAJm9yZy5hcmNoaXZlLm1vZHVsZXMuZmV0"
+            + "Y2hlci5GZXRjaFN0YXRzAAAAAAAAAAICAAFKAA9sYXN0U3VjY2Vzc1RpbWV4cgAv"
+            + "b3JnLmFyY2hpdmUuY3Jhd2xlci51dGlsLkNyYXdsZWRCeXRlc0hpc3RvdGFibGVt"
+            + "9a6gXu++JQIAAHhyABtvcmcuYXJjaGl2ZS51dGlsLkhpc3RvdGFibGUETm3hIYTh"
+            + "LwIAAHhyABFqYXZhLnV0aWwuVHJlZU1hcAzB9j4tJWrmAwABTAAKY29tcGFyYXRv"
+            + "cnQAFkxqYXZhL3V0aWwvQ29tcGFyYXRvcjt4cHB3BAAAAAl0AAZjdXN0b21zcgAO"
+            + "amF2YS5sYW5nLkxvbmc7i+SQzI8j3wIAAUoABXZhbHVleHIAEGphdmEubGFuZy5O"
+            + "dW1iZXKGrJUdC5TgiwIAAHhwAAAAAAAAAAd0AA1mZXRjaEZhaWx1cmVzc3EAfgAH"
+            + "AAAAAAAAAAF0AA5mZXRjaFJlc3BvbnNlc3NxAH4ABwAAAAAAAAAEdAAOZmV0Y2hT"
+            + "dWNjZXNzZXNzcQB+AAcAAAAAAAAAA3QABW5vdmVsc3EAfgAHAAAAAAAADax0AApu"
+            + "b3ZlbENvdW50cQB+AA10AAxzdWNjZXNzQnl0ZXNzcQB+AAcAAAAAAAALuHQACnRv"
+            + "dGFsQnl0ZXNzcQB+AAcAAAAAAAANrHQADnRvdGFsU2NoZWR1bGVkc3EAfgAHAAAA"
+            + "AAAAAAV4AAABXT73mAA=";
+
+    protected static Map<String,Object> expectedMap() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("custom", 7l);
+        map.put("fetchFailures", 1l);
+        map.put("fetchResponses", 4l);
+        map.put("fetchSuccesses", 3l);
+        map.put("novel", 3500l);
+        map.put("novelCount", 4l);
+        map.put("successBytes", 3000l);
+        map.put("totalBytes", 3500l);
+        map.put("totalScheduled", 5l);
+        map.put("lastSuccessTime", 1500000000000l);
+        return map;
+    }
+
+    @Test
+    public void testTally() throws Exception {
+        FetchStats stats = new FetchStats();
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        stats.tally(curi, Stage.SCHEDULED);
+        curi.setFetchStatus(200);
+        curi.setContentSize(1000);
+        curi.setFetchCompletedTime(1500000000000l);
+        stats.tally(curi, Stage.SUCCEEDED);
+
+        CrawlURI dup = new CrawlURI(UURIFactory.getInstance("http://example.com/dup"));
+        stats.tally(dup, Stage.SCHEDULED);
+        dup.setFetchStatus(404);
+        dup.setContentSize(100);
+        dup.setRevisitProfile(new IdenticalPayloadDigestRevisit("sha1:ABC"));
+        stats.tally(dup, Stage.FAILED);
+
+        CrawlURI robots = new CrawlURI(UURIFactory.getInstance("http://example.com/robots"));
+        stats.tally(robots, Stage.SCHEDULED);
+        robots.setFetchStatus(FetchStatusCodes.S_ROBOTS_PRECLUDED);
+        stats.tally(robots, Stage.DISREGARDED);
+
+        assertEquals(3, stats.getTotalScheduled());
+        assertEquals(1, stats.getFetchSuccesses());
+        assertEquals(1, stats.get(FetchStats.FETCH_FAILURES));
+        assertEquals(2, stats.getFetchResponses());
+        assertEquals(1100, stats.getTotalBytes());
+        assertEquals(1000, stats.getSuccessBytes());
+        assertEquals(1000, stats.getNovelBytes());
+        assertEquals(1, stats.getDupByHashUrls());
+        assertEquals(100, stats.getDupByHashBytes());
+        assertEquals(1, stats.getRobotsDenials());
+        assertEquals(0, stats.getRemaining());
+        assertEquals("3 1 1 1 2 1 1000 1100 0 2017-07-14T02:40:00.000Z",
+                stats.shortReportLine());
+
+        // keys without a slot, and zero counts, as a Histotable
+        stats.tally("custom", 2);
+        stats.put(FetchStats.NOVEL, 0);
+        Map<String,Object> map = stats.shortReportMap();
+        assertEquals(List.of("custom", "dupByHash", "dupByHashCount",
+                "fetchDisregards", "fetchFailures", "fetchResponses",
+                "fetchSuccesses", "novelCount", "robotsDenials", "successBytes",
+                "totalBytes", "totalScheduled", "lastSuccessTime"),
+                new ArrayList<String>(map.keySet()));
+        stats.tally("custom", -2);
+        assertEquals(0, stats.get("custom"));
+        assertTrue(!stats.shortReportMap().containsKey("custom"));
+    }
+
+    @Test
+    public void testKryoRoundTrip() throws Exception {
+        KryoBinding<CrawlHost> binding = new KryoBinding<CrawlHost>(CrawlHost.class);
+        DatabaseEntry entry = new DatabaseEntry(Base64.getDecoder().decode(LEGACY_CRAWL_HOST));
+        CrawlHost legacy = binding.entryToObject(entry);
+        assertEquals("example.com", legacy.getHostName());
+        assertEquals(expectedMap(), legacy.getSubstats().shortReportMap());
+
+        binding.objectToEntry(legacy, entry);
+        assertTrue(entry.getSize() < Base64.getDecoder().decode(LEGACY_CRAWL_HOST).length / 4,
+                "record size " + entry.getSize());
+        CrawlHost host = binding.entryToObject(entry);
+        assertEquals("example.com", host.getHostName());
+        assertEquals(expectedMap(), host.getSubstats().shortReportMap());
+    }
+}
@@ -18,18 +18,34 @@
  */
 package org.archive.modules.net;
 
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.archive.bdb.KryoBinding;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 
 import org.junit.jupiter.api.Test;
 
+import com.sleepycat.je.DatabaseEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 /**
  * CrawlServer class unit tests.
  */
 public class CrawlServerTest {
 
+    /**
+     * A CrawlServer for www.example.com:80, with an HTTP/3 alternative on
+     * port 443 and one connection error, as written by {@link KryoBinding}
+     * before servers held adaptive politeness state.
+     */
+    protected static final String LEGACY_CRAWL_SERVER =
+            "AoDgnszl7gH2BqABAQB3d3cuZXhhbXBsZS5jb206OLAMAQAAAAA=";
+
     @Test
     public void testSerialization() throws Exception {
         CrawlHostTest.testSerialization(new CrawlServer("hi"));
@@ -41,4 +57,22 @@ public class CrawlServerTest {
         assertEquals("www.example.com:443", CrawlServer.getServerKey(u1));
     }
 
+    @Test
+    public void testKryoLegacyRecord() throws Exception {
+        byte[] legacy = Base64.getDecoder().decode(LEGACY_CRAWL_SERVER);
+        KryoBinding<CrawlServer> binding = new KryoBinding<CrawlServer>(CrawlServer.class);
+        CrawlServer server = binding.entryToObject(new DatabaseEntry(legacy));
+        assertEquals("www.example.com:80", server.getName());
+        assertEquals(80, server.getPort());
+        assertEquals(443, server.getHttp3AltSvcPort());
+        assertNull(server.getPoliteness());
+
+        // politeness state is not stored, so the layout is unchanged
+        server.getOrCreatePoliteness().sample(100, false);
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(server, entry);
+        assertArrayEquals(legacy, Arrays.copyOfRange(entry.getData(),
+                entry.getOffset(), entry.getOffset() + entry.getSize()));
+    }
+
 }
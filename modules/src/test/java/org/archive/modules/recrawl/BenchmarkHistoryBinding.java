@@ -0,0 +1,110 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+
+/**
+ * Compares uri history stored with java serialization and with
+ * {@link HistoryMapBinding}: bytes per record, and the throughput of
+ * storing and then loading every record of a history database.
+ *
+ * <p>Usage: {@code BenchmarkHistoryBinding [records] [reps]}
+ *
+ * <p>Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative timings in unpredictable ways.
+ */
+public class BenchmarkHistoryBinding {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkHistoryBinding()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int records = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int reps = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        Random random = new Random(0);
+        List<String> keys = new ArrayList<String>();
+        List<Map<String,Object>> maps = new ArrayList<Map<String,Object>>();
+        for (int i = 0; i < records; i++) {
+            keys.add(PersistProcessor.persistKeyFor(
+                    "http://www.example" + (i % 1000) + ".com/path/" + i + ".html"));
+            maps.add(HistoryMapBindingTest.historyMap(random));
+        }
+        System.out.println("records=" + records + " reps=" + reps);
+
+        File dir = Files.createTempDirectory("history-benchmark").toFile();
+        try {
+            for (int r = 0; r < reps; r++) {
+                for (boolean compact : new boolean[] {false, true}) {
+                    File envDir = new File(dir, compact ? "compact" + r : "serial" + r);
+                    envDir.mkdirs();
+                    EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(envDir);
+                    Database db = env.openDatabase(null, PersistProcessor.URI_HISTORY_DBNAME,
+                            PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+                    EntryBinding<Map> binding = compact
+                            ? new HistoryMapBinding(env.getClassCatalog())
+                            : new SerialBinding<Map>(env.getClassCatalog(), Map.class);
+                    StoredSortedMap<String,Map> store = new StoredSortedMap<String,Map>(
+                            db, new StringBinding(), binding, true);
+
+                    System.gc();
+                    long startTime = System.nanoTime();
+                    for (int i = 0; i < records; i++) {
+                        store.put(keys.get(i), maps.get(i));
+                    }
+                    db.sync();
+                    long storeTime = System.nanoTime() - startTime;
+
+                    startTime = System.nanoTime();
+                    long fields = 0;
+                    for (int i = 0; i < records; i++) {
+                        fields += store.get(keys.get(i)).size();
+                    }
+                    long loadTime = System.nanoTime() - startTime;
+
+                    db.close();
+                    env.close();
+                    System.out.printf("%-7s store %10.0f/s  load %10.0f/s  %6.1f env bytes/record  %d%n",
+                            compact ? "compact" : "serial",
+                            records / (storeTime / 1e9), records / (loadTime / 1e9),
+                            FileUtils.sizeOfDirectory(envDir) / (double) records, fields);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
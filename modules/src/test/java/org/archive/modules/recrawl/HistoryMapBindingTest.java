@@ -0,0 +1,203 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WRITE_TAG;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.archive.modules.CrawlURI;
+import org.archive.util.bdbje.EnhancedEnvironment;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.io.BaseEncoding;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+
+public class HistoryMapBindingTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * @return a uri history map like the ones {@link PersistStoreProcessor}
+     * stores, with two fetches of history
+     */
+    @SuppressWarnings("unchecked")
+    protected static HashMap<String,Object> historyMap(Random random) {
+        HashMap<String,Object>[] history = new HashMap[2];
+        for (int i = 0; i < history.length; i++) {
+            HashMap<String,Object> fetch = new HashMap<String,Object>();
+            fetch.put(A_STATUS, 200);
+            fetch.put(A_FETCH_BEGAN_TIME, 1500000000000l + random.nextInt(1000000000));
+            byte[] digest = new byte[20];
+            random.nextBytes(digest);
+            fetch.put(A_CONTENT_DIGEST, "sha1:" + BaseEncoding.base32().encode(digest));
+            fetch.put(A_ETAG_HEADER, "\"" + Long.toHexString(random.nextLong()) + "\"");
+            fetch.put(A_LAST_MODIFIED_HEADER, "Tue, 15 Nov 1994 12:45:26 GMT");
+            fetch.put(A_REFERENCE_LENGTH, (long) random.nextInt(100000));
+            fetch.put(A_WRITE_TAG, "WEB-20170101000000000-00001-1234~host~8443.warc.gz");
+            history[i] = fetch;
+        }
+        HashMap<String,Object> map = new HashMap<String,Object>();
+        map.put(CrawlURI.A_FETCH_HISTORY, history);
+        return map;
+    }
+
+    protected static void assertHistoryMapsEqual(Map<?,?> expected, Map<?,?> actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Object key : expected.keySet()) {
+            Object e = expected.get(key);
+            Object a = actual.get(key);
+            if (e instanceof Object[]) {
+                assertEquals(e.getClass(), a.getClass());
+                assertTrue(Arrays.deepEquals((Object[]) e, (Object[]) a), key + ": "
+                        + Arrays.deepToString((Object[]) e) + " != " + Arrays.deepToString((Object[]) a));
+                for (int i = 0; i < ((Object[]) e).length; i++) {
+                    if (((Object[]) e)[i] != null) {
+                        assertHistoryMapsEqual((Map<?,?>) ((Object[]) e)[i], (Map<?,?>) ((Object[]) a)[i]);
+                    }
+                }
+            } else {
+                assertEquals(e, a, String.valueOf(key));
+                if (e != null) {
+                    assertEquals(e.getClass(), a.getClass(), String.valueOf(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(tempDir.toFile());
+        try {
+            HistoryMapBinding binding = new HistoryMapBinding(env.getClassCatalog());
+            SerialBinding<Map> serialBinding = new SerialBinding<Map>(env.getClassCatalog(), Map.class);
+
+            HashMap<String,Object> map = historyMap(new Random(36));
+            DatabaseEntry entry = new DatabaseEntry();
+            binding.objectToEntry(map, entry);
+            assertFalse(HistoryMapBinding.isLegacy(entry));
+            assertHistoryMapsEqual(map, binding.entryToObject(entry));
+
+            DatabaseEntry legacy = new DatabaseEntry();
+            serialBinding.objectToEntry(map, legacy);
+            assertTrue(HistoryMapBinding.isLegacy(legacy));
+            assertHistoryMapsEqual(map, binding.entryToObject(legacy));
+            assertTrue(entry.getSize() < legacy.getSize(),
+                    entry.getSize() + " vs " + legacy.getSize());
+
+            // values without a fixed field or tag of their own
+            @SuppressWarnings("unchecked")
+            HashMap<String,Object>[] history = (HashMap<String,Object>[]) map.get(CrawlURI.A_FETCH_HISTORY);
+            history = Arrays.copyOf(history, 4);
+            history[1].put(A_STATUS, 200l);
+            history[1].put(A_CONTENT_DIGEST, "sha1:" + "a".repeat(32));
+            history[1].put("custom", new ArrayList<String>(Arrays.asList("x", "y")));
+            history[3] = new HashMap<String,Object>();
+            map.put(CrawlURI.A_FETCH_HISTORY, history);
+            map.put("precalc-precedence", 3);
+            map.put("boolean", true);
+            map.put("null", null);
+            map.put("nested", new HashMap<String,Object>(Map.of("a", 1l, "b", "c")));
+            map.put("sorted", new TreeMap<String,Object>(Map.of("a", 1)));
+            map.put("double", 1.5);
+            binding.objectToEntry(map, entry);
+            assertFalse(HistoryMapBinding.isLegacy(entry));
+            assertHistoryMapsEqual(map, binding.entryToObject(entry));
+
+            // written as before
+            TreeMap<String,Object> sorted = new TreeMap<String,Object>(Map.of("a", 1));
+            binding.objectToEntry(sorted, entry);
+            assertTrue(HistoryMapBinding.isLegacy(entry));
+            assertEquals(sorted, binding.entryToObject(entry));
+        } finally {
+            env.close();
+        }
+    }
+
+    @Test
+    public void testMigratePersistEnv() throws Exception {
+        File envDir = tempDir.toFile();
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(envDir);
+        Map<String,HashMap<String,Object>> expected = new HashMap<String,HashMap<String,Object>>();
+        Random random = new Random(37);
+        try {
+            Database db = env.openDatabase(null, PersistProcessor.URI_HISTORY_DBNAME,
+                    PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+            StoredSortedMap<String,Map> legacy = new StoredSortedMap<String,Map>(db,
+                    new StringBinding(), new SerialBinding<Map>(env.getClassCatalog(), Map.class), true);
+            StoredSortedMap<String,Map> current = new StoredSortedMap<String,Map>(db,
+                    new StringBinding(), new HistoryMapBinding(env.getClassCatalog()), true);
+            for (int i = 0; i < 100; i++) {
+                String key = "http://(org,example,)/" + i;
+                HashMap<String,Object> map = historyMap(random);
+                expected.put(key, map);
+                // half already converted
+                (i % 2 == 0 ? legacy : current).put(key, map);
+            }
+            db.sync();
+            db.close();
+        } finally {
+            env.close();
+        }
+
+        assertEquals(50, PersistProcessor.migratePersistEnv(envDir));
+        assertEquals(0, PersistProcessor.migratePersistEnv(envDir));
+
+        env = PersistProcessor.setupCopyEnvironment(envDir, true);
+        try {
+            DatabaseConfig dbConfig = PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig();
+            dbConfig.setReadOnly(true);
+            Database db = env.openDatabase(null, PersistProcessor.URI_HISTORY_DBNAME, dbConfig);
+            StoredSortedMap<String,Map> current = new StoredSortedMap<String,Map>(db,
+                    new StringBinding(), new HistoryMapBinding(env.getClassCatalog()), false);
+            assertEquals(expected.size(), current.size());
+            for (Map.Entry<String,HashMap<String,Object>> e : expected.entrySet()) {
+                assertHistoryMapsEqual(e.getValue(), current.get(e.getKey()));
+            }
+            db.close();
+        } finally {
+            env.close();
+        }
+    }
+}